@@ -42,6 +42,15 @@ public interface IFloodlightProviderService extends IFloodlightService {
     public static final String CONTEXT_PI_PAYLOAD = 
             "net.floodlightcontroller.core.IFloodlightProvider.piPayload";
 
+    /**
+     * A value stored in the floodlight context containing the header fields
+     * of the payload of a packet-in message, extracted once by the
+     * controller.
+     * @see PacketMetadata#fromPacketIn
+     */
+    public static final String CONTEXT_PI_METADATA =
+            "net.floodlightcontroller.core.IFloodlightProvider.piMetadata";
+
     /**
      * The role of the controller as used by the OF 1.2 and OVS failover and
      * load-balancing mechanism.
@@ -50,10 +59,17 @@ public interface IFloodlightProviderService extends IFloodlightService {
     
     /**
      * A FloodlightContextStore object that can be used to retrieve the 
-     * packet-in payload
+     * packet-in payload. The payload is deserialized on first use.
+     */
+    public static final PacketInPayloadStore bcStore = 
+            new PacketInPayloadStore();
+
+    /**
+     * A FloodlightContextStore object that can be used to retrieve the
+     * packet-in header fields
      */
-    public static final FloodlightContextStore<Ethernet> bcStore = 
-            new FloodlightContextStore<Ethernet>();
+    public static final FloodlightContextStore<PacketMetadata> pmStore =
+            new FloodlightContextStore<PacketMetadata>();
 
     /**
      * Adds an OpenFlow message listener
@@ -26,6 +26,7 @@ import java.util.concurrent.Future;
 import net.floodlightcontroller.core.IFloodlightProviderService.Role;
 
 import org.jboss.netty.channel.Channel;
+import org.openflow.protocol.OFBarrierReply;
 import org.openflow.protocol.OFFeaturesReply;
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFPhysicalPort;
@@ -265,6 +266,27 @@ public interface IOFSwitch {
      */
     public void cancelFeaturesReply(int transactionId);
 
+    /**
+     * Send a barrier request to the switch.  The returned Future
+     * completes once the switch has processed every message sent before
+     * the barrier.
+     * @return Future object wrapping the OFBarrierReply
+     * @throws IOException
+     */
+    public Future<OFBarrierReply> sendBarrier() throws IOException;
+
+    /**
+     * Deliver a barrier reply to the Future waiting for it, if any
+     * @param reply the reply to deliver
+     */
+    void deliverBarrierReply(OFMessage reply);
+
+    /**
+     * Cancel the barrier reply with a specific transaction ID
+     * @param transactionId the transaction ID
+     */
+    public void cancelBarrierReply(int transactionId);
+
     /**
      * Check if the switch is still connected;
      * Only call while holding processMessageLock
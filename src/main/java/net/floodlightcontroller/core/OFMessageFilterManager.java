@@ -53,7 +53,6 @@ import net.floodlightcontroller.core.module.FloodlightModuleContext;
 import net.floodlightcontroller.core.module.FloodlightModuleException;
 import net.floodlightcontroller.core.module.IFloodlightModule;
 import net.floodlightcontroller.core.module.IFloodlightService;
-import net.floodlightcontroller.packet.Ethernet;
 import net.floodlightcontroller.packetstreamer.thrift.*;
 import net.floodlightcontroller.threadpool.IThreadPoolService;
 
@@ -80,6 +79,10 @@ public class OFMessageFilterManager
                                 ConcurrentHashMap<String,
                                                   String>> filterMap = null;
     protected ConcurrentHashMap<String, Long> filterTimeoutMap = null;
+    // the "mac" field of each filter that has one, parsed once when the
+    // filter is added.  NO_MAC if the field is not a MAC address.
+    protected ConcurrentHashMap<String, Long> filterMacMap = null;
+    protected static final long NO_MAC = -1L;
     protected Timer timer = null;
 
     protected int MAX_FILTERS=5;
@@ -125,6 +128,12 @@ public class OFMessageFilterManager
             return FILTER_LIMIT_REACHED;
         }
 
+        String mac = f.get("mac");
+        if (mac != null) {
+            filterMacMap.put(s, parseFilterMac(mac));
+        } else {
+            filterMacMap.remove(s);
+        }
         filterMap.put(s, f);
         if (filterTimeoutMap.containsKey(s))  filterTimeoutMap.remove(s);
         filterTimeoutMap.put(s, delta);
@@ -140,6 +149,23 @@ public class OFMessageFilterManager
         return s;  // the return string is the session ID.
     }
 
+    /**
+     * Parse the MAC address of a filter.  Filters match MAC addresses given
+     * in the same form HexString.toHexString prints them.
+     * @param mac the MAC address, e.g. "00:11:22:33:44:55"
+     * @return the MAC address, or NO_MAC if it is not in that form
+     */
+    protected static long parseFilterMac(String mac) {
+        try {
+            long value = HexString.toLong(mac);
+            if (HexString.toHexString(value, 6).equals(mac))
+                return value;
+        } catch (NumberFormatException e) {
+            // not a MAC address
+        }
+        return NO_MAC;
+    }
+
     public String setupFilter(String sid, 
                               ConcurrentHashMap<String,String> f, 
                               int deltaInMilliSeconds) {
@@ -196,6 +222,7 @@ public class OFMessageFilterManager
 
         if (filterMap.containsKey(sessionId)) {
             filterMap.remove(sessionId);
+            filterMacMap.remove(sessionId);
             try {
                 if (packetClient != null)
                     packetClient.terminateSession(sessionId);
@@ -215,25 +242,31 @@ public class OFMessageFilterManager
 
         // This default function is written to match on packet ins and 
         // packet outs.
-        Ethernet eth = null;
-
-        if (m.getType() == OFType.PACKET_IN) {
-            eth = IFloodlightProviderService.bcStore.get(cntx, 
-                    IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
-        } else if (m.getType() == OFType.PACKET_OUT) {
-            eth = new Ethernet();
-            OFPacketOut p = (OFPacketOut) m;
-            
-            // No MAC match if packetOut doesn't have the packet.
-            if (p.getPacketData() == null) return null;
-            
-            eth.deserialize(p.getPacketData(), 0, p.getPacketData().length);
-        } else if (m.getType() == OFType.FLOW_MOD) {
-            // flow-mod can't be matched by mac.
+        PacketMetadata pm = null;
+
+        try {
+            if (m.getType() == OFType.PACKET_IN) {
+                pm = PacketMetadata.fromPacketIn(cntx, (OFPacketIn) m);
+            } else if (m.getType() == OFType.PACKET_OUT) {
+                OFPacketOut p = (OFPacketOut) m;
+
+                // No MAC match if packetOut doesn't have the packet.
+                if (p.getPacketData() == null) return null;
+
+                pm = new PacketMetadata().loadFromPacket(p.getPacketData(),
+                                                         p.getInPort());
+            } else if (m.getType() == OFType.FLOW_MOD) {
+                // flow-mod can't be matched by mac.
+                return null;
+            }
+        } catch (IndexOutOfBoundsException e) {
+            // truncated packet, no MAC to match
             return null;
         }
 
-        if (eth == null) return null;
+        if (pm == null) return null;
+        long srcMac = pm.getDataLayerSource();
+        long dstMac = pm.getDataLayerDestination();
 
         Iterator<String> filterIt = filterMap.keySet().iterator();
         while (filterIt.hasNext()) {   // for every filter
@@ -248,13 +281,11 @@ public class OFMessageFilterManager
                 String filterFieldType = fieldIt.next();
                 String filterFieldValue = filter.get(filterFieldType);
                 if (filterFieldType.equals("mac")) {
+                    Long filterMac = filterMacMap.get(filterSessionId);
+                    long mac = (filterMac != null) ? filterMac :
+                            parseFilterMac(filterFieldValue);
 
-                    String srcMac = HexString.toHexString(eth.getSourceMACAddress());
-                    String dstMac = HexString.toHexString(eth.getDestinationMACAddress());
-                    log.debug("srcMac: {}, dstMac: {}", srcMac, dstMac);
-
-                    if (filterFieldValue.equals(srcMac) || 
-                            filterFieldValue.equals(dstMac)){
+                    if (mac != NO_MAC && (mac == srcMac || mac == dstMac)) {
                         filterMatch = true; 
                     } else {
                         filterMatch = false;
@@ -518,6 +549,7 @@ public class OFMessageFilterManager
         
         filterMap = new ConcurrentHashMap<String, ConcurrentHashMap<String,String>>();
         filterTimeoutMap = new ConcurrentHashMap<String, Long>();
+        filterMacMap = new ConcurrentHashMap<String, Long>();
         serverPort = 
                 Integer.parseInt(System.getProperty("net.floodlightcontroller." +
                 		"packetstreamer.port", "9090"));
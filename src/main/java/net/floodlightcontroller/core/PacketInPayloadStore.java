@@ -0,0 +1,59 @@
+/**
+*    Copyright 2011, Big Switch Networks, Inc.
+*    Originally created by David Erickson, Stanford University
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.core;
+
+import net.floodlightcontroller.packet.Ethernet;
+
+/**
+ * The context store of the deserialized packet-in payload.
+ *
+ * The controller only stores the packet data of a packet-in in the
+ * context. The Ethernet tree is deserialized the first time a listener
+ * gets {@link IFloodlightProviderService#CONTEXT_PI_PAYLOAD}, and shared by
+ * the listeners after it, so a packet-in that is handled using only its
+ * {@link PacketMetadata} is never deserialized.
+ */
+public class PacketInPayloadStore extends FloodlightContextStore<Ethernet> {
+    protected static final String CONTEXT_PI_DATA =
+            "net.floodlightcontroller.core.IFloodlightProvider.piData";
+
+    @Override
+    public Ethernet get(FloodlightContext bc, String key) {
+        Ethernet eth = super.get(bc, key);
+        if (eth == null &&
+                IFloodlightProviderService.CONTEXT_PI_PAYLOAD.equals(key)) {
+            byte[] data = (byte[]) bc.storage.get(CONTEXT_PI_DATA);
+            if (data == null) return null;
+            eth = new Ethernet();
+            eth.deserialize(data, 0, data.length);
+            Object prev = bc.storage.putIfAbsent(key, eth);
+            if (prev != null) eth = (Ethernet) prev;
+        }
+        return eth;
+    }
+
+    /**
+     * Store the data of a packet-in, to be deserialized when the payload
+     * is first needed
+     * @param bc the context of the packet-in
+     * @param packetData the packet's data
+     */
+    public void putPacketData(FloodlightContext bc, byte[] packetData) {
+        bc.storage.put(CONTEXT_PI_DATA, packetData);
+    }
+}
@@ -0,0 +1,296 @@
+/**
+*    Copyright 2011, Big Switch Networks, Inc.
+*    Originally created by David Erickson, Stanford University
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.core;
+
+import net.floodlightcontroller.packet.Ethernet;
+
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFPacketIn;
+import org.openflow.protocol.OFPort;
+import org.openflow.util.HexString;
+
+/**
+ * The header fields of a packet, held as primitives.
+ *
+ * The controller extracts them once for every packet-in and stores them in
+ * the floodlight context under
+ * {@link IFloodlightProviderService#CONTEXT_PI_METADATA}, so that listeners
+ * which only need to look at the headers do not have to walk the
+ * deserialized Ethernet payload or parse the packet data again.
+ *
+ * The fields are extracted exactly like {@link OFMatch#loadFromPacket}
+ * does, so {@link #toOFMatch()} gives the same match.
+ */
+public class PacketMetadata {
+    public static final long BROADCAST_MAC = 0xffffffffffffL;
+    protected static final short TYPE_VLAN = (short) 0x8100;
+
+    protected int wildcards;
+    protected short inputPort;
+    protected long dataLayerSource;
+    protected long dataLayerDestination;
+    protected short dataLayerVirtualLan;
+    protected byte dataLayerVirtualLanPriorityCodePoint;
+    protected short dataLayerType;
+    protected byte networkTypeOfService;
+    protected byte networkProtocol;
+    protected int networkSource;
+    protected int networkDestination;
+    protected short transportSource;
+    protected short transportDestination;
+
+    /**
+     * Get the metadata of a packet-in, from the floodlight context if the
+     * controller already extracted it, or from the packet data otherwise.
+     * In the latter case the metadata is stored in the context.
+     * @param cntx the context of the packet-in, may be null
+     * @param pi the packet-in message
+     * @return the metadata of the packet
+     */
+    public static PacketMetadata fromPacketIn(FloodlightContext cntx,
+                                              OFPacketIn pi) {
+        PacketMetadata pm = null;
+        if (cntx != null) {
+            pm = IFloodlightProviderService.pmStore.get(cntx,
+                    IFloodlightProviderService.CONTEXT_PI_METADATA);
+        }
+        if (pm == null) {
+            pm = new PacketMetadata();
+            pm.loadFromPacket(pi.getPacketData(), pi.getInPort());
+            if (cntx != null) {
+                IFloodlightProviderService.pmStore.put(cntx,
+                        IFloodlightProviderService.CONTEXT_PI_METADATA, pm);
+            }
+        }
+        return pm;
+    }
+
+    /**
+     * Extract the header fields of a packet
+     * @param packetData the packet's data
+     * @param inputPort the port the packet arrived on, or OFPort.OFPP_ALL
+     * @return this
+     * @throws IndexOutOfBoundsException if the packet is truncated
+     */
+    public PacketMetadata loadFromPacket(byte[] packetData, short inputPort) {
+        int pos;
+        int transportOffset = 34;
+
+        this.wildcards = 0;
+        this.inputPort = inputPort;
+        if (inputPort == OFPort.OFPP_ALL.getValue())
+            this.wildcards |= OFMatch.OFPFW_IN_PORT;
+
+        this.dataLayerDestination = getMac(packetData, 0);
+        this.dataLayerSource = getMac(packetData, 6);
+        this.dataLayerType = getShort(packetData, 12);
+        pos = 14;
+
+        if (this.dataLayerType != TYPE_VLAN) {
+            this.dataLayerVirtualLan = Ethernet.VLAN_UNTAGGED;
+            this.dataLayerVirtualLanPriorityCodePoint = 0;
+        } else {
+            short tci = getShort(packetData, pos);
+            this.dataLayerVirtualLan = (short) (0xfff & tci);
+            this.dataLayerVirtualLanPriorityCodePoint =
+                    (byte) ((0xe000 & tci) >> 13);
+            this.dataLayerType = getShort(packetData, pos + 2);
+            pos += 4;
+        }
+
+        this.networkTypeOfService = 0;
+        switch (this.dataLayerType) {
+        case Ethernet.TYPE_IPv4:
+            transportOffset = pos + (0xf & packetData[pos]) * 4;
+            this.networkTypeOfService =
+                    (byte) ((0xfc & packetData[pos + 1]) >> 2);
+            this.networkProtocol = packetData[pos + 9];
+            this.networkSource = getInt(packetData, pos + 12);
+            this.networkDestination = getInt(packetData, pos + 16);
+            if (transportOffset > packetData.length)
+                throw new IndexOutOfBoundsException("IPv4 header length " +
+                        "exceeds the packet length");
+            pos = transportOffset;
+            break;
+        case Ethernet.TYPE_ARP:
+            // like OFMatch, the ARP opcode is used as network protocol
+            this.networkProtocol = (byte) getShort(packetData, pos + 6);
+            if (getShort(packetData, pos + 2) == Ethernet.TYPE_IPv4 &&
+                    packetData[pos + 5] == 4) {
+                this.networkSource = getInt(packetData, pos + 14);
+                this.networkDestination = getInt(packetData, pos + 24);
+            } else {
+                this.networkSource = 0;
+                this.networkDestination = 0;
+            }
+            break;
+        default:
+            this.networkProtocol = 0;
+            this.networkSource = 0;
+            this.networkDestination = 0;
+            break;
+        }
+
+        switch (this.networkProtocol) {
+        case 0x01:
+            // icmp type and code
+            this.transportSource = (short) (0xff & packetData[pos]);
+            this.transportDestination = (short) (0xff & packetData[pos + 1]);
+            break;
+        case 0x06:
+        case 0x11:
+            // tcp or udp ports
+            this.transportSource = getShort(packetData, pos);
+            this.transportDestination = getShort(packetData, pos + 2);
+            break;
+        default:
+            this.transportSource = 0;
+            this.transportDestination = 0;
+            break;
+        }
+        return this;
+    }
+
+    private static short getShort(byte[] data, int off) {
+        return (short) (((data[off] & 0xff) << 8) | (data[off + 1] & 0xff));
+    }
+
+    private static int getInt(byte[] data, int off) {
+        return ((data[off] & 0xff) << 24) | ((data[off + 1] & 0xff) << 16) |
+               ((data[off + 2] & 0xff) << 8) | (data[off + 3] & 0xff);
+    }
+
+    private static long getMac(byte[] data, int off) {
+        if (off + 6 > data.length)
+            throw new IndexOutOfBoundsException("Packet too short");
+        long mac = 0;
+        for (int i = 0; i < 6; i++)
+            mac = (mac << 8) | (data[off + i] & 0xff);
+        return mac;
+    }
+
+    /**
+     * Build an exact match on the header fields
+     * @return a new OFMatch, equal to the one OFMatch.loadFromPacket would
+     * give for the same packet
+     */
+    public OFMatch toOFMatch() {
+        OFMatch match = new OFMatch();
+        match.setWildcards(wildcards);
+        match.setInputPort(inputPort);
+        match.setDataLayerDestination(Ethernet.toByteArray(dataLayerDestination));
+        match.setDataLayerSource(Ethernet.toByteArray(dataLayerSource));
+        match.setDataLayerVirtualLan(dataLayerVirtualLan);
+        match.setDataLayerVirtualLanPriorityCodePoint(
+                dataLayerVirtualLanPriorityCodePoint);
+        match.setDataLayerType(dataLayerType);
+        match.setNetworkTypeOfService(networkTypeOfService);
+        match.setNetworkProtocol(networkProtocol);
+        match.setNetworkSource(networkSource);
+        match.setNetworkDestination(networkDestination);
+        match.setTransportSource(transportSource);
+        match.setTransportDestination(transportDestination);
+        return match;
+    }
+
+    /**
+     * @return True if the destination is the broadcast MAC address
+     */
+    public boolean isBroadcast() {
+        return dataLayerDestination == BROADCAST_MAC;
+    }
+
+    /**
+     * @return True if the destination is a multicast MAC address other
+     * than broadcast
+     */
+    public boolean isMulticast() {
+        return !isBroadcast() && (dataLayerDestination & (1L << 40)) != 0;
+    }
+
+    public int getWildcards() {
+        return wildcards;
+    }
+
+    public short getInputPort() {
+        return inputPort;
+    }
+
+    public long getDataLayerSource() {
+        return dataLayerSource;
+    }
+
+    public long getDataLayerDestination() {
+        return dataLayerDestination;
+    }
+
+    /**
+     * @return the VLAN ID, or 0xffff if the packet is untagged
+     */
+    public short getDataLayerVirtualLan() {
+        return dataLayerVirtualLan;
+    }
+
+    public byte getDataLayerVirtualLanPriorityCodePoint() {
+        return dataLayerVirtualLanPriorityCodePoint;
+    }
+
+    public short getDataLayerType() {
+        return dataLayerType;
+    }
+
+    public byte getNetworkTypeOfService() {
+        return networkTypeOfService;
+    }
+
+    /**
+     * @return the IP protocol, or the opcode for ARP packets
+     */
+    public byte getNetworkProtocol() {
+        return networkProtocol;
+    }
+
+    public int getNetworkSource() {
+        return networkSource;
+    }
+
+    public int getNetworkDestination() {
+        return networkDestination;
+    }
+
+    public short getTransportSource() {
+        return transportSource;
+    }
+
+    public short getTransportDestination() {
+        return transportDestination;
+    }
+
+    @Override
+    public String toString() {
+        return "PacketMetadata [inputPort=" + (inputPort & 0xffff) +
+               ", dlSrc=" + HexString.toHexString(dataLayerSource, 6) +
+               ", dlDst=" + HexString.toHexString(dataLayerDestination, 6) +
+               ", dlVlan=" + dataLayerVirtualLan +
+               ", dlType=0x" + Integer.toHexString(dataLayerType & 0xffff) +
+               ", nwProto=" + (networkProtocol & 0xff) +
+               ", nwSrc=" + networkSource + ", nwDst=" + networkDestination +
+               ", tpSrc=" + (transportSource & 0xffff) +
+               ", tpDst=" + (transportDestination & 0xffff) + "]";
+    }
+}
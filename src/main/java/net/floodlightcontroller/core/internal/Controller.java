@@ -42,6 +42,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
@@ -53,14 +54,17 @@ import net.floodlightcontroller.core.IFloodlightProviderService;
 import net.floodlightcontroller.core.IHAListener;
 import net.floodlightcontroller.core.IInfoProvider;
 import net.floodlightcontroller.core.IOFMessageListener;
+import net.floodlightcontroller.core.IListener;
 import net.floodlightcontroller.core.IListener.Command;
 import net.floodlightcontroller.core.IOFSwitch;
 import net.floodlightcontroller.core.IOFSwitchFilter;
 import net.floodlightcontroller.core.IOFSwitchListener;
+import net.floodlightcontroller.core.PacketMetadata;
 import net.floodlightcontroller.core.annotations.LogMessageDoc;
 import net.floodlightcontroller.core.annotations.LogMessageDocs;
 import net.floodlightcontroller.core.internal.OFChannelState.HandshakeState;
 import net.floodlightcontroller.core.util.ListenerDispatcher;
+import net.floodlightcontroller.core.util.ListenerLanes;
 import net.floodlightcontroller.core.web.CoreWebRoutable;
 import net.floodlightcontroller.counter.ICounterStoreService;
 import net.floodlightcontroller.packet.Ethernet;
@@ -70,6 +74,7 @@ import net.floodlightcontroller.storage.IResultSet;
 import net.floodlightcontroller.storage.IStorageSourceListener;
 import net.floodlightcontroller.storage.IStorageSourceService;
 import net.floodlightcontroller.storage.OperatorPredicate;
+import net.floodlightcontroller.storage.StorageBatch;
 import net.floodlightcontroller.storage.StorageException;
 import net.floodlightcontroller.threadpool.IThreadPoolService;
 
@@ -141,6 +146,22 @@ public class Controller implements IFloodlightProviderService,
 
 	protected BasicFactory factory;
 	protected ConcurrentMap<OFType, ListenerDispatcher<OFType, IOFMessageListener>> messageListeners;
+	// The listener list performance monitoring was last bootstrapped with
+	protected volatile List<IOFMessageListener> bootstrappedListeners;
+
+	/**
+	 * Leaves out the listeners that are {@link IOFSwitchFilter}s not
+	 * interested in a switch
+	 */
+	protected static final ListenerDispatcher.IListenerFilter<IOFSwitch, IOFMessageListener> SWITCH_FILTER =
+			new ListenerDispatcher.IListenerFilter<IOFSwitch, IOFMessageListener>() {
+				@Override
+				public boolean isInterested(IOFMessageListener listener,
+						IOFSwitch sw) {
+					return !(listener instanceof IOFSwitchFilter)
+							|| ((IOFSwitchFilter) listener).isInterested(sw);
+				}
+			};
 	// The activeSwitches map contains only those switches that are actively
 	// being controlled by us -- it doesn't contain switches that are
 	// in the slave role
@@ -160,6 +181,17 @@ public class Controller implements IFloodlightProviderService,
 	protected Set<IHAListener> haListeners;
 	protected Map<String, List<IInfoProvider>> providerMap;
 	protected BlockingQueue<IUpdate> updates;
+	// The lanes the switch and HA listeners are called in, so that a slow
+	// listener doesn't hold up the others. Null if the listeners are called
+	// from the main loop
+	protected ListenerLanes<Object> listenerLanes;
+
+	// The DPIDs of the switches configured as core switches. It is loaded
+	// from the switch config table and kept up to date by its
+	// notifications, so that the handshake doesn't read the storage
+	protected Set<String> coreSwitchIds;
+	// How long the switch handshakes take
+	protected HandshakeStats handshakeStats;
 
 	// Module dependencies
 	protected IRestApiService restApi;
@@ -229,7 +261,8 @@ public class Controller implements IFloodlightProviderService,
 	// Perf. related configuration
 	protected static final int SEND_BUFFER_SIZE = 4 * 1024 * 1024;
 	protected static final int BATCH_MAX_SIZE = 100;
-	protected static final boolean ALWAYS_DECODE_ETH = true;
+	// when false, the packet-in payload is deserialized on first use
+	protected static final boolean ALWAYS_DECODE_ETH = false;
 
 	/**
 	 * Updates handled by the main loop
@@ -241,6 +274,24 @@ public class Controller implements IFloodlightProviderService,
 		public void dispatch();
 	}
 
+	/**
+	 * Call a listener for an update, in the listener's own lane if lanes
+	 * are enabled and right away otherwise
+	 */
+	protected void callListener(Object listener, String name, Runnable call) {
+		if (listenerLanes != null) {
+			listenerLanes.execute(listener, name, call);
+		} else {
+			call.run();
+		}
+	}
+
+	protected static String getListenerName(Object listener) {
+		if (listener instanceof IListener<?>)
+			return ((IListener<?>) listener).getName();
+		return listener.getClass().getSimpleName();
+	}
+
 	public enum SwitchUpdateType {
 		ADDED, REMOVED, PORTCHANGED
 	}
@@ -263,18 +314,23 @@ public class Controller implements IFloodlightProviderService,
 						switchUpdateType);
 			}
 			if (switchListeners != null) {
-				for (IOFSwitchListener listener : switchListeners) {
-					switch (switchUpdateType) {
-					case ADDED:
-						listener.addedSwitch(sw);
-						break;
-					case REMOVED:
-						listener.removedSwitch(sw);
-						break;
-					case PORTCHANGED:
-						listener.switchPortChanged(sw.getId());
-						break;
-					}
+				for (final IOFSwitchListener listener : switchListeners) {
+					callListener(listener, listener.getName(), new Runnable() {
+						@Override
+						public void run() {
+							switch (switchUpdateType) {
+							case ADDED:
+								listener.addedSwitch(sw);
+								break;
+							case REMOVED:
+								listener.removedSwitch(sw);
+								break;
+							case PORTCHANGED:
+								listener.switchPortChanged(sw.getId());
+								break;
+							}
+						}
+					});
 				}
 			}
 		}
@@ -308,8 +364,14 @@ public class Controller implements IFloodlightProviderService,
 						newRole, oldRole);
 			}
 			if (haListeners != null) {
-				for (IHAListener listener : haListeners) {
-					listener.roleChanged(oldRole, newRole);
+				for (final IHAListener listener : haListeners) {
+					callListener(listener, getListenerName(listener),
+							new Runnable() {
+								@Override
+								public void run() {
+									listener.roleChanged(oldRole, newRole);
+								}
+							});
 				}
 			}
 		}
@@ -342,9 +404,17 @@ public class Controller implements IFloodlightProviderService,
 								removedControllerNodeIPs });
 			}
 			if (haListeners != null) {
-				for (IHAListener listener : haListeners) {
-					listener.controllerNodeIPsChanged(curControllerNodeIPs,
-							addedControllerNodeIPs, removedControllerNodeIPs);
+				for (final IHAListener listener : haListeners) {
+					callListener(listener, getListenerName(listener),
+							new Runnable() {
+								@Override
+								public void run() {
+									listener.controllerNodeIPsChanged(
+											curControllerNodeIPs,
+											addedControllerNodeIPs,
+											removedControllerNodeIPs);
+								}
+							});
 				}
 			}
 		}
@@ -459,16 +529,20 @@ public class Controller implements IFloodlightProviderService,
 			sw.setFloodlightProvider(Controller.this);
 			sw.setThreadPoolService(threadPool);
 
-			List<OFMessage> msglist = new ArrayList<OFMessage>(1);
-			msglist.add(factory.getMessage(OFType.HELLO));
-			e.getChannel().write(msglist);
-
+			state.handshakeStartTime = System.nanoTime();
+			handshakeStats.handshakeStarted(state.handshakeStartTime);
+			sendHandshakeRequests(e.getChannel());
 		}
 
 		@Override
 		@LogMessageDoc(message = "Disconnected switch {switch information}", explanation = "The specified switch has disconnected.")
 		public void channelDisconnected(ChannelHandlerContext ctx,
 				ChannelStateEvent e) throws Exception {
+			if (state.handshakeStartTime != 0) {
+				handshakeStats.handshakeFinished(state.handshakeStartTime,
+						System.nanoTime(), false);
+				state.handshakeStartTime = 0;
+			}
 			if (sw != null && state.hsState == HandshakeState.READY) {
 				if (activeSwitches.containsKey(sw.getId())) {
 					// It's safe to call removeSwitch even though the map might
@@ -599,34 +673,12 @@ public class Controller implements IFloodlightProviderService,
 					data = null;
 
 					// At this time, also set other switch properties from
-					// storage
-					boolean is_core_switch = false;
-					IResultSet resultSet = null;
-					try {
-						String swid = sw.getStringId();
-						resultSet = storageSource.getRow(
-								SWITCH_CONFIG_TABLE_NAME, swid);
-						for (Iterator<IResultSet> it = resultSet.iterator(); it
-								.hasNext();) {
-							// In case of multiple rows, use the status
-							// in last row?
-							Map<String, Object> row = it.next().getRow();
-							if (row.containsKey(SWITCH_CONFIG_CORE_SWITCH)) {
-								if (log.isDebugEnabled()) {
-									log.debug(
-											"Reading SWITCH_IS_CORE_SWITCH "
-													+ "config for switch={}, is-core={}",
-											sw,
-											row.get(SWITCH_CONFIG_CORE_SWITCH));
-								}
-								String ics = (String) row
-										.get(SWITCH_CONFIG_CORE_SWITCH);
-								is_core_switch = ics.equals("true");
-							}
-						}
-					} finally {
-						if (resultSet != null)
-							resultSet.close();
+					// the switch config
+					boolean is_core_switch = coreSwitchIds.contains(sw
+							.getStringId());
+					if (log.isDebugEnabled()) {
+						log.debug("Switch config for switch={}, is-core={}",
+								sw, is_core_switch);
 					}
 					if (is_core_switch) {
 						sw.setAttribute(IOFSwitch.SWITCH_IS_CORE_SWITCH,
@@ -647,30 +699,24 @@ public class Controller implements IFloodlightProviderService,
 		}
 
 		/**
-		 * Send initial switch setup information that we need before adding the
-		 * switch
-		 * 
-		 * @throws IOException
-		 */
-		void sendHelloConfiguration() throws IOException {
-			// Send initial Features Request
-			sw.write(factory.getMessage(OFType.FEATURES_REQUEST), null);
-		}
-
-		/**
-		 * Send the configuration requests we can only do after we have the
-		 * features reply
+		 * Send the HELLO and all the requests of the handshake at once. The
+		 * switch answers them after its own HELLO, so the handshake takes a
+		 * single round trip instead of one per request.
 		 * 
 		 * @throws IOException
 		 */
-		void sendFeatureReplyConfiguration() throws IOException {
+		void sendHandshakeRequests(Channel channel) throws IOException {
+			List<OFMessage> msglist = new ArrayList<OFMessage>(4);
+			msglist.add(factory.getMessage(OFType.HELLO));
+			msglist.add(factory.getMessage(OFType.FEATURES_REQUEST));
 			// Ensure we receive the full packet via PacketIn
 			OFSetConfig config = (OFSetConfig) factory
 					.getMessage(OFType.SET_CONFIG);
 			config.setMissSendLength((short) 0xffff).setLengthU(
 					OFSwitchConfig.MINIMUM_LENGTH);
-			sw.write(config, null);
-			sw.write(factory.getMessage(OFType.GET_CONFIG_REQUEST), null);
+			msglist.add(config);
+			msglist.add(factory.getMessage(OFType.GET_CONFIG_REQUEST));
+			channel.write(msglist);
 
 			// Get Description to set switch-specific flags
 			OFStatisticsRequest req = new OFStatisticsRequest();
@@ -686,6 +732,11 @@ public class Controller implements IFloodlightProviderService,
 					&& state.hasDescription && state.hasGetConfigReply) {
 
 				state.hsState = HandshakeState.READY;
+				if (state.handshakeStartTime != 0) {
+					handshakeStats.handshakeFinished(state.handshakeStartTime,
+							System.nanoTime(), true);
+					state.handshakeStartTime = 0;
+				}
 
 				synchronized (roleChanger) {
 					// We need to keep track of all of the switches that are
@@ -890,8 +941,8 @@ public class Controller implements IFloodlightProviderService,
 					log.trace("HELLO from {}", sw);
 
 				if (state.hsState.equals(HandshakeState.START)) {
+					// the handshake requests were sent on connect
 					state.hsState = HandshakeState.HELLO;
-					sendHelloConfiguration();
 				} else {
 					throw new SwitchStateException("Unexpected HELLO from "
 							+ sw);
@@ -905,17 +956,26 @@ public class Controller implements IFloodlightProviderService,
 				break;
 			case ECHO_REPLY:
 				break;
+			case BARRIER_REPLY:
+				sw.deliverBarrierReply(m);
+				shouldHandleMessage = true;
+				break;
 			case FEATURES_REPLY:
 				if (log.isTraceEnabled())
 					log.trace("Features Reply from {}", sw);
 
 				sw.setFeaturesReply((OFFeaturesReply) m);
 				if (state.hsState.equals(HandshakeState.HELLO)) {
-					sendFeatureReplyConfiguration();
 					state.hsState = HandshakeState.FEATURES_REPLY;
 					// uncomment to enable "dumb" switches like cbench
 					// state.hsState = HandshakeState.READY;
 					// addSwitch(sw);
+
+					// The description may have arrived first
+					if (sw.hasAttribute(IOFSwitch.SWITCH_DESCRIPTION_FUTURE)) {
+						processSwitchDescReply();
+					}
+					checkSwitchReady();
 				} else {
 					// return results to rest api caller
 					sw.deliverOFFeaturesReply(m);
@@ -927,7 +987,8 @@ public class Controller implements IFloodlightProviderService,
 				if (log.isTraceEnabled())
 					log.trace("Get config reply from {}", sw);
 
-				if (!state.hsState.equals(HandshakeState.FEATURES_REPLY)) {
+				if (!state.hsState.equals(HandshakeState.HELLO)
+						&& !state.hsState.equals(HandshakeState.FEATURES_REPLY)) {
 					String em = "Unexpected GET_CONFIG_REPLY from " + sw;
 					throw new SwitchStateException(em);
 				}
@@ -1030,13 +1091,16 @@ public class Controller implements IFloodlightProviderService,
 					logError(sw, error);
 				break;
 			case STATS_REPLY:
-				if (state.hsState.ordinal() < HandshakeState.FEATURES_REPLY
-						.ordinal()) {
+				if (state.hsState.ordinal() < HandshakeState.HELLO.ordinal()) {
 					String em = "Unexpected STATS_REPLY from " + sw;
 					throw new SwitchStateException(em);
 				}
 				sw.deliverStatisticsReply(m);
-				if (sw.hasAttribute(IOFSwitch.SWITCH_DESCRIPTION_FUTURE)) {
+				// The description is processed once the features reply
+				// has set the DPID
+				if (state.hsState.ordinal() >= HandshakeState.FEATURES_REPLY
+						.ordinal()
+						&& sw.hasAttribute(IOFSwitch.SWITCH_DESCRIPTION_FUTURE)) {
 					processSwitchDescReply();
 				}
 				break;
@@ -1188,6 +1252,8 @@ public class Controller implements IFloodlightProviderService,
 	protected void handleMessage(IOFSwitch sw, OFMessage m,
 			FloodlightContext bContext) throws IOException {
 		Ethernet eth = null;
+		PacketMetadata pm = null;
+		byte[] packetData = null;
 
 		switch (m.getType()) {
 		case PACKET_IN:
@@ -1199,20 +1265,35 @@ public class Controller implements IFloodlightProviderService,
 				return;
 			}
 
+			// Extract the header fields once for all listeners
+			try {
+				pm = new PacketMetadata().loadFromPacket(pi.getPacketData(),
+						pi.getInPort());
+			} catch (IndexOutOfBoundsException e) {
+				// truncated packet; listeners that need the header
+				// fields will try again and fail on their own
+				pm = null;
+			}
+			if (pm != null) {
+				counterStore.updatePacketInCounters(sw, m, pm);
+			}
+
 			if (Controller.ALWAYS_DECODE_ETH) {
 				eth = new Ethernet();
 				eth.deserialize(pi.getPacketData(), 0,
 						pi.getPacketData().length);
-				counterStore.updatePacketInCounters(sw, m, eth);
+			} else {
+				packetData = pi.getPacketData();
 			}
 			// fall through to default case...
 
 		default:
 
 			List<IOFMessageListener> listeners = null;
-			if (messageListeners.containsKey(m.getType())) {
-				listeners = messageListeners.get(m.getType())
-						.getOrderedListeners();
+			ListenerDispatcher<OFType, IOFMessageListener> ldd = messageListeners
+					.get(m.getType());
+			if (ldd != null) {
+				listeners = ldd.getOrderedListeners(sw, SWITCH_FILTER);
 			}
 
 			FloodlightContext bc = null;
@@ -1228,21 +1309,27 @@ public class Controller implements IFloodlightProviderService,
 				if (eth != null) {
 					IFloodlightProviderService.bcStore.put(bc,
 							IFloodlightProviderService.CONTEXT_PI_PAYLOAD, eth);
+				} else if (packetData != null) {
+					IFloodlightProviderService.bcStore.putPacketData(bc,
+							packetData);
+				}
+				if (pm != null) {
+					IFloodlightProviderService.pmStore.put(bc,
+							IFloodlightProviderService.CONTEXT_PI_METADATA, pm);
 				}
 
 				// Get the starting time (overall and per-component) of
 				// the processing chain for this packet if performance
 				// monitoring is turned on
-				pktinProcTime.bootstrap(listeners);
+				List<IOFMessageListener> allListeners = ldd.getOrderedListeners();
+				if (allListeners != bootstrappedListeners) {
+					pktinProcTime.bootstrap(allListeners);
+					bootstrappedListeners = allListeners;
+				}
 				pktinProcTime.recordStartTimePktIn();
 				Command cmd;
-				for (IOFMessageListener listener : listeners) {
-					if (listener instanceof IOFSwitchFilter) {
-						if (!((IOFSwitchFilter) listener).isInterested(sw)) {
-							continue;
-						}
-					}
-
+				for (int i = 0, n = listeners.size(); i < n; i++) {
+					IOFMessageListener listener = listeners.get(i);
 					pktinProcTime.recordStartTimeComp(listener);
 					cmd = listener.receive(sw, m, bc);
 					pktinProcTime.recordEndTimeComp(listener);
@@ -1412,6 +1499,11 @@ public class Controller implements IFloodlightProviderService,
 		// from slave controllers. Then we need to move this cancelation
 		// to switch disconnect
 		sw.cancelAllStatisticsReplies();
+		// Drop the dispatch lists computed for this switch
+		for (ListenerDispatcher<OFType, IOFMessageListener> ldd : messageListeners
+				.values()) {
+			ldd.removeFilteredListeners(sw);
+		}
 
 		// FIXME: I think there's a race condition if we call
 		// updateInactiveSwitchInfo
@@ -1498,6 +1590,8 @@ public class Controller implements IFloodlightProviderService,
 	@Override
 	public void removeOFSwitchListener(IOFSwitchListener listener) {
 		this.switchListeners.remove(listener);
+		if (listenerLanes != null)
+			listenerLanes.remove(listener);
 	}
 
 	@Override
@@ -1550,6 +1644,8 @@ public class Controller implements IFloodlightProviderService,
 	@Override
 	@LogMessageDoc(message = "Calling System.exit", explanation = "The controller is terminating")
 	public synchronized void terminate() {
+		if (listenerLanes != null)
+			listenerLanes.shutdown();
 		log.info("Calling System.exit");
 		System.exit(1);
 	}
@@ -1569,17 +1665,15 @@ public class Controller implements IFloodlightProviderService,
 		}
 
 		List<IOFMessageListener> listeners = null;
-		if (messageListeners.containsKey(m.getType())) {
-			listeners = messageListeners.get(m.getType()).getOrderedListeners();
+		ListenerDispatcher<OFType, IOFMessageListener> ldd = messageListeners
+				.get(m.getType());
+		if (ldd != null) {
+			listeners = ldd.getOrderedListeners(sw, SWITCH_FILTER);
 		}
 
 		if (listeners != null) {
-			for (IOFMessageListener listener : listeners) {
-				if (listener instanceof IOFSwitchFilter) {
-					if (!((IOFSwitchFilter) listener).isInterested(sw)) {
-						continue;
-					}
-				}
+			for (int i = 0, n = listeners.size(); i < n; i++) {
+				IOFMessageListener listener = listeners.get(i);
 				if (Command.STOP.equals(listener.receive(sw, m, bc))) {
 					break;
 				}
@@ -1687,13 +1781,13 @@ public class Controller implements IFloodlightProviderService,
 		switchInfo.put(SWITCH_ACTIONS, actions);
 		switchInfo.put(SWITCH_ACTIVE, Boolean.TRUE);
 
-		// Update the switch
-		storageSource.updateRowAsync(SWITCH_TABLE_NAME, switchInfo);
-
-		// Update the ports
+		// Update the switch and its ports in one batch
+		StorageBatch batch = new StorageBatch();
+		batch.updateRow(SWITCH_TABLE_NAME, switchInfo);
 		for (OFPhysicalPort port : sw.getPorts()) {
-			updatePortInfo(sw, port);
+			batch.updateRow(PORT_TABLE_NAME, getPortInfo(sw, port));
 		}
+		storageSource.executeBatchAsync(batch);
 	}
 
 	protected void updateInactiveSwitchInfo(IOFSwitch sw) {
@@ -1714,6 +1808,13 @@ public class Controller implements IFloodlightProviderService,
 		if (role == Role.SLAVE) {
 			return;
 		}
+		storageSource.updateRowAsync(PORT_TABLE_NAME, getPortInfo(sw, port));
+	}
+
+	/**
+	 * Build the row of the port table for a port
+	 */
+	protected Map<String, Object> getPortInfo(IOFSwitch sw, OFPhysicalPort port) {
 		String datapathIdString = sw.getStringId();
 		Map<String, Object> portInfo = new HashMap<String, Object>();
 		int portNumber = U16.f(port.getPortNumber());
@@ -1738,7 +1839,7 @@ public class Controller implements IFloodlightProviderService,
 		portInfo.put(PORT_SUPPORTED_FEATURES, supportedFeatures);
 		long peerFeatures = U32.f(port.getPeerFeatures());
 		portInfo.put(PORT_PEER_FEATURES, peerFeatures);
-		storageSource.updateRowAsync(PORT_TABLE_NAME, portInfo);
+		return portInfo;
 	}
 
 	/**
@@ -1894,19 +1995,25 @@ public class Controller implements IFloodlightProviderService,
 		}
 
 		// main loop
-		while (true) {
-			try {
-				IUpdate update = updates.take();
-				update.dispatch();
-			} catch (InterruptedException e) {
-				return;
-			} catch (StorageException e) {
-				log.error("Storage exception in controller "
-						+ "updates loop; terminating process", e);
-				return;
-			} catch (Exception e) {
-				log.error("Exception in controller updates loop", e);
+		try {
+			while (true) {
+				try {
+					IUpdate update = updates.take();
+					update.dispatch();
+				} catch (InterruptedException e) {
+					return;
+				} catch (StorageException e) {
+					log.error("Storage exception in controller "
+							+ "updates loop; terminating process", e);
+					return;
+				} catch (Exception e) {
+					log.error("Exception in controller updates loop", e);
+				}
 			}
+		} finally {
+			// no more updates are dispatched to the listeners
+			if (listenerLanes != null)
+				listenerLanes.shutdown();
 		}
 	}
 
@@ -1938,6 +2045,20 @@ public class Controller implements IFloodlightProviderService,
 			this.controllerId = controllerId;
 		}
 		log.debug("ControllerId set to {}", this.controllerId);
+		String lanes = configParams.get("listenerlanes");
+		if (lanes != null && Boolean.parseBoolean(lanes)) {
+			this.listenerLanes = new ListenerLanes<Object>(
+					Executors.newCachedThreadPool(new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r, "Listener Updates");
+							t.setDaemon(true);
+							return t;
+						}
+					}));
+		}
+		log.debug("Listener lanes {}", (listenerLanes != null) ? "enabled"
+				: "disabled");
 	}
 
 	private void initVendorMessages() {
@@ -1969,6 +2090,9 @@ public class Controller implements IFloodlightProviderService,
 		this.connectedSwitches = new HashSet<OFSwitchImpl>();
 		this.controllerNodeIPsCache = new HashMap<String, String>();
 		this.updates = new LinkedBlockingQueue<IUpdate>();
+		this.coreSwitchIds = Collections
+				.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		this.handshakeStats = new HandshakeStats();
 		this.factory = new BasicFactory();
 		this.providerMap = new HashMap<String, List<IInfoProvider>>();
 		setConfigParams(configParams);
@@ -1987,8 +2111,11 @@ public class Controller implements IFloodlightProviderService,
 	public void startupComponents() {
 		// Create the table names we use
 		storageSource.createTable(CONTROLLER_TABLE_NAME, null);
-		storageSource.createTable(SWITCH_TABLE_NAME, null);
-		storageSource.createTable(PORT_TABLE_NAME, null);
+		// Index the columns the switch and port rows are looked up by
+		storageSource.createTable(SWITCH_TABLE_NAME,
+				Collections.singleton(SWITCH_CONTROLLER_ID));
+		storageSource.createTable(PORT_TABLE_NAME,
+				Collections.singleton(PORT_SWITCH));
 		storageSource.createTable(CONTROLLER_INTERFACE_TABLE_NAME, null);
 		storageSource.createTable(SWITCH_CONFIG_TABLE_NAME, null);
 		storageSource.setTablePrimaryKeyName(CONTROLLER_TABLE_NAME,
@@ -1999,6 +2126,7 @@ public class Controller implements IFloodlightProviderService,
 		storageSource.setTablePrimaryKeyName(CONTROLLER_INTERFACE_TABLE_NAME,
 				CONTROLLER_INTERFACE_ID);
 		storageSource.addListener(CONTROLLER_INTERFACE_TABLE_NAME, this);
+		storageSource.addListener(SWITCH_CONFIG_TABLE_NAME, this);
 
 		while (true) {
 			try {
@@ -2013,6 +2141,24 @@ public class Controller implements IFloodlightProviderService,
 			}
 		}
 
+		readSwitchConfig(null);
+
+		if (listenerLanes != null) {
+			addInfoProvider("summary", new IInfoProvider() {
+				@Override
+				public Map<String, Object> getInfo(String type) {
+					Map<String, Object> info = new HashMap<String, Object>();
+					info.put("# pending listener updates",
+							listenerLanes.getTotalQueueDepth());
+					info.put("listener update queue depths",
+							listenerLanes.getQueueDepths());
+					info.put("listener update max queue depths",
+							listenerLanes.getMaxQueueDepths());
+					return info;
+				}
+			});
+		}
+
 		// Add our REST API
 		restApi.addRestletRoutable(new CoreWebRoutable());
 	}
@@ -2055,6 +2201,8 @@ public class Controller implements IFloodlightProviderService,
 	@Override
 	public void removeHAListener(IHAListener listener) {
 		this.haListeners.remove(listener);
+		if (listenerLanes != null)
+			listenerLanes.remove(listener);
 	}
 
 	/**
@@ -2134,10 +2282,40 @@ public class Controller implements IFloodlightProviderService,
 		return retval;
 	}
 
+	/**
+	 * Read the core switch setting of switches from the switch config table
+	 * 
+	 * @param switchIds
+	 *            the DPIDs to read, or null to read all of them
+	 */
+	protected void readSwitchConfig(Set<Object> switchIds) {
+		if (switchIds == null) {
+			coreSwitchIds.clear();
+		} else {
+			coreSwitchIds.removeAll(switchIds);
+		}
+		IResultSet resultSet = storageSource.executeQuery(
+				SWITCH_CONFIG_TABLE_NAME, null, null, null);
+		try {
+			for (Iterator<IResultSet> it = resultSet.iterator(); it.hasNext();) {
+				Map<String, Object> row = it.next().getRow();
+				Object swid = row.get("id");
+				if (switchIds != null && !switchIds.contains(swid))
+					continue;
+				if ("true".equals(row.get(SWITCH_CONFIG_CORE_SWITCH)))
+					coreSwitchIds.add((String) swid);
+			}
+		} finally {
+			resultSet.close();
+		}
+	}
+
 	@Override
 	public void rowsModified(String tableName, Set<Object> rowKeys) {
 		if (tableName.equals(CONTROLLER_INTERFACE_TABLE_NAME)) {
 			handleControllerNodeIPChanges();
+		} else if (tableName.equals(SWITCH_CONFIG_TABLE_NAME)) {
+			readSwitchConfig(rowKeys);
 		}
 
 	}
@@ -2146,6 +2324,8 @@ public class Controller implements IFloodlightProviderService,
 	public void rowsDeleted(String tableName, Set<Object> rowKeys) {
 		if (tableName.equals(CONTROLLER_INTERFACE_TABLE_NAME)) {
 			handleControllerNodeIPChanges();
+		} else if (tableName.equals(SWITCH_CONFIG_TABLE_NAME)) {
+			coreSwitchIds.removeAll(rowKeys);
 		}
 	}
 
@@ -0,0 +1,125 @@
+/**
+*    Copyright 2011, Big Switch Networks, Inc.
+*    Originally created by David Erickson, Stanford University
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.core.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.core.annotations.LogMessageDoc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures how long switches take to complete the handshake.
+ *
+ * Handshakes that overlap form a burst, like all the switches reconnecting
+ * after a controller restart.  A burst starts when a switch connects while
+ * no other handshake is in progress and ends when no handshake is left;
+ * the time the whole burst took is logged when it ends.
+ */
+class HandshakeStats {
+    protected static Logger log = LoggerFactory.getLogger(HandshakeStats.class);
+
+    protected int pending = 0;
+    protected long burstStartTime;
+    protected int burstCompleted;
+    protected int burstFailed;
+    protected long burstMaxTime;
+
+    // the last burst that ended
+    protected long lastBurstTime = 0;
+    protected int lastBurstCompleted = 0;
+    protected long lastBurstMaxTime = 0;
+
+    /**
+     * A switch connected
+     * @param now System.nanoTime()
+     */
+    synchronized void handshakeStarted(long now) {
+        if (pending == 0) {
+            burstStartTime = now;
+            burstCompleted = 0;
+            burstFailed = 0;
+            burstMaxTime = 0;
+        }
+        pending += 1;
+    }
+
+    /**
+     * A handshake completed, or the switch disconnected before it did
+     * @param startTime System.nanoTime() when the switch connected
+     * @param now System.nanoTime()
+     * @param completed whether the switch completed the handshake
+     */
+    @LogMessageDoc(message="{count} switches completed the handshake in " +
+                   "{time} ms, longest handshake {time} ms, {count} failed",
+                   explanation="A burst of switch connections, such as " +
+                   "after a controller restart, is done")
+    synchronized void handshakeFinished(long startTime, long now,
+                                        boolean completed) {
+        if (pending == 0)
+            return;
+        if (completed) {
+            burstCompleted += 1;
+            burstMaxTime = Math.max(burstMaxTime, now - startTime);
+        } else {
+            burstFailed += 1;
+        }
+        pending -= 1;
+        if (pending > 0)
+            return;
+        lastBurstTime = TimeUnit.NANOSECONDS.toMillis(now - burstStartTime);
+        lastBurstCompleted = burstCompleted;
+        lastBurstMaxTime = TimeUnit.NANOSECONDS.toMillis(burstMaxTime);
+        if (burstCompleted + burstFailed > 1) {
+            log.info("{} switches completed the handshake in {} ms, " +
+                     "longest handshake {} ms, {} failed",
+                     new Object[] { burstCompleted, lastBurstTime,
+                                    lastBurstMaxTime, burstFailed });
+        }
+    }
+
+    /**
+     * @return the number of handshakes in progress
+     */
+    synchronized int getPending() {
+        return pending;
+    }
+
+    /**
+     * @return milliseconds the last burst of handshakes took
+     */
+    synchronized long getLastBurstTime() {
+        return lastBurstTime;
+    }
+
+    /**
+     * @return the number of switches that completed the handshake in the
+     * last burst
+     */
+    synchronized int getLastBurstCompleted() {
+        return lastBurstCompleted;
+    }
+
+    /**
+     * @return milliseconds the longest handshake of the last burst took
+     */
+    synchronized long getLastBurstMaxTime() {
+        return lastBurstMaxTime;
+    }
+}
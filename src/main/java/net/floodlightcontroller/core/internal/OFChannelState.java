@@ -53,6 +53,9 @@ class OFChannelState {
     protected volatile HandshakeState hsState = HandshakeState.START;
     protected boolean hasGetConfigReply = false;
     protected boolean hasDescription = false;
+    // System.nanoTime() when the switch connected, 0 once the handshake
+    // is done
+    protected long handshakeStartTime = 0;
     
     // The firstRoleReplyRecevied flag indicates if we have received the
     // first role reply message on this connection (in response to the 
@@ -50,6 +50,8 @@ import org.codehaus.jackson.annotate.JsonProperty;
 import org.codehaus.jackson.map.annotate.JsonSerialize;
 import org.codehaus.jackson.map.ser.ToStringSerializer;
 import org.jboss.netty.channel.Channel;
+import org.openflow.protocol.OFBarrierReply;
+import org.openflow.protocol.OFBarrierRequest;
 import org.openflow.protocol.OFFeaturesReply;
 import org.openflow.protocol.OFFeaturesRequest;
 import org.openflow.protocol.OFFlowMod;
@@ -105,6 +107,7 @@ public class OFSwitchImpl implements IOFSwitch {
     protected Map<Integer,OFStatisticsFuture> statsFutureMap;
     protected Map<Integer, IOFMessageListener> iofMsgListenersMap;
     protected Map<Integer,OFFeaturesReplyFuture> featuresFutureMap;
+    protected Map<Integer,OFBarrierReplyFuture> barrierFutureMap;
     protected boolean connected;
     protected Role role;
     protected TimedCache<Long> timedCache;
@@ -164,6 +167,7 @@ public class OFSwitchImpl implements IOFSwitch {
         this.connected = true;
         this.statsFutureMap = new ConcurrentHashMap<Integer,OFStatisticsFuture>();
         this.featuresFutureMap = new ConcurrentHashMap<Integer,OFFeaturesReplyFuture>();
+        this.barrierFutureMap = new ConcurrentHashMap<Integer,OFBarrierReplyFuture>();
         this.iofMsgListenersMap = new ConcurrentHashMap<Integer,IOFMessageListener>();
         this.role = null;
         this.timedCache = new TimedCache<Long>(100, 5*1000 );  // 5 seconds interval
@@ -831,6 +835,35 @@ public class OFSwitchImpl implements IOFSwitch {
         this.featuresFutureMap.remove(transactionId);
     }
 
+    @Override
+    public Future<OFBarrierReply> sendBarrier() throws IOException {
+        OFMessage request = new OFBarrierRequest();
+        request.setXid(getNextTransactionId());
+        OFBarrierReplyFuture future =
+                new OFBarrierReplyFuture(threadPool, this, request.getXid());
+        this.barrierFutureMap.put(request.getXid(), future);
+        List<OFMessage> msglist = new ArrayList<OFMessage>(1);
+        msglist.add(request);
+        this.channel.write(msglist);
+        return future;
+    }
+
+    @Override
+    public void deliverBarrierReply(OFMessage reply) {
+        OFBarrierReplyFuture future = this.barrierFutureMap.get(reply.getXid());
+        if (future != null) {
+            future.deliverFuture(this, reply);
+            // The future will ultimately unregister itself and call
+            // cancelBarrierReply
+        }
+        // Barriers sent with write() have no future
+    }
+
+    @Override
+    public void cancelBarrierReply(int transactionId) {
+        this.barrierFutureMap.remove(transactionId);
+    }
+
 
     @Override
     public int getBuffers() {
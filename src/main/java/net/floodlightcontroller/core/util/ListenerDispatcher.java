@@ -18,8 +18,11 @@
 package net.floodlightcontroller.core.util;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,12 +33,49 @@ import net.floodlightcontroller.core.annotations.LogMessageDoc;
 /**
  * Maintain lists of listeners ordered by dependency.  
  * 
+ * The ordered list is computed when listeners are added or removed and is
+ * immutable, so dispatching only has to walk it.  Filtered views of the
+ * list, for example the listeners interested in one switch, are computed
+ * on first use and cached until the listeners change.
+ * 
  * @author readams
  *
  */
 public class ListenerDispatcher<U, T extends IListener<U>> {
     protected static Logger logger = LoggerFactory.getLogger(ListenerDispatcher.class);
-    List<T> listeners = null;
+    
+    /**
+     * Decides which listeners a filtered view contains
+     * @param <K> the type of the key the view is computed for
+     * @param <T> the type of the listeners
+     */
+    public interface IListenerFilter<K, T> {
+        /**
+         * Check whether a listener belongs in the view for a key.  The
+         * answer must not change for as long as the view is cached.
+         */
+        public boolean isInterested(T listener, K key);
+    }
+    
+    /**
+     * An ordered list of listeners along with the filtered views of it
+     */
+    protected static class Chain<T> {
+        final List<T> listeners;
+        final ConcurrentMap<Object, List<T>> views;
+        
+        Chain(List<T> listeners) {
+            this.listeners = (listeners == null) ? null :
+                Collections.unmodifiableList(new ArrayList<T>(listeners));
+            this.views = new ConcurrentHashMap<Object, List<T>>();
+        }
+    }
+    
+    protected volatile Chain<T> chain = new Chain<T>(null);
+    
+    private void setListeners(List<T> newlisteners) {
+        chain = new Chain<T>(newlisteners);
+    }
     
     private void visit(List<T> newlisteners, U type, HashSet<T> visited, 
                        List<T> ordering, T listener) {
@@ -69,6 +109,7 @@ public class ListenerDispatcher<U, T extends IListener<U>> {
                    		"or install all dependencies.  This is a defect in " +
                    		"the controller installation.")
     public void addListener(U type, T listener) {
+        List<T> listeners = chain.listeners;
         List<T> newlisteners = new ArrayList<T>();
         if (listeners != null)
             newlisteners.addAll(listeners);
@@ -92,7 +133,7 @@ public class ListenerDispatcher<U, T extends IListener<U>> {
         if (terminals.size() == 0) {
             logger.error("No listener dependency solution: " +
             		     "No listeners without incoming dependencies");
-            listeners = newlisteners;
+            setListeners(newlisteners);
             return;
         }
         
@@ -103,7 +144,7 @@ public class ListenerDispatcher<U, T extends IListener<U>> {
         for (T term : terminals) {
             visit(newlisteners, type, visited, ordering, term);
         }
-        listeners = ordering;
+        setListeners(ordering);
     }
 
     /**
@@ -111,11 +152,12 @@ public class ListenerDispatcher<U, T extends IListener<U>> {
      * @param listener the listener to remove
      */
     public void removeListener(T listener) {
+        List<T> listeners = chain.listeners;
         if (listeners != null) {
             List<T> newlisteners = new ArrayList<T>();
             newlisteners.addAll(listeners);
             newlisteners.remove(listener);
-            listeners = newlisteners;
+            setListeners(newlisteners);
         }
     }
     
@@ -123,14 +165,52 @@ public class ListenerDispatcher<U, T extends IListener<U>> {
      * Clear all listeners
      */
     public void clearListeners() {
-        listeners = new ArrayList<T>();
+        setListeners(new ArrayList<T>());
     }
     
     /** 
      * Get the ordered list of listeners ordered by dependencies 
-     * @return
+     * @return the listeners, or null if none were ever added.  The list
+     * cannot be modified.
      */
     public List<T> getOrderedListeners() {
-        return listeners;
+        return chain.listeners;
+    }
+    
+    /**
+     * Get the ordered listeners that a filter accepts for a key.  The view
+     * is computed on first use and kept until listeners are added or
+     * removed, or until {@link #removeFilteredListeners} is called for
+     * the key.
+     * @param key the key to filter for, e.g. a switch
+     * @param filter the filter
+     * @return the listeners, or null if none were ever added.  The list
+     * cannot be modified.
+     */
+    public <K> List<T> getOrderedListeners(K key,
+                                           IListenerFilter<K, T> filter) {
+        Chain<T> c = chain;
+        if (c.listeners == null) return null;
+        List<T> view = c.views.get(key);
+        if (view != null) return view;
+        
+        List<T> accepted = new ArrayList<T>(c.listeners.size());
+        for (T l : c.listeners) {
+            if (filter.isInterested(l, key))
+                accepted.add(l);
+        }
+        // share the full list when the filter rejected nothing
+        view = (accepted.size() == c.listeners.size()) ? c.listeners :
+               Collections.unmodifiableList(accepted);
+        List<T> old = c.views.putIfAbsent(key, view);
+        return (old != null) ? old : view;
+    }
+    
+    /**
+     * Forget the filtered view for a key, e.g. when a switch disconnects
+     * @param key the key
+     */
+    public void removeFilteredListeners(Object key) {
+        chain.views.remove(key);
     }
 }
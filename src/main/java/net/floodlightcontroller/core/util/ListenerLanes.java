@@ -0,0 +1,208 @@
+/**
+*    Copyright 2011, Big Switch Networks, Inc.
+*    Originally created by David Erickson, Stanford University
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.core.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.floodlightcontroller.core.annotations.LogMessageDoc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the calls to a set of listeners with one lane per listener.
+ *
+ * The calls to a listener are run in the order they were queued and one at
+ * a time, but the lanes of different listeners run in parallel on the
+ * executor, so a slow listener only holds up its own calls.  The number of
+ * calls waiting in each lane is tracked, along with the most that have ever
+ * been waiting.  The lane of a removed listener is kept until its queued
+ * calls are made, so a listener that is added again never has two lanes
+ * running at once.
+ *
+ * @param <T> the listener type
+ */
+public class ListenerLanes<T> {
+    protected static Logger logger = LoggerFactory.getLogger(ListenerLanes.class);
+
+    protected final ExecutorService executor;
+    protected final ConcurrentMap<T, Lane> lanes =
+            new ConcurrentHashMap<T, Lane>();
+
+    /**
+     * The calls still to be made to one listener.  It runs on the executor
+     * while it has calls.
+     */
+    protected class Lane implements Runnable {
+        final T listener;
+        final String name;
+        final Queue<Runnable> calls = new ConcurrentLinkedQueue<Runnable>();
+        final AtomicBoolean scheduled = new AtomicBoolean(false);
+        final AtomicInteger depth = new AtomicInteger(0);
+        final AtomicInteger maxDepth = new AtomicInteger(0);
+        // the listener was removed: drop the lane once it has no calls
+        volatile boolean removing = false;
+        // the lane was dropped and takes no more calls, guarded by the lane
+        boolean removed = false;
+
+        Lane(T listener, String name) {
+            this.listener = listener;
+            this.name = name;
+        }
+
+        /**
+         * Queue a call, unless the lane was already dropped
+         * @return false if the lane was dropped
+         */
+        synchronized boolean add(Runnable call) {
+            if (removed)
+                return false;
+            calls.add(call);
+            int current = depth.incrementAndGet();
+            int max;
+            while (current > (max = maxDepth.get())) {
+                if (maxDepth.compareAndSet(max, current))
+                    break;
+            }
+            schedule();
+            return true;
+        }
+
+        synchronized void removeIfIdle() {
+            if (removing && !removed && depth.get() == 0) {
+                removed = true;
+                lanes.remove(listener, this);
+            }
+        }
+
+        void schedule() {
+            if (scheduled.compareAndSet(false, true))
+                executor.execute(this);
+        }
+
+        @Override
+        @LogMessageDoc(level="ERROR",
+                       message="Exception in listener {name}",
+                       explanation="A module failed to handle a controller " +
+                               "event",
+                       recommendation=LogMessageDoc.GENERIC_ACTION)
+        public void run() {
+            Runnable call;
+            while ((call = calls.poll()) != null) {
+                try {
+                    call.run();
+                } catch (Exception e) {
+                    logger.error("Exception in listener " + name, e);
+                }
+                if (depth.decrementAndGet() == 0 && removing)
+                    removeIfIdle();
+            }
+            scheduled.set(false);
+            // a call may have been added after the last poll
+            if (!calls.isEmpty())
+                schedule();
+        }
+    }
+
+    /**
+     * @param executor the executor the lanes run on.  It needs a thread per
+     * busy lane, so it should not be bounded.
+     */
+    public ListenerLanes(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Queue a call to a listener
+     * @param listener the listener the call is for
+     * @param name the name of the listener, for logging and metrics
+     * @param call the call to the listener
+     */
+    public void execute(T listener, String name, Runnable call) {
+        while (true) {
+            Lane lane = lanes.get(listener);
+            if (lane == null) {
+                Lane newLane = new Lane(listener, name);
+                lane = lanes.putIfAbsent(listener, newLane);
+                if (lane == null)
+                    lane = newLane;
+            }
+            // a dropped lane is already out of the map
+            if (lane.add(call))
+                return;
+        }
+    }
+
+    /**
+     * Forget the lane of a listener that was removed.  Calls that were
+     * already queued for it are still made first, and the lane is dropped
+     * once they are done.
+     */
+    public void remove(T listener) {
+        Lane lane = lanes.get(listener);
+        if (lane != null) {
+            lane.removing = true;
+            lane.removeIfIdle();
+        }
+    }
+
+    /**
+     * @return the number of calls waiting or running, per listener name
+     */
+    public Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> depths = new HashMap<String, Integer>();
+        for (Lane lane : lanes.values())
+            depths.put(lane.name, lane.depth.get());
+        return depths;
+    }
+
+    /**
+     * @return the most calls that were ever waiting, per listener name
+     */
+    public Map<String, Integer> getMaxQueueDepths() {
+        Map<String, Integer> depths = new HashMap<String, Integer>();
+        for (Lane lane : lanes.values())
+            depths.put(lane.name, lane.maxDepth.get());
+        return depths;
+    }
+
+    /**
+     * @return the number of calls waiting or running in all the lanes
+     */
+    public int getTotalQueueDepth() {
+        int total = 0;
+        for (Lane lane : lanes.values())
+            total += lane.depth.get();
+        return total;
+    }
+
+    /**
+     * Stop making calls.  Calls that weren't made yet are dropped.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
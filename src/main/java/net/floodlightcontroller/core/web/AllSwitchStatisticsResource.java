@@ -17,19 +17,27 @@
 
 package net.floodlightcontroller.core.web;
 
+import java.io.IOException;
 import java.lang.Thread.State;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import net.floodlightcontroller.core.IFloodlightProviderService;
 import net.floodlightcontroller.core.types.MacVlanPair;
+import net.floodlightcontroller.restserver.PageCollector;
+import net.floodlightcontroller.restserver.StreamingJsonRepresentation;
 
+import org.codehaus.jackson.JsonGenerator;
 import org.openflow.protocol.OFFeaturesReply;
 import org.openflow.protocol.statistics.OFStatistics;
 import org.openflow.protocol.statistics.OFStatisticsType;
 import org.openflow.util.HexString;
+import org.restlet.data.Form;
+import org.restlet.data.Status;
+import org.restlet.representation.Representation;
 import org.restlet.resource.Get;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,15 +50,138 @@ public class AllSwitchStatisticsResource extends SwitchResourceBase {
     protected static Logger log = 
         LoggerFactory.getLogger(AllSwitchStatisticsResource.class);
     
+    public static final String PAGE_ERROR =
+            "Invalid page: limit must be a positive integer and cursor " +
+            "the DPID of the last switch of the previous page";
+
+    protected static final PageCollector.KeyFunction<Long> DPID_KEY =
+            new PageCollector.KeyFunction<Long>() {
+        @Override
+        public long getKey(Long dpid) {
+            return dpid;
+        }
+    };
+
+    /**
+     * Handles the reply of each switch as it arrives
+     */
+    protected interface IStatisticsHandler {
+        public void statisticsReceived(long switchId, Object reply)
+                throws IOException;
+    }
+
+    /**
+     * The statistics of the switches are written to the client as each
+     * switch replies, so the replies of all the switches are never held at
+     * the same time.  The REST server holds the request's limit, and times
+     * the request, until the response is written, so the wait for the
+     * switches counts against both.  With a "limit" parameter, only that
+     * many switches are queried, in DPID order, and the "cursor" to get
+     * the next ones with is returned along with their statistics.
+     */
     @Get("json")
-    public Map<String, Object> retrieve() {    
-        String statType = (String) getRequestAttributes().get("statType");
-        return retrieveInternal(statType);
+    public Representation retrieve() {
+        final String statType = (String) getRequestAttributes().get("statType");
+        Form form = getQuery();
+        String limitStr = form.getFirstValue(PageCollector.LIMIT_PARAM, true);
+        String cursorStr = form.getFirstValue(PageCollector.CURSOR_PARAM, true);
+        Integer limit = null;
+        Long cursor = null;
+        try {
+            if (limitStr != null) {
+                limit = Integer.parseInt(limitStr);
+                if (limit <= 0) throw new NumberFormatException();
+            }
+            if (cursorStr != null)
+                cursor = HexString.toLong(cursorStr);
+        } catch (Exception e) {
+            setStatus(Status.CLIENT_ERROR_BAD_REQUEST, PAGE_ERROR);
+            return null;
+        }
+
+        IFloodlightProviderService floodlightProvider = 
+                (IFloodlightProviderService)getContext().getAttributes().
+                    get(IFloodlightProviderService.class.getCanonicalName());
+        Set<Long> dpids = floodlightProvider.getSwitches().keySet();
+        if (limit == null && cursor == null) {
+            final Long[] switchDpids = dpids.toArray(new Long[0]);
+            return new StreamingJsonRepresentation() {
+                @Override
+                protected void writeJson(JsonGenerator jGen)
+                        throws IOException {
+                    jGen.writeStartObject();
+                    writeStatistics(jGen, statType, switchDpids);
+                    jGen.writeEndObject();
+                }
+            };
+        }
+
+        final PageCollector<Long> page =
+                new PageCollector<Long>(DPID_KEY, cursor,
+                        (limit == null) ? Integer.MAX_VALUE : limit);
+        page.addAll(dpids.iterator());
+        return new StreamingJsonRepresentation() {
+            @Override
+            protected void writeJson(JsonGenerator jGen) throws IOException {
+                jGen.writeStartObject();
+                jGen.writeObjectFieldStart("switches");
+                writeStatistics(jGen, statType,
+                                page.getPage().toArray(new Long[0]));
+                jGen.writeEndObject();
+                Long next = page.getNextCursor();
+                if (next != null)
+                    jGen.writeStringField("cursor", HexString.toHexString(next));
+                else
+                    jGen.writeNullField("cursor");
+                jGen.writeEndObject();
+            }
+        };
     }
-        
+
+    /**
+     * Write a field with the statistics of each switch
+     */
+    protected void writeStatistics(final JsonGenerator jGen, String statType,
+                                   Long[] switchDpids) throws IOException {
+        getStatistics(statType, switchDpids, new IStatisticsHandler() {
+            @Override
+            public void statisticsReceived(long switchId, Object reply)
+                    throws IOException {
+                jGen.writeFieldName(HexString.toHexString(switchId));
+                jGen.writeObject(reply);
+                jGen.flush();
+            }
+        });
+    }
+
     public Map<String, Object> retrieveInternal(String statType) {
-        HashMap<String, Object> model = new HashMap<String, Object>();
+        final HashMap<String, Object> model = new HashMap<String, Object>();
+        IFloodlightProviderService floodlightProvider = 
+                (IFloodlightProviderService)getContext().getAttributes().
+                    get(IFloodlightProviderService.class.getCanonicalName());        
+        Long[] switchDpids = floodlightProvider.getSwitches().keySet().toArray(new Long[0]);
+        try {
+            getStatistics(statType, switchDpids, new IStatisticsHandler() {
+                @Override
+                public void statisticsReceived(long switchId, Object reply) {
+                    model.put(HexString.toHexString(switchId), reply);
+                }
+            });
+        } catch (IOException e) {
+            // the handler doesn't do any I/O
+        }
+        return model;
+    }
 
+    /**
+     * Query the switches, and hand each reply to the handler as it arrives
+     * @param statType the type of statistics
+     * @param switchDpids the switches to query
+     * @param handler gets the reply of each switch
+     */
+    protected void getStatistics(String statType, Long[] switchDpids,
+                                 IStatisticsHandler handler)
+                                         throws IOException {
         OFStatisticsType type = null;
         REQUESTTYPE rType = null;
         
@@ -75,13 +206,9 @@ public class AllSwitchStatisticsResource extends SwitchResourceBase {
         } else if (statType.equals("features")) {
             rType = REQUESTTYPE.OFFEATURES;
         } else {
-            return model;
+            return;
         }
         
-        IFloodlightProviderService floodlightProvider = 
-                (IFloodlightProviderService)getContext().getAttributes().
-                    get(IFloodlightProviderService.class.getCanonicalName());        
-        Long[] switchDpids = floodlightProvider.getSwitches().keySet().toArray(new Long[0]);
         List<GetConcurrentStatsThread> activeThreads = new ArrayList<GetConcurrentStatsThread>(switchDpids.length);
         List<GetConcurrentStatsThread> pendingRemovalThreads = new ArrayList<GetConcurrentStatsThread>();
         GetConcurrentStatsThread t;
@@ -99,9 +226,9 @@ public class AllSwitchStatisticsResource extends SwitchResourceBase {
             for (GetConcurrentStatsThread curThread : activeThreads) {
                 if (curThread.getState() == State.TERMINATED) {
                     if (rType == REQUESTTYPE.OFSTATS) {
-                        model.put(HexString.toHexString(curThread.getSwitchId()), curThread.getStatisticsReply());
+                        handler.statisticsReceived(curThread.getSwitchId(), curThread.getStatisticsReply());
                     } else if (rType == REQUESTTYPE.OFFEATURES) {
-                        model.put(HexString.toHexString(curThread.getSwitchId()), curThread.getFeaturesReply());
+                        handler.statisticsReceived(curThread.getSwitchId(), curThread.getFeaturesReply());
                     }
                     pendingRemovalThreads.add(curThread);
                 }
@@ -126,8 +253,6 @@ public class AllSwitchStatisticsResource extends SwitchResourceBase {
                 log.error("Interrupted while waiting for statistics", e);
             }
         }
-        
-        return model;
     }
     
     protected class GetConcurrentStatsThread extends Thread {
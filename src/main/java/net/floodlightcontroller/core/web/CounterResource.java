@@ -17,54 +17,68 @@
 
 package net.floodlightcontroller.core.web;
 
+import java.io.IOException;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
 
 import net.floodlightcontroller.counter.CounterValue;
 import net.floodlightcontroller.counter.ICounter;
+import net.floodlightcontroller.restserver.StreamingJsonRepresentation;
 
+import org.codehaus.jackson.JsonGenerator;
+import org.restlet.ext.jackson.JacksonRepresentation;
+import org.restlet.representation.Representation;
 import org.restlet.resource.Get;
 
 public class CounterResource extends CounterResourceBase {
     @Get("json")
-    public Map<String, Object> retrieve() {
+    public Representation retrieve() {
         String counterTitle = 
             (String) getRequestAttributes().get("counterTitle");
-        Map<String, Object> model = new HashMap<String,Object>();
-        CounterValue v;
         if (counterTitle.equalsIgnoreCase("all")) {
-            Map<String, ICounter> counters = this.counterStore.getAll();
-            if (counters != null) {
-                Iterator<Map.Entry<String, ICounter>> it = 
-                    counters.entrySet().iterator();
-                while (it.hasNext()) {
-                    Entry<String, ICounter> entry = it.next();
-                    String counterName = entry.getKey();
-                    v = entry.getValue().getCounterValue();
+            // Write the counters as they are read, there can be many
+            final Map<String, ICounter> counters = this.counterStore.getAll();
+            return new StreamingJsonRepresentation() {
+                @Override
+                protected void writeJson(JsonGenerator jGen)
+                        throws IOException {
+                    jGen.writeStartObject();
+                    if (counters != null) {
+                        for (Entry<String, ICounter> entry :
+                                counters.entrySet()) {
+                            writeCounter(jGen, entry.getKey(),
+                                         entry.getValue().getCounterValue());
+                        }
+                    }
+                    jGen.writeEndObject();
+                }
+            };
+        }
 
-                    if (CounterValue.CounterType.LONG == v.getType()) {
-                        model.put(counterName, v.getLong());
-                    } else if (v.getType() == CounterValue.CounterType.DOUBLE) {
-                        model.put(counterName, v.getDouble());
-                    }   
-                }   
-            }   
+        Map<String, Object> model = new HashMap<String,Object>();
+        CounterValue v;
+        ICounter counter = this.counterStore.getCounter(counterTitle);
+        if (counter != null) {
+            v = counter.getCounterValue();
         } else {
-            ICounter counter = this.counterStore.getCounter(counterTitle);
-            if (counter != null) {
-                v = counter.getCounterValue();
-            } else {
-                v = new CounterValue(CounterValue.CounterType.LONG);
-            }   
+            v = new CounterValue(CounterValue.CounterType.LONG);
+        }   
+
+        if (CounterValue.CounterType.LONG == v.getType()) {
+            model.put(counterTitle, v.getLong());
+        } else if (v.getType() == CounterValue.CounterType.DOUBLE) {
+            model.put(counterTitle, v.getDouble());
+        }   
+        return new JacksonRepresentation<Map<String, Object>>(model);
+    }
 
-            if (CounterValue.CounterType.LONG == v.getType()) {
-                model.put(counterTitle, v.getLong());
-            } else if (v.getType() == CounterValue.CounterType.DOUBLE) {
-                model.put(counterTitle, v.getDouble());
-            }   
+    protected static void writeCounter(JsonGenerator jGen, String counterName,
+                                       CounterValue v) throws IOException {
+        if (CounterValue.CounterType.LONG == v.getType()) {
+            jGen.writeNumberField(counterName, v.getLong());
+        } else if (v.getType() == CounterValue.CounterType.DOUBLE) {
+            jGen.writeNumberField(counterName, v.getDouble());
         }
-        return model;
     }
 }
@@ -33,13 +33,13 @@ import java.util.concurrent.TimeUnit;
 import javax.annotation.PostConstruct;
 
 import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.PacketMetadata;
 import net.floodlightcontroller.core.module.FloodlightModuleContext;
 import net.floodlightcontroller.core.module.FloodlightModuleException;
 import net.floodlightcontroller.core.module.IFloodlightModule;
 import net.floodlightcontroller.core.module.IFloodlightService;
 import net.floodlightcontroller.counter.CounterValue.CounterType;
 import net.floodlightcontroller.packet.Ethernet;
-import net.floodlightcontroller.packet.IPv4;
 
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFPacketIn;
@@ -79,7 +79,57 @@ public class CounterStore implements IFloodlightModule, ICounterStoreService {
     protected static Map<NetworkLayer, Map<String, List<String>>> layeredCategories = 
             new ConcurrentHashMap<NetworkLayer, Map<String, List<String>>> ();
 
-    public void updatePacketInCounters(IOFSwitch sw, OFMessage m, Ethernet eth) {
+    /**
+     * L3 counter categories by unsigned ethertype, filled in lazily
+     */
+    protected final String[] l3Types = new String[0x10000];
+
+    /**
+     * L4 counter categories by IP protocol, filled in lazily
+     */
+    protected final String[] l4Types = new String[0x100];
+
+    protected static final String PACKET_IN_NAME = OFPacketIn.class.getSimpleName();
+
+    protected String getL3Type(short etherType) {
+        String l3Type = l3Types[etherType & 0xffff];
+        if (l3Type == null) {
+            l3Type = String.format("%04x", etherType);
+            /*
+             * Valid EtherType must be greater than or equal to 0x0600
+             * It is V1 Ethernet Frame if EtherType < 0x0600
+             */
+            if (etherType < 0x0600) {
+                l3Type = "0599";
+            }
+            if (TypeAliases.l3TypeAliasMap != null && 
+                TypeAliases.l3TypeAliasMap.containsKey(l3Type)) {
+                l3Type = TypeAliases.l3TypeAliasMap.get(l3Type);
+            } else {
+                l3Type = "L3_" + l3Type;
+            }
+            l3Types[etherType & 0xffff] = l3Type;
+        }
+        return l3Type;
+    }
+
+    protected String getL4Type(byte protocol) {
+        String l4Type = l4Types[protocol & 0xff];
+        if (l4Type == null) {
+            l4Type = String.format("%02x", protocol);
+            if (TypeAliases.l4TypeAliasMap != null && 
+                    TypeAliases.l4TypeAliasMap.containsKey(l4Type)) {
+                l4Type = TypeAliases.l4TypeAliasMap.get(l4Type);
+            } else {
+                l4Type = "L4_" + l4Type;
+            }
+            l4Types[protocol & 0xff] = l4Type;
+        }
+        return l4Type;
+    }
+
+    public void updatePacketInCounters(IOFSwitch sw, OFMessage m,
+                                       PacketMetadata pm) {
         OFPacketIn packet = (OFPacketIn)m;
         
         // Make sure there is data
@@ -87,26 +137,10 @@ public class CounterStore implements IFloodlightModule, ICounterStoreService {
         
         /* Extract the etherType and protocol field for IPv4 packet.
          */
-        String etherType = String.format("%04x", eth.getEtherType());
-        
-        /*
-         * Valid EtherType must be greater than or equal to 0x0600
-         * It is V1 Ethernet Frame if EtherType < 0x0600
-         */
-        if (eth.getEtherType() < 0x0600) {
-            etherType = "0599";
-        }
-
-        if (TypeAliases.l3TypeAliasMap != null && 
-            TypeAliases.l3TypeAliasMap.containsKey(etherType)) {
-            etherType = TypeAliases.l3TypeAliasMap.get(etherType);
-        } else {
-            etherType = "L3_" + etherType;
-        }
+        String etherType = getL3Type(pm.getDataLayerType());
         String switchIdHex = sw.getStringId();
    
-        String packetName = m.getType().toClass().getName();
-        packetName = packetName.substring(packetName.lastIndexOf('.')+1); 
+        String packetName = PACKET_IN_NAME;
         
         // Construct controller counter for the packet_in
         String controllerCounterName =
@@ -122,9 +156,9 @@ public class CounterStore implements IFloodlightModule, ICounterStoreService {
                                            NetworkLayer.L3);
 
         String l2Type = null;
-        if (eth.isBroadcast()) {
+        if (pm.isBroadcast()) {
         	l2Type = BROADCAST;
-        } else if (eth.isMulticast()) {
+        } else if (pm.isMulticast()) {
         	l2Type = MULTICAST;
         } else {
         	l2Type = UNICAST;
@@ -231,15 +265,8 @@ public class CounterStore implements IFloodlightModule, ICounterStoreService {
         switchL3Counter.increment();
 
         // L4 counters
-        if (etherType.compareTo(CounterStore.L3ET_IPV4) == 0) {
-            IPv4 ipV4 = (IPv4)eth.getPayload();
-            String l4Type = String.format("%02x", ipV4.getProtocol());
-            if (TypeAliases.l4TypeAliasMap != null && 
-                    TypeAliases.l4TypeAliasMap.containsKey(l4Type)) {
-                l4Type = TypeAliases.l4TypeAliasMap.get(l4Type);
-            } else {
-                l4Type = "L4_" + l4Type;
-            }
+        if (pm.getDataLayerType() == Ethernet.TYPE_IPv4) {
+            String l4Type = getL4Type(pm.getNetworkProtocol());
             String controllerL4CategoryCounterName = 
                     CounterStore.createCounterName(CONTROLLER_NAME, 
                                                    -1, 
@@ -6,9 +6,9 @@ import java.util.Map;
 import org.openflow.protocol.OFMessage;
 
 import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.PacketMetadata;
 import net.floodlightcontroller.core.module.IFloodlightService;
 import net.floodlightcontroller.counter.CounterStore.NetworkLayer;
-import net.floodlightcontroller.packet.Ethernet;
 
 public interface ICounterStoreService extends IFloodlightService {
 
@@ -28,9 +28,10 @@ public interface ICounterStoreService extends IFloodlightService {
      * 
      * @param sw
      * @param m
-     * @param eth
+     * @param pm the header fields of the packet-in
      */
-    public void updatePacketInCounters(IOFSwitch sw, OFMessage m, Ethernet eth);
+    public void updatePacketInCounters(IOFSwitch sw, OFMessage m,
+                                       PacketMetadata pm);
     
     /**
      * This method can only be used to update packetOut and flowmod counters
@@ -10,13 +10,13 @@ import java.util.Map;
 import org.openflow.protocol.OFMessage;
 
 import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.PacketMetadata;
 import net.floodlightcontroller.core.module.FloodlightModuleContext;
 import net.floodlightcontroller.core.module.FloodlightModuleException;
 import net.floodlightcontroller.core.module.IFloodlightModule;
 import net.floodlightcontroller.core.module.IFloodlightService;
 import net.floodlightcontroller.counter.CounterStore.NetworkLayer;
 import net.floodlightcontroller.counter.CounterValue.CounterType;
-import net.floodlightcontroller.packet.Ethernet;
 
 /**
  * An ICounsterStoreService implementation that does nothing.
@@ -33,7 +33,8 @@ public class NullCounterStore implements IFloodlightModule,
     private Map<String, ICounter> emptyMap;
     
     @Override
-    public void updatePacketInCounters(IOFSwitch sw, OFMessage m, Ethernet eth) {
+    public void updatePacketInCounters(IOFSwitch sw, OFMessage m,
+                                       PacketMetadata pm) {
         // no-op
     }
 
@@ -137,9 +137,10 @@ public interface IDeviceService extends IFloodlightService {
     
     /**
      * Find devices that match the provided query.  Any fields that are
-     * null will not be included in the query.  If there is an index for 
-     * the query, then it will be performed efficiently using the index.
-     * Otherwise, there will be a full scan of the device list.
+     * null will not be included in the query.  If there are indices on
+     * any of the fields of the query, then it will be performed
+     * efficiently using the most selective of them.  Otherwise, there
+     * will be a full scan of the device list.
      * 
      * @param macAddress The MAC address
      * @param vlan the VLAN
@@ -156,6 +157,30 @@ public interface IDeviceService extends IFloodlightService {
                                                     Long switchDPID,
                                                     Integer switchPort);
 
+    /**
+     * Find devices that match the provided query, with an IPv4 address in
+     * the given prefix.  Any fields that are null will not be included in
+     * the query.  The indices on any of the fields of the query are used
+     * if there are some.  Otherwise, there will be a full scan of the
+     * device list.
+     * 
+     * @param macAddress The MAC address
+     * @param vlan the VLAN
+     * @param ipv4Address an ipv4 address in the prefix
+     * @param ipv4PrefixLength the length of the ipv4 prefix, 32 to match
+     * the address exactly
+     * @param switchDPID the switch DPID
+     * @param switchPort the switch port
+     * @return an iterator over a set of devices matching the query
+     * @see IDeviceService#queryDevices(Long, Short, Integer, Long, Integer)
+     */
+    public Iterator<? extends IDevice> queryDevices(Long macAddress,
+                                                    Short vlan,
+                                                    Integer ipv4Address, 
+                                                    int ipv4PrefixLength,
+                                                    Long switchDPID,
+                                                    Integer switchPort);
+
     /**
      * Find devices that match the provided query.  Only the index for
      * the class of the specified reference device will be searched.  
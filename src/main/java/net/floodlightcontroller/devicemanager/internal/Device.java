@@ -56,7 +56,30 @@ public class Device implements IDevice {
     protected Long deviceKey;
     protected DeviceManagerImpl deviceManager;
 
-    protected Entity[] entities;
+    /*
+     * The entities of the device are not kept as Entity objects. Each
+     * entity is packed into ENTITY_FIELDS consecutive longs of entityData,
+     * in Entity sort order, and Entity objects are only built when a caller
+     * asks for them. This saves the Entity object and the boxed IP, VLAN,
+     * DPID and port of every entity in the device table.
+     */
+    private static final int MAC = 0;
+    private static final int DPID = 1;
+    /** switch port in the high word, IPv4 address in the low word */
+    private static final int PORT_IP = 2;
+    /** VLAN in the low 16 bits, HAS_* flags above */
+    private static final int VLAN_FLAGS = 3;
+    private static final int LAST_SEEN = 4;
+    private static final int ACTIVE_SINCE = 5;
+    static final int ENTITY_FIELDS = 6;
+
+    private static final long VLAN_MASK = 0xffffL;
+    private static final long HAS_VLAN = 1L << 16;
+    private static final long HAS_IP = 1L << 17;
+    private static final long HAS_DPID = 1L << 18;
+    private static final long HAS_PORT = 1L << 19;
+
+    protected long[] entityData;
     protected IEntityClass entityClass;
 
     protected String macAddressString;
@@ -87,11 +110,11 @@ public class Device implements IDevice {
                   IEntityClass entityClass) {
         this.deviceManager = deviceManager;
         this.deviceKey = deviceKey;
-        this.entities = new Entity[] {entity};
+        this.entityData = new long[ENTITY_FIELDS];
+        packEntity(this.entityData, 0, entity);
         this.macAddressString =
                 HexString.toHexString(entity.getMacAddress(), 6);
         this.entityClass = entityClass;
-        Arrays.sort(this.entities);
 
         this.oldAPs = null;
         this.attachmentPoints = null;
@@ -104,9 +127,9 @@ public class Device implements IDevice {
             if (deviceManager.isValidAttachmentPoint(sw, port)) {
                 AttachmentPoint ap;
                 ap = new AttachmentPoint(sw, port,
-entity.getLastSeenTimestamp().getTime());
+entity.getLastSeenTime());
 
-                this.attachmentPoints = new ArrayList<AttachmentPoint>();
+                this.attachmentPoints = new ArrayList<AttachmentPoint>(1);
                 this.attachmentPoints.add(ap);
             }
         }
@@ -127,7 +150,12 @@ entity.getLastSeenTimestamp().getTime());
                   IEntityClass entityClass) {
         this.deviceManager = deviceManager;
         this.deviceKey = deviceKey;
-        this.entities = entities.toArray(new Entity[entities.size()]);
+        Entity[] sorted = entities.toArray(new Entity[entities.size()]);
+        Arrays.sort(sorted);
+        this.entityData = new long[sorted.length * ENTITY_FIELDS];
+        for (int i = 0; i < sorted.length; i++) {
+            packEntity(this.entityData, i, sorted[i]);
+        }
         this.oldAPs = null;
         this.attachmentPoints = null;
         if (oldAPs != null) {
@@ -139,9 +167,8 @@ entity.getLastSeenTimestamp().getTime());
                     new ArrayList<AttachmentPoint>(attachmentPoints);
         }
         this.macAddressString =
-                HexString.toHexString(this.entities[0].getMacAddress(), 6);
+                HexString.toHexString(sorted[0].getMacAddress(), 6);
         this.entityClass = entityClass;
-        Arrays.sort(this.entities);
     }
 
     /**
@@ -155,10 +182,15 @@ entity.getLastSeenTimestamp().getTime());
                   Entity newEntity) {
         this.deviceManager = device.deviceManager;
         this.deviceKey = device.deviceKey;
-        this.entities = Arrays.<Entity>copyOf(device.entities,
-                                              device.entities.length + 1);
-        this.entities[this.entities.length - 1] = newEntity;
-        Arrays.sort(this.entities);
+        int pos = device.entityIndex(newEntity);
+        if (pos < 0) pos = -(pos + 1);
+        long[] old = device.entityData;
+        this.entityData = new long[old.length + ENTITY_FIELDS];
+        System.arraycopy(old, 0, this.entityData, 0, pos * ENTITY_FIELDS);
+        packEntity(this.entityData, pos, newEntity);
+        System.arraycopy(old, pos * ENTITY_FIELDS,
+                         this.entityData, (pos + 1) * ENTITY_FIELDS,
+                         old.length - pos * ENTITY_FIELDS);
         this.oldAPs = null;
         if (device.oldAPs != null) {
             this.oldAPs =
@@ -170,8 +202,8 @@ entity.getLastSeenTimestamp().getTime());
                     new ArrayList<AttachmentPoint>(device.attachmentPoints);
         }
 
-        this.macAddressString =
-                HexString.toHexString(this.entities[0].getMacAddress(), 6);
+        // all the entities of a device have the same MAC
+        this.macAddressString = device.macAddressString;
 
         this.entityClass = device.entityClass;
     }
@@ -556,7 +588,7 @@ entity.getLastSeenTimestamp().getTime());
     @Override
     public long getMACAddress() {
         // we assume only one MAC per device for now.
-        return entities[0].getMacAddress();
+        return entityData[MAC];
     }
 
     @Override
@@ -566,20 +598,14 @@ entity.getLastSeenTimestamp().getTime());
 
     @Override
     public Short[] getVlanId() {
-        if (entities.length == 1) {
-            if (entities[0].getVlan() != null) {
-                return new Short[]{ entities[0].getVlan() };
-            } else {
-                return new Short[] { Short.valueOf((short)-1) };
-            }
+        int count = getEntityCount();
+        if (count == 1) {
+            return new Short[] { Short.valueOf(vlanOrUntagged(0, (short)-1)) };
         }
 
         TreeSet<Short> vals = new TreeSet<Short>();
-        for (Entity e : entities) {
-            if (e.getVlan() == null)
-                vals.add((short)-1);
-            else
-                vals.add(e.getVlan());
+        for (int i = 0; i < count; i++) {
+            vals.add(vlanOrUntagged(i, (short)-1));
         }
         return vals.toArray(new Short[vals.size()]);
     }
@@ -592,24 +618,29 @@ entity.getLastSeenTimestamp().getTime());
         // is really a performance bottleneck first though.
 
         TreeSet<Integer> vals = new TreeSet<Integer>();
-        for (Entity e : entities) {
-            if (e.getIpv4Address() == null) continue;
+        int count = getEntityCount();
+        for (int i = 0; i < count; i++) {
+            if (!hasEntityField(i, HAS_IP)) continue;
+            int ip = getEntityIPv4Address(i);
+            long lastSeen = getEntityLastSeenTime(i);
 
             // We have an IP address only if among the devices within the class
             // we have the most recent entity with that IP.
             boolean validIP = true;
             Iterator<Device> devices =
-                    deviceManager.queryClassByEntity(entityClass, ipv4Fields, e);
+                    deviceManager.queryClassByEntity(entityClass, ipv4Fields,
+                                                     getEntity(i));
             while (devices.hasNext()) {
                 Device d = devices.next();
                 if (deviceKey.equals(d.getDeviceKey())) 
                     continue;
-                for (Entity se : d.entities) {
-                    if (se.getIpv4Address() != null &&
-                            se.getIpv4Address().equals(e.getIpv4Address()) &&
-                            se.getLastSeenTimestamp() != null &&
-                            0 < se.getLastSeenTimestamp().
-                            compareTo(e.getLastSeenTimestamp())) {
+                int otherCount = d.getEntityCount();
+                for (int j = 0; j < otherCount; j++) {
+                    long otherSeen = d.getEntityLastSeenTime(j);
+                    if (d.hasEntityField(j, HAS_IP) &&
+                            d.getEntityIPv4Address(j) == ip &&
+                            otherSeen != Entity.NO_TIMESTAMP &&
+                            otherSeen > lastSeen) {
                         validIP = false;
                         break;
                     }
@@ -619,7 +650,7 @@ entity.getLastSeenTimestamp().getTime());
             }
 
             if (validIP)
-                vals.add(e.getIpv4Address());
+                vals.add(ip);
         }
 
         return vals.toArray(new Integer[vals.size()]);
@@ -628,13 +659,12 @@ entity.getLastSeenTimestamp().getTime());
     @Override
     public Short[] getSwitchPortVlanIds(SwitchPort swp) {
         TreeSet<Short> vals = new TreeSet<Short>();
-        for (Entity e : entities) {
-            if (e.switchDPID == swp.getSwitchDPID() 
-                    && e.switchPort == swp.getPort()) {
-                if (e.getVlan() == null)
-                    vals.add(Ethernet.VLAN_UNTAGGED);
-                else
-                    vals.add(e.getVlan());
+        int count = getEntityCount();
+        for (int i = 0; i < count; i++) {
+            if (hasEntitySwitchPort(i) &&
+                    getEntitySwitchDPID(i) == swp.getSwitchDPID() &&
+                    getEntitySwitchPort(i) == swp.getPort()) {
+                vals.add(vlanOrUntagged(i, Ethernet.VLAN_UNTAGGED));
             }
         }
         return vals.toArray(new Short[vals.size()]);
@@ -642,13 +672,13 @@ entity.getLastSeenTimestamp().getTime());
 
     @Override
     public Date getLastSeen() {
-        Date d = null;
-        for (int i = 0; i < entities.length; i++) {
-            if (d == null ||
-                    entities[i].getLastSeenTimestamp().compareTo(d) > 0)
-                d = entities[i].getLastSeenTimestamp();
+        long d = Entity.NO_TIMESTAMP;
+        int count = getEntityCount();
+        for (int i = 0; i < count; i++) {
+            if (getEntityLastSeenTime(i) > d)
+                d = getEntityLastSeenTime(i);
         }
-        return d;
+        return (d == Entity.NO_TIMESTAMP) ? null : new Date(d);
     }
 
     // ***************
@@ -660,8 +690,86 @@ entity.getLastSeenTimestamp().getTime());
         return entityClass;
     }
 
+    /**
+     * Get the entities of the device. The entities are built from the
+     * packed entity fields on every call; changing them does not change
+     * the device.
+     * @return the entities of the device in sort order
+     */
     public Entity[] getEntities() {
-        return entities;
+        Entity[] result = new Entity[getEntityCount()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = getEntity(i);
+        }
+        return result;
+    }
+
+    /**
+     * Get the number of entities of the device
+     * @return the number of entities
+     */
+    public int getEntityCount() {
+        return entityData.length / ENTITY_FIELDS;
+    }
+
+    /**
+     * Build the entity at the given index
+     * @param i the index of the entity, as returned by
+     *        {@link #entityIndex(Entity)}
+     * @return a new entity with the fields of the stored entity
+     */
+    public Entity getEntity(int i) {
+        int o = i * ENTITY_FIELDS;
+        long flags = entityData[o + VLAN_FLAGS];
+        Entity e = new Entity(entityData[o + MAC],
+                              (flags & HAS_VLAN) == 0 ? null :
+                                  Short.valueOf((short)(flags & VLAN_MASK)),
+                              (flags & HAS_IP) == 0 ? null :
+                                  Integer.valueOf(getEntityIPv4Address(i)),
+                              (flags & HAS_DPID) == 0 ? null :
+                                  Long.valueOf(entityData[o + DPID]),
+                              (flags & HAS_PORT) == 0 ? null :
+                                  Integer.valueOf(getEntityPort(i)),
+                              entityData[o + LAST_SEEN]);
+        e.activeSince = entityData[o + ACTIVE_SINCE];
+        return e;
+    }
+
+    /**
+     * Whether the entity at the given index has both a switch DPID and a
+     * switch port
+     * @param i the index of the entity
+     */
+    protected boolean hasEntitySwitchPort(int i) {
+        return hasEntityField(i, HAS_DPID) && hasEntityField(i, HAS_PORT);
+    }
+
+    protected long getEntitySwitchDPID(int i) {
+        return entityData[i * ENTITY_FIELDS + DPID];
+    }
+
+    protected short getEntitySwitchPort(int i) {
+        return (short)getEntityPort(i);
+    }
+
+    protected long getEntityLastSeenTime(int i) {
+        return entityData[i * ENTITY_FIELDS + LAST_SEEN];
+    }
+
+    /**
+     * Set the last seen time of the entity at the given index and also
+     * update its active since time, like
+     * {@link Entity#setLastSeenTime(long)}
+     * @param i the index of the entity
+     * @param lastSeenTime the new last seen time in milliseconds
+     */
+    protected void setEntityLastSeenTime(int i, long lastSeenTime) {
+        int o = i * ENTITY_FIELDS;
+        long activeSince = entityData[o + ACTIVE_SINCE];
+        if (activeSince == Entity.NO_TIMESTAMP ||
+            (activeSince + Entity.ACTIVITY_TIMEOUT) < lastSeenTime)
+            entityData[o + ACTIVE_SINCE] = lastSeenTime;
+        entityData[o + LAST_SEEN] = lastSeenTime;
     }
 
     // ***************
@@ -674,7 +782,97 @@ entity.getLastSeenTimestamp().getTime());
      * @return the index of the entity, or <0 if not found
      */
     protected int entityIndex(Entity entity) {
-        return Arrays.binarySearch(entities, entity);
+        int low = 0;
+        int high = getEntityCount() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int r = compareEntity(mid, entity);
+            if (r < 0)
+                low = mid + 1;
+            else if (r > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Compare the entity at the given index with the given entity in the
+     * order of {@link Entity#compareTo(Entity)}
+     */
+    private int compareEntity(int i, Entity e) {
+        int o = i * ENTITY_FIELDS;
+        long mac = entityData[o + MAC];
+        if (mac < e.macAddress) return -1;
+        if (mac > e.macAddress) return 1;
+
+        int r = compareField(hasEntityField(i, HAS_DPID),
+                             entityData[o + DPID], e.switchDPID);
+        if (r != 0) return r;
+        r = compareField(hasEntityField(i, HAS_PORT),
+                         getEntityPort(i), e.switchPort);
+        if (r != 0) return r;
+        r = compareField(hasEntityField(i, HAS_IP),
+                         getEntityIPv4Address(i), e.ipv4Address);
+        if (r != 0) return r;
+        return compareField(hasEntityField(i, HAS_VLAN),
+                            (short)(entityData[o + VLAN_FLAGS] & VLAN_MASK),
+                            e.vlan);
+    }
+
+    private static int compareField(boolean present, long value,
+                                    Number other) {
+        if (!present)
+            return other == null ? 0 : -1;
+        if (other == null)
+            return 1;
+        long o = other.longValue();
+        return value < o ? -1 : (value == o ? 0 : 1);
+    }
+
+    private boolean hasEntityField(int i, long flag) {
+        return (entityData[i * ENTITY_FIELDS + VLAN_FLAGS] & flag) != 0;
+    }
+
+    private int getEntityIPv4Address(int i) {
+        return (int)entityData[i * ENTITY_FIELDS + PORT_IP];
+    }
+
+    private int getEntityPort(int i) {
+        return (int)(entityData[i * ENTITY_FIELDS + PORT_IP] >>> 32);
+    }
+
+    private short vlanOrUntagged(int i, short untagged) {
+        if (!hasEntityField(i, HAS_VLAN)) return untagged;
+        return (short)(entityData[i * ENTITY_FIELDS + VLAN_FLAGS] & VLAN_MASK);
+    }
+
+    /**
+     * Pack the fields of an entity into the given entity data
+     * @param data the packed entity data
+     * @param i the index of the entity in data
+     * @param e the entity
+     */
+    private static void packEntity(long[] data, int i, Entity e) {
+        int o = i * ENTITY_FIELDS;
+        long flags = 0;
+        if (e.vlan != null)
+            flags |= HAS_VLAN | (e.vlan.longValue() & VLAN_MASK);
+        if (e.ipv4Address != null)
+            flags |= HAS_IP;
+        if (e.switchDPID != null)
+            flags |= HAS_DPID;
+        if (e.switchPort != null)
+            flags |= HAS_PORT;
+        data[o + MAC] = e.macAddress;
+        data[o + DPID] = (e.switchDPID == null) ? 0 : e.switchDPID;
+        data[o + PORT_IP] =
+                ((e.switchPort == null) ? 0L : (long)e.switchPort << 32) |
+                ((e.ipv4Address == null) ? 0L : e.ipv4Address & 0xffffffffL);
+        data[o + VLAN_FLAGS] = flags;
+        data[o + LAST_SEEN] = e.lastSeenTimestamp;
+        data[o + ACTIVE_SINCE] = e.activeSince;
     }
 
     // ******
@@ -685,7 +883,13 @@ entity.getLastSeenTimestamp().getTime());
     public int hashCode() {
         final int prime = 31;
         int result = 1;
-        result = prime * result + Arrays.hashCode(entities);
+        // the timestamps are not part of the identity of an entity
+        for (int o = 0; o < entityData.length; o += ENTITY_FIELDS) {
+            for (int f = MAC; f <= VLAN_FLAGS; f++) {
+                long v = entityData[o + f];
+                result = prime * result + (int)(v ^ (v >>> 32));
+            }
+        }
         return result;
     }
 
@@ -696,7 +900,13 @@ entity.getLastSeenTimestamp().getTime());
         if (getClass() != obj.getClass()) return false;
         Device other = (Device) obj;
         if (!deviceKey.equals(other.deviceKey)) return false;
-        if (!Arrays.equals(entities, other.entities)) return false;
+        if (entityData.length != other.entityData.length) return false;
+        for (int o = 0; o < entityData.length; o += ENTITY_FIELDS) {
+            for (int f = MAC; f <= VLAN_FLAGS; f++) {
+                if (entityData[o + f] != other.entityData[o + f])
+                    return false;
+            }
+        }
         return true;
     }
 
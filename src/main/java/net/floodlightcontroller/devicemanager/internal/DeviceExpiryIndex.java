@@ -0,0 +1,160 @@
+/**
+ *    Copyright 2012 Big Switch Networks, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ **/
+
+package net.floodlightcontroller.devicemanager.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * An index of device keys ordered by the time at which the oldest entity
+ * of the device expires.  Times are grouped into slots of a fixed width
+ * so that devices expiring close together are handled in one pass.
+ *
+ * A device is only ever scheduled once, at its earliest known expiry
+ * time.  Refreshing an entity does not touch the index; instead, when a
+ * device comes due the caller removes whatever actually expired and
+ * schedules the device again for the oldest remaining entity.  Devices
+ * scheduled after a slot has been polled go to a later slot, so a device
+ * is checked at most once per slot and at most one slot late.
+ */
+public class DeviceExpiryIndex {
+    /**
+     * Width of a slot in milliseconds
+     */
+    protected long slotWidth;
+
+    /**
+     * Map from slot to the keys of the devices due in that slot
+     */
+    protected TreeMap<Long, Set<Long>> slots;
+
+    /**
+     * Map from device key to the slot the device is scheduled in
+     */
+    protected Map<Long, Long> scheduled;
+
+    /**
+     * The most recent slot returned by pollExpired
+     */
+    protected long lastPolledSlot = Long.MIN_VALUE;
+
+    /**
+     * Construct a new expiry index
+     * @param slotWidth the width of a slot in milliseconds
+     */
+    public DeviceExpiryIndex(long slotWidth) {
+        if (slotWidth <= 0)
+            throw new IllegalArgumentException("Slot width must be positive");
+        this.slotWidth = slotWidth;
+        this.slots = new TreeMap<Long, Set<Long>>();
+        this.scheduled = new HashMap<Long, Long>();
+    }
+
+    /**
+     * Schedule a device to be checked at the given expiry time.  If the
+     * device is already scheduled at an earlier or equal time this is a
+     * no-op; if it is scheduled later it is moved.
+     * @param deviceKey the device key
+     * @param expiryTime the expiry time in milliseconds
+     */
+    public synchronized void schedule(Long deviceKey, long expiryTime) {
+        Long slot = Long.valueOf(Math.max(expiryTime / slotWidth,
+                                          lastPolledSlot + 1));
+        Long oldSlot = scheduled.get(deviceKey);
+        if (oldSlot != null) {
+            if (oldSlot.longValue() <= slot.longValue()) return;
+            removeFromSlot(oldSlot, deviceKey);
+        }
+        scheduled.put(deviceKey, slot);
+        Set<Long> keys = slots.get(slot);
+        if (keys == null) {
+            keys = new LinkedHashSet<Long>();
+            slots.put(slot, keys);
+        }
+        keys.add(deviceKey);
+    }
+
+    /**
+     * Remove a device from the index
+     * @param deviceKey the device key
+     */
+    public synchronized void remove(Long deviceKey) {
+        Long slot = scheduled.remove(deviceKey);
+        if (slot != null)
+            removeFromSlot(slot, deviceKey);
+    }
+
+    /**
+     * Remove and return the keys of up to maxDevices devices that are due
+     * at the given time, oldest first.
+     * @param now the current time in milliseconds
+     * @param maxDevices the maximum number of device keys to return
+     * @return the due device keys
+     */
+    public synchronized List<Long> pollExpired(long now, int maxDevices) {
+        List<Long> expired = new ArrayList<Long>();
+        long nowSlot = now / slotWidth;
+        if (nowSlot > lastPolledSlot)
+            lastPolledSlot = nowSlot;
+        while (expired.size() < maxDevices && !slots.isEmpty()) {
+            Map.Entry<Long, Set<Long>> first = slots.firstEntry();
+            if (first.getKey().longValue() > nowSlot) break;
+
+            Iterator<Long> it = first.getValue().iterator();
+            while (it.hasNext() && expired.size() < maxDevices) {
+                Long deviceKey = it.next();
+                it.remove();
+                scheduled.remove(deviceKey);
+                expired.add(deviceKey);
+            }
+            if (first.getValue().isEmpty())
+                slots.remove(first.getKey());
+        }
+        return expired;
+    }
+
+    /**
+     * Get the number of scheduled devices
+     * @return the number of devices in the index
+     */
+    public synchronized int size() {
+        return scheduled.size();
+    }
+
+    /**
+     * Remove all devices from the index
+     */
+    public synchronized void clear() {
+        slots.clear();
+        scheduled.clear();
+        lastPolledSlot = Long.MIN_VALUE;
+    }
+
+    private void removeFromSlot(Long slot, Long deviceKey) {
+        Set<Long> keys = slots.get(slot);
+        if (keys == null) return;
+        keys.remove(deviceKey);
+        if (keys.isEmpty())
+            slots.remove(slot);
+    }
+}
@@ -0,0 +1,137 @@
+/**
+*    Copyright 2012 Big Switch Networks, Inc.
+*    Originally created by David Erickson, Stanford University
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.devicemanager.internal;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import net.floodlightcontroller.devicemanager.IDeviceService.DeviceField;
+import net.floodlightcontroller.util.IterableIterator;
+
+/**
+ * An index on the IPv4 address of entities that keeps the addresses
+ * sorted, so that it can also find all the devices in an IPv4 prefix
+ */
+public class DeviceIPv4Index extends DeviceIndex {
+    /**
+     * The device keys for each IPv4 address, as an unsigned value
+     */
+    private ConcurrentSkipListMap<Long, Collection<Long>> index;
+
+    public DeviceIPv4Index() {
+        super(EnumSet.of(DeviceField.IPV4));
+        index = new ConcurrentSkipListMap<Long, Collection<Long>>();
+    }
+
+    private static long toKey(int ipv4Address) {
+        return ipv4Address & 0xffffffffL;
+    }
+
+    /**
+     * Find the device keys of all entities with an IPv4 address in the
+     * given prefix
+     * @param ipv4Address an address in the prefix
+     * @param prefixLength the length of the prefix, from 0 to 32
+     * @return the device keys
+     */
+    public Collection<Long> findKeysByPrefix(int ipv4Address,
+                                             int prefixLength) {
+        if (prefixLength >= 32) {
+            Collection<Long> devices = index.get(toKey(ipv4Address));
+            if (devices != null)
+                return devices;
+            return Collections.<Long>emptySet();
+        }
+        long mask = (prefixLength <= 0) ? 0 :
+            (0xffffffffL << (32 - prefixLength)) & 0xffffffffL;
+        long low = toKey(ipv4Address) & mask;
+        long high = low | (~mask & 0xffffffffL);
+        // a device can have several addresses in the prefix
+        Set<Long> devices = new HashSet<Long>();
+        for (Collection<Long> c : index.subMap(low, true, high, true).values())
+            devices.addAll(c);
+        return devices;
+    }
+
+    // ***********
+    // DeviceIndex
+    // ***********
+
+    @Override
+    public Iterator<Long> queryByEntity(Entity entity) {
+        return findKeysByEntity(entity).iterator();
+    }
+
+    @Override
+    public Collection<Long> findKeysByEntity(Entity entity) {
+        if (entity.ipv4Address == null)
+            return Collections.<Long>emptySet();
+        return findKeysByPrefix(entity.ipv4Address, 32);
+    }
+
+    @Override
+    public Iterator<Long> getAll() {
+        return new IterableIterator<Long>(index.values().iterator());
+    }
+
+    @Override
+    public boolean updateIndex(Device device, Long deviceKey) {
+        for (Entity e : device.getEntities()) {
+            updateIndex(e, deviceKey);
+        }
+        return true;
+    }
+
+    @Override
+    public void updateIndex(Entity entity, Long deviceKey) {
+        if (entity.ipv4Address == null) return;
+
+        long key = toKey(entity.ipv4Address);
+        Collection<Long> devices = index.get(key);
+        if (devices == null) {
+            Map<Long,Boolean> chm = new ConcurrentHashMap<Long,Boolean>(2);
+            devices = Collections.newSetFromMap(chm);
+            Collection<Long> r = index.putIfAbsent(key, devices);
+            if (r != null)
+                devices = r;
+        }
+
+        devices.add(deviceKey);
+    }
+
+    @Override
+    public void removeEntity(Entity entity) {
+        if (entity.ipv4Address != null)
+            index.remove(toKey(entity.ipv4Address));
+    }
+
+    @Override
+    public void removeEntity(Entity entity, Long deviceKey) {
+        if (entity.ipv4Address == null) return;
+        Collection<Long> devices = index.get(toKey(entity.ipv4Address));
+        if (devices != null)
+            devices.remove(deviceKey);
+    }
+}
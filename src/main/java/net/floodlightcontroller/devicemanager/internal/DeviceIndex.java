@@ -17,9 +17,11 @@
 
 package net.floodlightcontroller.devicemanager.internal;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.EnumSet;
 import java.util.Iterator;
+import java.util.List;
 
 import net.floodlightcontroller.devicemanager.IDeviceService.DeviceField;
 
@@ -32,6 +34,30 @@ public abstract class DeviceIndex {
      */
     protected EnumSet<DeviceField> keyFields;
 
+    /**
+     * Value returned by {@link #packKey(Entity)} for an entity whose key
+     * fields cannot be packed into a long
+     */
+    protected static final long UNPACKABLE = Long.MIN_VALUE;
+
+    // Bits used for each key field in a packed key.  VLANs and ports are
+    // stored off by one so that zero can represent null
+    private static final int MAC_BITS = 48;
+    private static final int VLAN_BITS = 13;
+    private static final int IPV4_BITS = 33;
+    private static final int PORT_BITS = 17;
+
+    private final boolean hasMac;
+    private final boolean hasVlan;
+    private final boolean hasIpv4;
+    private final boolean hasPort;
+    private final boolean hasSwitch;
+
+    /**
+     * True if the key fields for this index fit into a single long
+     */
+    protected final boolean packable;
+
     /**
      * Construct a new device index using the provided key fields
      * @param keyFields the key fields to use
@@ -39,6 +65,75 @@ public abstract class DeviceIndex {
     public DeviceIndex(EnumSet<DeviceField> keyFields) {
         super();
         this.keyFields = keyFields;
+        hasMac = keyFields.contains(DeviceField.MAC);
+        hasVlan = keyFields.contains(DeviceField.VLAN);
+        hasIpv4 = keyFields.contains(DeviceField.IPV4);
+        hasPort = keyFields.contains(DeviceField.PORT);
+        hasSwitch = keyFields.contains(DeviceField.SWITCH);
+
+        int bits = 0;
+        if (hasMac) bits += MAC_BITS;
+        if (hasVlan) bits += VLAN_BITS;
+        if (hasIpv4) bits += IPV4_BITS;
+        if (hasPort) bits += PORT_BITS;
+        packable = !hasSwitch && bits > 0 && bits < 64;
+    }
+
+    /**
+     * Check whether the entity has non-null values in any of the key
+     * fields for this index, without allocating an {@link IndexedEntity}
+     * @param entity the entity to check
+     * @return true if any key fields have a non-null value
+     */
+    protected boolean hasNonNullKeys(Entity entity) {
+        return hasMac ||
+               (hasVlan && entity.vlan != null) ||
+               (hasIpv4 && entity.ipv4Address != null) ||
+               (hasPort && entity.switchPort != null) ||
+               (hasSwitch && entity.switchDPID != null);
+    }
+
+    /**
+     * Pack the key fields of the given entity into a single long.  Two
+     * entities are equal on the key fields for this index if and only if
+     * their packed keys are equal.
+     * @param entity the entity to pack
+     * @return the packed key, or {@link #UNPACKABLE} if the index key
+     * fields or the entity's values do not fit into a long
+     */
+    protected long packKey(Entity entity) {
+        if (!packable) return UNPACKABLE;
+        long key = 0;
+        if (hasMac) {
+            long mac = entity.macAddress;
+            if ((mac >>> MAC_BITS) != 0) return UNPACKABLE;
+            key = mac;
+        }
+        if (hasVlan) {
+            long vlan = 0;
+            if (entity.vlan != null) {
+                short v = entity.vlan.shortValue();
+                if (v < 0 || v >= (1 << VLAN_BITS) - 1) return UNPACKABLE;
+                vlan = v + 1;
+            }
+            key = (key << VLAN_BITS) | vlan;
+        }
+        if (hasIpv4) {
+            long ip = 0;
+            if (entity.ipv4Address != null)
+                ip = (1L << 32) | (entity.ipv4Address.intValue() & 0xffffffffL);
+            key = (key << IPV4_BITS) | ip;
+        }
+        if (hasPort) {
+            long port = 0;
+            if (entity.switchPort != null) {
+                int p = entity.switchPort.intValue();
+                if (p < 0 || p >= (1 << PORT_BITS) - 1) return UNPACKABLE;
+                port = p + 1;
+            }
+            key = (key << PORT_BITS) | port;
+        }
+        return key;
     }
 
     /**
@@ -48,6 +143,27 @@ public abstract class DeviceIndex {
      * @return an iterator over device keys
      */
     public abstract Iterator<Long> queryByEntity(Entity entity);
+
+    /**
+     * Find all device keys in the index that match the given entity
+     * on all the key fields for this index
+     * @param entity the entity to search for
+     * @return the device keys, whose size is cheap to get
+     */
+    public Collection<Long> findKeysByEntity(Entity entity) {
+        List<Long> keys = new ArrayList<Long>();
+        Iterator<Long> keyiter = queryByEntity(entity);
+        while (keyiter.hasNext())
+            keys.add(keyiter.next());
+        return keys;
+    }
+
+    /**
+     * @return the key fields for this index
+     */
+    public EnumSet<DeviceField> getKeyFields() {
+        return keyFields;
+    }
     
     /**
      * Get all device keys in the index.  If certain devices exist
@@ -97,10 +213,13 @@ public abstract class DeviceIndex {
      */
     public void removeEntityIfNeeded(Entity entity, Long deviceKey,
                                      Collection<Entity> others) {
-        IndexedEntity ie = new IndexedEntity(keyFields, entity);
-        for (Entity o : others) {
-            IndexedEntity oio = new IndexedEntity(keyFields, o);
-            if (oio.equals(ie)) return;
+        long packed = packKey(entity);
+        if (packed != UNPACKABLE) {
+            for (Entity o : others) {
+                if (packKey(o) == packed) return;
+            }
+        } else {
+            if (containsEqualEntity(entity, others)) return;
         }
 
         Iterator<Long> keyiter = this.queryByEntity(entity);
@@ -113,4 +232,14 @@ public abstract class DeviceIndex {
         }
     }
 
+    private boolean containsEqualEntity(Entity entity,
+                                        Collection<Entity> others) {
+        IndexedEntity ie = new IndexedEntity(keyFields, entity);
+        for (Entity o : others) {
+            IndexedEntity oio = new IndexedEntity(keyFields, o);
+            if (oio.equals(ie)) return true;
+        }
+        return false;
+    }
+
 }
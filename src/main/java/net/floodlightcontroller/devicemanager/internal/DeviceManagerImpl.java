@@ -18,11 +18,9 @@
 package net.floodlightcontroller.devicemanager.internal;
 
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -43,6 +41,7 @@ import net.floodlightcontroller.core.IHAListener;
 import net.floodlightcontroller.core.IInfoProvider;
 import net.floodlightcontroller.core.IOFMessageListener;
 import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.PacketMetadata;
 import net.floodlightcontroller.core.IFloodlightProviderService.Role;
 import net.floodlightcontroller.core.module.FloodlightModuleContext;
 import net.floodlightcontroller.core.module.IFloodlightModule;
@@ -102,14 +101,28 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
     protected IFlowReconcileService flowReconcileMgr;
 
     /**
-     * Time in milliseconds before entities will expire
+     * Default time in milliseconds before entities will expire
      */
     protected static final int ENTITY_TIMEOUT = 60*60*1000;
 
     /**
-     * Time in seconds between cleaning up old entities/devices
+     * Time in seconds between runs of the entity expiry task.  This is
+     * also the granularity of the entity expiry index.
      */
-    protected static final int ENTITY_CLEANUP_INTERVAL = 60*60;
+    protected static final int ENTITY_CLEANUP_INTERVAL = 10;
+
+    /**
+     * Maximum number of devices checked for expired entities in a single
+     * run of the entity expiry task.  If more devices are due the task
+     * runs again immediately, yielding the executor in between.
+     */
+    protected static final int ENTITY_CLEANUP_BATCH_SIZE = 1000;
+
+    /**
+     * Time in milliseconds before entities will expire.  Can be set with
+     * the "entitytimeout" config option (in seconds).
+     */
+    protected long entityTimeout = ENTITY_TIMEOUT;
 
     /**
      * This is the master device map that maps device IDs to {@link Device}
@@ -187,7 +200,7 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
                     new HashMap<EnumSet<DeviceField>, DeviceIndex>();
             for (EnumSet<DeviceField> fields : perClassIndices) {
                 secondaryIndexMap.put(fields,
-                                      new DeviceMultiIndex(fields));
+                                      createSecondaryIndex(fields));
             }
         }
     }
@@ -317,6 +330,26 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
      */
     public SingletonTask entityCleanupTask;
 
+    /**
+     * Devices ordered by the expiry time of their oldest entity
+     */
+    protected DeviceExpiryIndex expiryIndex;
+
+    /**
+     * Reverse index from switch DPID to the keys of devices that have an
+     * entity, and therefore possibly an attachment point, on that switch.
+     * Used to limit attachment point revalidation on topology changes to
+     * the devices the change can actually affect.
+     */
+    protected ConcurrentHashMap<Long, Set<Long>> switchDeviceIndex;
+
+    /**
+     * L2 domain of each switch in {@link #switchDeviceIndex} as of the last
+     * topology change.  A switch whose L2 domain changed (cluster merge or
+     * split) has its devices revalidated even if none of its links changed.
+     */
+    protected Map<Long, Long> switchL2DomainMap;
+
     // *********************
     // IDeviceManagerService
     // *********************
@@ -375,49 +408,40 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
             perClassIndices.add(keyFields);
         } else {
             secondaryIndexMap.put(keyFields,
-                                  new DeviceMultiIndex(keyFields));
+                                  createSecondaryIndex(keyFields));
         }
     }
 
+    /**
+     * Create a secondary index over the given fields.  An index on the IPv4
+     * address alone is kept sorted so that it can answer prefix queries.
+     */
+    protected static DeviceIndex createSecondaryIndex(EnumSet<DeviceField> keyFields) {
+        if (keyFields.equals(EnumSet.of(DeviceField.IPV4)))
+            return new DeviceIPv4Index();
+        return new DeviceMultiIndex(keyFields);
+    }
+
     @Override
     public Iterator<? extends IDevice> queryDevices(Long macAddress,
                                                     Short vlan,
                                                     Integer ipv4Address,
                                                     Long switchDPID,
                                                     Integer switchPort) {
-        DeviceIndex index = null;
-        if (secondaryIndexMap.size() > 0) {
-            EnumSet<DeviceField> keys =
-                    getEntityKeys(macAddress, vlan, ipv4Address,
-                                  switchDPID, switchPort);
-            index = secondaryIndexMap.get(keys);
-        }
-
-        Iterator<Device> deviceIterator = null;
-        if (index == null) {
-            // Do a full table scan
-            deviceIterator = deviceMap.values().iterator();
-        } else {
-            // index lookup
-            Entity entity = new Entity((macAddress == null ? 0 : macAddress),
-                                       vlan,
-                                       ipv4Address,
-                                       switchDPID,
-                                       switchPort,
-                                       null);
-            deviceIterator =
-                    new DeviceIndexInterator(this, index.queryByEntity(entity));
-        }
+        return getDeviceIteratorForQuery(macAddress, vlan, ipv4Address, 32,
+                                         switchDPID, switchPort);
+    }
 
-        DeviceIterator di =
-                new DeviceIterator(deviceIterator,
-                                   null,
-                                   macAddress,
-                                   vlan,
-                                   ipv4Address,
-                                   switchDPID,
-                                   switchPort);
-        return di;
+    @Override
+    public Iterator<? extends IDevice> queryDevices(Long macAddress,
+                                                    Short vlan,
+                                                    Integer ipv4Address,
+                                                    int ipv4PrefixLength,
+                                                    Long switchDPID,
+                                                    Integer switchPort) {
+        return getDeviceIteratorForQuery(macAddress, vlan, ipv4Address,
+                                         ipv4PrefixLength,
+                                         switchDPID, switchPort);
     }
 
     @Override
@@ -432,38 +456,47 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
                 new ArrayList<Iterator<Device>>();
         ClassState classState = getClassState(entityClass);
         
-        DeviceIndex index = null;
-        if (classState.secondaryIndexMap.size() > 0) {
-            EnumSet<DeviceField> keys =
-                    getEntityKeys(macAddress, vlan, ipv4Address,
-                                  switchDPID, switchPort);
-            index = classState.secondaryIndexMap.get(keys);
-        }
+        EnumSet<DeviceField> keys =
+                getEntityKeys(macAddress, vlan, ipv4Address,
+                              switchDPID, switchPort);
+        Entity entity =
+                new Entity((macAddress == null ? 0 : macAddress),
+                           vlan,
+                           ipv4Address,
+                           switchDPID,
+                           switchPort,
+                           null);
+        DeviceIndex index = classState.secondaryIndexMap.get(keys);
         
         Iterator<Device> iter;
-        if (index == null) {
-            index = classState.classIndex;
-            if (index == null) {
+        if (index != null) {
+            // index lookup
+            iter = new DeviceIndexInterator(this,
+                                            index.queryByEntity(entity));
+        } else {
+            // lookup in the indices on some of the fields
+            Collection<Long> deviceKeys =
+                    DeviceQueryPlanner.query(classState.secondaryIndexMap.values(),
+                                             keys, entity, 32);
+            if (deviceKeys != null) {
+                iter = new DeviceIterator(
+                        new DeviceIndexInterator(this, deviceKeys.iterator()),
+                        null, macAddress, vlan, ipv4Address,
+                        switchDPID, switchPort);
+            } else if (classState.classIndex != null) {
+                // scan the entire class
+                iter = new DeviceIterator(
+                        new DeviceIndexInterator(this,
+                                                 classState.classIndex.getAll()),
+                        null, macAddress, vlan, ipv4Address,
+                        switchDPID, switchPort);
+            } else {
                 // scan all devices
                 return new DeviceIterator(deviceMap.values().iterator(),
                                           new IEntityClass[] { entityClass },
                                           macAddress, vlan, ipv4Address,
                                           switchDPID, switchPort);
-            } else {
-                // scan the entire class
-                iter = new DeviceIndexInterator(this, index.getAll());
             }
-        } else {
-            // index lookup
-            Entity entity =
-                    new Entity((macAddress == null ? 0 : macAddress),
-                               vlan,
-                               ipv4Address,
-                               switchDPID,
-                               switchPort,
-                               null);
-            iter = new DeviceIndexInterator(this,
-                                            index.queryByEntity(entity));
         }
         iterators.add(iter);
         
@@ -475,28 +508,40 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
                                                         Integer ipv4Address,
                                                         Long switchDPID,
                                                         Integer switchPort) {
-        DeviceIndex index = null;
+        return getDeviceIteratorForQuery(macAddress, vlan, ipv4Address, 32,
+                                         switchDPID, switchPort);
+    }
+
+    protected Iterator<Device> getDeviceIteratorForQuery(Long macAddress,
+                                                        Short vlan,
+                                                        Integer ipv4Address,
+                                                        int ipv4PrefixLength,
+                                                        Long switchDPID,
+                                                        Integer switchPort) {
+        Collection<Long> deviceKeys = null;
         if (secondaryIndexMap.size() > 0) {
             EnumSet<DeviceField> keys =
                 getEntityKeys(macAddress, vlan, ipv4Address,
                             switchDPID, switchPort);
-            index = secondaryIndexMap.get(keys);
+            Entity entity = new Entity((macAddress == null ? 0 : macAddress),
+                                vlan,
+                                ipv4Address,
+                                switchDPID,
+                                switchPort,
+                                null);
+            deviceKeys = DeviceQueryPlanner.query(secondaryIndexMap.values(),
+                                                  keys, entity,
+                                                  ipv4PrefixLength);
         }
 
         Iterator<Device> deviceIterator = null;
-        if (index == null) {
+        if (deviceKeys == null) {
             // Do a full table scan
             deviceIterator = deviceMap.values().iterator();
         } else {
             // index lookup
-            Entity entity = new Entity((macAddress == null ? 0 : macAddress),
-                                vlan,
-                                ipv4Address,
-                                switchDPID,
-                                switchPort,
-                                null);
             deviceIterator =
-                new DeviceIndexInterator(this, index.queryByEntity(entity));
+                new DeviceIndexInterator(this, deviceKeys.iterator());
         }
 
         DeviceIterator di =
@@ -505,6 +550,7 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
                                 macAddress,
                                 vlan,
                                 ipv4Address,
+                                ipv4PrefixLength,
                                 switchDPID,
                                 switchPort);
         return di;
@@ -565,6 +611,11 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
     // ***************
     // IFlowReconcileListener
     // ***************
+    /**
+     * Called by the flow reconcile workers concurrently.  It only reads
+     * the concurrent device maps and indexes and writes to the context of
+     * each flow, like the packet-in path on the I/O threads.
+     */
     @Override
     public Command reconcileFlows(ArrayList<OFMatchReconcile> ofmRcList) {
         ListIterator<OFMatchReconcile> iter = ofmRcList.listIterator();
@@ -676,14 +727,33 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
         this.threadPool = fmc.getServiceImpl(IThreadPoolService.class);
         this.flowReconcileMgr = fmc.getServiceImpl(IFlowReconcileService.class);
         this.entityClassifier = fmc.getServiceImpl(IEntityClassifierService.class);
+
+        Map<String, String> configOptions = fmc.getConfigParams(this);
+        try {
+            String timeout = configOptions.get("entitytimeout");
+            if (timeout != null) {
+                entityTimeout = Long.parseLong(timeout) * 1000;
+            }
+        } catch (NumberFormatException e) {
+            logger.warn("Error parsing entity timeout, " +
+                        "using default of {} seconds",
+                        ENTITY_TIMEOUT / 1000);
+        }
+        logger.debug("Entity timeout set to {} seconds",
+                     entityTimeout / 1000);
     }
 
     @Override
     public void startUp(FloodlightModuleContext fmc) {
         primaryIndex = new DeviceUniqueIndex(entityClassifier.getKeyFields());
         secondaryIndexMap = new HashMap<EnumSet<DeviceField>, DeviceIndex>();
+        // Queries by IPv4 address and prefix from the REST API
+        addIndex(false, EnumSet.of(DeviceField.IPV4));
 
         deviceMap = new ConcurrentHashMap<Long, Device>();
+        switchDeviceIndex = new ConcurrentHashMap<Long, Set<Long>>();
+        switchL2DomainMap = new HashMap<Long, Long>();
+        expiryIndex = new DeviceExpiryIndex(ENTITY_CLEANUP_INTERVAL * 1000);
         classStateMap =
                 new ConcurrentHashMap<String, ClassState>();
         apComparator = new AttachmentPointComparator();
@@ -698,9 +768,13 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
         Runnable ecr = new Runnable() {
             @Override
             public void run() {
-                cleanupEntities();
-                entityCleanupTask.reschedule(ENTITY_CLEANUP_INTERVAL,
-                                             TimeUnit.SECONDS);
+                if (cleanupEntities()) {
+                    // more devices are due; continue right away
+                    entityCleanupTask.reschedule(0, TimeUnit.SECONDS);
+                } else {
+                    entityCleanupTask.reschedule(ENTITY_CLEANUP_INTERVAL,
+                                                 TimeUnit.SECONDS);
+                }
             }
         };
         ScheduledExecutorService ses = threadPool.getScheduledExecutor();
@@ -745,13 +819,12 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
 
     protected Command processPacketInMessage(IOFSwitch sw, OFPacketIn pi,
                                              FloodlightContext cntx) {
-        Ethernet eth =
-                IFloodlightProviderService.bcStore.
-                get(cntx,IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+        PacketMetadata pm = PacketMetadata.fromPacketIn(cntx, pi);
 
         // Extract source entity information
         Entity srcEntity =
-                getSourceEntityFromPacket(eth, sw.getId(), pi.getInPort());
+                getSourceEntityFromPacket(pm, cntx, sw.getId(),
+                                          pi.getInPort());
         if (srcEntity == null)
             return Command.STOP;
 
@@ -765,7 +838,7 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
 
         // Find the device matching the destination from the entity
         // classes of the source.
-        Entity dstEntity = getDestEntityFromPacket(eth);
+        Entity dstEntity = getDestEntityFromPacket(pm);
         Device dstDevice = null;
         if (dstEntity != null) {
             dstDevice =
@@ -775,9 +848,9 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
         }
 
        if (logger.isTraceEnabled()) {
-           logger.trace("Received PI: {} on switch {}, port {} *** eth={}" +
+           logger.trace("Received PI: {} on switch {}, port {} *** pm={}" +
                         " *** srcDev={} *** dstDev={} *** ",
-                        new Object[] { pi, sw.getStringId(), pi.getInPort(), eth,
+                        new Object[] { pi, sw.getStringId(), pi.getInPort(), pm,
                         srcDevice, dstDevice });
        }
         return Command.CONTINUE;
@@ -804,19 +877,30 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
 
     /**
      * Get IP address from packet if the packet is either an ARP 
-     * or a DHCP packet
-     * @param eth
+     * or a DHCP packet.  Only these packets are deserialized; the
+     * header fields are enough to tell them apart from the rest.
+     * @param pm the header fields of the packet
+     * @param cntx the context holding the packet's payload
      * @param dlAddr
      * @return
      */
-    private int getSrcNwAddr(Ethernet eth, long dlAddr) {
-        if (eth.getPayload() instanceof ARP) {
+    private int getSrcNwAddr(PacketMetadata pm, FloodlightContext cntx,
+                             long dlAddr) {
+        if (pm.getDataLayerType() == Ethernet.TYPE_ARP) {
+            Ethernet eth = IFloodlightProviderService.bcStore.
+                    get(cntx, IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+            if (!(eth.getPayload() instanceof ARP))
+                return 0;
             ARP arp = (ARP) eth.getPayload();
             if ((arp.getProtocolType() == ARP.PROTO_TYPE_IP) &&
                     (Ethernet.toLong(arp.getSenderHardwareAddress()) == dlAddr)) {
                 return IPv4.toIPv4Address(arp.getSenderProtocolAddress());
             }
-        } else if (eth.getPayload() instanceof IPv4) {
+        } else if (isDhcpPacket(pm)) {
+            Ethernet eth = IFloodlightProviderService.bcStore.
+                    get(cntx, IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+            if (!(eth.getPayload() instanceof IPv4))
+                return 0;
             IPv4 ipv4 = (IPv4) eth.getPayload();
             if (ipv4.getPayload() instanceof UDP) {
                 UDP udp = (UDP)ipv4.getPayload();
@@ -832,50 +916,66 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
     }
 
     /**
-     * Parse an entity from an {@link Ethernet} packet.
-     * @param eth the packet to parse
-     * @param sw the switch on which the packet arrived
-     * @param pi the original packetin
+     * Check whether a packet is a UDP packet to or from a DHCP port, which
+     * is what {@link UDP} uses to decode the payload as DHCP.
+     * @param pm the header fields of the packet
+     * @return true if the packet may carry DHCP
+     */
+    private boolean isDhcpPacket(PacketMetadata pm) {
+        if (pm.getDataLayerType() != Ethernet.TYPE_IPv4 ||
+                pm.getNetworkProtocol() != IPv4.PROTOCOL_UDP)
+            return false;
+        short src = pm.getTransportSource();
+        short dst = pm.getTransportDestination();
+        return src == UDP.DHCP_SERVER_PORT || src == UDP.DHCP_CLIENT_PORT ||
+               dst == UDP.DHCP_SERVER_PORT || dst == UDP.DHCP_CLIENT_PORT;
+    }
+
+    /**
+     * Parse an entity from the header fields of a packet.
+     * @param pm the header fields of the packet
+     * @param cntx the context of the packet-in, used to get the payload
+     *             of ARP and DHCP packets
+     * @param swdpid the switch on which the packet arrived
+     * @param port the port on which the packet arrived
      * @return the entity from the packet
      */
-    protected Entity getSourceEntityFromPacket(Ethernet eth,
+    protected Entity getSourceEntityFromPacket(PacketMetadata pm,
+                                             FloodlightContext cntx,
                                              long swdpid,
                                              int port) {
-        byte[] dlAddrArr = eth.getSourceMACAddress();
-        long dlAddr = Ethernet.toLong(dlAddrArr);
+        long dlAddr = pm.getDataLayerSource();
 
         // Ignore broadcast/multicast source
-        if ((dlAddrArr[0] & 0x1) != 0)
+        if ((dlAddr & (1L << 40)) != 0)
             return null;
 
-        short vlan = eth.getVlanID();
-        int nwSrc = getSrcNwAddr(eth, dlAddr);
+        short vlan = pm.getDataLayerVirtualLan();
+        int nwSrc = getSrcNwAddr(pm, cntx, dlAddr);
         return new Entity(dlAddr,
                           ((vlan >= 0) ? vlan : null),
                           ((nwSrc != 0) ? nwSrc : null),
                           swdpid,
                           port,
-                          new Date());
+                          System.currentTimeMillis());
     }
 
     /**
      * Get a (partial) entity for the destination from the packet.
-     * @param eth
+     * @param pm the header fields of the packet
      * @return
      */
-    protected Entity getDestEntityFromPacket(Ethernet eth) {
-        byte[] dlAddrArr = eth.getDestinationMACAddress();
-        long dlAddr = Ethernet.toLong(dlAddrArr);
-        short vlan = eth.getVlanID();
+    protected Entity getDestEntityFromPacket(PacketMetadata pm) {
+        long dlAddr = pm.getDataLayerDestination();
+        short vlan = pm.getDataLayerVirtualLan();
         int nwDst = 0;
 
         // Ignore broadcast/multicast destination
-        if ((dlAddrArr[0] & 0x1) != 0)
+        if (pm.isBroadcast() || pm.isMulticast())
             return null;
 
-        if (eth.getPayload() instanceof IPv4) {
-            IPv4 ipv4 = (IPv4) eth.getPayload();
-            nwDst = ipv4.getDestinationAddress();
+        if (pm.getDataLayerType() == Ethernet.TYPE_IPv4) {
+            nwDst = pm.getNetworkDestination();
         }
 
         return new Entity(dlAddr,
@@ -933,7 +1033,7 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
                           ((nwSrc != 0) ? nwSrc : null),
                           (learnap ? swDpid : null),
                           (learnap ? (int)inPort : null),
-                          new Date());
+                          System.currentTimeMillis());
     }
     /**
      * Look up a {@link Device} based on the provided {@link Entity}. We first
@@ -1100,6 +1200,8 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
                 }
 
                 updateSecondaryIndices(entity, entityClass, deviceKey);
+                updateSwitchDeviceIndex(entity, deviceKey);
+                scheduleEntityExpiry(entity, deviceKey);
 
                 // generate new device update
                 deviceUpdates =
@@ -1117,32 +1219,32 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
             int entityindex = -1;
             if ((entityindex = device.entityIndex(entity)) >= 0) {
                 // update timestamp on the found entity
-                Date lastSeen = entity.getLastSeenTimestamp();
-                if (lastSeen == null) lastSeen = new Date();
-                device.entities[entityindex].setLastSeenTimestamp(lastSeen);
-                if (device.entities[entityindex].getSwitchDPID() != null &&
-                        device.entities[entityindex].getSwitchPort() != null) {
-                    long sw = device.entities[entityindex].getSwitchDPID();
-                    short port = device.entities[entityindex].getSwitchPort().shortValue();
+                long lastSeen = entity.getLastSeenTime();
+                if (lastSeen == Entity.NO_TIMESTAMP)
+                    lastSeen = System.currentTimeMillis();
+                device.setEntityLastSeenTime(entityindex, lastSeen);
+                if (device.hasEntitySwitchPort(entityindex)) {
+                    long sw = device.getEntitySwitchDPID(entityindex);
+                    short port = device.getEntitySwitchPort(entityindex);
 
                     boolean moved =
                             device.updateAttachmentPoint(sw,
                                                          port,
-                                                         lastSeen.getTime());
+                                                         lastSeen);
 
                     if (moved) {
                         sendDeviceMovedNotification(device);
                         if (logger.isTraceEnabled()) {
                             logger.trace("Device moved: attachment points {}," +
                                     "entities {}", device.attachmentPoints,
-                                    device.entities);
+                                    device.getEntities());
                         }
                     } else {
                         if (logger.isTraceEnabled()) {
                             logger.trace("Device attachment point NOT updated: " +
                                          "attachment points {}," +
                                          "entities {}", device.attachmentPoints,
-                                         device.entities);
+                                         device.getEntities());
                         }
                     }
                 }
@@ -1153,7 +1255,7 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
                 if (entity.getSwitchDPID() != null && entity.getSwitchPort() != null) {
                     moved = newDevice.updateAttachmentPoint(entity.getSwitchDPID(),
                                                             entity.getSwitchPort().shortValue(),
-                                                            entity.getLastSeenTimestamp().getTime());
+                                                            entity.getLastSeenTime());
                 }
 
                 // generate updates
@@ -1182,20 +1284,22 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
                 updateSecondaryIndices(entity,
                                        device.getEntityClass(),
                                        deviceKey);
+                updateSwitchDeviceIndex(entity, deviceKey);
+                scheduleEntityExpiry(entity, deviceKey);
 
                 if (moved) {
                     sendDeviceMovedNotification(device);
                     if (logger.isDebugEnabled()) {
                         logger.debug("Device moved: attachment points {}," +
                                 "entities {}", device.attachmentPoints,
-                                device.entities);
+                                device.getEntities());
                     }
                 } else {
                     if (logger.isDebugEnabled()) {
                         logger.debug("Device attachment point updated: " +
                                      "attachment points {}," +
                                      "entities {}", device.attachmentPoints,
-                                     device.entities);
+                                     device.getEntities());
                     }
                 }
                 break;
@@ -1411,6 +1515,90 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
         }
     }
 
+    /**
+     * Add the device to the switch index for the switch of the given
+     * entity, if any.
+     * @param entity the entity to update
+     * @param deviceKey the device key for the entity
+     */
+    private void updateSwitchDeviceIndex(Entity entity, Long deviceKey) {
+        Long sw = entity.getSwitchDPID();
+        if (sw == null) return;
+        Set<Long> keys = switchDeviceIndex.get(sw);
+        if (keys == null) {
+            keys = Collections.newSetFromMap(
+                    new ConcurrentHashMap<Long, Boolean>());
+            Set<Long> r = switchDeviceIndex.putIfAbsent(sw, keys);
+            if (r != null) keys = r;
+        }
+        keys.add(deviceKey);
+    }
+
+    /**
+     * Remove the device from the switch index for the switch of the
+     * removed entity unless one of the remaining entities is on the
+     * same switch.
+     * @param removed the entity being removed
+     * @param deviceKey the device key for the entity
+     * @param others the entities that remain in the device
+     */
+    private void removeFromSwitchDeviceIndex(Entity removed, Long deviceKey,
+                                             Collection<Entity> others) {
+        Long sw = removed.getSwitchDPID();
+        if (sw == null) return;
+        for (Entity e : others) {
+            if (sw.equals(e.getSwitchDPID())) return;
+        }
+        Set<Long> keys = switchDeviceIndex.get(sw);
+        if (keys != null) keys.remove(deviceKey);
+    }
+
+    /**
+     * Compute the set of switches whose attached devices must have their
+     * attachment points revalidated after a topology change: the endpoints
+     * of every applied update plus every indexed switch whose L2 domain
+     * changed.
+     * @param updateList the updates applied by the last topology change
+     * @return the affected switches, or null if the change cannot be
+     * narrowed down and all devices must be revalidated
+     */
+    protected Set<Long> getTopologyChangedSwitches(List<LDUpdate> updateList) {
+        if (updateList == null || updateList.isEmpty())
+            return null;
+
+        Set<Long> switches = new HashSet<Long>();
+        for (LDUpdate update : updateList) {
+            if (update.getOperation() == null) return null;
+            switch (update.getOperation()) {
+                case LINK_UPDATED:
+                case LINK_REMOVED:
+                    switches.add(update.getSrc());
+                    switches.add(update.getDst());
+                    break;
+                case SWITCH_UPDATED:
+                case SWITCH_REMOVED:
+                case PORT_UP:
+                case PORT_DOWN:
+                    switches.add(update.getSrc());
+                    break;
+                default:
+                    return null;
+            }
+        }
+
+        synchronized (switchL2DomainMap) {
+            switchL2DomainMap.keySet().retainAll(switchDeviceIndex.keySet());
+            for (Long sw : switchDeviceIndex.keySet()) {
+                Long domainId = topology.getL2DomainId(sw);
+                Long oldDomainId = switchL2DomainMap.put(sw, domainId);
+                if ((domainId == null) ? (oldDomainId != null)
+                                       : !domainId.equals(oldDomainId))
+                    switches.add(sw);
+            }
+        }
+        return switches;
+    }
+
     // *********************
     // IEntityClassListener
     // *********************
@@ -1429,85 +1617,113 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
     }
 
     /**
-     * Clean up expired entities/devices
+     * Clean up expired entities/devices.  Only devices that are due in the
+     * expiry index are checked, at most ENTITY_CLEANUP_BATCH_SIZE of them
+     * per call.
+     * @return true if more devices may be due and the cleanup should be
+     * run again right away
      */
-    protected void cleanupEntities () {
+    protected boolean cleanupEntities () {
+        long now = System.currentTimeMillis();
+        long cutoff = now - entityTimeout;
 
-        Calendar c = Calendar.getInstance();
-        c.add(Calendar.MILLISECOND, -ENTITY_TIMEOUT);
-        Date cutoff = c.getTime();
+        List<Long> dueKeys =
+                expiryIndex.pollExpired(now, ENTITY_CLEANUP_BATCH_SIZE);
 
         ArrayList<Entity> toRemove = new ArrayList<Entity>();
         ArrayList<Entity> toKeep = new ArrayList<Entity>();
-
-        Iterator<Device> diter = deviceMap.values().iterator();
         LinkedList<DeviceUpdate> deviceUpdates =
                 new LinkedList<DeviceUpdate>();
 
-        while (diter.hasNext()) {
-            Device d = diter.next();
-
-            while (true) {
-                deviceUpdates.clear();
-                toRemove.clear();
-                toKeep.clear();
-                for (Entity e : d.getEntities()) {
-                    if (e.getLastSeenTimestamp() != null &&
-                         0 > e.getLastSeenTimestamp().compareTo(cutoff)) {
-                        // individual entity needs to be removed
-                        toRemove.add(e);
-                    } else {
-                        toKeep.add(e);
+        for (Long deviceKey : dueKeys) {
+            Device d = deviceMap.get(deviceKey);
+            try {
+                while (d != null) {
+                    deviceUpdates.clear();
+                    toRemove.clear();
+                    toKeep.clear();
+                    for (Entity e : d.getEntities()) {
+                        if (e.getLastSeenTime() != Entity.NO_TIMESTAMP &&
+                             e.getLastSeenTime() < cutoff) {
+                            // individual entity needs to be removed
+                            toRemove.add(e);
+                        } else {
+                            toKeep.add(e);
+                        }
+                    }
+                    if (toRemove.size() == 0) {
+                        break;
                     }
-                }
-                if (toRemove.size() == 0) {
-                    break;
-                }
-
-                for (Entity e : toRemove) {
-                    removeEntity(e, d.getEntityClass(), d.deviceKey, toKeep);
-                }
-
-                if (toKeep.size() > 0) {
-                    Device newDevice = allocateDevice(d.getDeviceKey(),
-                                                      d.oldAPs,
-                                                      d.attachmentPoints,
-                                                      toKeep,
-                                                      d.entityClass);
 
-                    EnumSet<DeviceField> changedFields =
-                            EnumSet.noneOf(DeviceField.class);
                     for (Entity e : toRemove) {
-                        changedFields.addAll(findChangedFields(newDevice, e));
+                        removeEntity(e, d.getEntityClass(), d.deviceKey,
+                                     toKeep);
                     }
-                    if (changedFields.size() > 0)
-                        deviceUpdates.add(new DeviceUpdate(d, CHANGE,
-                                                           changedFields));
-
-                    if (!deviceMap.replace(newDevice.getDeviceKey(),
-                                           d,
-                                           newDevice)) {
-                        // concurrent modification; try again
-                        // need to use device that is the map now for the next
-                        // iteration
-                        d = deviceMap.get(d.getDeviceKey());
-                        if (null != d)
+
+                    if (toKeep.size() > 0) {
+                        Device newDevice = allocateDevice(d.getDeviceKey(),
+                                                          d.oldAPs,
+                                                          d.attachmentPoints,
+                                                          toKeep,
+                                                          d.entityClass);
+
+                        EnumSet<DeviceField> changedFields =
+                                EnumSet.noneOf(DeviceField.class);
+                        for (Entity e : toRemove) {
+                            changedFields.addAll(
+                                    findChangedFields(newDevice, e));
+                        }
+                        if (changedFields.size() > 0)
+                            deviceUpdates.add(new DeviceUpdate(d, CHANGE,
+                                                               changedFields));
+
+                        if (!deviceMap.replace(newDevice.getDeviceKey(),
+                                               d,
+                                               newDevice)) {
+                            // concurrent modification; try again
+                            // need to use device that is the map now for the
+                            // next iteration
+                            d = deviceMap.get(d.getDeviceKey());
                             continue;
-                    }
-                } else {
-                    deviceUpdates.add(new DeviceUpdate(d, DELETE, null));
-                    if (!deviceMap.remove(d.getDeviceKey(), d))
-                        // concurrent modification; try again
-                        // need to use device that is the map now for the next
-                        // iteration
-                        d = deviceMap.get(d.getDeviceKey());
-                        if (null != d)
+                        }
+                    } else {
+                        deviceUpdates.add(new DeviceUpdate(d, DELETE, null));
+                        if (!deviceMap.remove(d.getDeviceKey(), d)) {
+                            // concurrent modification; try again
+                            // need to use device that is the map now for the
+                            // next iteration
+                            d = deviceMap.get(d.getDeviceKey());
                             continue;
+                        }
+                    }
+                    processUpdates(deviceUpdates);
+                    break;
+                }
+            } finally {
+                // Schedule the device again for its oldest remaining
+                // entity, even if the cleanup failed, so it stays in the
+                // expiry index
+                d = deviceMap.get(deviceKey);
+                if (d != null) {
+                    for (Entity e : d.getEntities()) {
+                        scheduleEntityExpiry(e, deviceKey);
+                    }
                 }
-                processUpdates(deviceUpdates);
-                break;
             }
         }
+        return dueKeys.size() >= ENTITY_CLEANUP_BATCH_SIZE;
+    }
+
+    /**
+     * Schedule the device holding the given entity to be checked when the
+     * entity expires.
+     * @param entity the entity
+     * @param deviceKey the device key for the entity
+     */
+    private void scheduleEntityExpiry(Entity entity, Long deviceKey) {
+        long lastSeen = entity.getLastSeenTime();
+        if (lastSeen == Entity.NO_TIMESTAMP) return;
+        expiryIndex.schedule(deviceKey, lastSeen + entityTimeout);
     }
 
     protected void removeEntity(Entity removed,
@@ -1523,6 +1739,7 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
         }
 
         primaryIndex.removeEntityIfNeeded(removed, deviceKey, others);
+        removeFromSwitchDeviceIndex(removed, deviceKey, others);
 
         if (classState.classIndex != null) {
             classState.classIndex.removeEntityIfNeeded(removed,
@@ -1542,6 +1759,7 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
             this.removeEntity(entity, device.getEntityClass(), 
                 device.getDeviceKey(), emptyToKeep);
         }
+        expiryIndex.remove(device.getDeviceKey());
         if (!deviceMap.remove(device.getDeviceKey(), device)) {
             if (logger.isDebugEnabled())
                 logger.debug("device map does not have this device -" + 
@@ -1639,7 +1857,6 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
      */
     @Override
     public void topologyChanged() {
-        Iterator<Device> diter = deviceMap.values().iterator();
         List<LDUpdate> updateList = topology.getLastLinkUpdates();
         if (updateList != null) {
             if (logger.isTraceEnabled()) {
@@ -1649,8 +1866,25 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
             }
         }
 
+        Iterator<Device> diter;
+        Set<Long> switches = getTopologyChangedSwitches(updateList);
+        if (switches == null) {
+            diter = deviceMap.values().iterator();
+        } else {
+            // Only devices attached to the affected switches can
+            // change their attachment points.
+            Set<Long> deviceKeys = new HashSet<Long>();
+            for (Long sw : switches) {
+                Set<Long> keys = switchDeviceIndex.get(sw);
+                if (keys != null) deviceKeys.addAll(keys);
+            }
+            diter = new DeviceIndexInterator(this, deviceKeys.iterator());
+        }
+
         while (diter.hasNext()) {
             Device d = diter.next();
+            // the device may have been deleted since it was indexed
+            if (d == null) continue;
             if (d.updateAttachmentPoint()) {
                 if (logger.isDebugEnabled()) {
                     logger.debug("Attachment point changed for device: {}", d);
@@ -1684,7 +1918,7 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
             return false;
         }
         boolean needToReclassify = false;
-        for (Entity entity : device.entities) {
+        for (Entity entity : device.getEntities()) {
             IEntityClass entityClass = 
                     this.entityClassifier.classifyEntity(entity);
             if (entityClass == null || device.getEntityClass() == null) {
@@ -1709,7 +1943,7 @@ IFlowReconcileListener, IInfoProvider, IHAListener {
                 DeviceUpdate.Change.DELETE, null));
         if (!deviceUpdates.isEmpty())
             processUpdates(deviceUpdates);
-        for (Entity entity: device.entities ) {
+        for (Entity entity: device.getEntities() ) {
             this.learnDeviceByEntity(entity);
         }
         return true;
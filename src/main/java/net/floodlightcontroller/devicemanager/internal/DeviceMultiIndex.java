@@ -17,14 +17,17 @@
 
 package net.floodlightcontroller.devicemanager.internal;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 import net.floodlightcontroller.devicemanager.IDeviceService.DeviceField;
+import net.floodlightcontroller.util.ConcurrentLongHashMap;
 import net.floodlightcontroller.util.IterableIterator;
 
 /**
@@ -33,7 +36,12 @@ import net.floodlightcontroller.util.IterableIterator;
  */
 public class DeviceMultiIndex extends DeviceIndex {
     /**
-     * The index
+     * The index for entities whose key fields can be packed into a long
+     */
+    private ConcurrentLongHashMap<Collection<Long>> packedIndex;
+
+    /**
+     * The index for all other entities
      */
     private ConcurrentHashMap<IndexedEntity, Collection<Long>> index;
 
@@ -42,6 +50,7 @@ public class DeviceMultiIndex extends DeviceIndex {
      */
     public DeviceMultiIndex(EnumSet<DeviceField> keyFields) {
         super(keyFields);
+        packedIndex = new ConcurrentLongHashMap<Collection<Long>>();
         index = new ConcurrentHashMap<IndexedEntity, Collection<Long>>();
     }
 
@@ -51,23 +60,36 @@ public class DeviceMultiIndex extends DeviceIndex {
 
     @Override
     public Iterator<Long> queryByEntity(Entity entity) {
-        IndexedEntity ie = new IndexedEntity(keyFields, entity);
-        Collection<Long> devices = index.get(ie);
+        Collection<Long> devices = findByEntity(entity);
         if (devices != null)
             return devices.iterator();
         
         return Collections.<Long>emptySet().iterator();
     }
     
+    @Override
+    public Collection<Long> findKeysByEntity(Entity entity) {
+        Collection<Long> devices = findByEntity(entity);
+        if (devices != null)
+            return devices;
+        return Collections.<Long>emptySet();
+    }
+
     @Override
     public Iterator<Long> getAll() {
         Iterator<Collection<Long>> iter = index.values().iterator();
+        if (packable) {
+            List<Collection<Long>> all =
+                    new ArrayList<Collection<Long>>(packedIndex.values());
+            all.addAll(index.values());
+            iter = all.iterator();
+        }
         return new IterableIterator<Long>(iter);
     }
     
     @Override
     public boolean updateIndex(Device device, Long deviceKey) {
-        for (Entity e : device.entities) {
+        for (Entity e : device.getEntities()) {
             updateIndex(e, deviceKey);
         }
         return true;
@@ -77,14 +99,23 @@ public class DeviceMultiIndex extends DeviceIndex {
     public void updateIndex(Entity entity, Long deviceKey) {
         Collection<Long> devices = null;
 
-        IndexedEntity ie = new IndexedEntity(keyFields, entity);
-        if (!ie.hasNonNullKeys()) return;
+        if (!hasNonNullKeys(entity)) return;
 
-        devices = index.get(ie);
+        long packed = packKey(entity);
+        IndexedEntity ie = null;
+        if (packed != UNPACKABLE) {
+            devices = packedIndex.get(packed);
+        } else {
+            ie = new IndexedEntity(keyFields, entity);
+            devices = index.get(ie);
+        }
         if (devices == null) {
-            Map<Long,Boolean> chm = new ConcurrentHashMap<Long,Boolean>();
+            // Almost every key maps to a single device, so start small
+            Map<Long,Boolean> chm = new ConcurrentHashMap<Long,Boolean>(2);
             devices = Collections.newSetFromMap(chm);
-            Collection<Long> r = index.putIfAbsent(ie, devices);
+            Collection<Long> r = (ie == null)
+                    ? packedIndex.putIfAbsent(packed, devices)
+                    : index.putIfAbsent(ie, devices);
             if (r != null)
                 devices = r;
         }
@@ -94,15 +125,24 @@ public class DeviceMultiIndex extends DeviceIndex {
 
     @Override
     public void removeEntity(Entity entity) {
-        IndexedEntity ie = new IndexedEntity(keyFields, entity);
-        index.remove(ie);        
+        long packed = packKey(entity);
+        if (packed != UNPACKABLE)
+            packedIndex.remove(packed);
+        else
+            index.remove(new IndexedEntity(keyFields, entity));
     }
 
     @Override
     public void removeEntity(Entity entity, Long deviceKey) {
-        IndexedEntity ie = new IndexedEntity(keyFields, entity);
-        Collection<Long> devices = index.get(ie);
+        Collection<Long> devices = findByEntity(entity);
         if (devices != null)
             devices.remove(deviceKey);
     }
+
+    private Collection<Long> findByEntity(Entity entity) {
+        long packed = packKey(entity);
+        if (packed != UNPACKABLE)
+            return packedIndex.get(packed);
+        return index.get(new IndexedEntity(keyFields, entity));
+    }
 }
@@ -0,0 +1,127 @@
+/**
+*    Copyright 2012 Big Switch Networks, Inc.
+*    Originally created by David Erickson, Stanford University
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.devicemanager.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.floodlightcontroller.devicemanager.IDeviceService.DeviceField;
+
+/**
+ * Picks the indices to use for a device query.
+ *
+ * Any index whose key fields are all part of the query can be used,
+ * since it returns every device that matches the query on those fields.
+ * The planner looks up the query in all such indices, and intersects the
+ * results starting from the smallest one.  The devices it returns may
+ * still not match the query on the fields that aren't indexed, so they
+ * need to be filtered.
+ */
+public class DeviceQueryPlanner {
+
+    private static final Comparator<Collection<Long>> SIZE_ORDER =
+            new Comparator<Collection<Long>>() {
+        @Override
+        public int compare(Collection<Long> c1, Collection<Long> c2) {
+            int s1 = c1.size();
+            int s2 = c2.size();
+            return (s1 < s2) ? -1 : ((s1 == s2) ? 0 : 1);
+        }
+    };
+
+    /**
+     * Find the keys of the devices that may match a query
+     * @param indices the indices available
+     * @param keys the fields of the query
+     * @param entity the values of the query
+     * @param ipv4PrefixLength the length of the IPv4 prefix to match, 32
+     * to match the IPv4 address exactly
+     * @return the device keys, or null if none of the indices can be used
+     */
+    public static Collection<Long> query(Collection<DeviceIndex> indices,
+                                         EnumSet<DeviceField> keys,
+                                         Entity entity,
+                                         int ipv4PrefixLength) {
+        if (keys.isEmpty())
+            return null;
+
+        // Only a sorted index can be used for an IPv4 prefix
+        EnumSet<DeviceField> exactKeys = keys;
+        boolean prefix = ipv4PrefixLength < 32 &&
+                         keys.contains(DeviceField.IPV4);
+        if (prefix) {
+            exactKeys = EnumSet.copyOf(keys);
+            exactKeys.remove(DeviceField.IPV4);
+        }
+
+        List<Collection<Long>> results = new ArrayList<Collection<Long>>();
+        for (DeviceIndex index : indices) {
+            EnumSet<DeviceField> indexKeys = index.getKeyFields();
+            if (indexKeys.isEmpty())
+                continue;
+            if (prefix && index instanceof DeviceIPv4Index) {
+                results.add(((DeviceIPv4Index)index).
+                        findKeysByPrefix(entity.ipv4Address, ipv4PrefixLength));
+            } else if (exactKeys.containsAll(indexKeys)) {
+                results.add(index.findKeysByEntity(entity));
+            }
+        }
+        if (results.isEmpty())
+            return null;
+        return intersect(results);
+    }
+
+    /**
+     * Intersect the device keys found in several indices
+     */
+    protected static Collection<Long> intersect(List<Collection<Long>> results) {
+        if (results.size() == 1)
+            return results.get(0);
+        Collections.sort(results, SIZE_ORDER);
+        Collection<Long> smallest = results.get(0);
+        if (smallest.isEmpty())
+            return smallest;
+
+        List<Set<Long>> others = new ArrayList<Set<Long>>();
+        for (Collection<Long> c : results.subList(1, results.size())) {
+            if (c instanceof Set)
+                others.add((Set<Long>)c);
+            else
+                others.add(new HashSet<Long>(c));
+        }
+        List<Long> keys = new ArrayList<Long>();
+        for (Long key : smallest) {
+            boolean match = true;
+            for (Set<Long> other : others) {
+                if (!other.contains(key)) {
+                    match = false;
+                    break;
+                }
+            }
+            if (match)
+                keys.add(key);
+        }
+        return keys;
+    }
+}
@@ -17,19 +17,29 @@
 
 package net.floodlightcontroller.devicemanager.internal;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 
 import net.floodlightcontroller.devicemanager.IDeviceService.DeviceField;
+import net.floodlightcontroller.util.ConcurrentLongHashMap;
+import net.floodlightcontroller.util.MultiIterator;
 
 /**
  * An index that maps key fields of an entity uniquely to a device key
  */
 public class DeviceUniqueIndex extends DeviceIndex {
     /**
-     * The index
+     * The index for entities whose key fields can be packed into a long
+     */
+    private ConcurrentLongHashMap<Long> packedIndex;
+
+    /**
+     * The index for all other entities
      */
     private ConcurrentHashMap<IndexedEntity, Long> index;
 
@@ -39,6 +49,7 @@ public class DeviceUniqueIndex extends DeviceIndex {
      */
     public DeviceUniqueIndex(EnumSet<DeviceField> keyFields) {
         super(keyFields);
+        packedIndex = new ConcurrentLongHashMap<Long>();
         index = new ConcurrentHashMap<IndexedEntity, Long>();
     }
 
@@ -54,19 +65,38 @@ public class DeviceUniqueIndex extends DeviceIndex {
         
         return Collections.<Long>emptySet().iterator();
     }
+
+    @Override
+    public Collection<Long> findKeysByEntity(Entity entity) {
+        Long deviceKey = findByEntity(entity);
+        if (deviceKey != null)
+            return Collections.<Long>singleton(deviceKey);
+        return Collections.<Long>emptySet();
+    }
     
     @Override
     public Iterator<Long> getAll() {
-        return index.values().iterator();
+        if (!packable)
+            return index.values().iterator();
+
+        List<Iterator<Long>> iters = new ArrayList<Iterator<Long>>(2);
+        iters.add(packedIndex.values().iterator());
+        iters.add(index.values().iterator());
+        return new MultiIterator<Long>(iters.iterator());
     }
 
     @Override
     public boolean updateIndex(Device device, Long deviceKey) {
-        for (Entity e : device.entities) {
-            IndexedEntity ie = new IndexedEntity(keyFields, e);
-            if (!ie.hasNonNullKeys()) continue;
+        for (Entity e : device.getEntities()) {
+            if (!hasNonNullKeys(e)) continue;
 
-            Long ret = index.putIfAbsent(ie, deviceKey);
+            Long ret;
+            long packed = packKey(e);
+            if (packed != UNPACKABLE)
+                ret = packedIndex.putIfAbsent(packed, deviceKey);
+            else
+                ret = index.putIfAbsent(new IndexedEntity(keyFields, e),
+                                        deviceKey);
             if (ret != null && !ret.equals(deviceKey)) {
                 // If the return value is non-null, then fail the insert 
                 // (this implies that a device using this entity has 
@@ -79,21 +109,30 @@ public class DeviceUniqueIndex extends DeviceIndex {
     
     @Override
     public void updateIndex(Entity entity, Long deviceKey) {
-        IndexedEntity ie = new IndexedEntity(keyFields, entity);
-        if (!ie.hasNonNullKeys()) return;
-        index.put(ie, deviceKey);
+        if (!hasNonNullKeys(entity)) return;
+        long packed = packKey(entity);
+        if (packed != UNPACKABLE)
+            packedIndex.put(packed, deviceKey);
+        else
+            index.put(new IndexedEntity(keyFields, entity), deviceKey);
     }
 
     @Override
     public void removeEntity(Entity entity) {
-        IndexedEntity ie = new IndexedEntity(keyFields, entity);
-        index.remove(ie);
+        long packed = packKey(entity);
+        if (packed != UNPACKABLE)
+            packedIndex.remove(packed);
+        else
+            index.remove(new IndexedEntity(keyFields, entity));
     }
 
     @Override
     public void removeEntity(Entity entity, Long deviceKey) {
-        IndexedEntity ie = new IndexedEntity(keyFields, entity);
-        index.remove(ie, deviceKey);
+        long packed = packKey(entity);
+        if (packed != UNPACKABLE)
+            packedIndex.remove(packed, deviceKey);
+        else
+            index.remove(new IndexedEntity(keyFields, entity), deviceKey);
     }
 
     // **************
@@ -106,11 +145,10 @@ public class DeviceUniqueIndex extends DeviceIndex {
      * @return The key for the {@link Device} object if found
      */
     public Long findByEntity(Entity entity) {
-        IndexedEntity ie = new IndexedEntity(keyFields, entity);
-        Long deviceKey = index.get(ie);
-        if (deviceKey == null)
-            return null;
-        return deviceKey;
+        long packed = packKey(entity);
+        if (packed != UNPACKABLE)
+            return packedIndex.get(packed);
+        return index.get(new IndexedEntity(keyFields, entity));
     }
 
 }
@@ -47,6 +47,12 @@ public class Entity implements Comparable<Entity> {
      * @see {@link Entity#activeSince}
      */
     protected static int ACTIVITY_TIMEOUT = 30000;
+
+    /**
+     * Value of {@link Entity#lastSeenTimestamp} and
+     * {@link Entity#activeSince} when no timestamp is set
+     */
+    protected static final long NO_TIMESTAMP = Long.MIN_VALUE;
     
     /**
      * The MAC address associated with this entity
@@ -77,9 +83,10 @@ public class Entity implements Comparable<Entity> {
     protected Integer switchPort;
     
     /**
-     * The last time we observed this entity on the network
+     * The last time we observed this entity on the network, in
+     * milliseconds, or {@link Entity#NO_TIMESTAMP}
      */
-    protected Date lastSeenTimestamp;
+    protected long lastSeenTimestamp;
 
     /**
      * The time between {@link Entity#activeSince} and 
@@ -89,7 +96,7 @@ public class Entity implements Comparable<Entity> {
      * {@link Entity#lastSeenTimestamp} and {@link Entity#activeSince} will 
      * be set to the current time.
      */
-    protected Date activeSince;
+    protected long activeSince;
     
     private int hashCode = 0;
 
@@ -110,6 +117,24 @@ public class Entity implements Comparable<Entity> {
     public Entity(long macAddress, Short vlan, 
                   Integer ipv4Address, Long switchDPID, Integer switchPort, 
                   Date lastSeenTimestamp) {
+        this(macAddress, vlan, ipv4Address, switchDPID, switchPort,
+             lastSeenTimestamp == null ?
+                     NO_TIMESTAMP : lastSeenTimestamp.getTime());
+    }
+
+    /**
+     * Create a new entity
+     * 
+     * @param macAddress
+     * @param vlan
+     * @param ipv4Address
+     * @param switchDPID
+     * @param switchPort
+     * @param lastSeenTimestamp the last seen time in milliseconds
+     */
+    public Entity(long macAddress, Short vlan, 
+                  Integer ipv4Address, Long switchDPID, Integer switchPort, 
+                  long lastSeenTimestamp) {
         this.macAddress = macAddress;
         this.ipv4Address = ipv4Address;
         this.vlan = vlan;
@@ -147,6 +172,16 @@ public class Entity implements Comparable<Entity> {
     }
 
     public Date getLastSeenTimestamp() {
+        if (lastSeenTimestamp == NO_TIMESTAMP) return null;
+        return new Date(lastSeenTimestamp);
+    }
+
+    /**
+     * Get the last seen timestamp without allocating a {@link Date}
+     * @return the last seen time in milliseconds, or
+     * {@link Entity#NO_TIMESTAMP} if not set
+     */
+    public long getLastSeenTime() {
         return lastSeenTimestamp;
     }
 
@@ -157,19 +192,30 @@ public class Entity implements Comparable<Entity> {
      * @see {@link Entity#activeSince}
      */
     public void setLastSeenTimestamp(Date lastSeenTimestamp) {
-        if (activeSince == null ||
-            (activeSince.getTime() +  ACTIVITY_TIMEOUT) <
-                lastSeenTimestamp.getTime())
-            this.activeSince = lastSeenTimestamp;
-        this.lastSeenTimestamp = lastSeenTimestamp;
+        setLastSeenTime(lastSeenTimestamp.getTime());
+    }
+
+    /**
+     * Set the last seen timestamp and also update {@link Entity#activeSince}
+     * if appropriate
+     * @param lastSeenTime the new last seen time in milliseconds
+     * @see {@link Entity#activeSince}
+     */
+    public void setLastSeenTime(long lastSeenTime) {
+        if (activeSince == NO_TIMESTAMP ||
+            (activeSince +  ACTIVITY_TIMEOUT) < lastSeenTime)
+            this.activeSince = lastSeenTime;
+        this.lastSeenTimestamp = lastSeenTime;
     }
 
     public Date getActiveSince() {
-        return activeSince;
+        if (activeSince == NO_TIMESTAMP) return null;
+        return new Date(activeSince);
     }
 
     public void setActiveSince(Date activeSince) {
-        this.activeSince = activeSince;
+        this.activeSince = (activeSince == null) ?
+                NO_TIMESTAMP : activeSince.getTime();
     }
     
     @Override
@@ -228,9 +274,10 @@ public class Entity implements Comparable<Entity> {
         builder.append(", switchPort=");
         builder.append(switchPort);
         builder.append(", lastSeenTimestamp=");
-        builder.append(lastSeenTimestamp == null? "null" : lastSeenTimestamp.getTime());
+        builder.append(lastSeenTimestamp == NO_TIMESTAMP ?
+                       "null" : lastSeenTimestamp);
         builder.append(", activeSince=");
-        builder.append(activeSince == null? "null" : activeSince.getTime());
+        builder.append(activeSince == NO_TIMESTAMP ? "null" : activeSince);
         builder.append("]");
         return builder.toString();
     }
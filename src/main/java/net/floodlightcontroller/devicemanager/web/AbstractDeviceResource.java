@@ -42,7 +42,8 @@ public abstract class AbstractDeviceResource extends ServerResource {
             "Invalid VLAN: must be an integer in the range 0-4095";
     public static final String IPV4_ERROR = 
             "Invalid IPv4 address: must be in dotted decimal format, " + 
-            "234.0.59.1";
+            "234.0.59.1, optionally followed by a prefix length, " +
+            "234.0.59.0/24";
     public static final String DPID_ERROR = 
             "Invalid Switch DPID: must be a 64-bit quantity, expressed in " + 
             "hex as AA:BB:CC:DD:EE:FF:00:11";
@@ -57,6 +58,7 @@ public abstract class AbstractDeviceResource extends ServerResource {
         Long macAddress = null;
         Short vlan = null;
         Integer ipv4Address = null;
+        int ipv4PrefixLength = 32;
         Long switchDPID = null;
         Integer switchPort = null;
         
@@ -89,6 +91,16 @@ public abstract class AbstractDeviceResource extends ServerResource {
         }
         if (ipv4Str != null) {
             try {
+                int slash = ipv4Str.indexOf('/');
+                if (slash >= 0) {
+                    ipv4PrefixLength =
+                            Integer.parseInt(ipv4Str.substring(slash + 1));
+                    if (ipv4PrefixLength > 32 || ipv4PrefixLength < 0) {
+                        setStatus(Status.CLIENT_ERROR_BAD_REQUEST, IPV4_ERROR);
+                        return null;
+                    }
+                    ipv4Str = ipv4Str.substring(0, slash);
+                }
                 ipv4Address = IPv4.toIPv4Address(ipv4Str);
             } catch (Exception e) {
                 setStatus(Status.CLIENT_ERROR_BAD_REQUEST, IPV4_ERROR);
@@ -121,6 +133,7 @@ public abstract class AbstractDeviceResource extends ServerResource {
                 deviceManager.queryDevices(macAddress, 
                                            vlan, 
                                            ipv4Address, 
+                                           ipv4PrefixLength,
                                            switchDPID, 
                                            switchPort);
         
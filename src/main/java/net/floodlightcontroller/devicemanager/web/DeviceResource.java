@@ -15,19 +15,96 @@
 *    under the License.
 **/
 
+
 package net.floodlightcontroller.devicemanager.web;
 
+import java.io.IOException;
 import java.util.Iterator;
 
 import net.floodlightcontroller.devicemanager.IDevice;
+import net.floodlightcontroller.restserver.PageCollector;
+import net.floodlightcontroller.restserver.StreamingJsonRepresentation;
+
+import org.codehaus.jackson.JsonGenerator;
+import org.restlet.data.Form;
+import org.restlet.data.Status;
+import org.restlet.representation.Representation;
 import org.restlet.resource.Get;
 
 /**
- * Resource for querying and displaying devices that exist in the system
+ * Resource for querying and displaying devices that exist in the system.
+ * The devices are written to the client as they are found.  With a
+ * "limit" parameter, only that many devices are returned, in device key
+ * order, along with the "cursor" to get the next ones with.
  */
 public class DeviceResource extends AbstractDeviceResource {
+    public static final String PAGE_ERROR =
+            "Invalid page: limit must be a positive integer and cursor " +
+            "the cursor returned with the previous page";
+
+    protected static final PageCollector.KeyFunction<IDevice> DEVICE_KEY =
+            new PageCollector.KeyFunction<IDevice>() {
+        @Override
+        public long getKey(IDevice device) {
+            return device.getDeviceKey();
+        }
+    };
+
     @Get("json")
-    public Iterator<? extends IDevice> getDevices() {
-        return super.getDevices();
+    public Representation retrieve() {
+        Form form = getQuery();
+        String limitStr = form.getFirstValue(PageCollector.LIMIT_PARAM, true);
+        String cursorStr = form.getFirstValue(PageCollector.CURSOR_PARAM, true);
+        Integer limit = null;
+        Long cursor = null;
+        try {
+            if (limitStr != null) {
+                limit = Integer.parseInt(limitStr);
+                if (limit <= 0) throw new NumberFormatException();
+            }
+            if (cursorStr != null)
+                cursor = Long.parseLong(cursorStr);
+        } catch (NumberFormatException e) {
+            setStatus(Status.CLIENT_ERROR_BAD_REQUEST, PAGE_ERROR);
+            return null;
+        }
+
+        final Iterator<? extends IDevice> devices = getDevices();
+        if (devices == null)
+            return null;
+
+        if (limit == null && cursor == null) {
+            return new StreamingJsonRepresentation() {
+                @Override
+                protected void writeJson(JsonGenerator jGen)
+                        throws IOException {
+                    jGen.writeStartArray();
+                    while (devices.hasNext())
+                        jGen.writeObject(devices.next());
+                    jGen.writeEndArray();
+                }
+            };
+        }
+
+        final PageCollector<IDevice> page =
+                new PageCollector<IDevice>(DEVICE_KEY, cursor,
+                        (limit == null) ? Integer.MAX_VALUE : limit);
+        page.addAll(devices);
+        return new StreamingJsonRepresentation() {
+            @Override
+            protected void writeJson(JsonGenerator jGen) throws IOException {
+                jGen.writeStartObject();
+                jGen.writeArrayFieldStart("devices");
+                for (IDevice device : page.getPage())
+                    jGen.writeObject(device);
+                jGen.writeEndArray();
+                Long next = page.getNextCursor();
+                if (next != null)
+                    jGen.writeNumberField("cursor", next);
+                else
+                    jGen.writeNullField("cursor");
+                jGen.writeEndObject();
+            }
+        };
     }
 }
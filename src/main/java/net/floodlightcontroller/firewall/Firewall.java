@@ -6,6 +6,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFPacketIn;
@@ -14,6 +15,7 @@ import org.openflow.protocol.OFType;
 import net.floodlightcontroller.core.FloodlightContext;
 import net.floodlightcontroller.core.IOFMessageListener;
 import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.PacketMetadata;
 import net.floodlightcontroller.core.module.FloodlightModuleContext;
 import net.floodlightcontroller.core.module.FloodlightModuleException;
 import net.floodlightcontroller.core.module.IFloodlightModule;
@@ -52,6 +54,25 @@ public class Firewall implements IFirewallService, IOFMessageListener,
     protected static Logger logger;
 
     protected List<FirewallRule> rules; // protected by synchronized
+    // compiled from rules, replaced whenever the rules change
+    protected volatile FirewallClassifier classifier;
+    // bumped after every rule change to invalidate cached decisions
+    protected volatile long ruleGeneration;
+    protected ConcurrentHashMap<FlowKey, CachedDecision> decisionCache;
+    protected static final int DECISION_CACHE_SIZE = 10000;
+
+    /**
+     * A rule match for a flow, valid for one generation of the rules
+     */
+    protected static class CachedDecision {
+        final long generation;
+        final RuleWildcardsPair match;
+
+        CachedDecision(long generation, RuleWildcardsPair match) {
+            this.generation = generation;
+            this.match = match;
+        }
+    }
     protected boolean enabled;
     protected int subnet_mask = IPv4.toIPv4Address("255.255.255.0");
 
@@ -325,6 +346,8 @@ public class Firewall implements IFirewallService, IOFMessageListener,
         storageSource = context.getServiceImpl(IStorageSourceService.class);
         restApi = context.getServiceImpl(IRestApiService.class);
         rules = new ArrayList<FirewallRule>();
+        classifier = new FirewallClassifier(rules);
+        decisionCache = new ConcurrentHashMap<FlowKey, CachedDecision>();
         logger = LoggerFactory.getLogger(Firewall.class);
 
         // start disabled
@@ -342,8 +365,9 @@ public class Firewall implements IFirewallService, IOFMessageListener,
         // storage, create table and read rules
         storageSource.createTable(TABLE_NAME, null);
         storageSource.setTablePrimaryKeyName(TABLE_NAME, COLUMN_RULEID);
-        synchronized (rules) {
+        synchronized (this) {
             this.rules = readRulesFromStorage();
+            updateClassifier();
         }
     }
 
@@ -434,6 +458,7 @@ public class Firewall implements IFirewallService, IOFMessageListener,
         } else {
             this.rules.add(rule);
         }
+        updateClassifier();
         // add rule to database
         Map<String, Object> entry = new HashMap<String, Object>();
         entry.put(COLUMN_RULEID, Integer.toString(rule.ruleid));
@@ -485,14 +510,28 @@ public class Firewall implements IFirewallService, IOFMessageListener,
                 break;
             }
         }
+        updateClassifier();
         // delete from database
         storageSource.deleteRow(TABLE_NAME, Integer.toString(ruleid));
     }
 
     /**
-     * Iterates over the firewall rules and tries to match them with the
-     * incoming packet (flow). Uses the FirewallRule class's matchWithFlow
-     * method to perform matching. It maintains a pair of wildcards (allow and
+     * Recompile the classifier from the current rules and invalidate all
+     * cached decisions.  Must be called with the lock held.
+     */
+    protected void updateClassifier() {
+        this.classifier = new FirewallClassifier(this.rules);
+        // publish the classifier before the generation so that a decision
+        // cached under the new generation is always from the new rules
+        this.ruleGeneration += 1;
+        decisionCache.clear();
+    }
+
+    /**
+     * Finds the first firewall rule that matches the incoming packet (flow)
+     * using the compiled {@link FirewallClassifier}, which gives the same
+     * result as iterating over the rules with the FirewallRule class's
+     * matchesFlow method. It maintains a pair of wildcards (allow and
      * deny) which are assigned later to the firewall's decision, where 'allow'
      * wildcards are applied if the matched rule turns out to be an ALLOW rule
      * and 'deny' wildcards are applied otherwise. Wildcards are applied to
@@ -508,8 +547,8 @@ public class Firewall implements IFirewallService, IOFMessageListener,
      * priority rules override the wildcarding of those fields in lower priority
      * rules of the opposite type). So, to ensure that wildcards are
      * appropriately set for different types of rules (allow vs. deny), separate
-     * wildcards are maintained. Iteration is performed on the sorted list of
-     * rules (sorted in decreasing order of priority).
+     * wildcards are maintained. Rules are matched in the order of the sorted
+     * list of rules (sorted in decreasing order of priority).
      * 
      * @param sw
      *            the switch instance
@@ -522,35 +561,23 @@ public class Firewall implements IFirewallService, IOFMessageListener,
      */
     protected RuleWildcardsPair matchWithRule(IOFSwitch sw, OFPacketIn pi,
             FloodlightContext cntx) {
-        FirewallRule matched_rule = null;
+        // repeated packet-ins for a flow reuse the earlier decision
+        FlowKey key = new FlowKey(sw.getId(),
+                                  PacketMetadata.fromPacketIn(cntx, pi));
+        long generation = this.ruleGeneration;
+        CachedDecision cached = decisionCache.get(key);
+        if (cached != null && cached.generation == generation)
+            return cached.match;
+
+        // only a cache miss needs the deserialized packet
         Ethernet eth = IFloodlightProviderService.bcStore.get(cntx,
                 IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
-        WildcardsPair wildcards = new WildcardsPair();
-
-        synchronized (rules) {
-            Iterator<FirewallRule> iter = this.rules.iterator();
-            FirewallRule rule = null;
-            // iterate through list to find a matching firewall rule
-            while (iter.hasNext()) {
-                // get next rule from list
-                rule = iter.next();
-
-                // check if rule matches
-                if (rule.matchesFlow(sw.getId(), pi.getInPort(), eth, wildcards) == true) {
-                    matched_rule = rule;
-                    break;
-                }
-            }
-        }
-
-        // make a pair of rule and wildcards, then return it
-        RuleWildcardsPair ret = new RuleWildcardsPair();
-        ret.rule = matched_rule;
-        if (matched_rule == null || matched_rule.action == FirewallRule.FirewallAction.DENY) {
-            ret.wildcards = wildcards.drop;
-        } else {
-            ret.wildcards = wildcards.allow;
-        }
+        // the classifier is immutable, so no lock is needed here
+        RuleWildcardsPair ret =
+                this.classifier.match(sw.getId(), pi.getInPort(), eth);
+        if (decisionCache.size() >= DECISION_CACHE_SIZE)
+            decisionCache.clear();
+        decisionCache.put(key, new CachedDecision(generation, ret));
         return ret;
     }
 
@@ -570,19 +597,17 @@ public class Firewall implements IFirewallService, IOFMessageListener,
 
     public Command processPacketInMessage(IOFSwitch sw, OFPacketIn pi,
             IRoutingDecision decision, FloodlightContext cntx) {
-        Ethernet eth = IFloodlightProviderService.bcStore.get(cntx,
-                IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+        PacketMetadata pm = PacketMetadata.fromPacketIn(cntx, pi);
 
         // Allowing L2 broadcast + ARP broadcast request (also deny malformed
         // broadcasts -> L2 broadcast + L3 unicast)
-        if (eth.isBroadcast() == true) {
+        if (pm.isBroadcast() == true) {
             boolean allowBroadcast = true;
             // the case to determine if we have L2 broadcast + L3 unicast
             // don't allow this broadcast packet if such is the case (malformed
             // packet)
-            if (eth.getEtherType() == Ethernet.TYPE_IPv4
-                    && this.IPIsBroadcast(((IPv4) eth.getPayload())
-                            .getDestinationAddress()) == false) {
+            if (pm.getDataLayerType() == Ethernet.TYPE_IPv4
+                    && this.IPIsBroadcast(pm.getNetworkDestination()) == false) {
                 allowBroadcast = false;
             }
             if (allowBroadcast == true) {
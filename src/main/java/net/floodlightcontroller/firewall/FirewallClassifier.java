@@ -0,0 +1,295 @@
+package net.floodlightcontroller.firewall;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openflow.protocol.OFMatch;
+
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.IPv4;
+
+/**
+ * An immutable packet classifier compiled from an ordered list of firewall
+ * rules, using tuple space search.
+ *
+ * Rules are grouped into tuples by the set of header fields they match
+ * exactly (and, for IP addresses, by prefix length).  Each tuple keeps a
+ * hash table from the values of those fields to the rules that use them,
+ * so a packet is looked up with one probe per tuple instead of one
+ * comparison per rule.  Candidate rules found in a tuple are confirmed with
+ * {@link FirewallRule#matchesFlow}, so the classifier always picks the
+ * same rule as a linear scan of the list would.
+ *
+ * Wildcards for the decision are derived from the matched rule and a
+ * precomputed mask of all the fields checked by the rules ahead of it. This
+ * is never wider than what a linear scan computes.
+ */
+public class FirewallClassifier {
+    /**
+     * The rules in match order
+     */
+    protected FirewallRule[] rules;
+
+    /**
+     * The tuples, ordered by the first rule they contain
+     */
+    protected Tuple[] tuples;
+
+    /**
+     * dropMasks[i] and allowMasks[i] hold the wildcards left after all
+     * the deny (allow) rules before rule i have been checked.  The last
+     * entry covers the whole list.
+     */
+    protected int[] dropMasks;
+    protected int[] allowMasks;
+
+    /**
+     * A set of rules that match exactly on the same header fields
+     */
+    protected static class Tuple {
+        boolean dpid;
+        boolean inPort;
+        boolean dlSrc;
+        boolean dlDst;
+        // prefix lengths of the IP address fields, or -1 if not matched
+        int nwSrcBits = -1;
+        int nwDstBits = -1;
+
+        int firstRule = Integer.MAX_VALUE;
+        Map<Long, List<Integer>> buildTable =
+                new HashMap<Long, List<Integer>>();
+
+        // open-addressing table from key hash to sorted rule indices
+        long[] keys;
+        int[][] values;
+
+        boolean sameFields(Tuple t) {
+            return dpid == t.dpid && inPort == t.inPort &&
+                   dlSrc == t.dlSrc && dlDst == t.dlDst &&
+                   nwSrcBits == t.nwSrcBits && nwDstBits == t.nwDstBits;
+        }
+
+        boolean needsIp() {
+            return nwSrcBits >= 0 || nwDstBits >= 0;
+        }
+
+        long key(long switchDpid, short port, long src, long dst,
+                 int nwSrc, int nwDst) {
+            long h = 17;
+            if (dpid) h = h * 31 + switchDpid;
+            if (inPort) h = h * 31 + port;
+            if (dlSrc) h = h * 31 + src;
+            if (dlDst) h = h * 31 + dst;
+            if (nwSrcBits >= 0) h = h * 31 + maskAddress(nwSrc, nwSrcBits);
+            if (nwDstBits >= 0) h = h * 31 + maskAddress(nwDst, nwDstBits);
+            return h;
+        }
+
+        void compile() {
+            int capacity = 2;
+            while (capacity < buildTable.size() * 2)
+                capacity <<= 1;
+            keys = new long[capacity];
+            values = new int[capacity][];
+            for (Map.Entry<Long, List<Integer>> e : buildTable.entrySet()) {
+                long k = e.getKey().longValue();
+                int i = slot(k);
+                while (values[i] != null)
+                    i = (i + 1) & (capacity - 1);
+                List<Integer> l = e.getValue();
+                int[] v = new int[l.size()];
+                for (int j = 0; j < v.length; j++)
+                    v[j] = l.get(j).intValue();
+                keys[i] = k;
+                values[i] = v;
+            }
+            buildTable = null;
+        }
+
+        int[] get(long k) {
+            int i = slot(k);
+            while (values[i] != null) {
+                if (keys[i] == k) return values[i];
+                i = (i + 1) & (keys.length - 1);
+            }
+            return null;
+        }
+
+        private int slot(long k) {
+            k ^= k >>> 33;
+            k *= 0xff51afd7ed558ccdL;
+            k ^= k >>> 33;
+            return (int) k & (keys.length - 1);
+        }
+    }
+
+    /**
+     * Compile a classifier
+     * @param rules the rules, in the order in which they should be matched
+     */
+    public FirewallClassifier(List<FirewallRule> rules) {
+        this.rules = rules.toArray(new FirewallRule[rules.size()]);
+        this.dropMasks = new int[this.rules.length + 1];
+        this.allowMasks = new int[this.rules.length + 1];
+
+        int drop = OFMatch.OFPFW_ALL;
+        int allow = OFMatch.OFPFW_ALL;
+        List<Tuple> tupleList = new ArrayList<Tuple>();
+        for (int i = 0; i < this.rules.length; i++) {
+            FirewallRule r = this.rules[i];
+            dropMasks[i] = drop;
+            allowMasks[i] = allow;
+            if (r.action == FirewallRule.FirewallAction.DENY)
+                drop &= checkedFields(r);
+            else
+                allow &= checkedFields(r);
+
+            Tuple t = tupleFor(r);
+            Tuple existing = null;
+            for (Tuple o : tupleList) {
+                if (o.sameFields(t)) {
+                    existing = o;
+                    break;
+                }
+            }
+            if (existing == null) {
+                existing = t;
+                existing.firstRule = i;
+                tupleList.add(existing);
+            }
+            Long k = Long.valueOf(existing.key(r.dpid, r.in_port,
+                                               r.dl_src, r.dl_dst,
+                                               r.nw_src_prefix,
+                                               r.nw_dst_prefix));
+            List<Integer> l = existing.buildTable.get(k);
+            if (l == null) {
+                l = new ArrayList<Integer>(1);
+                existing.buildTable.put(k, l);
+            }
+            l.add(Integer.valueOf(i));
+        }
+        dropMasks[this.rules.length] = drop;
+        allowMasks[this.rules.length] = allow;
+
+        Collections.sort(tupleList, new Comparator<Tuple>() {
+            @Override
+            public int compare(Tuple a, Tuple b) {
+                return (a.firstRule < b.firstRule) ? -1 :
+                       ((a.firstRule == b.firstRule) ? 0 : 1);
+            }
+        });
+        for (Tuple t : tupleList)
+            t.compile();
+        this.tuples = tupleList.toArray(new Tuple[tupleList.size()]);
+    }
+
+    /**
+     * Find the first rule that matches the packet
+     * @param switchDpid the switch the packet was received on
+     * @param inPort the ingress port
+     * @param eth the packet
+     * @return the matching rule (or null) and the wildcards for the
+     * firewall decision
+     */
+    public RuleWildcardsPair match(long switchDpid, short inPort,
+                                   Ethernet eth) {
+        long src = eth.getSourceMAC().toLong();
+        long dst = eth.getDestinationMAC().toLong();
+        boolean isIp = false;
+        int nwSrc = 0;
+        int nwDst = 0;
+        if (eth.getEtherType() == Ethernet.TYPE_IPv4 &&
+                eth.getPayload() instanceof IPv4) {
+            IPv4 ip = (IPv4) eth.getPayload();
+            isIp = true;
+            nwSrc = ip.getSourceAddress();
+            nwDst = ip.getDestinationAddress();
+        }
+
+        int best = -1;
+        WildcardsPair scratch = new WildcardsPair();
+        for (Tuple t : tuples) {
+            if (best >= 0 && t.firstRule > best) break;
+            if (t.needsIp() && !isIp) continue;
+
+            int[] candidates = t.get(t.key(switchDpid, inPort, src, dst,
+                                           nwSrc, nwDst));
+            if (candidates == null) continue;
+            for (int i : candidates) {
+                if (best >= 0 && i > best) break;
+                if (rules[i].matchesFlow(switchDpid, inPort, eth, scratch)) {
+                    best = i;
+                    break;
+                }
+            }
+        }
+
+        RuleWildcardsPair ret = new RuleWildcardsPair();
+        if (best < 0) {
+            ret.wildcards = dropMasks[rules.length];
+            return ret;
+        }
+
+        FirewallRule rule = rules[best];
+        WildcardsPair wildcards = new WildcardsPair();
+        wildcards.drop = dropMasks[best];
+        wildcards.allow = allowMasks[best];
+        rule.matchesFlow(switchDpid, inPort, eth, wildcards);
+        ret.rule = rule;
+        ret.wildcards = (rule.action == FirewallRule.FirewallAction.DENY) ?
+                wildcards.drop : wildcards.allow;
+        return ret;
+    }
+
+    /**
+     * Get the number of rules in the classifier
+     * @return the number of rules
+     */
+    public int size() {
+        return rules.length;
+    }
+
+    private static Tuple tupleFor(FirewallRule r) {
+        Tuple t = new Tuple();
+        t.dpid = !r.wildcard_dpid;
+        t.inPort = !r.wildcard_in_port;
+        t.dlSrc = !r.wildcard_dl_src;
+        t.dlDst = !r.wildcard_dl_dst;
+        if (!r.wildcard_dl_type && r.dl_type == Ethernet.TYPE_IPv4) {
+            if (!r.wildcard_nw_src) t.nwSrcBits = r.nw_src_maskbits;
+            if (!r.wildcard_nw_dst) t.nwDstBits = r.nw_dst_maskbits;
+        }
+        return t;
+    }
+
+    /**
+     * Get a mask that clears the wildcard bits of every field that
+     * {@link FirewallRule#matchesFlow} may check for the rule
+     */
+    private static int checkedFields(FirewallRule r) {
+        int mask = ~(OFMatch.OFPFW_IN_PORT | OFMatch.OFPFW_DL_SRC |
+                     OFMatch.OFPFW_DL_DST | OFMatch.OFPFW_DL_TYPE);
+        if (!r.wildcard_dl_type && r.dl_type == Ethernet.TYPE_IPv4) {
+            mask &= ~(OFMatch.OFPFW_NW_PROTO | OFMatch.OFPFW_NW_SRC_ALL |
+                      OFMatch.OFPFW_NW_DST_ALL);
+            if (!r.wildcard_nw_proto)
+                mask &= ~(OFMatch.OFPFW_TP_SRC | OFMatch.OFPFW_TP_DST);
+        }
+        return mask;
+    }
+
+    /**
+     * Mask an address to a prefix the same way
+     * {@link FirewallRule#matchIPAddress} does
+     */
+    private static int maskAddress(int address, int bits) {
+        int range = 32 - bits;
+        if (range > 0)
+            address = (address >> range) << range;
+        return address;
+    }
+}
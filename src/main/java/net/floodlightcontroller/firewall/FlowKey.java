@@ -0,0 +1,70 @@
+package net.floodlightcontroller.firewall;
+
+import net.floodlightcontroller.core.PacketMetadata;
+
+/**
+ * The packet header fields that firewall rules can match on.  Two packets
+ * with equal keys always get the same firewall decision.
+ */
+public class FlowKey {
+    protected long dpid;
+    protected short inPort;
+    protected long dlSrc;
+    protected long dlDst;
+    protected short dlType;
+    protected int nwSrc;
+    protected int nwDst;
+    protected byte nwProto;
+    protected short tpSrc;
+    protected short tpDst;
+    private int hashCode;
+
+    public FlowKey(long dpid, PacketMetadata pm) {
+        this.dpid = dpid;
+        this.inPort = pm.getInputPort();
+        this.dlSrc = pm.getDataLayerSource();
+        this.dlDst = pm.getDataLayerDestination();
+        this.dlType = pm.getDataLayerType();
+        // ARP addresses and ICMP type and code are part of the key too;
+        // that only makes it more specific than the rules need
+        this.nwSrc = pm.getNetworkSource();
+        this.nwDst = pm.getNetworkDestination();
+        this.nwProto = pm.getNetworkProtocol();
+        this.tpSrc = pm.getTransportSource();
+        this.tpDst = pm.getTransportDestination();
+
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + (int) (dpid ^ (dpid >>> 32));
+        result = prime * result + inPort;
+        result = prime * result + (int) (dlSrc ^ (dlSrc >>> 32));
+        result = prime * result + (int) (dlDst ^ (dlDst >>> 32));
+        result = prime * result + dlType;
+        result = prime * result + nwSrc;
+        result = prime * result + nwDst;
+        result = prime * result + nwProto;
+        result = prime * result + tpSrc;
+        result = prime * result + tpDst;
+        this.hashCode = result;
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (obj == null) return false;
+        if (getClass() != obj.getClass()) return false;
+        FlowKey other = (FlowKey) obj;
+        return hashCode == other.hashCode &&
+               dpid == other.dpid && inPort == other.inPort &&
+               dlSrc == other.dlSrc && dlDst == other.dlDst &&
+               dlType == other.dlType &&
+               nwSrc == other.nwSrc && nwDst == other.nwDst &&
+               nwProto == other.nwProto &&
+               tpSrc == other.tpSrc && tpDst == other.tpDst;
+    }
+}
@@ -0,0 +1,677 @@
+package net.floodlightcontroller.flowcache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.core.FloodlightContext;
+import net.floodlightcontroller.core.IFloodlightProviderService;
+import net.floodlightcontroller.core.IOFMessageListener;
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.IOFSwitchListener;
+import net.floodlightcontroller.core.annotations.LogMessageCategory;
+import net.floodlightcontroller.core.annotations.LogMessageDoc;
+import net.floodlightcontroller.core.module.FloodlightModuleContext;
+import net.floodlightcontroller.core.module.FloodlightModuleException;
+import net.floodlightcontroller.core.module.IFloodlightModule;
+import net.floodlightcontroller.core.module.IFloodlightService;
+import net.floodlightcontroller.devicemanager.SwitchPort;
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.threadpool.IThreadPoolService;
+import net.floodlightcontroller.util.OFMatchUtils;
+
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFFlowRemoved;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFMatchWithSwDpid;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFPort;
+import org.openflow.protocol.OFStatisticsRequest;
+import org.openflow.protocol.OFType;
+import org.openflow.protocol.statistics.OFFlowStatisticsReply;
+import org.openflow.protocol.statistics.OFFlowStatisticsRequest;
+import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
+import org.openflow.util.HexString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in-memory flow cache.
+ * <p>
+ * Flows are added by the forwarding modules as they are pushed and removed
+ * when the source switch reports that they expired. Besides the primary
+ * map the cache keeps indexes by source switch, by source and destination
+ * MAC address and by application instance, so a query for the flows of
+ * one device only visits that device's flows. Queries are answered on the
+ * thread pool through the IFlowQueryHandler given in the query.
+ */
+@LogMessageCategory("Flow Reconciliation")
+public class FlowCache
+    implements IFloodlightModule, IFlowCacheService, IOFMessageListener,
+               IOFSwitchListener {
+    protected static Logger log = LoggerFactory.getLogger(FlowCache.class);
+
+    /** Application instance of flows added without one in the context */
+    public static final String DEFAULT_APP_INSTANCE_NAME = "default";
+    /** A flow added again within this many milliseconds is dampened */
+    protected static final long FLOW_DAMPEN_TIME_MS = 1000;
+    /** Maximum number of flows returned in one query callback */
+    protected static final int QUERY_RESP_BATCH_SIZE = 1000;
+    /** Seconds to wait for the flow table of a switch */
+    protected static final int SWITCH_QUERY_TIMEOUT = 10;
+    /** Threads that read switch flow tables */
+    protected static final int REFRESH_THREADS = 2;
+    /** Switches that can wait for a flow table read */
+    protected static final int REFRESH_QUEUE_SIZE = 256;
+    private static final int LOCK_STRIPES = 64;
+
+    protected IFloodlightProviderService floodlightProvider;
+    protected IThreadPoolService threadPool;
+    /**
+     * Runs {@link #refreshSwitchFlows(long)}, which blocks for up to
+     * SWITCH_QUERY_TIMEOUT seconds per switch, so that it does not hold
+     * up the shared scheduled executor
+     */
+    protected ExecutorService refreshExecutor;
+    /** Switches with a flow table read queued or running */
+    protected Set<Long> pendingRefreshes;
+
+    /** All cached flows */
+    protected ConcurrentHashMap<FlowCacheKey, FlowCacheEntry> flows;
+    /** Source switch DPID -> flows */
+    protected ConcurrentHashMap<Long, Set<FlowCacheEntry>> switchIndex;
+    /** Source MAC -> flows that match on it */
+    protected ConcurrentHashMap<Long, Set<FlowCacheEntry>> srcMacIndex;
+    /** Destination MAC -> flows that match on it */
+    protected ConcurrentHashMap<Long, Set<FlowCacheEntry>> dstMacIndex;
+    /** Application instance name -> flows */
+    protected ConcurrentHashMap<String, Set<FlowCacheEntry>> appIndex;
+
+    // serializes changes to the same flow
+    private final Object[] locks;
+
+    /**
+     * Identifies a flow by its source switch and its match, with the
+     * fields that the match wildcards cleared so that the match read
+     * back from the switch compares equal to the one that was pushed.
+     */
+    protected static class FlowCacheKey {
+        final long switchDpid;
+        final OFMatch match;
+
+        public FlowCacheKey(long switchDpid, OFMatch match) {
+            this.switchDpid = switchDpid;
+            this.match = OFMatchUtils.normalize(match);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * match.hashCode() +
+                    (int) (switchDpid ^ (switchDpid >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof FlowCacheKey)) return false;
+            FlowCacheKey other = (FlowCacheKey) obj;
+            return switchDpid == other.switchDpid &&
+                   match.equals(other.match);
+        }
+    }
+
+    /**
+     * A cached flow
+     */
+    protected static class FlowCacheEntry {
+        final FlowCacheKey key;
+        final OFMatchWithSwDpid ofmWithSwDpid;
+        final long cookie;
+        final short inPort;
+        final short priority;
+        final byte action;
+        final long addedTime;
+        volatile String appInstName;
+        volatile boolean active = true;
+
+        public FlowCacheEntry(FlowCacheKey key, String appInstName,
+                              OFMatchWithSwDpid ofmWithSwDpid, long cookie,
+                              short inPort, short priority, byte action) {
+            this.key = key;
+            this.appInstName = appInstName;
+            this.ofmWithSwDpid = ofmWithSwDpid;
+            this.cookie = cookie;
+            this.inPort = inPort;
+            this.priority = priority;
+            this.action = action;
+            this.addedTime = System.currentTimeMillis();
+        }
+
+        QRFlowCacheObj toQRFlowCacheObj() {
+            QRFlowCacheObj obj = new QRFlowCacheObj(priority, action, cookie);
+            obj.ofmWithSwDpid =
+                    new OFMatchWithSwDpid(ofmWithSwDpid.getOfMatch(),
+                                          ofmWithSwDpid.getSwitchDataPathId());
+            return obj;
+        }
+    }
+
+    public FlowCache() {
+        locks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++)
+            locks[i] = new Object();
+    }
+
+    private Object lockFor(FlowCacheKey key) {
+        return locks[(key.hashCode() & 0x7fffffff) % LOCK_STRIPES];
+    }
+
+    private static <K> void indexAdd(ConcurrentHashMap<K, Set<FlowCacheEntry>> index,
+                                     K key, FlowCacheEntry entry) {
+        while (true) {
+            Set<FlowCacheEntry> set = index.get(key);
+            if (set == null) {
+                set = Collections.newSetFromMap(
+                        new ConcurrentHashMap<FlowCacheEntry, Boolean>());
+                Set<FlowCacheEntry> old = index.putIfAbsent(key, set);
+                if (old != null) set = old;
+            }
+            synchronized (set) {
+                // the set may have been dropped from the index when it
+                // became empty
+                if (index.get(key) == set) {
+                    set.add(entry);
+                    return;
+                }
+            }
+        }
+    }
+
+    private static <K> void indexRemove(ConcurrentHashMap<K, Set<FlowCacheEntry>> index,
+                                        K key, FlowCacheEntry entry) {
+        Set<FlowCacheEntry> set = index.get(key);
+        if (set == null) return;
+        synchronized (set) {
+            set.remove(entry);
+            if (set.isEmpty())
+                index.remove(key, set);
+        }
+    }
+
+    private void indexEntry(FlowCacheEntry entry) {
+        OFMatch match = entry.ofmWithSwDpid.getOfMatch();
+        indexAdd(switchIndex, entry.key.switchDpid, entry);
+        if ((match.getWildcards() & OFMatch.OFPFW_DL_SRC) == 0)
+            indexAdd(srcMacIndex,
+                     Ethernet.toLong(match.getDataLayerSource()), entry);
+        if ((match.getWildcards() & OFMatch.OFPFW_DL_DST) == 0)
+            indexAdd(dstMacIndex,
+                     Ethernet.toLong(match.getDataLayerDestination()), entry);
+        indexAdd(appIndex, entry.appInstName, entry);
+    }
+
+    private void unindexEntry(FlowCacheEntry entry) {
+        OFMatch match = entry.ofmWithSwDpid.getOfMatch();
+        indexRemove(switchIndex, entry.key.switchDpid, entry);
+        if ((match.getWildcards() & OFMatch.OFPFW_DL_SRC) == 0)
+            indexRemove(srcMacIndex,
+                        Ethernet.toLong(match.getDataLayerSource()), entry);
+        if ((match.getWildcards() & OFMatch.OFPFW_DL_DST) == 0)
+            indexRemove(dstMacIndex,
+                        Ethernet.toLong(match.getDataLayerDestination()), entry);
+        indexRemove(appIndex, entry.appInstName, entry);
+    }
+
+    /**
+     * Remove a flow from the cache
+     * @param entry the flow
+     * @return true if the flow was still in the cache
+     */
+    protected boolean removeEntry(FlowCacheEntry entry) {
+        synchronized (lockFor(entry.key)) {
+            if (!flows.remove(entry.key, entry)) return false;
+            unindexEntry(entry);
+            return true;
+        }
+    }
+
+    /**
+     * Get the number of flows in the cache
+     * @return the number of flows
+     */
+    public int getFlowCount() {
+        return flows.size();
+    }
+
+    private Collection<FlowCacheEntry> getSwitchFlows(long switchDpid) {
+        Set<FlowCacheEntry> set = switchIndex.get(switchDpid);
+        if (set == null) return Collections.emptySet();
+        return set;
+    }
+
+    // IFlowCacheService
+
+    @Override
+    public boolean addFlow(String appInstName, OFMatchWithSwDpid ofm,
+                           Long cookie, long srcSwDpid,
+                           short inPort, short priority, byte action) {
+        if (appInstName == null)
+            appInstName = DEFAULT_APP_INSTANCE_NAME;
+        FlowCacheKey key = new FlowCacheKey(srcSwDpid, ofm.getOfMatch());
+        FlowCacheEntry entry =
+                new FlowCacheEntry(key, appInstName,
+                                   new OFMatchWithSwDpid(ofm.getOfMatch(),
+                                                         srcSwDpid),
+                                   (cookie == null) ? 0 : cookie.longValue(),
+                                   inPort, priority, action);
+        synchronized (lockFor(key)) {
+            FlowCacheEntry old = flows.get(key);
+            if (old != null && old.active &&
+                    old.priority == priority && old.action == action &&
+                    appInstName.equals(old.appInstName) &&
+                    entry.addedTime - old.addedTime < FLOW_DAMPEN_TIME_MS) {
+                return false;
+            }
+            if (old != null) {
+                flows.remove(key);
+                unindexEntry(old);
+            }
+            flows.put(key, entry);
+            indexEntry(entry);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean addFlow(FloodlightContext cntx, OFMatchWithSwDpid ofm,
+                           Long cookie, SwitchPort swPort,
+                           short priority, byte action) {
+        String appInstName = null;
+        if (cntx != null)
+            appInstName = fcStore.get(cntx, FLOWCACHE_APP_INSTANCE_NAME);
+        return addFlow(appInstName, ofm, cookie, swPort.getSwitchDPID(),
+                       (short) swPort.getPort(), priority, action);
+    }
+
+    @Override
+    public boolean moveFlowToDifferentApplInstName(OFMatchReconcile ofMRc) {
+        FlowCacheKey key =
+                new FlowCacheKey(ofMRc.ofmWithSwDpid.getSwitchDataPathId(),
+                                 ofMRc.ofmWithSwDpid.getOfMatch());
+        synchronized (lockFor(key)) {
+            FlowCacheEntry entry = flows.get(key);
+            if (entry == null || !entry.appInstName.equals(ofMRc.appInstName))
+                return false;
+            if (ofMRc.newAppInstName == null ||
+                    ofMRc.newAppInstName.equals(entry.appInstName))
+                return true;
+            indexRemove(appIndex, entry.appInstName, entry);
+            entry.appInstName = ofMRc.newAppInstName;
+            indexAdd(appIndex, entry.appInstName, entry);
+        }
+        return true;
+    }
+
+    @Override
+    public void deactivateFlowCacheBySwitch(long switchDpid) {
+        for (FlowCacheEntry entry : getSwitchFlows(switchDpid))
+            entry.active = false;
+    }
+
+    @Override
+    public void deleteFlowCacheBySwitch(long switchDpid) {
+        for (FlowCacheEntry entry :
+                new ArrayList<FlowCacheEntry>(getSwitchFlows(switchDpid)))
+            removeEntry(entry);
+    }
+
+    @Override
+    @LogMessageDoc(level="ERROR",
+            message="Failed to delete cached flows from switch {switch}",
+            explanation="An I/O error occurred while deleting flows " +
+                    "from a switch",
+            recommendation=LogMessageDoc.CHECK_SWITCH)
+    public void deleteAllFlowsAtASourceSwitch(IOFSwitch sw) {
+        List<OFMessage> msgs = new ArrayList<OFMessage>();
+        for (FlowCacheEntry entry :
+                new ArrayList<FlowCacheEntry>(getSwitchFlows(sw.getId()))) {
+            if (!removeEntry(entry)) continue;
+            OFFlowMod fm = (OFFlowMod) floodlightProvider
+                    .getOFMessageFactory().getMessage(OFType.FLOW_MOD);
+            fm.setCommand(OFFlowMod.OFPFC_DELETE_STRICT);
+            fm.setMatch(entry.ofmWithSwDpid.getOfMatch().clone());
+            fm.setPriority(entry.priority);
+            fm.setCookie(entry.cookie);
+            fm.setOutPort(OFPort.OFPP_NONE);
+            msgs.add(fm);
+        }
+        if (msgs.isEmpty()) return;
+        try {
+            sw.write(msgs, null);
+            sw.flush();
+        } catch (IOException e) {
+            log.error("Failed to delete cached flows from switch " +
+                      sw.getStringId(), e);
+        }
+    }
+
+    @Override
+    public void submitFlowCacheQuery(final FCQueryObj query) {
+        threadPool.getScheduledExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    answerQuery(query);
+                } catch (Exception e) {
+                    log.error("Exception answering flow cache query " +
+                              query, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Find the flows matching a query and return them to the query's
+     * handler, QUERY_RESP_BATCH_SIZE flows per callback
+     * @param query the query
+     */
+    protected void answerQuery(FCQueryObj query) {
+        Long srcMac = (query.srcDevice == null) ? null :
+                query.srcDevice.getMACAddress();
+        Long dstMac = (query.dstDevice == null) ? null :
+                query.dstDevice.getMACAddress();
+
+        // start from the narrowest index the query allows
+        Collection<FlowCacheEntry> candidates;
+        if (srcMac != null && dstMac != null) {
+            Set<FlowCacheEntry> s = srcMacIndex.get(srcMac);
+            Set<FlowCacheEntry> d = dstMacIndex.get(dstMac);
+            if (s == null || d == null)
+                candidates = Collections.emptySet();
+            else
+                candidates = (s.size() < d.size()) ? s : d;
+        } else if (srcMac != null) {
+            candidates = srcMacIndex.get(srcMac);
+        } else if (dstMac != null) {
+            candidates = dstMacIndex.get(dstMac);
+        } else if (query.applInstName != null) {
+            candidates = appIndex.get(query.applInstName);
+        } else {
+            candidates = flows.values();
+        }
+        if (candidates == null)
+            candidates = Collections.emptySet();
+
+        Set<Short> vlans = null;
+        if (query.vlans != null && query.vlans.length > 0) {
+            vlans = new HashSet<Short>();
+            for (Short v : query.vlans) {
+                if (v != null) vlans.add(v);
+            }
+        }
+
+        FlowCacheQueryResp resp = new FlowCacheQueryResp(query);
+        for (FlowCacheEntry entry : candidates) {
+            if (!entry.active) continue;
+            OFMatch match = entry.ofmWithSwDpid.getOfMatch();
+            if (query.applInstName != null &&
+                    !query.applInstName.equals(entry.appInstName))
+                continue;
+            if (srcMac != null &&
+                    ((match.getWildcards() & OFMatch.OFPFW_DL_SRC) != 0 ||
+                     Ethernet.toLong(match.getDataLayerSource()) != srcMac))
+                continue;
+            if (dstMac != null &&
+                    ((match.getWildcards() & OFMatch.OFPFW_DL_DST) != 0 ||
+                     Ethernet.toLong(match.getDataLayerDestination()) != dstMac))
+                continue;
+            if (vlans != null &&
+                    (match.getWildcards() & OFMatch.OFPFW_DL_VLAN) == 0 &&
+                    !vlans.contains(match.getDataLayerVirtualLan()))
+                continue;
+
+            resp.qrFlowCacheObjList.add(entry.toQRFlowCacheObj());
+            if (resp.qrFlowCacheObjList.size() >= QUERY_RESP_BATCH_SIZE) {
+                resp.moreFlag = true;
+                sendQueryResp(resp);
+                resp = new FlowCacheQueryResp(query);
+            }
+        }
+        resp.moreFlag = false;
+        sendQueryResp(resp);
+    }
+
+    private void sendQueryResp(FlowCacheQueryResp resp) {
+        if (log.isTraceEnabled()) {
+            log.trace("Sending flow cache query response {}", resp);
+        }
+        resp.hasSent = true;
+        if (resp.queryObj.fcQueryHandler != null)
+            resp.queryObj.fcQueryHandler.flowQueryRespHandler(resp);
+    }
+
+    @Override
+    @LogMessageDoc(level="WARN",
+            message="Too many switches waiting for a flow table read; " +
+                    "not refreshing the flow cache of {switch}",
+            explanation="More switches connected at once than the flow " +
+                    "cache can read the flow tables of",
+            recommendation=LogMessageDoc.CHECK_CONTROLLER)
+    public void querySwitchFlowTable(final long swDpid) {
+        // one read per switch is enough; it sees the latest flow table
+        if (!pendingRefreshes.add(swDpid))
+            return;
+        try {
+            refreshExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    pendingRefreshes.remove(swDpid);
+                    try {
+                        refreshSwitchFlows(swDpid);
+                    } catch (Exception e) {
+                        log.error("Exception querying flow table of switch " +
+                                  HexString.toHexString(swDpid), e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingRefreshes.remove(swDpid);
+            log.warn("Too many switches waiting for a flow table read; " +
+                     "not refreshing the flow cache of {}",
+                     HexString.toHexString(swDpid));
+        }
+    }
+
+    /**
+     * Read the flow table of a switch and update the cached flows from
+     * that switch: flows still on the switch are marked active and flows
+     * that are gone are removed.
+     * @param swDpid the switch
+     */
+    @LogMessageDoc(level="WARN",
+            message="Could not read flow table of switch {switch}",
+            explanation="The flow statistics request used to refresh " +
+                    "the flow cache failed",
+            recommendation=LogMessageDoc.CHECK_SWITCH)
+    protected void refreshSwitchFlows(long swDpid) {
+        IOFSwitch sw = floodlightProvider.getSwitches().get(swDpid);
+        if (sw == null) return;
+
+        OFStatisticsRequest req = new OFStatisticsRequest();
+        req.setStatisticType(OFStatisticsType.FLOW);
+        OFFlowStatisticsRequest specificReq = new OFFlowStatisticsRequest();
+        OFMatch match = new OFMatch();
+        match.setWildcards(0xffffffff);
+        specificReq.setMatch(match);
+        specificReq.setOutPort(OFPort.OFPP_NONE.getValue());
+        specificReq.setTableId((byte) 0xff);
+        req.setStatistics(Collections.singletonList((OFStatistics)specificReq));
+        req.setLengthU(req.getLengthU() + specificReq.getLength());
+
+        List<OFStatistics> values = null;
+        try {
+            Future<List<OFStatistics>> future = sw.getStatistics(req);
+            if (future != null)
+                values = future.get(SWITCH_QUERY_TIMEOUT, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            log.debug("Flow statistics request failed", e);
+        }
+        if (values == null) {
+            log.warn("Could not read flow table of switch {}",
+                     sw.getStringId());
+            return;
+        }
+
+        Set<FlowCacheKey> installed = new HashSet<FlowCacheKey>();
+        for (OFStatistics stat : values) {
+            if (stat instanceof OFFlowStatisticsReply) {
+                installed.add(new FlowCacheKey(swDpid,
+                        ((OFFlowStatisticsReply) stat).getMatch()));
+            }
+        }
+        for (FlowCacheEntry entry :
+                new ArrayList<FlowCacheEntry>(getSwitchFlows(swDpid))) {
+            if (installed.contains(entry.key))
+                entry.active = true;
+            else
+                removeEntry(entry);
+        }
+    }
+
+    // IOFMessageListener
+
+    @Override
+    public String getName() {
+        return "flowcache";
+    }
+
+    @Override
+    public boolean isCallbackOrderingPrereq(OFType type, String name) {
+        return false;
+    }
+
+    @Override
+    public boolean isCallbackOrderingPostreq(OFType type, String name) {
+        return false;
+    }
+
+    @Override
+    public Command receive(IOFSwitch sw, OFMessage msg,
+                           FloodlightContext cntx) {
+        if (msg.getType() != OFType.FLOW_REMOVED)
+            return Command.CONTINUE;
+        OFFlowRemoved flowRemoved = (OFFlowRemoved) msg;
+        FlowCacheEntry entry =
+                flows.get(new FlowCacheKey(sw.getId(), flowRemoved.getMatch()));
+        if (entry != null && entry.cookie == flowRemoved.getCookie() &&
+                entry.priority == flowRemoved.getPriority()) {
+            if (log.isTraceEnabled()) {
+                log.trace("Removing expired flow {} from flow cache",
+                          entry.ofmWithSwDpid);
+            }
+            removeEntry(entry);
+        }
+        return Command.CONTINUE;
+    }
+
+    // IOFSwitchListener
+
+    @Override
+    public void addedSwitch(IOFSwitch sw) {
+        // check which of the flows we remember survived the disconnect
+        if (switchIndex.containsKey(sw.getId()))
+            querySwitchFlowTable(sw.getId());
+    }
+
+    @Override
+    public void removedSwitch(IOFSwitch sw) {
+        deactivateFlowCacheBySwitch(sw.getId());
+    }
+
+    @Override
+    public void switchPortChanged(Long switchId) {
+        // no-op
+    }
+
+    // IFloodlightModule
+
+    @Override
+    public Collection<Class<? extends IFloodlightService>> getModuleServices() {
+        Collection<Class<? extends IFloodlightService>> l =
+                new ArrayList<Class<? extends IFloodlightService>>();
+        l.add(IFlowCacheService.class);
+        return l;
+    }
+
+    @Override
+    public Map<Class<? extends IFloodlightService>, IFloodlightService>
+            getServiceImpls() {
+        Map<Class<? extends IFloodlightService>, IFloodlightService> m =
+                new HashMap<Class<? extends IFloodlightService>,
+                            IFloodlightService>();
+        m.put(IFlowCacheService.class, this);
+        return m;
+    }
+
+    @Override
+    public Collection<Class<? extends IFloodlightService>>
+            getModuleDependencies() {
+        Collection<Class<? extends IFloodlightService>> l =
+                new ArrayList<Class<? extends IFloodlightService>>();
+        l.add(IFloodlightProviderService.class);
+        l.add(IThreadPoolService.class);
+        return l;
+    }
+
+    @Override
+    public void init(FloodlightModuleContext context)
+            throws FloodlightModuleException {
+        floodlightProvider =
+                context.getServiceImpl(IFloodlightProviderService.class);
+        threadPool = context.getServiceImpl(IThreadPoolService.class);
+
+        flows = new ConcurrentHashMap<FlowCacheKey, FlowCacheEntry>();
+        switchIndex = new ConcurrentHashMap<Long, Set<FlowCacheEntry>>();
+        srcMacIndex = new ConcurrentHashMap<Long, Set<FlowCacheEntry>>();
+        dstMacIndex = new ConcurrentHashMap<Long, Set<FlowCacheEntry>>();
+        appIndex = new ConcurrentHashMap<String, Set<FlowCacheEntry>>();
+        pendingRefreshes = Collections.newSetFromMap(
+                new ConcurrentHashMap<Long, Boolean>());
+
+        ThreadFactory threadFactory = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Flow Cache Refresh");
+                t.setDaemon(true);
+                return t;
+            }
+        };
+        refreshExecutor =
+                new ThreadPoolExecutor(REFRESH_THREADS, REFRESH_THREADS,
+                                       0L, TimeUnit.MILLISECONDS,
+                                       new ArrayBlockingQueue<Runnable>(
+                                               REFRESH_QUEUE_SIZE),
+                                       threadFactory);
+    }
+
+    @Override
+    public void startUp(FloodlightModuleContext context) {
+        floodlightProvider.addOFMessageListener(OFType.FLOW_REMOVED, this);
+        floodlightProvider.addOFSwitchListener(this);
+    }
+}
@@ -6,11 +6,15 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import net.floodlightcontroller.core.IFloodlightProviderService;
+import net.floodlightcontroller.core.IInfoProvider;
+import net.floodlightcontroller.core.IOFSwitch;
 import net.floodlightcontroller.core.module.FloodlightModuleContext;
 import net.floodlightcontroller.core.module.FloodlightModuleException;
 import net.floodlightcontroller.core.module.IFloodlightModule;
@@ -25,14 +29,17 @@ import net.floodlightcontroller.devicemanager.IDevice;
 import net.floodlightcontroller.flowcache.IFlowCacheService.FCQueryEvType;
 import net.floodlightcontroller.flowcache.IFlowReconcileListener;
 import net.floodlightcontroller.flowcache.OFMatchReconcile;
+import net.floodlightcontroller.perfmon.CumulativeTimeBucket;
+import net.floodlightcontroller.perfmon.IPktInProcessingTimeService;
 import net.floodlightcontroller.threadpool.IThreadPoolService;
 
+import org.jboss.netty.channel.Channel;
 import org.openflow.protocol.OFType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class FlowReconcileManager 
-        implements IFloodlightModule, IFlowReconcileService {
+        implements IFloodlightModule, IFlowReconcileService, IInfoProvider {
 
     /** The logger. */
     private static Logger logger =
@@ -41,6 +48,11 @@ public class FlowReconcileManager
     /** Reference to dependent modules */
     protected IThreadPoolService threadPool;
     protected ICounterStoreService counterStore;
+    // optional, device updates are not reconciled without it
+    protected IFlowCacheService flowCache;
+    // optional, used to detect congestion and to publish metrics
+    protected IFloodlightProviderService floodlightProvider;
+    protected IPktInProcessingTimeService pktInProcTime;
 
     /**
      * The list of flow reconcile listeners that have registered to get
@@ -51,11 +63,106 @@ public class FlowReconcileManager
     protected ListenerDispatcher<OFType, IFlowReconcileListener>
                                                flowReconcileListeners;
 
-    /** A FIFO queue to keep all outstanding flows for reconciliation */
-    Queue<OFMatchReconcile> flowQueue;
+    /**
+     * The outstanding flows for reconciliation, partitioned by switch.
+     * Flows are FIFO within a partition, so all the flows of a switch are
+     * reconciled in the order they were queued.
+     */
+    protected static class FlowQueue {
+        protected ConcurrentLinkedQueue<OFMatchReconcile>[] partitions;
+        protected AtomicInteger size = new AtomicInteger();
+
+        @SuppressWarnings("unchecked")
+        public FlowQueue(int numPartitions) {
+            partitions = new ConcurrentLinkedQueue[numPartitions];
+            for (int i = 0; i < numPartitions; i++)
+                partitions[i] = new ConcurrentLinkedQueue<OFMatchReconcile>();
+        }
+
+        public int getNumPartitions() {
+            return partitions.length;
+        }
+
+        /**
+         * Get the partition the flows of a switch are queued on
+         */
+        public int partitionFor(OFMatchReconcile ofmRc) {
+            if (ofmRc.ofmWithSwDpid == null) return 0;
+            long dpid = ofmRc.ofmWithSwDpid.getSwitchDataPathId();
+            int h = (int) (dpid ^ (dpid >>> 32));
+            h ^= (h >>> 16);
+            return (h & Integer.MAX_VALUE) % partitions.length;
+        }
+
+        /**
+         * Queue a flow
+         * @return the partition the flow was queued on
+         */
+        public int add(OFMatchReconcile ofmRc) {
+            int p = partitionFor(ofmRc);
+            partitions[p].add(ofmRc);
+            size.incrementAndGet();
+            return p;
+        }
+
+        /**
+         * Remove the head of a partition
+         * @return the flow, or null if the partition is empty
+         */
+        public OFMatchReconcile poll(int partition) {
+            OFMatchReconcile ofmRc = partitions[partition].poll();
+            if (ofmRc != null) size.decrementAndGet();
+            return ofmRc;
+        }
+
+        /**
+         * Remove the head of the first non-empty partition
+         * @return the flow, or null if all partitions are empty
+         */
+        public OFMatchReconcile poll() {
+            for (int i = 0; i < partitions.length; i++) {
+                OFMatchReconcile ofmRc = poll(i);
+                if (ofmRc != null) return ofmRc;
+            }
+            return null;
+        }
+
+        public int size() {
+            return size.get();
+        }
+
+        public int size(int partition) {
+            return partitions[partition].size();
+        }
+
+        public boolean isEmpty() {
+            return size.get() <= 0;
+        }
+
+        public boolean isEmpty(int partition) {
+            return partitions[partition].isEmpty();
+        }
+
+        /**
+         * Get the number of partitions that have flows queued
+         */
+        public int getNumActivePartitions() {
+            int active = 0;
+            for (int i = 0; i < partitions.length; i++) {
+                if (!partitions[i].isEmpty()) active++;
+            }
+            return active;
+        }
+    }
+
+    /** The queue of all outstanding flows for reconciliation */
+    FlowQueue flowQueue;
     
-    /** Asynchronous task to feed the flowReconcile pipeline */
-    protected SingletonTask flowReconcileTask;
+    /** Asynchronous tasks to feed the flowReconcile pipeline, one per
+     *  partition of the flow queue. The tasks run concurrently, but the
+     *  calls to each listener are serialized, so listeners need not be
+     *  thread-safe. */
+    protected SingletonTask[] flowReconcileTasks;
     
     String controllerPktInCounterName;
     protected SimpleCounter lastPacketInCounter;
@@ -72,6 +179,42 @@ public class FlowReconcileManager
     protected static final String EnableConfigKey = "enable";
     protected boolean flowReconcileEnabled;
     
+    /** Config for the number of reconcile workers */
+    protected static final String WorkersConfigKey = "workers";
+    protected static final int DEFAULT_WORKERS = 4;
+    
+    /**
+     * Average packet-in processing time, in ns, above which the controller
+     * is considered congested
+     */
+    protected static long MAX_PKTIN_PROC_TIME_NS = 1000000;
+    /** The lowest fraction of the capacity used when congested */
+    protected static double MIN_RATE_SCALE = 1.0 / 64;
+    /** The fraction of the capacity regained per uncongested period */
+    protected static double RATE_SCALE_INCREMENT = 0.1;
+    
+    /**
+     * The flows that may still be reconciled in the current period, shared
+     * by all workers. Refilled once per FLOW_RECONCILE_DELAY_MILLISEC.
+     */
+    protected AtomicInteger reconcileTokens = new AtomicInteger();
+    protected int periodCapacity;
+    protected long lastRefillTime;
+    /**
+     * The fraction of the capacity given to the workers, halved whenever
+     * the controller or the switches are congested and slowly increased
+     * again when they are not
+     */
+    protected double rateScale = 1.0;
+    protected long lastPktInCnt;
+    protected long lastPktInProcTimeNs;
+    
+    /** Metrics */
+    protected AtomicLong flowsReconciled = new AtomicLong();
+    protected long rateSampleTime;
+    protected long rateSampleCount;
+    protected volatile long reconcileRate;
+    
     public int flowReconcileThreadRunCount;
     
     @Override
@@ -113,7 +256,7 @@ public class FlowReconcileManager
         // Make a copy before putting on the queue.
         OFMatchReconcile myOfmRc = new OFMatchReconcile(ofmRcIn);
     
-        flowQueue.add(myOfmRc);
+        int partition = flowQueue.add(myOfmRc);
     
         Date currTime = new Date();
         long delay = 0;
@@ -127,7 +270,8 @@ public class FlowReconcileManager
         } else {
             delay = FLOW_RECONCILE_DELAY_MILLISEC;
         }
-        flowReconcileTask.reschedule(delay, TimeUnit.MILLISECONDS);
+        flowReconcileTasks[partition].reschedule(delay,
+                                                 TimeUnit.MILLISECONDS);
     
         if (logger.isTraceEnabled()) {
             logger.trace("Reconciling flow: {}, total: {}",
@@ -139,14 +283,25 @@ public class FlowReconcileManager
     public void updateFlowForDestinationDevice(IDevice device,
                                             IFlowQueryHandler handler,
                                             FCQueryEvType fcEvType) {
-        // NO-OP
+        if (flowCache == null) return;
+        // only the flows to this device are returned by the flow cache
+        FCQueryObj fcQueryObj = new FCQueryObj(handler, null, null,
+                                               null, device,
+                                               "FlowReconcileManager",
+                                               fcEvType, null);
+        flowCache.submitFlowCacheQuery(fcQueryObj);
     }
 
     @Override
     public void updateFlowForSourceDevice(IDevice device,
                                           IFlowQueryHandler handler,
                                           FCQueryEvType fcEvType) {
-        // NO-OP
+        if (flowCache == null) return;
+        FCQueryObj fcQueryObj = new FCQueryObj(handler, null, null,
+                                               device, null,
+                                               "FlowReconcileManager",
+                                               fcEvType, null);
+        flowCache.submitFlowCacheQuery(fcQueryObj);
     }
     
     @Override
@@ -201,8 +356,12 @@ public class FlowReconcileManager
             throws FloodlightModuleException {
         threadPool = context.getServiceImpl(IThreadPoolService.class);
         counterStore = context.getServiceImpl(ICounterStoreService.class);
+        flowCache = context.getServiceImpl(IFlowCacheService.class);
+        floodlightProvider =
+                context.getServiceImpl(IFloodlightProviderService.class);
+        pktInProcTime =
+                context.getServiceImpl(IPktInProcessingTimeService.class);
     
-        flowQueue = new ConcurrentLinkedQueue<OFMatchReconcile>();
         flowReconcileListeners = 
                 new ListenerDispatcher<OFType, IFlowReconcileListener>();
         
@@ -215,31 +374,56 @@ public class FlowReconcileManager
             flowReconcileEnabled = false;
         }
         
+        int workers = DEFAULT_WORKERS;
+        String workersValue = configParam.get(WorkersConfigKey);
+        if (workersValue != null) {
+            try {
+                workers = Integer.parseInt(workersValue);
+            } catch (NumberFormatException e) {
+                workers = 0;
+            }
+            if (workers <= 0) {
+                logger.warn("Invalid number of workers {}, using {}",
+                            workersValue, DEFAULT_WORKERS);
+                workers = DEFAULT_WORKERS;
+            }
+        }
+        flowQueue = new FlowQueue(workers);
+        
         flowReconcileThreadRunCount = 0;
         lastReconcileTime = new Date(0);
-        logger.debug("FlowReconcile is {}", flowReconcileEnabled);
+        logger.debug("FlowReconcile is {} with {} workers",
+                     flowReconcileEnabled, workers);
     }
 
     @Override
     public void startUp(FloodlightModuleContext context) {
         // thread to do flow reconcile
         ScheduledExecutorService ses = threadPool.getScheduledExecutor();
-        flowReconcileTask = new SingletonTask(ses, new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    if (doReconcile()) {
-                        flowReconcileTask.reschedule(
-                            FLOW_RECONCILE_DELAY_MILLISEC,
-                            TimeUnit.MILLISECONDS);
+        flowReconcileTasks =
+                new SingletonTask[flowQueue.getNumPartitions()];
+        for (int i = 0; i < flowReconcileTasks.length; i++) {
+            final int partition = i;
+            flowReconcileTasks[i] = new SingletonTask(ses, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (doReconcile(partition)) {
+                            flowReconcileTasks[partition].reschedule(
+                                FLOW_RECONCILE_DELAY_MILLISEC,
+                                TimeUnit.MILLISECONDS);
+                        }
+                    } catch (Exception e) {
+                        logger.warn("Exception in doReconcile(): {}",
+                                    e.getMessage());
+                        e.printStackTrace();
                     }
-                } catch (Exception e) {
-                    logger.warn("Exception in doReconcile(): {}",
-                                e.getMessage());
-                    e.printStackTrace();
                 }
-            }
-        });
+            });
+        }
+        
+        if (floodlightProvider != null)
+            floodlightProvider.addInfoProvider("summary", this);
         
         String packetInName = OFType.PACKET_IN.toClass().getName();
         packetInName = packetInName.substring(packetInName.lastIndexOf('.')+1); 
@@ -252,11 +436,23 @@ public class FlowReconcileManager
     }
     
     /**
-     * Feed the flows into the flow reconciliation pipeline.
+     * Feed the flows of all partitions into the flow reconciliation
+     * pipeline.
      * @return true if more flows to be reconciled
      *         false if no more flows to be reconciled.
      */
     protected boolean doReconcile() {
+        return doReconcile(-1);
+    }
+    
+    /**
+     * Feed the flows into the flow reconciliation pipeline.
+     * @param partition the partition of the flow queue to take the flows
+     *        from, or -1 to take them from all partitions
+     * @return true if more flows to be reconciled
+     *         false if no more flows to be reconciled.
+     */
+    protected boolean doReconcile(int partition) {
         if (!flowReconcileEnabled) {
             return false;
         }
@@ -264,26 +460,34 @@ public class FlowReconcileManager
         // Record the execution time.
         lastReconcileTime = new Date();
     
-        ArrayList<OFMatchReconcile> ofmRcList =
-                        new ArrayList<OFMatchReconcile>();
-        
-        // Get the maximum number of flows that can be reconciled.
-        int reconcileCapacity = getCurrentCapacity();
+        // Get the maximum number of flows that can be reconciled. The
+        // capacity is shared by the partitions that have flows queued, so
+        // a single busy partition may use all of it.
+        refreshCapacity();
+        int reconcileCapacity = takeTokens(partition < 0 ?
+                Integer.MAX_VALUE :
+                Math.max(1, periodCapacity /
+                            Math.max(1, flowQueue.getNumActivePartitions())));
         if (logger.isTraceEnabled()) {
             logger.trace("Reconcile capacity {} flows", reconcileCapacity);
         }
-        while (!flowQueue.isEmpty() && reconcileCapacity > 0) {
-            OFMatchReconcile ofmRc = flowQueue.poll();
+        
+        ArrayList<OFMatchReconcile> ofmRcList =
+                new ArrayList<OFMatchReconcile>(
+                        Math.min(reconcileCapacity, flowQueue.size()));
+        while (reconcileCapacity > 0) {
+            OFMatchReconcile ofmRc = (partition < 0) ?
+                    flowQueue.poll() : flowQueue.poll(partition);
+            if (ofmRc == null) break;
             reconcileCapacity--;
-            if (ofmRc != null) {
-                ofmRcList.add(ofmRc);
-                if (logger.isTraceEnabled()) {
-                    logger.trace("Add flow {} to be the reconcileList", ofmRc.cookie);
-                }
-            } else {
-                break;
+            ofmRcList.add(ofmRc);
+            if (logger.isTraceEnabled()) {
+                logger.trace("Add flow {} to be the reconcileList", ofmRc.cookie);
             }
         }
+        // Let the other workers use what this one did not need
+        if (reconcileCapacity > 0)
+            reconcileTokens.addAndGet(reconcileCapacity);
         
         // Run the flow through all the flow reconcile listeners
         IFlowReconcileListener.Command retCmd;
@@ -297,18 +501,28 @@ public class FlowReconcileManager
                 return false;
             }
         
-            for (IFlowReconcileListener flowReconciler :
-                flowReconcileListeners.getOrderedListeners()) {
+            for (IFlowReconcileListener flowReconciler : listeners) {
                 if (logger.isTraceEnabled()) {
                     logger.trace("Reconciling flow: call listener {}",
                             flowReconciler.getName());
                 }
-                retCmd = flowReconciler.reconcileFlows(ofmRcList);
+                // the workers call the listener concurrently unless it
+                // asks not to be
+                if (flowReconciler instanceof ISerialFlowReconcileListener) {
+                    synchronized (flowReconciler) {
+                        retCmd = flowReconciler.reconcileFlows(ofmRcList);
+                    }
+                } else {
+                    retCmd = flowReconciler.reconcileFlows(ofmRcList);
+                }
                 if (retCmd == IFlowReconcileListener.Command.STOP) {
                     break;
                 }
             }
-            flowReconcileThreadRunCount++;
+            flowsReconciled.addAndGet(ofmRcList.size());
+            synchronized (this) {
+                flowReconcileThreadRunCount++;
+            }
         } else {
             if (logger.isTraceEnabled()) {
                 logger.trace("No flow to be reconciled.");
@@ -316,15 +530,158 @@ public class FlowReconcileManager
         }
         
         // Return true if there are more flows to be reconciled
-        if (flowQueue.isEmpty()) {
-            return false;
+        boolean more = (partition < 0) ?
+                !flowQueue.isEmpty() : !flowQueue.isEmpty(partition);
+        if (more && logger.isTraceEnabled()) {
+            logger.trace("{} more flows to be reconciled.",
+                        flowQueue.size());
+        }
+        return more;
+    }
+    
+    /**
+     * Take up to the given number of flows from the budget of the current
+     * period.
+     * @return the number of flows the caller may reconcile
+     */
+    protected int takeTokens(int wanted) {
+        while (true) {
+            int available = reconcileTokens.get();
+            if (available <= 0) return 0;
+            int taken = Math.min(available, wanted);
+            if (reconcileTokens.compareAndSet(available, available - taken))
+                return taken;
+        }
+    }
+    
+    /**
+     * Start a new period if the current one is over. The budget of the
+     * new period is the capacity left by the packet-in load, scaled down
+     * by the congestion feedback, but never less than the minimum rate.
+     */
+    protected synchronized void refreshCapacity() {
+        long now = System.currentTimeMillis();
+        if (now - lastRefillTime < FLOW_RECONCILE_DELAY_MILLISEC &&
+                now >= lastRefillTime) {
+            return;
+        }
+        lastRefillTime = now;
+        updateReconcileRate(now);
+        
+        if (isCongested()) {
+            rateScale = Math.max(MIN_RATE_SCALE, rateScale / 2);
         } else {
-            if (logger.isTraceEnabled()) {
-                logger.trace("{} more flows to be reconciled.",
-                            flowQueue.size());
+            rateScale = Math.min(1.0, rateScale + RATE_SCALE_INCREMENT);
+        }
+        
+        int minFlows = MIN_FLOW_RECONCILE_PER_SECOND *
+                        FLOW_RECONCILE_DELAY_MILLISEC / 1000;
+        periodCapacity = Math.max(minFlows,
+                                  (int) (getCurrentCapacity() * rateScale));
+        reconcileTokens.set(periodCapacity);
+        if (logger.isTraceEnabled()) {
+            logger.trace("Reconcile budget {} flows, scale {}",
+                         periodCapacity, rateScale);
+        }
+    }
+    
+    /**
+     * Check whether the controller or the switches are falling behind.
+     * The controller is congested if the average time it spent on the
+     * packet-ins received since the last check is above
+     * MAX_PKTIN_PROC_TIME_NS; this needs the packet-in processing time
+     * service to be enabled. A switch is congested if its connection
+     * stopped accepting writes because its send buffer is full.
+     * @return true if the reconcile rate should back off
+     */
+    protected boolean isCongested() {
+        if (pktInProcTime != null && pktInProcTime.isEnabled()) {
+            CumulativeTimeBucket ctb = pktInProcTime.getCtb();
+            if (ctb != null) {
+                long cnt = ctb.getTotalPktCnt();
+                long procTimeNs = ctb.getAverageProcTimeNs() * cnt;
+                boolean congested = false;
+                // the bucket may have been reset since the last check
+                if (cnt > lastPktInCnt && procTimeNs >= lastPktInProcTimeNs) {
+                    long avg = (procTimeNs - lastPktInProcTimeNs) /
+                               (cnt - lastPktInCnt);
+                    congested = avg > MAX_PKTIN_PROC_TIME_NS;
+                }
+                lastPktInCnt = cnt;
+                lastPktInProcTimeNs = procTimeNs;
+                if (congested) return true;
+            }
+        }
+        
+        if (floodlightProvider != null) {
+            Map<Long, IOFSwitch> switches = floodlightProvider.getSwitches();
+            if (switches != null) {
+                for (IOFSwitch sw : switches.values()) {
+                    Channel channel = sw.getChannel();
+                    if (channel != null && channel.isConnected() &&
+                            !channel.isWritable()) {
+                        return true;
+                    }
+                }
             }
-            return true;
         }
+        return false;
+    }
+    
+    protected void updateReconcileRate(long now) {
+        long elapsed = now - rateSampleTime;
+        if (elapsed < 1000 && elapsed >= 0) return;
+        long count = flowsReconciled.get();
+        if (rateSampleTime > 0 && elapsed > 0) {
+            reconcileRate = (count - rateSampleCount) * 1000 / elapsed;
+        }
+        rateSampleTime = now;
+        rateSampleCount = count;
+    }
+    
+    /**
+     * Get the number of flows waiting to be reconciled
+     */
+    public int getQueueDepth() {
+        return flowQueue.size();
+    }
+    
+    /**
+     * Get the number of flows waiting in each partition of the queue
+     */
+    public int[] getPartitionDepths() {
+        int[] depths = new int[flowQueue.getNumPartitions()];
+        for (int i = 0; i < depths.length; i++)
+            depths[i] = flowQueue.size(i);
+        return depths;
+    }
+    
+    /**
+     * Get the total number of flows passed to the listeners
+     */
+    public long getFlowsReconciled() {
+        return flowsReconciled.get();
+    }
+    
+    /**
+     * Get the number of flows reconciled per second, measured over the
+     * last second or so the pipeline was busy
+     */
+    public long getReconcileRate() {
+        return reconcileRate;
+    }
+    
+    // IInfoProvider
+    
+    @Override
+    public Map<String, Object> getInfo(String type) {
+        if (!"summary".equals(type)) return null;
+        
+        Map<String, Object> info = new HashMap<String, Object>();
+        info.put("# flows to reconcile", getQueueDepth());
+        info.put("# flows reconciled", getFlowsReconciled());
+        info.put("flows reconciled per second", getReconcileRate());
+        return info;
     }
     
     /**
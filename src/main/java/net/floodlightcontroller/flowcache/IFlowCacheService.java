@@ -26,6 +26,11 @@ public interface IFlowCacheService extends IFloodlightService {
     public static final String FLOWCACHE_APP_INSTANCE_NAME = 
         "net.floodlightcontroller.flowcache.appInstanceName";
 
+    /** Action of a cached flow that forwards the matched packets */
+    public static final byte FLOW_ACTION_PERMIT = 0;
+    /** Action of a cached flow that drops the matched packets */
+    public static final byte FLOW_ACTION_DENY = 1;
+
     /**
      * The flow cache query event type indicating the event that triggered the
      * query. The callerOpaqueObj can be keyed based on this event type
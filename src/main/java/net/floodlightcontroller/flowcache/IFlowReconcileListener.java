@@ -29,6 +29,9 @@ public interface IFlowReconcileListener extends IListener<OFType> {
      *                   OR of a new entry is to be added after flow 
      *                   reconciliation
      *
+     * The flows are reconciled by several threads, which call the
+     * listener concurrently; a listener that is not thread-safe must
+     * implement {@link ISerialFlowReconcileListener}.
      *
      * @return   Command.CONTINUE if the OFMatch should be sent to the
      *           next flow reconciler. 
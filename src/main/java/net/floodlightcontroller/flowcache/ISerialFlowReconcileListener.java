@@ -0,0 +1,10 @@
+package net.floodlightcontroller.flowcache;
+
+/**
+ * A flow reconcile listener that is not thread-safe.  The flow reconcile
+ * manager reconciles the flow queue partitions on several threads and
+ * calls other listeners from all of them at once; the calls to a
+ * listener with this interface are never concurrent.
+ */
+public interface ISerialFlowReconcileListener extends IFlowReconcileListener {
+}
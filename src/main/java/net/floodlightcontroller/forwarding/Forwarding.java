@@ -27,9 +27,12 @@ import java.util.Map;
 import net.floodlightcontroller.core.FloodlightContext;
 import net.floodlightcontroller.core.IFloodlightProviderService;
 import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.PacketMetadata;
 import net.floodlightcontroller.devicemanager.IDevice;
 import net.floodlightcontroller.devicemanager.IDeviceService;
 import net.floodlightcontroller.devicemanager.SwitchPort;
+import net.floodlightcontroller.flowcache.IFlowCacheService;
+import net.floodlightcontroller.flowcache.IFlowReconcileService;
 import net.floodlightcontroller.core.annotations.LogMessageCategory;
 import net.floodlightcontroller.core.annotations.LogMessageDoc;
 import net.floodlightcontroller.core.annotations.LogMessageDocs;
@@ -39,7 +42,6 @@ import net.floodlightcontroller.core.module.IFloodlightModule;
 import net.floodlightcontroller.core.module.IFloodlightService;
 import net.floodlightcontroller.core.util.AppCookie;
 import net.floodlightcontroller.counter.ICounterStoreService;
-import net.floodlightcontroller.packet.Ethernet;
 import net.floodlightcontroller.routing.ForwardingBase;
 import net.floodlightcontroller.routing.IRoutingDecision;
 import net.floodlightcontroller.routing.IRoutingService;
@@ -69,8 +71,7 @@ public class Forwarding extends ForwardingBase implements IFloodlightModule {
                    recommendation=LogMessageDoc.REPORT_CONTROLLER_BUG)
     public Command processPacketInMessage(IOFSwitch sw, OFPacketIn pi, IRoutingDecision decision, 
                                           FloodlightContext cntx) {
-        Ethernet eth = IFloodlightProviderService.bcStore.get(cntx, 
-                                   IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+        PacketMetadata pm = PacketMetadata.fromPacketIn(cntx, pi);
         
         // If a decision has been made we obey it
         // otherwise we just forward
@@ -87,7 +88,7 @@ public class Forwarding extends ForwardingBase implements IFloodlightModule {
                     return Command.CONTINUE;
                 case FORWARD_OR_FLOOD:
                 case FORWARD:
-                    doForwardFlow(sw, pi, cntx, false);
+                    doForwardFlow(sw, pi, cntx, flowCache != null);
                     return Command.CONTINUE;
                 case MULTICAST:
                     // treat as broadcast
@@ -107,11 +108,11 @@ public class Forwarding extends ForwardingBase implements IFloodlightModule {
                         pi);
             }
             
-            if (eth.isBroadcast() || eth.isMulticast()) {
+            if (pm.isBroadcast() || pm.isMulticast()) {
                 // For now we treat multicast as broadcast
                 doFlood(sw, pi, cntx);
             } else {
-                doForwardFlow(sw, pi, cntx, false);
+                doForwardFlow(sw, pi, cntx, flowCache != null);
             }
         }
         
@@ -125,8 +126,7 @@ public class Forwarding extends ForwardingBase implements IFloodlightModule {
             recommendation=LogMessageDoc.CHECK_SWITCH)
     protected void doDropFlow(IOFSwitch sw, OFPacketIn pi, IRoutingDecision decision, FloodlightContext cntx) {
         // initialize match structure and populate it using the packet
-        OFMatch match = new OFMatch();
-        match.loadFromPacket(pi.getPacketData(), pi.getInPort());
+        OFMatch match = PacketMetadata.fromPacketIn(cntx, pi).toOFMatch();
         if (decision.getWildcards() != null) {
             match.setWildcards(decision.getWildcards());
         }
@@ -161,8 +161,7 @@ public class Forwarding extends ForwardingBase implements IFloodlightModule {
     protected void doForwardFlow(IOFSwitch sw, OFPacketIn pi, 
                                  FloodlightContext cntx,
                                  boolean requestFlowRemovedNotifn) {    
-        OFMatch match = new OFMatch();
-        match.loadFromPacket(pi.getPacketData(), pi.getInPort());
+        OFMatch match = PacketMetadata.fromPacketIn(cntx, pi).toOFMatch();
 
         // Check if we have the location of the destination
         IDevice dstDevice = 
@@ -417,6 +416,9 @@ public class Forwarding extends ForwardingBase implements IFloodlightModule {
         this.routingEngine = context.getServiceImpl(IRoutingService.class);
         this.topology = context.getServiceImpl(ITopologyService.class);
         this.counterStore = context.getServiceImpl(ICounterStoreService.class);
+        this.flowCache = context.getServiceImpl(IFlowCacheService.class);
+        this.flowReconcileMgr =
+                context.getServiceImpl(IFlowReconcileService.class);
         
         // read our config options
         Map<String, String> configOptions = context.getConfigParams(this);
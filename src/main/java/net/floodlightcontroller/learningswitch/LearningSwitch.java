@@ -33,16 +33,17 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import net.floodlightcontroller.core.FloodlightContext;
 import net.floodlightcontroller.core.IFloodlightProviderService;
 import net.floodlightcontroller.core.IOFMessageListener;
 import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.PacketMetadata;
 import net.floodlightcontroller.core.module.FloodlightModuleContext;
 import net.floodlightcontroller.core.module.FloodlightModuleException;
 import net.floodlightcontroller.core.module.IFloodlightModule;
@@ -64,7 +65,6 @@ import org.openflow.protocol.OFType;
 import org.openflow.protocol.action.OFAction;
 import org.openflow.protocol.action.OFActionOutput;
 import org.openflow.util.HexString;
-import org.openflow.util.LRULinkedHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -78,7 +78,7 @@ public class LearningSwitch
     protected IRestApiService restApi;
     
     // Stores the learned state for each switch
-    protected Map<IOFSwitch, Map<MacVlanPair,Short>> macVlanToSwitchPortMap;
+    protected ConcurrentMap<IOFSwitch, MacLearningTable> macVlanToSwitchPortMap;
 
     // flow-mod - for use in the cookie
     public static final int LEARNING_SWITCH_APP_ID = 1;
@@ -95,6 +95,7 @@ public class LearningSwitch
     
     // for managing our map sizes
     protected static final int MAX_MACS_PER_SWITCH  = 1000;    
+    protected int maxMacsPerSwitch = MAX_MACS_PER_SWITCH;
 
     // normally, setup reverse flow as well. Disable only for using cbench for comparison with NOX etc.
     protected static final boolean LEARNING_SWITCH_REVERSE_FLOW = true;
@@ -119,7 +120,7 @@ public class LearningSwitch
      * @param portVal The switchport that the host is on
      */
     protected void addToPortMap(IOFSwitch sw, long mac, short vlan, short portVal) {
-        Map<MacVlanPair,Short> swMap = macVlanToSwitchPortMap.get(sw);
+        MacLearningTable swMap = macVlanToSwitchPortMap.get(sw);
         
         if (vlan == (short) 0xffff) {
             // OFMatch.loadFromPacket sets VLAN ID to 0xffff if the packet contains no VLAN tag;
@@ -128,11 +129,12 @@ public class LearningSwitch
         }
         
         if (swMap == null) {
-            // May be accessed by REST API so we need to make it thread safe
-            swMap = Collections.synchronizedMap(new LRULinkedHashMap<MacVlanPair,Short>(MAX_MACS_PER_SWITCH));
-            macVlanToSwitchPortMap.put(sw, swMap);
+            swMap = new MacLearningTable(maxMacsPerSwitch);
+            MacLearningTable oldMap =
+                    macVlanToSwitchPortMap.putIfAbsent(sw, swMap);
+            if (oldMap != null) swMap = oldMap;
         }
-        swMap.put(new MacVlanPair(mac, vlan), portVal);
+        swMap.put(mac, vlan, portVal);
     }
     
     /**
@@ -145,9 +147,9 @@ public class LearningSwitch
         if (vlan == (short) 0xffff) {
             vlan = 0;
         }
-        Map<MacVlanPair,Short> swMap = macVlanToSwitchPortMap.get(sw);
+        MacLearningTable swMap = macVlanToSwitchPortMap.get(sw);
         if (swMap != null)
-            swMap.remove(new MacVlanPair(mac, vlan));
+            swMap.remove(mac, vlan);
     }
 
     /**
@@ -161,9 +163,12 @@ public class LearningSwitch
         if (vlan == (short) 0xffff) {
             vlan = 0;
         }
-        Map<MacVlanPair,Short> swMap = macVlanToSwitchPortMap.get(sw);
-        if (swMap != null)
-            return swMap.get(new MacVlanPair(mac, vlan));
+        MacLearningTable swMap = macVlanToSwitchPortMap.get(sw);
+        if (swMap != null) {
+            int port = swMap.get(mac, vlan);
+            if (port >= 0)
+                return Short.valueOf((short) port);
+        }
         
         // if none found
         return null;
@@ -181,14 +186,20 @@ public class LearningSwitch
      * @param sw The switch to clear the mapping for
      */
     public void clearLearnedTable(IOFSwitch sw) {
-        Map<MacVlanPair, Short> swMap = macVlanToSwitchPortMap.get(sw);
+        MacLearningTable swMap = macVlanToSwitchPortMap.get(sw);
         if (swMap != null)
             swMap.clear();
     }
     
     @Override
-    public synchronized Map<IOFSwitch, Map<MacVlanPair,Short>> getTable() {
-        return macVlanToSwitchPortMap;
+    public Map<IOFSwitch, Map<MacVlanPair,Short>> getTable() {
+        Map<IOFSwitch, Map<MacVlanPair,Short>> table =
+                new HashMap<IOFSwitch, Map<MacVlanPair,Short>>();
+        for (Map.Entry<IOFSwitch, MacLearningTable> e :
+                macVlanToSwitchPortMap.entrySet()) {
+            table.put(e.getKey(), e.getValue().toMap());
+        }
+        return table;
     }
     
     /**
@@ -322,12 +333,11 @@ public class LearningSwitch
      * @return
      */
     private Command processPacketInMessage(IOFSwitch sw, OFPacketIn pi, FloodlightContext cntx) {
-        // Read in packet data headers by using OFMatch
-        OFMatch match = new OFMatch();
-        match.loadFromPacket(pi.getPacketData(), pi.getInPort());
-        Long sourceMac = Ethernet.toLong(match.getDataLayerSource());
-        Long destMac = Ethernet.toLong(match.getDataLayerDestination());
-        Short vlan = match.getDataLayerVirtualLan();
+        // Read in the packet headers extracted by the controller
+        PacketMetadata pm = PacketMetadata.fromPacketIn(cntx, pi);
+        long sourceMac = pm.getDataLayerSource();
+        long destMac = pm.getDataLayerDestination();
+        short vlan = pm.getDataLayerVirtualLan();
         if ((destMac & 0xfffffffffff0L) == 0x0180c2000000L) {
             if (log.isTraceEnabled()) {
                 log.trace("ignoring packet addressed to 802.1D/Q reserved addr: switch {} vlan {} dest MAC {}",
@@ -349,7 +359,7 @@ public class LearningSwitch
             //     from port map whenever a flow expires, so you would still see
             //     a lot of floods.
             this.writePacketOutForPacketIn(sw, pi, OFPort.OFPP_FLOOD.getValue());
-        } else if (outPort == match.getInputPort()) {
+        } else if (outPort == pm.getInputPort()) {
             log.trace("ignoring packet that arrived on same port as learned destination:"
                     + " switch {} vlan {} dest MAC {} port {}",
                     new Object[]{ sw, vlan, HexString.toHexString(destMac), outPort });
@@ -363,6 +373,7 @@ public class LearningSwitch
             // its former location does not keep the stale entry alive forever.
             // FIXME: current HP switches ignore DL_SRC and DL_DST fields, so we have to match on
             // NW_SRC and NW_DST as well
+            OFMatch match = pm.toOFMatch();
             match.setWildcards(((Integer)sw.getAttribute(IOFSwitch.PROP_FASTWILDCARDS)).intValue()
                     & ~OFMatch.OFPFW_IN_PORT
                     & ~OFMatch.OFPFW_DL_VLAN & ~OFMatch.OFPFW_DL_SRC & ~OFMatch.OFPFW_DL_DST
@@ -489,13 +500,29 @@ public class LearningSwitch
     public void init(FloodlightModuleContext context)
             throws FloodlightModuleException {
         macVlanToSwitchPortMap = 
-                new ConcurrentHashMap<IOFSwitch, Map<MacVlanPair,Short>>();
+                new ConcurrentHashMap<IOFSwitch, MacLearningTable>();
         floodlightProvider =
                 context.getServiceImpl(IFloodlightProviderService.class);
         counterStore =
                 context.getServiceImpl(ICounterStoreService.class);
         restApi =
                 context.getServiceImpl(IRestApiService.class);
+        
+        Map<String, String> configOptions = context.getConfigParams(this);
+        String maxMacs = configOptions.get("maxmacsperswitch");
+        if (maxMacs != null) {
+            try {
+                maxMacsPerSwitch = Integer.parseInt(maxMacs);
+            } catch (NumberFormatException e) {
+                maxMacsPerSwitch = 0;
+            }
+            if (maxMacsPerSwitch <= 0) {
+                log.warn("Invalid maxmacsperswitch {}, using {}",
+                         maxMacs, MAX_MACS_PER_SWITCH);
+                maxMacsPerSwitch = MAX_MACS_PER_SWITCH;
+            }
+        }
+        log.debug("Learning up to {} hosts per switch", maxMacsPerSwitch);
     }
 
     @Override
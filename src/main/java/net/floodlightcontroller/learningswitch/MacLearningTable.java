@@ -0,0 +1,286 @@
+/**
+*    Copyright 2011, Big Switch Networks, Inc.
+*    Originally created by David Erickson, Stanford University
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.learningswitch;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.floodlightcontroller.core.types.MacVlanPair;
+
+/**
+ * A MAC/VLAN to switch port table of bounded size for one switch.
+ *
+ * The MAC address and VLAN of an entry are packed into a single long key
+ * and stored in an open-addressing table with linear probing.  Lookups,
+ * and learning a host again on the port it is already known on, do not
+ * lock or allocate.  Adding, moving and removing hosts lock the table.
+ *
+ * When the table is full, an entry is evicted with the CLOCK algorithm:
+ * every lookup marks its entry as referenced, and the clock hand sweeps
+ * the table clearing marks until it finds an entry that was not used
+ * since the last sweep.
+ */
+public class MacLearningTable {
+    // key of a slot that was never used
+    private static final long EMPTY = 0;
+    // key of a slot whose entry was removed
+    private static final long TOMBSTONE = 1L << 62;
+    // set in the key of every slot that holds an entry
+    private static final long OCCUPIED = 1L << 63;
+
+    private static final int PORT_MASK = 0xffff;
+    private static final int REFERENCED = 1 << 16;
+
+    protected static class Table {
+        final AtomicLongArray keys;
+        // the port in the low bits and the CLOCK reference bit
+        final AtomicIntegerArray values;
+        final int mask;
+
+        Table(int slots) {
+            keys = new AtomicLongArray(slots);
+            values = new AtomicIntegerArray(slots);
+            mask = slots - 1;
+        }
+
+        int indexOf(long key) {
+            int i = hash(key) & mask;
+            for (int n = 0; n <= mask; n++) {
+                long k = keys.get(i);
+                if (k == key) return i;
+                if (k == EMPTY) return -1;
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+    }
+
+    protected final int capacity;
+    protected final int slots;
+    protected volatile Table table;
+
+    // only changed with the lock on this object held
+    protected int size;
+    protected int tombstones;
+    protected int clockHand;
+
+    /**
+     * Construct a new table
+     * @param capacity the maximum number of hosts to keep
+     */
+    public MacLearningTable(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive");
+        int n = 4;
+        while (n < capacity * 2)
+            n <<= 1;
+        this.capacity = capacity;
+        this.slots = n;
+        this.table = new Table(n);
+    }
+
+    /**
+     * Pack a MAC address and VLAN into a table key.  The VLAN must
+     * already be normalized to a 12-bit VLAN ID.
+     */
+    protected static long key(long mac, short vlan) {
+        return OCCUPIED | ((long) (vlan & 0xfff) << 48) |
+               (mac & 0xffffffffffffL);
+    }
+
+    /**
+     * Spread the bits of a key (the finalizer of MurmurHash3)
+     */
+    protected static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    /**
+     * Get the port a host was learned on
+     * @param mac the MAC address of the host
+     * @param vlan the VLAN ID of the host
+     * @return the port as an unsigned value, or -1 if the host is unknown
+     */
+    public int get(long mac, short vlan) {
+        long key = key(mac, vlan);
+        Table t = table;
+        int i = t.indexOf(key);
+        if (i < 0) return -1;
+        int v = t.values.get(i);
+        // the slot may have been reused while the value was read
+        if (t.keys.get(i) != key) return -1;
+        if ((v & REFERENCED) == 0)
+            t.values.compareAndSet(i, v, v | REFERENCED);
+        return v & PORT_MASK;
+    }
+
+    /**
+     * Learn the port of a host, evicting the least recently used host if
+     * the table is full
+     * @param mac the MAC address of the host
+     * @param vlan the VLAN ID of the host
+     * @param port the port the host is on
+     */
+    public void put(long mac, short vlan, short port) {
+        long key = key(mac, vlan);
+        Table t = table;
+        int i = t.indexOf(key);
+        if (i >= 0) {
+            int v = t.values.get(i);
+            if ((v & PORT_MASK) == (port & PORT_MASK) &&
+                    t.keys.get(i) == key) {
+                if ((v & REFERENCED) == 0)
+                    t.values.compareAndSet(i, v, v | REFERENCED);
+                return;
+            }
+        }
+        putLocked(key, port);
+    }
+
+    private synchronized void putLocked(long key, short port) {
+        Table t = table;
+        int i = t.indexOf(key);
+        if (i >= 0) {
+            t.values.set(i, (port & PORT_MASK) | REFERENCED);
+            return;
+        }
+
+        if (size >= capacity)
+            evict(t);
+        if ((size + tombstones + 1) * 4 > slots * 3) {
+            rebuild();
+            t = table;
+        }
+
+        i = hash(key) & t.mask;
+        while (true) {
+            long k = t.keys.get(i);
+            if (k == EMPTY || k == TOMBSTONE) {
+                if (k == TOMBSTONE) tombstones -= 1;
+                break;
+            }
+            i = (i + 1) & t.mask;
+        }
+        // publish the value before the key so readers never see a key
+        // with another entry's port
+        t.values.set(i, (port & PORT_MASK) | REFERENCED);
+        t.keys.set(i, key);
+        size += 1;
+    }
+
+    /**
+     * Advance the clock hand to an entry that was not referenced since
+     * the hand last passed it, and remove that entry
+     */
+    private void evict(Table t) {
+        // readers may keep setting reference bits; give up on them after
+        // two full sweeps and take the next entry
+        for (int n = 0; ; n++) {
+            int i = clockHand;
+            clockHand = (clockHand + 1) & t.mask;
+            if ((t.keys.get(i) & OCCUPIED) == 0) continue;
+            int v = t.values.get(i);
+            if ((v & REFERENCED) != 0 && n < slots * 2) {
+                t.values.compareAndSet(i, v, v & ~REFERENCED);
+                continue;
+            }
+            t.keys.set(i, TOMBSTONE);
+            size -= 1;
+            tombstones += 1;
+            return;
+        }
+    }
+
+    /**
+     * Rehash the entries into a new table to drop the tombstones
+     */
+    private void rebuild() {
+        Table old = table;
+        Table t = new Table(slots);
+        for (int i = 0; i <= old.mask; i++) {
+            long k = old.keys.get(i);
+            if ((k & OCCUPIED) == 0) continue;
+            int j = hash(k) & t.mask;
+            while (t.keys.get(j) != EMPTY)
+                j = (j + 1) & t.mask;
+            t.values.set(j, old.values.get(i));
+            t.keys.set(j, k);
+        }
+        tombstones = 0;
+        clockHand = 0;
+        table = t;
+    }
+
+    /**
+     * Forget a host
+     * @param mac the MAC address of the host
+     * @param vlan the VLAN ID of the host
+     */
+    public synchronized void remove(long mac, short vlan) {
+        Table t = table;
+        int i = t.indexOf(key(mac, vlan));
+        if (i < 0) return;
+        t.keys.set(i, TOMBSTONE);
+        size -= 1;
+        tombstones += 1;
+    }
+
+    /**
+     * Forget all hosts
+     */
+    public synchronized void clear() {
+        table = new Table(slots);
+        size = 0;
+        tombstones = 0;
+        clockHand = 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Get a snapshot of the table.  It is not locked while it is copied.
+     * @return the learned hosts and their ports
+     */
+    public Map<MacVlanPair, Short> toMap() {
+        Map<MacVlanPair, Short> map = new HashMap<MacVlanPair, Short>();
+        Table t = table;
+        for (int i = 0; i <= t.mask; i++) {
+            long k = t.keys.get(i);
+            if ((k & OCCUPIED) == 0) continue;
+            int v = t.values.get(i);
+            if (t.keys.get(i) != k) continue;
+            map.put(new MacVlanPair(k & 0xffffffffffffL,
+                                    (short) ((k >>> 48) & 0xfff)),
+                    (short) (v & PORT_MASK));
+        }
+        return map;
+    }
+}
@@ -29,6 +29,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -47,6 +48,7 @@ import net.floodlightcontroller.core.IInfoProvider;
 import net.floodlightcontroller.core.IOFMessageListener;
 import net.floodlightcontroller.core.IOFSwitch;
 import net.floodlightcontroller.core.IOFSwitchListener;
+import net.floodlightcontroller.core.PacketMetadata;
 import net.floodlightcontroller.core.annotations.LogMessageCategory;
 import net.floodlightcontroller.core.annotations.LogMessageDoc;
 import net.floodlightcontroller.core.annotations.LogMessageDocs;
@@ -248,6 +250,15 @@ IFloodlightModule, IInfoProvider, IHAListener {
      */
     protected Map<NodePortTuple, Long> broadcastDomainPortTimeMap;
 
+    /**
+     * Write-behind buffer of link table rows keyed by link id.  Repeated
+     * updates to the same link within LINK_STORAGE_WRITE_INTERVAL are
+     * merged and flushed to storage as a single batch.
+     */
+    protected Map<String, Map<String, Object>> pendingLinkWrites;
+    protected SingletonTask linkStorageTask;
+    protected final int LINK_STORAGE_WRITE_INTERVAL = 500; // 500 ms.
+
     /** 
      * Get the LLDP sending period in seconds.
      * @return LLDP sending period in seconds.
@@ -899,11 +910,15 @@ IFloodlightModule, IInfoProvider, IHAListener {
 
     protected Command handlePacketIn(long sw, OFPacketIn pi,
                                      FloodlightContext cntx) {
-        Ethernet eth = 
-                IFloodlightProviderService.bcStore.get(cntx, 
-                                                       IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
-
-        if(eth.getEtherType() == Ethernet.TYPE_BSN) {
+        // Only LLDP and BDDP packets are deserialized, the other packets
+        // are told apart from their header fields.
+        PacketMetadata pm = PacketMetadata.fromPacketIn(cntx, pi);
+        short dlType = pm.getDataLayerType();
+
+        if(dlType == Ethernet.TYPE_BSN) {
+            Ethernet eth = 
+                    IFloodlightProviderService.bcStore.get(cntx, 
+                                                           IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
             BSN bsn = (BSN) eth.getPayload();
             if (bsn == null) return Command.STOP;
             if (bsn.getPayload() == null) return Command.STOP;
@@ -912,10 +927,13 @@ IFloodlightModule, IInfoProvider, IHAListener {
             if (bsn.getPayload() instanceof LLDP == false)
                 return Command.CONTINUE;
             return handleLldp((LLDP) bsn.getPayload(), sw, pi, false, cntx);
-        } else if (eth.getEtherType() == Ethernet.TYPE_LLDP)  {
+        } else if (dlType == Ethernet.TYPE_LLDP)  {
+            Ethernet eth = 
+                    IFloodlightProviderService.bcStore.get(cntx, 
+                                                           IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
             return handleLldp((LLDP) eth.getPayload(), sw, pi, true, cntx);
-        } else if (eth.getEtherType() < 1500) {
-            long destMac = eth.getDestinationMAC().toLong();
+        } else if (dlType < 1500) {
+            long destMac = pm.getDataLayerDestination();
             if ((destMac & LINK_LOCAL_MASK) == LINK_LOCAL_VALUE){
                 if (log.isTraceEnabled()) {
                     log.trace("Ignoring packet addressed to 802.1D/Q " +
@@ -1516,6 +1534,9 @@ IFloodlightModule, IInfoProvider, IHAListener {
      * Deletes all links from storage
      */
     void clearAllLinks() {
+        synchronized (pendingLinkWrites) {
+            pendingLinkWrites.clear();
+        }
         storageSource.deleteRowsAsync(LINK_TABLE_NAME, null);
     }
 
@@ -1532,7 +1553,9 @@ IFloodlightModule, IInfoProvider, IHAListener {
     }
 
     /**
-     * Writes a LinkTuple and corresponding LinkInfo to storage
+     * Writes a LinkTuple and corresponding LinkInfo to storage.  The row
+     * is buffered and written by the link storage task, so repeated
+     * updates to a link are coalesced into one storage write.
      * @param lt The LinkTuple to write
      * @param linkInfo The LinkInfo to write
      */
@@ -1592,7 +1615,31 @@ IFloodlightModule, IInfoProvider, IHAListener {
             }
             rowValues.put(LINK_DST_PORT_STATE, linkInfo.getDstPortState());
         }
-        storageSource.updateRowAsync(LINK_TABLE_NAME, rowValues);
+        boolean schedule;
+        synchronized (pendingLinkWrites) {
+            schedule = pendingLinkWrites.isEmpty();
+            pendingLinkWrites.put(id, rowValues);
+        }
+        if (linkStorageTask == null) {
+            // Not started yet; nothing will flush the buffer for us.
+            flushLinkStorageWrites();
+        } else if (schedule) {
+            linkStorageTask.reschedule(LINK_STORAGE_WRITE_INTERVAL,
+                                       TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes all buffered link rows to storage in one batch.
+     */
+    protected void flushLinkStorageWrites() {
+        List<Map<String, Object>> rows;
+        synchronized (pendingLinkWrites) {
+            if (pendingLinkWrites.isEmpty()) return;
+            rows = new ArrayList<Map<String, Object>>(pendingLinkWrites.values());
+            pendingLinkWrites.clear();
+        }
+        storageSource.updateRowsAsync(LINK_TABLE_NAME, rows);
     }
 
     public Long readLinkValidTime(Link lt) {
@@ -1625,6 +1672,11 @@ IFloodlightModule, IInfoProvider, IHAListener {
      */
     protected void removeLinkFromStorage(Link lt) {
         String id = getLinkId(lt);
+        // Drop any buffered write so a later flush does not resurrect
+        // the deleted row.
+        synchronized (pendingLinkWrites) {
+            pendingLinkWrites.remove(id);
+        }
         storageSource.deleteRowAsync(LINK_TABLE_NAME, id);
     }
 
@@ -1798,6 +1850,8 @@ IFloodlightModule, IInfoProvider, IHAListener {
         this.switchLinks = new HashMap<Long, Set<Link>>();
         this.quarantineQueue = new LinkedBlockingQueue<NodePortTuple>();
         this.maintenanceQueue = new LinkedBlockingQueue<NodePortTuple>();
+        this.pendingLinkWrites =
+                new LinkedHashMap<String, Map<String, Object>>();
 
         this.evHistTopologySwitch =
                 new EventHistory<EventHistoryTopologySwitch>("Topology: Switch");
@@ -1893,6 +1947,15 @@ IFloodlightModule, IInfoProvider, IHAListener {
         bddpTask = new SingletonTask(ses, new QuarantineWorker());
         bddpTask.reschedule(BDDP_TASK_INTERVAL, TimeUnit.MILLISECONDS);
 
+        // Setup the link storage task.  It is scheduled by the first
+        // buffered link write and flushes all writes collected since.
+        linkStorageTask = new SingletonTask(ses, new Runnable() {
+            @Override
+            public void run() {
+                flushLinkStorageWrites();
+            }
+        });
+
         updatesThread = new Thread(new Runnable () {
             @Override
             public void run() {
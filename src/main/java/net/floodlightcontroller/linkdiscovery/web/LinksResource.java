@@ -1,37 +1,45 @@
 package net.floodlightcontroller.linkdiscovery.web;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.io.IOException;
 import java.util.Map;
-import java.util.Set;
+import java.util.Map.Entry;
 
 import net.floodlightcontroller.linkdiscovery.ILinkDiscoveryService;
 import net.floodlightcontroller.linkdiscovery.LinkInfo;
+import net.floodlightcontroller.restserver.StreamingJsonRepresentation;
 import net.floodlightcontroller.routing.Link;
 
+import org.codehaus.jackson.JsonGenerator;
+import org.restlet.representation.Representation;
 import org.restlet.resource.Get;
 import org.restlet.resource.ServerResource;
 
 public class LinksResource extends ServerResource {
 
     @Get("json")
-    public Set<LinkWithType> retrieve() {
-        ILinkDiscoveryService ld = (ILinkDiscoveryService)getContext().getAttributes().
+    public Representation retrieve() {
+        final ILinkDiscoveryService ld = (ILinkDiscoveryService)getContext().getAttributes().
                 get(ILinkDiscoveryService.class.getCanonicalName());
-        Map<Link, LinkInfo> links = new HashMap<Link, LinkInfo>();
-        Set<LinkWithType> returnLinkSet = new HashSet<LinkWithType>();
 
-        if (ld != null) {
-            links.putAll(ld.getLinks());
-            for (Link link: links.keySet()) {
-                LinkInfo info = links.get(link);
-                LinkWithType lwt = new LinkWithType(link,
-                                                    info.getSrcPortState(),
-                                                    info.getDstPortState(),
-                                                    ld.getLinkType(link, info));
-                returnLinkSet.add(lwt);
+        // Each link is written as it is converted
+        return new StreamingJsonRepresentation() {
+            @Override
+            protected void writeJson(JsonGenerator jGen) throws IOException {
+                jGen.writeStartArray();
+                if (ld != null) {
+                    Map<Link, LinkInfo> links = ld.getLinks();
+                    for (Entry<Link, LinkInfo> entry : links.entrySet()) {
+                        Link link = entry.getKey();
+                        LinkInfo info = entry.getValue();
+                        LinkWithType lwt = new LinkWithType(link,
+                                                            info.getSrcPortState(),
+                                                            info.getDstPortState(),
+                                                            ld.getLinkType(link, info));
+                        jGen.writeObject(lwt);
+                    }
+                }
+                jGen.writeEndArray();
             }
-        }
-        return returnLinkSet;
+        };
     }
 }
@@ -1,5 +1,7 @@
 package net.floodlightcontroller.restserver;
 
+import java.util.Map;
+
 import net.floodlightcontroller.core.module.IFloodlightService;
 
 public interface IRestApiService extends IFloodlightService {
@@ -9,6 +11,13 @@ public interface IRestApiService extends IFloodlightService {
      */
     public void addRestletRoutable(RestletRoutable routable);
 
+    /**
+     * Get the in-flight count, latency histogram and rejected count of
+     * the requests to each route
+     * @return the statistics of each route
+     */
+    public Map<String, Object> getRequestStats();
+
     /**
      * Runs the REST API server
      */
@@ -0,0 +1,125 @@
+/**
+*    Copyright 2011, Big Switch Networks, Inc.
+*    Originally created by David Erickson, Stanford University
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.restserver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Picks one page of a REST response out of items that come in any order.
+ *
+ * The items are paged in the order of a long key, such as the device key
+ * or the switch DPID.  The cursor of a page is the key of its last item,
+ * and the next page starts after it, so pages stay consistent while items
+ * are added or removed.  Only the items of the page are kept in memory,
+ * however many items there are.
+ *
+ * @param <T> the type of the items
+ */
+public class PageCollector<T> {
+    /**
+     * The name of the query parameter with the maximum number of items
+     */
+    public static final String LIMIT_PARAM = "limit";
+
+    /**
+     * The name of the query parameter with the cursor of the last page
+     */
+    public static final String CURSOR_PARAM = "cursor";
+
+    /**
+     * Get the key items are paged by
+     */
+    public interface KeyFunction<T> {
+        public long getKey(T item);
+    }
+
+    protected final KeyFunction<T> keyFunction;
+    protected final Long cursor;
+    protected final int limit;
+    // the page so far, with the item with the largest key at the head
+    protected final PriorityQueue<T> page;
+    protected boolean more = false;
+
+    /**
+     * @param keyFunction the key of the items
+     * @param cursor the key of the last item of the previous page, or null
+     * for the first page
+     * @param limit the maximum number of items in the page
+     */
+    public PageCollector(KeyFunction<T> keyFunction, Long cursor, int limit) {
+        if (limit <= 0)
+            throw new IllegalArgumentException("Page limit must be positive");
+        this.keyFunction = keyFunction;
+        this.cursor = cursor;
+        this.limit = limit;
+        this.page = new PriorityQueue<T>(Math.min(limit, 1024) + 1,
+                                        new Comparator<T>() {
+            @Override
+            public int compare(T o1, T o2) {
+                long k1 = PageCollector.this.keyFunction.getKey(o1);
+                long k2 = PageCollector.this.keyFunction.getKey(o2);
+                return (k1 > k2) ? -1 : ((k1 == k2) ? 0 : 1);
+            }
+        });
+    }
+
+    /**
+     * Consider an item for the page
+     */
+    public void add(T item) {
+        if (cursor != null && keyFunction.getKey(item) <= cursor)
+            return;
+        page.add(item);
+        if (page.size() > limit) {
+            page.poll();
+            more = true;
+        }
+    }
+
+    /**
+     * Consider all the items for the page
+     */
+    public void addAll(Iterator<? extends T> items) {
+        while (items.hasNext())
+            add(items.next());
+    }
+
+    /**
+     * @return the items of the page in key order
+     */
+    public List<T> getPage() {
+        List<T> items = new ArrayList<T>(page);
+        Collections.sort(items, Collections.reverseOrder(page.comparator()));
+        return items;
+    }
+
+    /**
+     * @return the cursor to get the next page with, or null if this is the
+     * last page
+     */
+    public Long getNextCursor() {
+        if (!more || page.isEmpty())
+            return null;
+        return keyFunction.getKey(page.peek());
+    }
+}
@@ -0,0 +1,116 @@
+/**
+*    Copyright 2011, Big Switch Networks, Inc.
+*    Originally created by David Erickson, Stanford University
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.restserver;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds the number of REST requests of one kind that are handled at the
+ * same time.  A request over the limit waits, on its server thread, for
+ * one of the running requests to finish, but for no longer than the
+ * maximum wait, so a server thread is never parked for good.  Once enough
+ * requests are waiting, the next ones are turned away.
+ */
+public class RequestLimit {
+    public static final long DEFAULT_MAX_WAIT_MS = 2000;
+
+    // the requests running or waiting
+    protected final Semaphore admitted;
+    // the requests running
+    protected final Semaphore running;
+    protected final int maxAdmitted;
+    protected final long maxWaitMs;
+
+    /**
+     * @param maxRunning the number of requests handled at the same time
+     * @param maxWaiting the number of requests that can wait to be handled
+     */
+    public RequestLimit(int maxRunning, int maxWaiting) {
+        this(maxRunning, maxWaiting, DEFAULT_MAX_WAIT_MS);
+    }
+
+    /**
+     * @param maxRunning the number of requests handled at the same time
+     * @param maxWaiting the number of requests that can wait to be handled
+     * @param maxWaitMs how long a request waits before it is turned away
+     */
+    public RequestLimit(int maxRunning, int maxWaiting, long maxWaitMs) {
+        maxAdmitted = maxRunning + Math.max(maxWaiting, 0);
+        admitted = new Semaphore(maxAdmitted);
+        running = new Semaphore(maxRunning, true);
+        this.maxWaitMs = maxWaitMs;
+    }
+
+    /**
+     * Create a limit with the default maximum wait
+     * @return the limit, or null if maxRunning is 0 and the requests are
+     * not limited
+     */
+    public static RequestLimit create(int maxRunning, int maxWaiting) {
+        return create(maxRunning, maxWaiting, DEFAULT_MAX_WAIT_MS);
+    }
+
+    /**
+     * Create a limit
+     * @return the limit, or null if maxRunning is 0 and the requests are
+     * not limited
+     */
+    public static RequestLimit create(int maxRunning, int maxWaiting,
+                                      long maxWaitMs) {
+        if (maxRunning <= 0)
+            return null;
+        return new RequestLimit(maxRunning, maxWaiting, maxWaitMs);
+    }
+
+    /**
+     * @return the number of requests running or waiting at most, that is
+     * the number of server threads the limit can hold
+     */
+    public int getMaxAdmitted() {
+        return maxAdmitted;
+    }
+
+    /**
+     * Wait until a request can be handled.  {@link #exit()} must be called
+     * once it is, if this returns true.
+     * @return false if too many requests are already waiting, or if no
+     * running request finished within the maximum wait
+     */
+    public boolean enter() {
+        if (!admitted.tryAcquire())
+            return false;
+        boolean acquired = false;
+        try {
+            acquired = running.tryAcquire(maxWaitMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!acquired)
+            admitted.release();
+        return acquired;
+    }
+
+    /**
+     * A request that entered was handled
+     */
+    public void exit() {
+        running.release();
+        admitted.release();
+    }
+}
@@ -0,0 +1,37 @@
+/**
+*    Copyright 2011, Big Switch Networks, Inc. 
+*    Originally created by David Erickson, Stanford University
+* 
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+
+package net.floodlightcontroller.restserver;
+
+import java.util.Map;
+
+import org.restlet.resource.Get;
+import org.restlet.resource.ServerResource;
+
+/**
+ * Get the in-flight count and latency histogram of each REST route
+ */
+public class RequestStatsResource extends ServerResource {
+    @Get("json")
+    public Map<String, Object> retrieve() {
+        IRestApiService restApi =
+                (IRestApiService)getContext().getAttributes().
+                    get(IRestApiService.class.getCanonicalName());
+        return restApi.getRequestStats();
+    }
+}
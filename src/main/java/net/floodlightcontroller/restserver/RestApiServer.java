@@ -5,6 +5,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 import org.restlet.Application;
 import org.restlet.Component;
@@ -12,6 +13,7 @@ import org.restlet.Context;
 import org.restlet.Request;
 import org.restlet.Response;
 import org.restlet.Restlet;
+import org.restlet.Server;
 import org.restlet.data.Protocol;
 import org.restlet.data.Reference;
 import org.restlet.data.Status;
@@ -35,6 +37,21 @@ public class RestApiServer
     protected List<RestletRoutable> restlets;
     protected FloodlightModuleContext fmlContext;
     protected int restPort = 8080;
+    // requests handled at the same time, and requests that can wait for
+    // them, for the other routes and for the expensive ones
+    protected int workerThreads = 8;
+    protected int workerQueueSize = 64;
+    protected int expensiveThreads = 2;
+    protected int expensiveQueueSize = 16;
+    // milliseconds a request waits for the running ones before a 503
+    protected long maxWaitMs = RequestLimit.DEFAULT_MAX_WAIT_MS;
+    // server threads on top of the ones the limits can hold
+    protected static final int SPARE_SERVER_THREADS = 4;
+    protected RequestLimit workerLimit;
+    protected RequestLimit expensiveLimit;
+    // Routes that wait on the switches, which can take seconds
+    protected List<Pattern> expensiveRoutes;
+    protected RestRequestStats requestStats = new RestRequestStats();
     
     // ***********
     // Application
@@ -70,7 +87,11 @@ public class RestApiServer
                 }
 
             };
-            slashFilter.setNext(baseRouter);
+            RestRequestDispatcher dispatcher =
+                    new RestRequestDispatcher(context, requestStats,
+                        workerLimit, expensiveLimit, expensiveRoutes);
+            dispatcher.setNext(baseRouter);
+            slashFilter.setNext(dispatcher);
             
             return slashFilter;
         }
@@ -98,7 +119,14 @@ public class RestApiServer
             // Start listening for REST requests
             try {
                 final Component component = new Component();
-                component.getServers().add(Protocol.HTTP, restPort);
+                Server server =
+                        component.getServers().add(Protocol.HTTP, restPort);
+                int serverThreads = getServerThreads();
+                if (serverThreads > 0) {
+                    // Simple's threads handling requests
+                    server.getContext().getParameters().
+                        add("defaultThreads", Integer.toString(serverThreads));
+                }
                 component.getClients().add(Protocol.CLAP);
                 component.getDefaultHost().attach(this);
                 component.start();
@@ -108,6 +136,25 @@ public class RestApiServer
         }
     }
     
+    /**
+     * The requests wait for the limits on the server threads, so the server
+     * gets more threads than the limits can hold.  Otherwise the requests
+     * waiting for one limit could take all the threads and hold up the
+     * requests of the other one, even though its limit is free.
+     * @return the number of server threads, or 0 if the requests are not
+     * limited and the server's default is used
+     */
+    protected int getServerThreads() {
+        if (workerLimit == null && expensiveLimit == null)
+            return 0;
+        int threads = SPARE_SERVER_THREADS;
+        if (workerLimit != null)
+            threads += workerLimit.getMaxAdmitted();
+        if (expensiveLimit != null)
+            threads += expensiveLimit.getMaxAdmitted();
+        return threads;
+    }
+    
     // ***************
     // IRestApiService
     // ***************
@@ -117,6 +164,11 @@ public class RestApiServer
         restlets.add(routable);
     }
 
+    @Override
+    public Map<String, Object> getRequestStats() {
+        return requestStats.getInfo();
+    }
+
     @Override
     public void run() {
         if (logger.isDebugEnabled()) {
@@ -179,10 +231,46 @@ public class RestApiServer
             restPort = Integer.parseInt(port);
         }
         logger.debug("REST port set to {}", restPort);
+        String threads = configOptions.get("workerthreads");
+        if (threads != null) {
+            workerThreads = Integer.parseInt(threads);
+        }
+        String queue = configOptions.get("workerqueue");
+        if (queue != null) {
+            workerQueueSize = Integer.parseInt(queue);
+        }
+        threads = configOptions.get("expensivethreads");
+        if (threads != null) {
+            expensiveThreads = Integer.parseInt(threads);
+        }
+        queue = configOptions.get("expensivequeue");
+        if (queue != null) {
+            expensiveQueueSize = Integer.parseInt(queue);
+        }
+        String maxWait = configOptions.get("maxwait");
+        if (maxWait != null) {
+            maxWaitMs = Long.parseLong(maxWait);
+        }
+        workerLimit = RequestLimit.create(workerThreads, workerQueueSize,
+                                          maxWaitMs);
+        expensiveLimit = RequestLimit.create(expensiveThreads,
+                                             expensiveQueueSize, maxWaitMs);
+        String routes = configOptions.get("expensiveroutes");
+        if (routes == null) {
+            routes = "/wm/core/switch/.*";
+        }
+        expensiveRoutes = new ArrayList<Pattern>();
+        for (String route : routes.split(",")) {
+            route = route.trim();
+            if (route.length() > 0)
+                expensiveRoutes.add(Pattern.compile(route));
+        }
+        logger.debug("REST requests limited to {}, switch requests " +
+                     "limited to {}", workerThreads, expensiveThreads);
     }
 
     @Override
     public void startUp(FloodlightModuleContext Context) {
-        // no-op
+        addRestletRoutable(new RestApiWebRoutable());
     }
 }
\ No newline at end of file
@@ -0,0 +1,123 @@
+/**
+*    Copyright 2011, Big Switch Networks, Inc.
+*    Originally created by David Erickson, Stanford University
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.restserver;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import net.floodlightcontroller.core.annotations.LogMessageCategory;
+
+import org.restlet.Context;
+import org.restlet.Request;
+import org.restlet.Response;
+import org.restlet.data.Status;
+import org.restlet.routing.Filter;
+
+/**
+ * Limits the REST requests handled at the same time, and records the
+ * statistics of each route.
+ *
+ * Requests are handled on the server thread that received them.  Routes
+ * that wait on switches, like the switch statistics, have their own
+ * {@link RequestLimit}, so they can't take up all the requests the server
+ * handles at once and hold up the other ones.  When too many requests of
+ * a kind are already waiting, or a request waited for too long, they are
+ * answered with 503 Service Unavailable.
+ *
+ * A {@link StreamingJsonRepresentation} is generated while it is written,
+ * after the request was handled, so for those responses the limit is only
+ * released, and the request only timed, once the response is written.
+ */
+@LogMessageCategory("REST API")
+public class RestRequestDispatcher extends Filter {
+    public static final String BUSY_ERROR =
+            "Too many requests in progress, try again later";
+
+    protected final RestRequestStats stats;
+    protected final RequestLimit workerLimit;
+    protected final RequestLimit expensiveLimit;
+    protected final List<Pattern> expensiveRoutes;
+
+    /**
+     * @param context the application context
+     * @param stats where to record the requests
+     * @param workerLimit the limit of the requests, or null to not limit
+     * them
+     * @param expensiveLimit the limit of the expensive routes, or null to
+     * use the worker limit
+     * @param expensiveRoutes the patterns of the paths of the expensive
+     * routes
+     */
+    public RestRequestDispatcher(Context context, RestRequestStats stats,
+                                 RequestLimit workerLimit,
+                                 RequestLimit expensiveLimit,
+                                 List<Pattern> expensiveRoutes) {
+        super(context);
+        this.stats = stats;
+        this.workerLimit = workerLimit;
+        this.expensiveLimit = (expensiveLimit != null) ? expensiveLimit
+                                                       : workerLimit;
+        this.expensiveRoutes = expensiveRoutes;
+    }
+
+    protected boolean isExpensive(String path) {
+        for (Pattern p : expensiveRoutes) {
+            if (p.matcher(path).matches())
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    protected int doHandle(Request request, Response response) {
+        String path = request.getResourceRef().getPath();
+        final RouteStats routeStats = stats.getRouteStats(path);
+        final RequestLimit limit =
+                isExpensive(path) ? expensiveLimit : workerLimit;
+        final long start = System.nanoTime();
+
+        routeStats.requestStarted();
+        if (limit != null && !limit.enter()) {
+            routeStats.requestRejected();
+            response.setStatus(Status.SERVER_ERROR_SERVICE_UNAVAILABLE,
+                               BUSY_ERROR);
+            return STOP;
+        }
+        Runnable finished = new Runnable() {
+            @Override
+            public void run() {
+                if (limit != null)
+                    limit.exit();
+                routeStats.requestFinished(System.nanoTime() - start);
+            }
+        };
+        boolean streaming = false;
+        try {
+            int result = super.doHandle(request, response);
+            if (response.getEntity() instanceof StreamingJsonRepresentation) {
+                ((StreamingJsonRepresentation) response.getEntity()).
+                        setFinishedTask(finished);
+                streaming = true;
+            }
+            return result;
+        } finally {
+            if (!streaming)
+                finished.run();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/**
+*    Copyright 2011, Big Switch Networks, Inc.
+*    Originally created by David Erickson, Stanford University
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.restserver;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The statistics of the REST requests, per route.
+ *
+ * The route of a request is its path with the segments that identify an
+ * object, like a switch DPID or a counter name with digits, replaced by
+ * "*", so that all the requests to the same resource are counted together.
+ * At most {@link #MAX_ROUTES} routes are tracked, and any other requests
+ * are counted under {@link #OTHER_ROUTE}.
+ */
+public class RestRequestStats {
+    public static final int MAX_ROUTES = 256;
+    public static final String OTHER_ROUTE = "other";
+
+    protected final ConcurrentMap<String, RouteStats> routes =
+            new ConcurrentHashMap<String, RouteStats>();
+
+    /**
+     * @param path the path of a request
+     * @return the route the request is counted under
+     */
+    public static String getRouteName(String path) {
+        StringBuilder sb = new StringBuilder();
+        for (String segment : path.split("/")) {
+            if (segment.length() == 0)
+                continue;
+            sb.append('/');
+            if (isIdentifier(segment))
+                sb.append('*');
+            else
+                sb.append(segment);
+        }
+        if (sb.length() == 0)
+            sb.append('/');
+        return sb.toString();
+    }
+
+    private static boolean isIdentifier(String segment) {
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (Character.isDigit(c) || c == ':' || c == '%' || c == '.')
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param path the path of a request
+     * @return the statistics of the route of the request
+     */
+    public RouteStats getRouteStats(String path) {
+        String route = getRouteName(path);
+        RouteStats stats = routes.get(route);
+        if (stats != null)
+            return stats;
+        if (routes.size() >= MAX_ROUTES)
+            route = OTHER_ROUTE;
+        stats = new RouteStats();
+        RouteStats old = routes.putIfAbsent(route, stats);
+        return (old != null) ? old : stats;
+    }
+
+    /**
+     * @return the statistics of each route, for the REST API
+     */
+    public Map<String, Object> getInfo() {
+        Map<String, Object> info = new TreeMap<String, Object>();
+        for (Map.Entry<String, RouteStats> entry : routes.entrySet())
+            info.put(entry.getKey(), entry.getValue().getInfo());
+        return info;
+    }
+}
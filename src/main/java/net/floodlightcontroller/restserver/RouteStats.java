@@ -0,0 +1,126 @@
+/**
+*    Copyright 2011, Big Switch Networks, Inc.
+*    Originally created by David Erickson, Stanford University
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.restserver;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Request counts and a latency histogram for one REST route
+ */
+public class RouteStats {
+    /**
+     * The upper limits of the latency buckets, in milliseconds.  The last
+     * bucket has the requests that took longer.
+     */
+    protected static final long[] BUCKET_LIMITS_MS =
+        { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000 };
+
+    protected final AtomicLongArray buckets =
+            new AtomicLongArray(BUCKET_LIMITS_MS.length + 1);
+    protected final AtomicInteger inFlight = new AtomicInteger(0);
+    protected final AtomicLong requests = new AtomicLong(0);
+    protected final AtomicLong rejected = new AtomicLong(0);
+    protected final AtomicLong totalTime = new AtomicLong(0);
+    protected final AtomicLong maxTime = new AtomicLong(0);
+
+    /**
+     * A request was accepted
+     */
+    public void requestStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * A request that was accepted completed
+     * @param nanos nanoseconds the request took, including the time it
+     * was queued
+     */
+    public void requestFinished(long nanos) {
+        inFlight.decrementAndGet();
+        requests.incrementAndGet();
+        totalTime.addAndGet(nanos);
+        long max;
+        while (nanos > (max = maxTime.get())) {
+            if (maxTime.compareAndSet(max, nanos))
+                break;
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        int bucket = 0;
+        while (bucket < BUCKET_LIMITS_MS.length &&
+               millis > BUCKET_LIMITS_MS[bucket])
+            bucket += 1;
+        buckets.incrementAndGet(bucket);
+    }
+
+    /**
+     * A request that was accepted was turned away because too many
+     * requests of its kind were waiting
+     */
+    public void requestRejected() {
+        inFlight.decrementAndGet();
+        rejected.incrementAndGet();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return the number of requests in each latency bucket
+     */
+    public long[] getHistogram() {
+        long[] histogram = new long[buckets.length()];
+        for (int i = 0; i < histogram.length; i++)
+            histogram[i] = buckets.get(i);
+        return histogram;
+    }
+
+    /**
+     * @return the statistics, for the REST API
+     */
+    public Map<String, Object> getInfo() {
+        Map<String, Object> info = new LinkedHashMap<String, Object>();
+        long count = requests.get();
+        info.put("in-flight", inFlight.get());
+        info.put("requests", count);
+        info.put("rejected", rejected.get());
+        info.put("mean-ms", (count == 0) ? 0 :
+            TimeUnit.NANOSECONDS.toMillis(totalTime.get() / count));
+        info.put("max-ms", TimeUnit.NANOSECONDS.toMillis(maxTime.get()));
+        Map<String, Long> histogram = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < BUCKET_LIMITS_MS.length; i++)
+            histogram.put("<=" + BUCKET_LIMITS_MS[i], buckets.get(i));
+        histogram.put(">" + BUCKET_LIMITS_MS[BUCKET_LIMITS_MS.length - 1],
+                      buckets.get(BUCKET_LIMITS_MS.length));
+        info.put("latency-ms", histogram);
+        return info;
+    }
+}
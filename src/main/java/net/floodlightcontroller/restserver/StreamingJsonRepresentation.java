@@ -0,0 +1,93 @@
+/**
+*    Copyright 2011, Big Switch Networks, Inc.
+*    Originally created by David Erickson, Stanford University
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.restserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.MappingJsonFactory;
+import org.restlet.data.MediaType;
+import org.restlet.representation.OutputRepresentation;
+
+/**
+ * A JSON response that is written to the client as it is generated,
+ * instead of being built in memory and serialized at the end.  Objects
+ * written with {@link JsonGenerator#writeObject(Object)} are serialized
+ * the same way as in the other responses, including their
+ * {@link org.codehaus.jackson.map.annotate.JsonSerialize} serializers.
+ *
+ * The response is written after the request was handled, so the REST
+ * server can set a task to run once it is written, or released without
+ * being written.
+ */
+public abstract class StreamingJsonRepresentation extends OutputRepresentation {
+    protected static final MappingJsonFactory jsonFactory =
+            new MappingJsonFactory();
+
+    // run once, when the response is written or released
+    protected final AtomicReference<Runnable> finishedTask =
+            new AtomicReference<Runnable>();
+
+    public StreamingJsonRepresentation() {
+        super(MediaType.APPLICATION_JSON);
+    }
+
+    /**
+     * Set the task to run once the response is written, or released
+     * without being written
+     */
+    public void setFinishedTask(Runnable task) {
+        finishedTask.set(task);
+    }
+
+    protected void finished() {
+        Runnable task = finishedTask.getAndSet(null);
+        if (task != null)
+            task.run();
+    }
+
+    /**
+     * Write the response
+     * @param jGen the generator writing to the client
+     * @throws IOException
+     */
+    protected abstract void writeJson(JsonGenerator jGen) throws IOException;
+
+    @Override
+    public void write(OutputStream outputStream) throws IOException {
+        try {
+            JsonGenerator jGen =
+                    jsonFactory.createJsonGenerator(outputStream,
+                                                    JsonEncoding.UTF8);
+            writeJson(jGen);
+            // the stream belongs to the server, so only flush the generator
+            jGen.flush();
+        } finally {
+            finished();
+        }
+    }
+
+    @Override
+    public void release() {
+        super.release();
+        finished();
+    }
+}
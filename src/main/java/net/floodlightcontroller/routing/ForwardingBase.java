@@ -38,6 +38,11 @@ import net.floodlightcontroller.devicemanager.IDevice;
 import net.floodlightcontroller.devicemanager.IDeviceListener;
 import net.floodlightcontroller.devicemanager.IDeviceService;
 import net.floodlightcontroller.devicemanager.SwitchPort;
+import net.floodlightcontroller.flowcache.FlowCacheQueryResp;
+import net.floodlightcontroller.flowcache.IFlowCacheService;
+import net.floodlightcontroller.flowcache.IFlowCacheService.FCQueryEvType;
+import net.floodlightcontroller.flowcache.IFlowQueryHandler;
+import net.floodlightcontroller.flowcache.IFlowReconcileService;
 import net.floodlightcontroller.packet.Ethernet;
 import net.floodlightcontroller.packet.IPacket;
 import net.floodlightcontroller.routing.IRoutingService;
@@ -50,6 +55,7 @@ import net.floodlightcontroller.util.TimedCache;
 
 import org.openflow.protocol.OFFlowMod;
 import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFMatchWithSwDpid;
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFPacketIn;
 import org.openflow.protocol.OFPacketOut;
@@ -66,7 +72,7 @@ import org.slf4j.LoggerFactory;
  */
 @LogMessageCategory("Flow Programming")
 public abstract class ForwardingBase 
-    implements IOFMessageListener, IDeviceListener {
+    implements IOFMessageListener, IDeviceListener, IFlowQueryHandler {
     
     protected static Logger log =
             LoggerFactory.getLogger(ForwardingBase.class);
@@ -82,6 +88,9 @@ public abstract class ForwardingBase
     protected IRoutingService routingEngine;
     protected ITopologyService topology;
     protected ICounterStoreService counterStore;
+    // optional, flows are not cached or reconciled if these are null
+    protected IFlowCacheService flowCache;
+    protected IFlowReconcileService flowReconcileMgr;
     
     protected OFMessageDamper messageDamper;
     
@@ -264,6 +273,18 @@ public abstract class ForwardingBase
             fm.getMatch().setInputPort(inPort);
             ((OFActionOutput)fm.getActions().get(0)).setPort(outPort);
 
+            if (1 == indx && flowCache != null) {
+                // the message damper already suppresses repeated writes,
+                // so the flow cache's dampening result is not used here
+                flowCache.addFlow(cntx,
+                                  new OFMatchWithSwDpid(fm.getMatch(),
+                                                        switchDPID),
+                                  cookie,
+                                  new SwitchPort(switchDPID, inPort),
+                                  fm.getPriority(),
+                                  IFlowCacheService.FLOW_ACTION_PERMIT);
+            }
+
             try {
                 counterStore.updatePktOutFMCounterStore(sw, fm);
                 if (log.isTraceEnabled()) {
@@ -665,6 +686,19 @@ public abstract class ForwardingBase
 
     @Override
     public void deviceMoved(IDevice device) {
+        // re-route only the flows to and from the device that moved
+        if (flowReconcileMgr != null) {
+            flowReconcileMgr.updateFlowForDestinationDevice(device, this,
+                    FCQueryEvType.DEVICE_MOVED);
+            flowReconcileMgr.updateFlowForSourceDevice(device, this,
+                    FCQueryEvType.DEVICE_MOVED);
+        }
+    }
+
+    @Override
+    public void flowQueryRespHandler(FlowCacheQueryResp resp) {
+        if (flowReconcileMgr != null)
+            flowReconcileMgr.flowQueryGenericHandler(resp);
     }
 
     @Override
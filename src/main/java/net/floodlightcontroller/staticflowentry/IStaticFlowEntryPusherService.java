@@ -1,5 +1,6 @@
 package net.floodlightcontroller.staticflowentry;
 
+import java.util.List;
 import java.util.Map;
 
 import org.openflow.protocol.OFFlowMod;
@@ -15,6 +16,15 @@ public interface IStaticFlowEntryPusherService extends IFloodlightService {
      */
     public void addFlow(String name, OFFlowMod fm, String swDpid);
     
+    /**
+     * Adds a batch of static flows. The entries are written to storage
+     * together and the resulting flow mods are pushed per switch.
+     * @param entries The flows in storage entry format, as produced by
+     * StaticFlowEntries.jsonToStorageEntry().
+     * @return The number of entries that were written to storage
+     */
+    public int addFlows(List<Map<String, Object>> entries);
+    
     /**
      * Deletes a static flow
      * @param name The name of the static flow to delete.
@@ -1,6 +1,9 @@
 package net.floodlightcontroller.staticflowentry;
 
 import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -274,7 +277,6 @@ public class StaticFlowEntries {
      * @throws IOException If there was an error parsing the JSON
      */
     public static Map<String, Object> jsonToStorageEntry(String fmJson) throws IOException {
-        Map<String, Object> entry = new HashMap<String, Object>();
         MappingJsonFactory f = new MappingJsonFactory();
         JsonParser jp;
         
@@ -285,6 +287,98 @@ public class StaticFlowEntries {
         }
         
         jp.nextToken();
+        return jsonToStorageEntry(jp);
+    }
+    
+    /**
+     * Checks to see if the user matches IP information without
+     * checking for the correct ether-type (2048).
+     * @param rows The Map that is a string representation of
+     * the static flow.
+     * @return True if they checked the ether-type, false otherwise
+     */
+    public static boolean checkMatchIp(Map<String, Object> rows) {
+        boolean matchEther = false;
+        String val = (String) rows.get(StaticFlowEntryPusher.COLUMN_DL_TYPE);
+        if (val != null) {
+            int type = 0;
+            // check both hex and decimal
+            try {
+                if (val.startsWith("0x")) {
+                    type = Integer.parseInt(val.substring(2), 16);
+                } else {
+                    type = Integer.parseInt(val);
+                }
+            } catch (NumberFormatException e) { /* fail silently */}
+            if (type == 2048) matchEther = true;
+        }
+        
+        if ((rows.containsKey(StaticFlowEntryPusher.COLUMN_NW_DST) || 
+                rows.containsKey(StaticFlowEntryPusher.COLUMN_NW_SRC) ||
+                rows.containsKey(StaticFlowEntryPusher.COLUMN_NW_PROTO) ||
+                rows.containsKey(StaticFlowEntryPusher.COLUMN_NW_TOS)) &&
+                (matchEther == false))
+            return false;
+        
+        return true;
+    }
+    
+    /**
+     * Parses a list of static flow entries in JSON format into storage
+     * entries.
+     * @param fmJson The JSON formatted list of static flow pusher entries
+     * @return The storage entries, in the order they were given
+     * @throws IOException If there was an error parsing the JSON
+     * @see #jsonToStorageEntries(Reader)
+     */
+    public static List<Map<String, Object>> jsonToStorageEntries(String fmJson) throws IOException {
+        return jsonToStorageEntries(new StringReader(fmJson));
+    }
+
+    /**
+     * Parses a list of static flow entries in JSON format into storage
+     * entries.  The entries are read one at a time as the reader is
+     * consumed, so neither the request text nor a JSON tree of it is held
+     * in memory.  A single entry that is not wrapped in a list is also
+     * accepted.
+     * @param reader The JSON formatted list of static flow pusher entries
+     * @return The storage entries, in the order they were given
+     * @throws IOException If there was an error reading or parsing the JSON
+     */
+    public static List<Map<String, Object>> jsonToStorageEntries(Reader reader) throws IOException {
+        List<Map<String, Object>> entries = new ArrayList<Map<String, Object>>();
+        MappingJsonFactory f = new MappingJsonFactory();
+        JsonParser jp;
+        
+        try {
+            jp = f.createJsonParser(reader);
+        } catch (JsonParseException e) {
+            throw new IOException(e);
+        }
+        
+        jp.nextToken();
+        if (jp.getCurrentToken() == JsonToken.START_OBJECT) {
+            entries.add(jsonToStorageEntry(jp));
+            return entries;
+        }
+        if (jp.getCurrentToken() != JsonToken.START_ARRAY) {
+            throw new IOException("Expected START_ARRAY");
+        }
+        while (jp.nextToken() != JsonToken.END_ARRAY) {
+            entries.add(jsonToStorageEntry(jp));
+        }
+        return entries;
+    }
+    
+    /**
+     * Parses one static flow entry from a parser positioned on the start
+     * of the entry's JSON object
+     * @param jp The parser
+     * @return The map of the storage entry
+     * @throws IOException If there was an error parsing the JSON
+     */
+    private static Map<String, Object> jsonToStorageEntry(JsonParser jp) throws IOException {
+        Map<String, Object> entry = new HashMap<String, Object>();
         if (jp.getCurrentToken() != JsonToken.START_OBJECT) {
             throw new IOException("Expected START_OBJECT");
         }
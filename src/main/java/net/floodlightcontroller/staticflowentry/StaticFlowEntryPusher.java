@@ -7,11 +7,19 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import net.floodlightcontroller.core.FloodlightContext;
 import net.floodlightcontroller.core.IFloodlightProviderService;
@@ -22,6 +30,7 @@ import net.floodlightcontroller.core.IOFSwitch;
 import net.floodlightcontroller.core.IOFSwitchListener;
 import net.floodlightcontroller.core.annotations.LogMessageCategory;
 import net.floodlightcontroller.core.annotations.LogMessageDoc;
+import net.floodlightcontroller.core.annotations.LogMessageDocs;
 import net.floodlightcontroller.core.module.FloodlightModuleContext;
 import net.floodlightcontroller.core.module.FloodlightModuleException;
 import net.floodlightcontroller.core.module.IFloodlightModule;
@@ -35,12 +44,21 @@ import net.floodlightcontroller.storage.IStorageSourceService;
 import net.floodlightcontroller.storage.IStorageSourceListener;
 
 import net.floodlightcontroller.storage.StorageException;
+import net.floodlightcontroller.util.OFMatchUtils;
+
+import org.openflow.protocol.OFBarrierReply;
 import org.openflow.protocol.OFFlowMod;
 import org.openflow.protocol.OFFlowRemoved;
 import org.openflow.protocol.OFMatch;
 import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFPort;
+import org.openflow.protocol.OFStatisticsRequest;
 import org.openflow.protocol.OFType;
 import org.openflow.protocol.factory.BasicFactory;
+import org.openflow.protocol.statistics.OFFlowStatisticsReply;
+import org.openflow.protocol.statistics.OFFlowStatisticsRequest;
+import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
 import org.openflow.util.HexString;
 import org.openflow.util.U16;
 import org.slf4j.Logger;
@@ -96,23 +114,68 @@ public class StaticFlowEntryPusher
     protected IStorageSourceService storageSource;
     protected IRestApiService restApi;
 
+    /**
+     * If true, a connecting switch only gets the entries that are missing
+     * from or different in its flow table; otherwise all entries are sent
+     */
+    protected boolean diffSync = false;
+    // Maximum number of flow mods sent between barriers
+    protected static final int FLOW_MOD_BATCH_SIZE = 1000;
+    // Seconds to wait for the flow table of a connecting switch
+    protected static final int SYNC_STATS_TIMEOUT = 10;
+    // Threads that sync the static flows of connecting switches
+    protected static final int SYNC_THREADS = 2;
+    // Connecting switches that can wait for a sync thread
+    protected static final int SYNC_QUEUE_SIZE = 256;
+
+    /**
+     * Runs {@link #syncEntriesToSwitch(IOFSwitch)}, which blocks on the
+     * switch for up to twice SYNC_STATS_TIMEOUT.  It has its own threads
+     * so that a slow switch does not hold up the shared scheduled
+     * executor.  Null if diffSync is off.
+     */
+    protected ExecutorService syncExecutor;
+
     // Map<DPID, Map<Name, FlowMod>> ; FlowMod can be null to indicate non-active
     protected Map<String, Map<String, OFFlowMod>> entriesFromStorage;
     // Entry Name -> DPID of Switch it's on
     protected Map<String, String> entry2dpid;
+    // Held while entriesFromStorage is changed or copied; the per-switch
+    // maps are plain hash maps
+    protected final Object entriesLock = new Object();
+    // Entry Name -> flow mod parsed by addFlows() before its row was
+    // written, taken by rowsModified() instead of reading the row back
+    // from storage and parsing it again.  This relies on the table being
+    // written through this service; rows without a parsed entry are read
+    // back as before.
+    protected ConcurrentHashMap<String, ParsedEntry> parsedEntries =
+            new ConcurrentHashMap<String, ParsedEntry>();
+
+    /**
+     * A static flow entry parsed ahead of its storage notification
+     */
+    protected static class ParsedEntry {
+        final String dpid;
+        // null for an inactive entry
+        final OFFlowMod flowMod;
 
+        public ParsedEntry(String dpid, OFFlowMod flowMod) {
+            this.dpid = dpid;
+            this.flowMod = flowMod;
+        }
+    }
     private BasicFactory ofMessageFactory;
 
     // Class to sort FlowMod's by priority, from lowest to highest
     class FlowModSorter implements Comparator<String> {
-        private String dpid;
-        public FlowModSorter(String dpid) {
-            this.dpid = dpid;
+        private Map<String, OFFlowMod> entries;
+        public FlowModSorter(Map<String, OFFlowMod> entries) {
+            this.entries = entries;
         }
         @Override
         public int compare(String o1, String o2) {
-            OFFlowMod f1 = entriesFromStorage.get(dpid).get(o1);
-            OFFlowMod f2 = entriesFromStorage.get(dpid).get(o2);
+            OFFlowMod f1 = entries.get(o1);
+            OFFlowMod f2 = entries.get(o2);
             if (f1 == null || f2 == null) // sort active=false flows by key
                 return o1.compareTo(o2);
             return U16.f(f1.getPriority()) - U16.f(f2.getPriority());
@@ -162,11 +225,11 @@ public class StaticFlowEntryPusher
     protected void sendEntriesToSwitch(IOFSwitch sw) {
         String dpid = sw.getStringId();
 
-        if ((entriesFromStorage != null) && (entriesFromStorage.containsKey(dpid))) {
-            Map<String, OFFlowMod> entries = entriesFromStorage.get(dpid);
+        Map<String, OFFlowMod> entries = copyEntries(dpid);
+        if (entries != null) {
             List<String> sortedList = new ArrayList<String>(entries.keySet());
             // weird that Collections.sort() returns void
-            Collections.sort( sortedList, new FlowModSorter(dpid));
+            Collections.sort( sortedList, new FlowModSorter(entries));
             for (String entryName : sortedList) {
                 OFFlowMod flowMod = entries.get(entryName);
                 if (flowMod != null) {
@@ -179,6 +242,285 @@ public class StaticFlowEntryPusher
         }
     }
     
+    /**
+     * Brings the static entries on the switch in line with
+     * entriesFromStorage, sending only what differs.  The switch's flow
+     * table is read with a flow statistics request; entries are added if
+     * they are missing or differ in their actions, and static flows that
+     * are no longer configured are deleted.  Matches are compared after
+     * {@link OFMatchUtils#normalize(OFMatch)}, since switches report
+     * wildcarded fields in their own way.  The deletes are only sent once
+     * a barrier shows that the switch has applied the adds, and never
+     * touch a flow with the name or the match and priority of an active
+     * entry.  If the flow table cannot be read all entries are sent as
+     * with {@link #sendEntriesToSwitch(IOFSwitch)}.
+     *
+     * @param sw The switch to synchronize
+     */
+    @LogMessageDocs({
+        @LogMessageDoc(level="WARN",
+                message="Could not read flow table of switch {switch}; " +
+                        "pushing all static flows",
+                explanation="The flow statistics request used to compute " +
+                        "the static flows missing from a switch failed",
+                recommendation=LogMessageDoc.CHECK_SWITCH),
+        @LogMessageDoc(level="WARN",
+                message="No barrier reply from switch {switch}; " +
+                        "not deleting stale static flows",
+                explanation="The switch did not confirm that it applied " +
+                        "the static flows sent to it, so the flows that " +
+                        "are no longer configured were left in place",
+                recommendation=LogMessageDoc.CHECK_SWITCH)
+    })
+    protected void syncEntriesToSwitch(IOFSwitch sw) {
+        String dpid = sw.getStringId();
+        List<OFFlowStatisticsReply> installed = getStaticFlowStats(sw);
+        if (installed == null) {
+            log.warn("Could not read flow table of switch {}; " +
+                     "pushing all static flows", dpid);
+            sendEntriesToSwitch(sw);
+            return;
+        }
+
+        Map<String, OFFlowMod> entries = copyEntries(dpid);
+        if (entries == null)
+            entries = Collections.emptyMap();
+
+        // index what the switch has by cookie, priority and match
+        Map<FlowKey, OFFlowStatisticsReply> byKey =
+                new HashMap<FlowKey, OFFlowStatisticsReply>();
+        for (OFFlowStatisticsReply reply : installed) {
+            byKey.put(FlowKey.forFlow(reply.getCookie(), reply.getPriority(),
+                                      reply.getMatch()), reply);
+        }
+
+        List<String> sortedList = new ArrayList<String>(entries.keySet());
+        Collections.sort(sortedList, new FlowModSorter(entries));
+        List<OFMessage> adds = new ArrayList<OFMessage>();
+        Set<Long> activeCookies = new HashSet<Long>();
+        Set<FlowKey> activeMatches = new HashSet<FlowKey>();
+        for (String entryName : sortedList) {
+            OFFlowMod flowMod = entries.get(entryName);
+            if (flowMod == null) continue;
+
+            FlowKey key = FlowKey.forFlow(flowMod.getCookie(),
+                                          flowMod.getPriority(),
+                                          flowMod.getMatch());
+            activeCookies.add(flowMod.getCookie());
+            activeMatches.add(key.withoutCookie());
+            OFFlowStatisticsReply found = byKey.remove(key);
+            if (found != null &&
+                found.getActions().equals(flowMod.getActions()))
+                continue;
+            if (log.isDebugEnabled()) {
+                log.debug("Pushing static entry {} for {}", dpid, entryName);
+            }
+            adds.add(flowMod);
+        }
+
+        // whatever static flows are left on the switch are stale, unless
+        // deleting them could remove an active entry
+        List<OFMessage> deletes = new ArrayList<OFMessage>();
+        for (Entry<FlowKey, OFFlowStatisticsReply> e : byKey.entrySet()) {
+            if (activeCookies.contains(e.getKey().cookie) ||
+                activeMatches.contains(e.getKey().withoutCookie()))
+                continue;
+            OFFlowStatisticsReply reply = e.getValue();
+            OFFlowMod fm = (OFFlowMod) getMessageFactory()
+                    .getMessage(OFType.FLOW_MOD);
+            fm.setCommand(OFFlowMod.OFPFC_DELETE_STRICT);
+            fm.setMatch(reply.getMatch());
+            fm.setPriority(reply.getPriority());
+            fm.setCookie(reply.getCookie());
+            fm.setOutPort(OFPort.OFPP_NONE);
+            deletes.add(fm);
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Static flow sync for {}: {} installed, {} to add, " +
+                      "{} to delete",
+                      new Object[] {dpid, installed.size(), adds.size(),
+                                    deletes.size()});
+        }
+        if (!writeBatchesToSwitch(sw, adds) || deletes.isEmpty())
+            return;
+        if (!adds.isEmpty() && !waitForBarrier(sw)) {
+            log.warn("No barrier reply from switch {}; " +
+                     "not deleting stale static flows", dpid);
+            return;
+        }
+        writeBatchesToSwitch(sw, deletes);
+    }
+
+    /**
+     * Copy the entries of a switch, so that they can be read while storage
+     * notifications change them
+     * @param dpid the switch
+     * @return a copy of the entries of the switch, or null if it has none
+     */
+    private Map<String, OFFlowMod> copyEntries(String dpid) {
+        synchronized (entriesLock) {
+            if (entriesFromStorage == null) return null;
+            Map<String, OFFlowMod> entries = entriesFromStorage.get(dpid);
+            if (entries == null) return null;
+            return new HashMap<String, OFFlowMod>(entries);
+        }
+    }
+
+    /**
+     * Identifies a flow on a switch by its cookie, priority and normalized
+     * match
+     */
+    protected static class FlowKey {
+        final long cookie;
+        final short priority;
+        final OFMatch match;
+
+        /**
+         * @param cookie the cookie of the flow
+         * @param priority the priority of the flow
+         * @param match the match of the flow, normalized
+         */
+        protected FlowKey(long cookie, short priority, OFMatch match) {
+            this.cookie = cookie;
+            this.priority = priority;
+            this.match = match;
+        }
+
+        public static FlowKey forFlow(long cookie, short priority,
+                                      OFMatch match) {
+            return new FlowKey(cookie, priority,
+                               OFMatchUtils.normalize(match));
+        }
+
+        public FlowKey withoutCookie() {
+            return new FlowKey(0, priority, match);
+        }
+
+        @Override
+        public int hashCode() {
+            return match.hashCode() * 31 + priority * 17 +
+                   (int) (cookie ^ (cookie >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof FlowKey)) return false;
+            FlowKey other = (FlowKey) obj;
+            return cookie == other.cookie && priority == other.priority &&
+                   match.equals(other.match);
+        }
+    }
+
+    /**
+     * Send a barrier to a switch and wait for its reply
+     * @param sw the switch
+     * @return true if the switch replied
+     */
+    @LogMessageDoc(level="ERROR",
+            message="Failure waiting for a barrier reply from switch {switch}",
+            explanation="An error occurred while waiting for a switch to " +
+                    "apply the static flows sent to it",
+            recommendation=LogMessageDoc.CHECK_SWITCH)
+    protected boolean waitForBarrier(IOFSwitch sw) {
+        try {
+            Future<OFBarrierReply> future = sw.sendBarrier();
+            if (future == null) return false;
+            return future.get(SYNC_STATS_TIMEOUT, TimeUnit.SECONDS) != null;
+        } catch (Exception e) {
+            log.error("Failure waiting for a barrier reply from switch " +
+                      sw, e);
+            return false;
+        }
+    }
+
+    /**
+     * Read the static flows installed on a switch
+     * @param sw the switch
+     * @return the flow statistics for flows with the static flow cookie,
+     * or null if the flow table could not be read
+     */
+    @LogMessageDoc(level="ERROR",
+            message="Failure retrieving flow table from switch {switch}",
+            explanation="An error occurred while retrieving the flow " +
+                    "statistics of a switch",
+            recommendation=LogMessageDoc.CHECK_SWITCH)
+    protected List<OFFlowStatisticsReply> getStaticFlowStats(IOFSwitch sw) {
+        OFStatisticsRequest req = new OFStatisticsRequest();
+        req.setStatisticType(OFStatisticsType.FLOW);
+        OFFlowStatisticsRequest specificReq = new OFFlowStatisticsRequest();
+        OFMatch match = new OFMatch();
+        match.setWildcards(0xffffffff);
+        specificReq.setMatch(match);
+        specificReq.setOutPort(OFPort.OFPP_NONE.getValue());
+        specificReq.setTableId((byte) 0xff);
+        req.setStatistics(Collections.singletonList((OFStatistics)specificReq));
+        req.setLengthU(req.getLengthU() + specificReq.getLength());
+
+        List<OFStatistics> values;
+        try {
+            Future<List<OFStatistics>> future = sw.getStatistics(req);
+            if (future == null) return null;
+            values = future.get(SYNC_STATS_TIMEOUT, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            log.error("Failure retrieving flow table from switch " + sw, e);
+            return null;
+        }
+        if (values == null) return null;
+
+        List<OFFlowStatisticsReply> flows =
+                new ArrayList<OFFlowStatisticsReply>();
+        for (OFStatistics stat : values) {
+            if (!(stat instanceof OFFlowStatisticsReply)) continue;
+            OFFlowStatisticsReply reply = (OFFlowStatisticsReply) stat;
+            if (AppCookie.extractApp(reply.getCookie()) == STATIC_FLOW_APP_ID)
+                flows.add(reply);
+        }
+        return flows;
+    }
+
+    /**
+     * Write messages to a switch in batches of at most FLOW_MOD_BATCH_SIZE,
+     * each followed by a barrier so that the switch has processed one
+     * batch before the next is queued
+     * @param sw the switch
+     * @param messages the messages to send
+     * @return false if writing to the switch failed
+     */
+    @LogMessageDoc(level="ERROR",
+            message="Tried to write to switch {switch} but got {error}",
+            explanation="An I/O error occured while trying to write a " +
+                    "static flow to a switch",
+            recommendation=LogMessageDoc.CHECK_SWITCH)
+    protected boolean writeBatchesToSwitch(IOFSwitch sw,
+                                           List<OFMessage> messages) {
+        for (int i = 0; i < messages.size(); i += FLOW_MOD_BATCH_SIZE) {
+            List<OFMessage> batch = new ArrayList<OFMessage>(
+                    messages.subList(i, Math.min(i + FLOW_MOD_BATCH_SIZE,
+                                                 messages.size())));
+            OFMessage barrier =
+                    getMessageFactory().getMessage(OFType.BARRIER_REQUEST);
+            barrier.setXid(sw.getNextTransactionId());
+            batch.add(barrier);
+            try {
+                sw.write(batch, null);
+                sw.flush();
+            } catch (IOException e) {
+                log.error("Tried to write to switch {} but got {}",
+                          sw.getStringId(), e.getMessage());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private BasicFactory getMessageFactory() {
+        if (ofMessageFactory == null) // lazy init
+            ofMessageFactory = new BasicFactory();
+        return ofMessageFactory;
+    }
+
     /**
      * Used only for bundle-local indexing
      * 
@@ -321,8 +663,30 @@ public class StaticFlowEntryPusher
     }
     
     @Override
-    public void addedSwitch(IOFSwitch sw) {
+    @LogMessageDoc(level="WARN",
+            message="Too many switches waiting for a static flow sync; " +
+                    "pushing all static flows to {switch}",
+            explanation="More switches connected at once than the static " +
+                    "flow sync threads can keep up with",
+            recommendation=LogMessageDoc.CHECK_CONTROLLER)
+    public void addedSwitch(final IOFSwitch sw) {
         log.debug("addedSwitch {}; processing its static entries", sw);
+        if (diffSync && syncExecutor != null) {
+            // reading the flow table blocks, so keep it off the
+            // switch update path
+            try {
+                syncExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        syncEntriesToSwitch(sw);
+                    }
+                });
+                return;
+            } catch (RejectedExecutionException e) {
+                log.warn("Too many switches waiting for a static flow " +
+                         "sync; pushing all static flows to {}", sw);
+            }
+        }
         sendEntriesToSwitch(sw);
     }
 
@@ -350,6 +714,17 @@ public class StaticFlowEntryPusher
             new HashMap<String, Map<String, OFFlowMod>>();
         // build up list of what was added 
         for(Object key: rowKeys) {
+            ParsedEntry parsed = parsedEntries.remove(key);
+            if (parsed != null) {
+                Map<String, OFFlowMod> switchEntries =
+                        entriesToAdd.get(parsed.dpid);
+                if (switchEntries == null) {
+                    switchEntries = new HashMap<String, OFFlowMod>();
+                    entriesToAdd.put(parsed.dpid, switchEntries);
+                }
+                switchEntries.put((String) key, parsed.flowMod);
+                continue;
+            }
             IResultSet resultSet = storageSource.getRow(tableName, key);
             for (Iterator<IResultSet> it = resultSet.iterator(); it.hasNext();) {
                 Map<String, Object> row = it.next().getRow();
@@ -357,28 +732,35 @@ public class StaticFlowEntryPusher
             }            
         }
         // batch updates by switch and blast them out
-        for (String dpid : entriesToAdd.keySet()) {
-            if (!entriesFromStorage.containsKey(dpid))
-                entriesFromStorage.put(dpid, new HashMap<String, OFFlowMod>());
-            List<OFMessage> outQueue = new ArrayList<OFMessage>();
-            for(String entry : entriesToAdd.get(dpid).keySet()) {
-                OFFlowMod newFlowMod = entriesToAdd.get(dpid).get(entry);
-                OFFlowMod oldFlowMod = entriesFromStorage.get(dpid).get(entry);
-                if (oldFlowMod != null) {  // remove any pre-existing rule
-                    oldFlowMod.setCommand(OFFlowMod.OFPFC_DELETE_STRICT);
-                    outQueue.add(oldFlowMod);
-                }
-                if (newFlowMod != null) {
-                    entriesFromStorage.get(dpid).put(entry, newFlowMod);
-                    outQueue.add(newFlowMod);
-                    entry2dpid.put(entry, dpid);
-                } else {
-                    entriesFromStorage.get(dpid).remove(entry);
-                    entry2dpid.remove(entry);
+        synchronized (entriesLock) {
+            for (String dpid : entriesToAdd.keySet()) {
+                if (!entriesFromStorage.containsKey(dpid))
+                    entriesFromStorage.put(dpid, new HashMap<String, OFFlowMod>());
+                List<OFMessage> outQueue = new ArrayList<OFMessage>();
+                for(String entry : entriesToAdd.get(dpid).keySet()) {
+                    // the entry moved to another switch: remove it from the old one
+                    String oldDpid = entry2dpid.get(entry);
+                    if (oldDpid != null && !oldDpid.equals(dpid)) {
+                        deleteStaticFlowEntry(entry);
+                        entry2dpid.remove(entry);
+                    }
+                    OFFlowMod newFlowMod = entriesToAdd.get(dpid).get(entry);
+                    OFFlowMod oldFlowMod = entriesFromStorage.get(dpid).get(entry);
+                    if (oldFlowMod != null) {  // remove any pre-existing rule
+                        outQueue.add(toDelete(oldFlowMod));
+                    }
+                    if (newFlowMod != null) {
+                        entriesFromStorage.get(dpid).put(entry, newFlowMod);
+                        outQueue.add(newFlowMod);
+                        entry2dpid.put(entry, dpid);
+                    } else {
+                        entriesFromStorage.get(dpid).remove(entry);
+                        entry2dpid.remove(entry);
+                    }
                 }
-            }
             
-            writeOFMessagesToSwitch(HexString.toLong(dpid), outQueue);
+                writeOFMessagesToSwitch(HexString.toLong(dpid), outQueue);
+            }
         }
     }
 
@@ -414,21 +796,40 @@ public class StaticFlowEntryPusher
         }
         
         // send flow_mod delete
-        OFFlowMod flowMod = entriesFromStorage.get(dpid).get(entryName);
-        flowMod.setCommand(OFFlowMod.OFPFC_DELETE_STRICT);
-
-        if (entriesFromStorage.containsKey(dpid) && 
-                entriesFromStorage.get(dpid).containsKey(entryName)) {
-            entriesFromStorage.get(dpid).remove(entryName);
-        } else { 
-            log.debug("Tried to delete non-existent entry {} for switch {}", 
-                    entryName, dpid);
-            return false;
+        OFFlowMod flowMod;
+        synchronized (entriesLock) {
+            if (entriesFromStorage.containsKey(dpid) && 
+                    entriesFromStorage.get(dpid).containsKey(entryName)) {
+                flowMod = entriesFromStorage.get(dpid).remove(entryName);
+            } else { 
+                log.debug("Tried to delete non-existent entry {} for switch {}", 
+                        entryName, dpid);
+                return false;
+            }
         }
+        if (flowMod == null) // an inactive entry is not on the switch
+            return true;
         
-        writeFlowModToSwitch(HexString.toLong(dpid), flowMod);
+        writeFlowModToSwitch(HexString.toLong(dpid), toDelete(flowMod));
         return true;
     }
+
+    /**
+     * Build the delete for a static flow.  The flow mod itself is left
+     * alone since a switch sync may be sending it at the same time.
+     * @param flowMod the flow mod of the static flow
+     * @return a strict delete with the match and priority of flowMod
+     */
+    private OFFlowMod toDelete(OFFlowMod flowMod) {
+        OFFlowMod delete;
+        try {
+            delete = flowMod.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+        delete.setCommand(OFFlowMod.OFPFC_DELETE_STRICT);
+        return delete;
+    }
     
     /**
      * Writes a list of OFMessages to a switch
@@ -442,7 +843,9 @@ public class StaticFlowEntryPusher
             recommendation=LogMessageDoc.CHECK_SWITCH)
     private void writeOFMessagesToSwitch(long dpid, List<OFMessage> messages) {
         IOFSwitch ofswitch = floodlightProvider.getSwitches().get(dpid);
-        if (ofswitch != null) {  // is the switch connected
+        if (ofswitch != null && messages.size() > FLOW_MOD_BATCH_SIZE) {
+            writeBatchesToSwitch(ofswitch, messages);
+        } else if (ofswitch != null) {  // is the switch connected
             try {
                 if (log.isDebugEnabled()) {
                     log.debug("Sending {} new entries to {}", messages.size(), dpid);
@@ -578,6 +981,20 @@ public class StaticFlowEntryPusher
             context.getServiceImpl(IStorageSourceService.class);
         restApi =
             context.getServiceImpl(IRestApiService.class);
+
+        // "diff" (the default) pushes only missing or changed entries to
+        // a connecting switch, "full" pushes all of them
+        diffSync = true;
+        Map<String, String> configOptions = context.getConfigParams(this);
+        String syncMode = configOptions.get("syncmode");
+        if (syncMode != null) {
+            if (syncMode.equalsIgnoreCase("full")) {
+                diffSync = false;
+            } else if (!syncMode.equalsIgnoreCase("diff")) {
+                log.warn("Unknown static flow sync mode {}, " +
+                         "using diff", syncMode);
+            }
+        }
     }
 
     @Override
@@ -593,6 +1010,28 @@ public class StaticFlowEntryPusher
         entriesFromStorage = readEntriesFromStorage(); 
         entry2dpid = computeEntry2DpidMap(entriesFromStorage);
         restApi.addRestletRoutable(new StaticFlowEntryWebRoutable());
+        if (diffSync && syncExecutor == null)
+            syncExecutor = createSyncExecutor();
+    }
+
+    /**
+     * Create the executor for switch syncs.  It has a bounded queue; a
+     * switch that does not fit in it gets all entries pushed instead.
+     */
+    private ExecutorService createSyncExecutor() {
+        ThreadFactory threadFactory = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Static Flow Sync");
+                t.setDaemon(true);
+                return t;
+            }
+        };
+        return new ThreadPoolExecutor(SYNC_THREADS, SYNC_THREADS,
+                                      0L, TimeUnit.MILLISECONDS,
+                                      new ArrayBlockingQueue<Runnable>(
+                                              SYNC_QUEUE_SIZE),
+                                      threadFactory);
     }
 
     // IStaticFlowEntryPusherService methods
@@ -601,17 +1040,55 @@ public class StaticFlowEntryPusher
     public void addFlow(String name, OFFlowMod fm, String swDpid) {
         Map<String, Object> fmMap = StaticFlowEntries.flowModToStorageEntry(fm, swDpid, name);
         entry2dpid.put(name, swDpid);
-        Map<String, OFFlowMod> switchEntries = entriesFromStorage.get(swDpid);
-        if (switchEntries == null) {
-            switchEntries = new HashMap<String, OFFlowMod>();
-            entriesFromStorage.put(swDpid, switchEntries);
+        synchronized (entriesLock) {
+            Map<String, OFFlowMod> switchEntries =
+                    entriesFromStorage.get(swDpid);
+            if (switchEntries == null) {
+                switchEntries = new HashMap<String, OFFlowMod>();
+                entriesFromStorage.put(swDpid, switchEntries);
+            }
+            switchEntries.put(name, fm);
         }
-        switchEntries.put(name, fm);
         storageSource.insertRowAsync(TABLE_NAME, fmMap);
     }
 
+    @Override
+    public int addFlows(List<Map<String, Object>> entries) {
+        List<Map<String, Object>> rows =
+                new ArrayList<Map<String, Object>>(entries.size());
+        Map<String, Map<String, OFFlowMod>> parsed =
+                new HashMap<String, Map<String, OFFlowMod>>();
+        for (Map<String, Object> row : entries) {
+            if (!(row.get(COLUMN_NAME) instanceof String) ||
+                !(row.get(COLUMN_SWITCH) instanceof String)) {
+                log.debug("skipping entry with missing required " +
+                          "'switch' or 'name' entry: {}", row);
+                continue;
+            }
+            rows.add(row);
+            parseRow(row, parsed);
+        }
+        for (Entry<String, Map<String, OFFlowMod>> e : parsed.entrySet()) {
+            for (Entry<String, OFFlowMod> fe : e.getValue().entrySet()) {
+                parsedEntries.put(fe.getKey(),
+                                  new ParsedEntry(e.getKey(), fe.getValue()));
+            }
+        }
+        try {
+            // one storage update, and so one notification, for all rows
+            storageSource.updateRows(TABLE_NAME, rows);
+        } catch (RuntimeException e) {
+            // there will be no notification to take the parsed entries
+            for (Map<String, Object> row : rows)
+                parsedEntries.remove(row.get(COLUMN_NAME));
+            throw e;
+        }
+        return rows.size();
+    }
+
     @Override
     public void deleteFlow(String name) {
+        parsedEntries.remove(name);
         storageSource.deleteRowAsync(TABLE_NAME, name);
         // TODO - What if there is a delay in storage?
     }
@@ -653,15 +1130,21 @@ public class StaticFlowEntryPusher
                 if (oldRole == Role.SLAVE) {
                     log.debug("Re-reading static flows from storage due " +
                             "to HA change from SLAVE->MASTER");
-                    entriesFromStorage = readEntriesFromStorage(); 
-                    entry2dpid = computeEntry2DpidMap(entriesFromStorage);
+                    Map<String, Map<String, OFFlowMod>> entries =
+                            readEntriesFromStorage();
+                    synchronized (entriesLock) {
+                        entriesFromStorage = entries;
+                        entry2dpid = computeEntry2DpidMap(entriesFromStorage);
+                    }
                 }
                 break;
             case SLAVE:
                 log.debug("Clearing in-memory flows due to " +
                         "HA change to SLAVE");
-                entry2dpid.clear();
-                entriesFromStorage.clear();
+                synchronized (entriesLock) {
+                    entry2dpid.clear();
+                    entriesFromStorage.clear();
+                }
                 break;
             default:
             	break;
@@ -0,0 +1,98 @@
+/**
+*    Copyright 2012, Big Switch Networks, Inc.
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.staticflowentry.web;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.restlet.representation.Representation;
+import org.restlet.resource.Post;
+import org.restlet.resource.ServerResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.floodlightcontroller.core.annotations.LogMessageCategory;
+import net.floodlightcontroller.core.annotations.LogMessageDoc;
+import net.floodlightcontroller.core.annotations.LogMessageDocs;
+import net.floodlightcontroller.staticflowentry.IStaticFlowEntryPusherService;
+import net.floodlightcontroller.staticflowentry.StaticFlowEntries;
+import net.floodlightcontroller.staticflowentry.StaticFlowEntryPusher;
+
+/**
+ * Pushes a list of static flow entries in a single storage update
+ */
+@LogMessageCategory("Static Flow Pusher")
+public class StaticFlowEntryBulkResource extends ServerResource {
+    protected static Logger log = LoggerFactory.getLogger(StaticFlowEntryBulkResource.class);
+
+    /**
+     * Takes a list of Static Flow Pusher entries in JSON format and adds
+     * them all at once.  The entries are parsed as the request body is
+     * read.
+     * @param entity The Static Flow Pusher entries in JSON format.
+     * @return A string status message
+     */
+    @Post
+    @LogMessageDocs({
+        @LogMessageDoc(level="ERROR",
+            message="Error parsing bulk push flow mod request",
+            explanation="An invalid request was sent to static flow pusher",
+            recommendation="Fix the format of the static flow mod request"),
+        @LogMessageDoc(level="ERROR",
+            message="Static flow entry {name} matches IP fields without " +
+                    "matching for IP payload (ether-type 2048)",
+            explanation="A static flow entry that matches IP fields " +
+                    "without the IP ether-type was pushed; the switch " +
+                    "will wildcard the IP fields",
+            recommendation="Add \"ether-type\":\"2048\" to the entry")
+    })
+    public String store(Representation entity) {
+        IStaticFlowEntryPusherService sfpService =
+                (IStaticFlowEntryPusherService)getContext().getAttributes().
+                    get(IStaticFlowEntryPusherService.class.getCanonicalName());
+        if (entity == null) {
+            return "{\"status\" : \"Error! No data posted.\"}";
+        }
+
+        List<Map<String, Object>> entries;
+        try {
+            entries = StaticFlowEntries.jsonToStorageEntries(entity.getReader());
+        } catch (IOException e) {
+            log.error("Error parsing bulk push flow mod request", e);
+            return "{\"status\" : \"Error! Could not parse flow mods, see log for details.\"}";
+        }
+        int unmatchedIp = 0;
+        for (Map<String, Object> row : entries) {
+            if (!StaticFlowEntries.checkMatchIp(row)) {
+                log.error("Static flow entry {} matches IP fields without " +
+                          "matching for IP payload (ether-type 2048)",
+                          row.get(StaticFlowEntryPusher.COLUMN_NAME));
+                unmatchedIp += 1;
+            }
+        }
+        int count = sfpService.addFlows(entries);
+        if (unmatchedIp > 0) {
+            return "{\"status\" : \"" + count + " entries pushed. " +
+                    "Warning! " + unmatchedIp + " entries match IP fields " +
+                    "without matching for IP payload (ether-type 2048), " +
+                    "which will cause the switch to wildcard higher " +
+                    "level fields.\"}";
+        }
+        return "{\"status\" : \"" + count + " entries pushed\"}";
+    }
+}
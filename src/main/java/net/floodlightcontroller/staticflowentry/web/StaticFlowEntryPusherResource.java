@@ -18,6 +18,7 @@
 package net.floodlightcontroller.staticflowentry.web;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.Map;
 
 import org.restlet.resource.Delete;
@@ -29,9 +30,8 @@ import org.slf4j.LoggerFactory;
 
 import net.floodlightcontroller.core.annotations.LogMessageCategory;
 import net.floodlightcontroller.core.annotations.LogMessageDoc;
+import net.floodlightcontroller.staticflowentry.IStaticFlowEntryPusherService;
 import net.floodlightcontroller.staticflowentry.StaticFlowEntries;
-import net.floodlightcontroller.staticflowentry.StaticFlowEntryPusher;
-import net.floodlightcontroller.storage.IStorageSourceService;
 
 /**
  * Pushes a static flow entry to the storage source
@@ -42,39 +42,6 @@ import net.floodlightcontroller.storage.IStorageSourceService;
 public class StaticFlowEntryPusherResource extends ServerResource {
     protected static Logger log = LoggerFactory.getLogger(StaticFlowEntryPusherResource.class);
     
-    /**
-     * Checks to see if the user matches IP information without
-     * checking for the correct ether-type (2048).
-     * @param rows The Map that is a string representation of
-     * the static flow.
-     * @reutrn True if they checked the ether-type, false otherwise
-     */
-    private boolean checkMatchIp(Map<String, Object> rows) {
-        boolean matchEther = false;
-        String val = (String) rows.get(StaticFlowEntryPusher.COLUMN_DL_TYPE);
-        if (val != null) {
-            int type = 0;
-            // check both hex and decimal
-            if (val.startsWith("0x")) {
-                type = Integer.parseInt(val.substring(2), 16);
-            } else {
-                try {
-                    type = Integer.parseInt(val);
-                } catch (NumberFormatException e) { /* fail silently */}
-            }
-            if (type == 2048) matchEther = true;
-        }
-        
-        if ((rows.containsKey(StaticFlowEntryPusher.COLUMN_NW_DST) || 
-                rows.containsKey(StaticFlowEntryPusher.COLUMN_NW_SRC) ||
-                rows.containsKey(StaticFlowEntryPusher.COLUMN_NW_PROTO) ||
-                rows.containsKey(StaticFlowEntryPusher.COLUMN_NW_TOS)) &&
-                (matchEther == false))
-            return false;
-        
-        return true;
-    }
-    
     /**
      * Takes a Static Flow Pusher string in JSON format and parses it into
      * our database schema then pushes it to the database.
@@ -87,15 +54,15 @@ public class StaticFlowEntryPusherResource extends ServerResource {
         explanation="An invalid request was sent to static flow pusher",
         recommendation="Fix the format of the static flow mod request")
     public String store(String fmJson) {
-        IStorageSourceService storageSource =
-                (IStorageSourceService)getContext().getAttributes().
-                    get(IStorageSourceService.class.getCanonicalName());
+        IStaticFlowEntryPusherService sfpService =
+                (IStaticFlowEntryPusherService)getContext().getAttributes().
+                    get(IStaticFlowEntryPusherService.class.getCanonicalName());
         
         Map<String, Object> rowValues;
         try {
             rowValues = StaticFlowEntries.jsonToStorageEntry(fmJson);
             String status = null;
-            if (!checkMatchIp(rowValues)) {
+            if (!StaticFlowEntries.checkMatchIp(rowValues)) {
                 status = "Warning! Pushing a static flow entry that matches IP " +
                         "fields without matching for IP payload (ether-type 2048) will cause " +
                         "the switch to wildcard higher level fields.";
@@ -103,7 +70,7 @@ public class StaticFlowEntryPusherResource extends ServerResource {
             } else {
                 status = "Entry pushed";
             }
-            storageSource.insertRowAsync(StaticFlowEntryPusher.TABLE_NAME, rowValues);
+            sfpService.addFlows(Collections.singletonList(rowValues));
             return ("{\"status\" : \"" + status + "\"}");
         } catch (IOException e) {
             log.error("Error parsing push flow mod request: " + fmJson, e);
@@ -118,9 +85,9 @@ public class StaticFlowEntryPusherResource extends ServerResource {
         explanation="An invalid delete request was sent to static flow pusher",
         recommendation="Fix the format of the static flow mod request")
     public String del(String fmJson) {
-        IStorageSourceService storageSource =
-                (IStorageSourceService)getContext().getAttributes().
-                    get(IStorageSourceService.class.getCanonicalName());
+        IStaticFlowEntryPusherService sfpService =
+                (IStaticFlowEntryPusherService)getContext().getAttributes().
+                    get(IStaticFlowEntryPusherService.class.getCanonicalName());
         String fmName = null;
         if (fmJson == null) {
             return "{\"status\" : \"Error! No data posted.\"}";
@@ -136,7 +103,7 @@ public class StaticFlowEntryPusherResource extends ServerResource {
             return "{\"status\" : \"Error deleting entry, see log for details\"}";
         }
         
-        storageSource.deleteRowAsync(StaticFlowEntryPusher.TABLE_NAME, fmName);
+        sfpService.deleteFlow(fmName);
         return "{\"status\" : \"Entry " + fmName + " deleted\"}";
     }
 }
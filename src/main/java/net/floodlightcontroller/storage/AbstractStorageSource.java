@@ -72,6 +72,8 @@ public abstract class AbstractStorageSource
 
     private Map<String, Set<IStorageSourceListener>> listeners =
         new ConcurrentHashMap<String, Set<IStorageSourceListener>>();
+    // null if the listeners are called synchronously
+    private volatile StorageNotificationDispatcher notificationDispatcher;
 
     // Our dependencies
     protected IRestApiService restApi = null;
@@ -351,6 +353,17 @@ public abstract class AbstractStorageSource
         return future;
     }
 
+    @Override
+    public Future<?> executeBatchAsync(final StorageBatch batch) {
+        Future<?> future = executorService.submit(
+            new StorageRunnable() {
+                public void doStorageOperation() {
+                    executeBatch(batch);
+                }
+            }, null);
+        return future;
+    }
+
     @Override
     public void insertRow(String tableName, Map<String, Object> values) {
         updateCounters(STORAGE_UPDATE_COUNTER_NAME, tableName);
@@ -428,6 +441,18 @@ public abstract class AbstractStorageSource
         }
     }
     
+    @Override
+    public void executeBatch(StorageBatch batch) {
+        for (StorageBatch.Operation operation : batch.getOperations()) {
+            updateCounters((operation.getType() == StorageBatch.OperationType.DELETE) ?
+                    STORAGE_DELETE_COUNTER_NAME : STORAGE_UPDATE_COUNTER_NAME,
+                    operation.getTableName());
+        }
+        executeBatchImpl(batch);
+    }
+
+    protected abstract void executeBatchImpl(StorageBatch batch);
+
     @Override
     public IResultSet getRow(String tableName, Object rowKey) {
         updateCounters(STORAGE_QUERY_COUNTER_NAME, tableName);
@@ -452,33 +477,37 @@ public abstract class AbstractStorageSource
         if (tableListeners != null) {
             tableListeners.remove(listener);
         }
-    }
-
-    @LogMessageDoc(level="ERROR",
-            message="Exception caught handling storage notification",
-            explanation="An unknown error occured while trying to notify" +
-            		" storage listeners",
-            recommendation=LogMessageDoc.GENERIC_ACTION)
-    protected synchronized void notifyListeners(StorageSourceNotification notification) {
-        String tableName = notification.getTableName();
-        Set<Object> keys = notification.getKeys();
-        Set<IStorageSourceListener> tableListeners = listeners.get(tableName);
+        if (notificationDispatcher != null)
+            notificationDispatcher.listenerRemoved(listener);
+    }
+
+    /**
+     * Deliver storage notifications to the listeners in the background,
+     * merging the changes made within a delay
+     * @param delay milliseconds to collect changes for, or a negative
+     * value to call the listeners synchronously from the writer's thread
+     */
+    public synchronized void setNotificationDelay(long delay) {
+        if (notificationDispatcher != null)
+            notificationDispatcher.shutdown();
+        notificationDispatcher = (delay >= 0) ?
+                new StorageNotificationDispatcher(listeners, delay) : null;
+    }
+
+    protected void notifyListeners(StorageSourceNotification notification) {
+        StorageNotificationDispatcher dispatcher = notificationDispatcher;
+        if (dispatcher != null)
+            dispatcher.dispatch(notification);
+        else
+            deliverNotification(notification);
+    }
+
+    protected synchronized void deliverNotification(StorageSourceNotification notification) {
+        Set<IStorageSourceListener> tableListeners =
+                listeners.get(notification.getTableName());
         if (tableListeners != null) {
-            for (IStorageSourceListener listener : tableListeners) {
-                try {
-                    switch (notification.getAction()) {
-                        case MODIFY:
-                            listener.rowsModified(tableName, keys);
-                            break;
-                        case DELETE:
-                            listener.rowsDeleted(tableName, keys);
-                            break;
-                    }
-                }
-                catch (Exception e) {
-                    logger.error("Exception caught handling storage notification", e);
-                }
-            }
+            for (IStorageSourceListener listener : tableListeners)
+                StorageNotificationDispatcher.deliver(listener, notification);
         }
     }
     
@@ -518,6 +547,11 @@ public abstract class AbstractStorageSource
         return l;
     }
 
+    /**
+     * Reads the notificationdelay option: the milliseconds to collect
+     * changes for before the listeners are notified in the background.
+     * If it isn't set the listeners are called synchronously.
+     */
     @Override
     public void init(FloodlightModuleContext context)
             throws FloodlightModuleException {
@@ -525,6 +559,15 @@ public abstract class AbstractStorageSource
            context.getServiceImpl(IRestApiService.class);
         counterStore =
             context.getServiceImpl(ICounterStoreService.class);
+        String delay = context.getConfigParams(this).get("notificationdelay");
+        if (delay != null) {
+            try {
+                setNotificationDelay(Long.parseLong(delay));
+            } catch (NumberFormatException e) {
+                logger.warn("Invalid notification delay {}, notifying " +
+                            "listeners synchronously", delay);
+            }
+        }
     }
 
     @Override
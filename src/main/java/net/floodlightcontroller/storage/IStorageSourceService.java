@@ -307,6 +307,21 @@ public interface IStorageSourceService extends IFloodlightService {
      */
     public Future<?> saveAsync(final IResultSet resultSet);
     
+    /** Execute the changes of a batch, possibly on several tables, in one
+     * pass. No other writer changes the tables while the batch is executed,
+     * and the listeners of each table are notified once for the whole batch.
+     * @param batch The changes to make
+     */
+    public void executeBatch(StorageBatch batch);
+    
+    /**
+     * Asynchronous version of executeBatch
+     * 
+     * @param batch
+     * @return
+     */
+    public Future<?> executeBatchAsync(final StorageBatch batch);
+    
     /** Add a listener to the specified table. The listener is called
      * when any modifications are made to the table. You can add the same
      * listener instance to multiple tables, since the table name is
@@ -0,0 +1,144 @@
+/**
+*    Copyright 2011, Big Switch Networks, Inc.
+*    Originally created by David Erickson, Stanford University
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A list of row changes, possibly on several tables, that are executed
+ * together by {@link IStorageSourceService#executeBatch}.  The changes are
+ * made in the order they were added, and the listeners of each table are
+ * notified once for the whole batch.
+ *
+ * The batch keeps the value maps it is given, so they must not be changed
+ * until the batch has been executed.
+ */
+public class StorageBatch {
+
+    public enum OperationType { INSERT, UPDATE, DELETE };
+
+    public static class Operation {
+        private String tableName;
+        private OperationType type;
+        private Object rowKey;
+        private Map<String,Object> values;
+
+        public Operation(String tableName, OperationType type, Object rowKey,
+                         Map<String,Object> values) {
+            this.tableName = tableName;
+            this.type = type;
+            this.rowKey = rowKey;
+            this.values = values;
+        }
+
+        public String getTableName() {
+            return tableName;
+        }
+
+        public OperationType getType() {
+            return type;
+        }
+
+        /**
+         * @return the primary key of the row, or null if it is in the
+         * values
+         */
+        public Object getRowKey() {
+            return rowKey;
+        }
+
+        /**
+         * @return the column values, null for deletes
+         */
+        public Map<String,Object> getValues() {
+            return values;
+        }
+
+        @Override
+        public String toString() {
+            return "Operation[table=" + tableName + "; type=" + type +
+                   "; key=" + rowKey + "; values=" + values + "]";
+        }
+    }
+
+    private List<Operation> operations = new ArrayList<Operation>();
+
+    /** Insert a new row, like {@link IStorageSourceService#insertRow}
+     * @return this
+     */
+    public StorageBatch insertRow(String tableName, Map<String,Object> values) {
+        operations.add(new Operation(tableName, OperationType.INSERT, null, values));
+        return this;
+    }
+
+    /** Update or insert a row with the given primary key, like
+     * {@link IStorageSourceService#updateRow(String, Object, Map)}
+     * @return this
+     */
+    public StorageBatch updateRow(String tableName, Object rowKey,
+                                  Map<String,Object> values) {
+        operations.add(new Operation(tableName, OperationType.UPDATE, rowKey, values));
+        return this;
+    }
+
+    /** Update or insert a row whose primary key is in the values, like
+     * {@link IStorageSourceService#updateRow(String, Map)}
+     * @return this
+     */
+    public StorageBatch updateRow(String tableName, Map<String,Object> values) {
+        operations.add(new Operation(tableName, OperationType.UPDATE, null, values));
+        return this;
+    }
+
+    /** Delete the row with the given primary key
+     * @return this
+     */
+    public StorageBatch deleteRow(String tableName, Object rowKey) {
+        operations.add(new Operation(tableName, OperationType.DELETE, rowKey, null));
+        return this;
+    }
+
+    /** Delete the rows with the given primary keys
+     * @return this
+     */
+    public StorageBatch deleteRows(String tableName, Set<Object> rowKeys) {
+        for (Object rowKey : rowKeys)
+            deleteRow(tableName, rowKey);
+        return this;
+    }
+
+    /**
+     * @return the changes in the order they were added
+     */
+    public List<Operation> getOperations() {
+        return Collections.unmodifiableList(operations);
+    }
+
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "StorageBatch" + operations;
+    }
+}
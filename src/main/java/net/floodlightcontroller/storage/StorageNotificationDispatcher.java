@@ -0,0 +1,274 @@
+/**
+*    Copyright 2011, Big Switch Networks, Inc.
+*    Originally created by David Erickson, Stanford University
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.storage;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.floodlightcontroller.core.annotations.LogMessageCategory;
+import net.floodlightcontroller.core.annotations.LogMessageDoc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers storage notifications to the listeners in the background.
+ *
+ * The keys of the changed rows are collected per table for a short delay,
+ * and then the changes of each table are delivered together, with at most
+ * one rowsDeleted and one rowsModified call per listener, in that order.
+ * A row that is changed several times within the delay is reported as
+ * deleted if it was deleted at any point, and as modified if it still
+ * exists, so a row that was deleted and inserted again is reported in
+ * both calls.
+ *
+ * Each listener has its own queue of notifications, so it is called from
+ * one thread at a time and in the order of the changes.  Writers never
+ * wait for listeners, and a slow listener doesn't hold up the others.
+ */
+@LogMessageCategory("System Database")
+public class StorageNotificationDispatcher {
+    protected static Logger logger =
+            LoggerFactory.getLogger(StorageNotificationDispatcher.class);
+
+    protected final Map<String, Set<IStorageSourceListener>> listeners;
+    protected final long delay;
+    protected final ScheduledExecutorService flushExecutor;
+    protected final ExecutorService deliveryExecutor;
+    protected final Map<IStorageSourceListener, ListenerQueue> listenerQueues =
+            new ConcurrentHashMap<IStorageSourceListener, ListenerQueue>();
+
+    // the rows changed since the last flush, per table
+    protected Map<String, TableChanges> pending =
+            new HashMap<String, TableChanges>();
+    protected boolean flushScheduled = false;
+
+    protected static class TableChanges {
+        // rows deleted at any point, delivered first
+        final Set<Object> deletedKeys = new HashSet<Object>();
+        // rows that exist after their last change
+        final Set<Object> modifiedKeys = new HashSet<Object>();
+
+        void add(StorageSourceNotification.Action action, Object key) {
+            if (action == StorageSourceNotification.Action.DELETE) {
+                deletedKeys.add(key);
+                modifiedKeys.remove(key);
+            } else {
+                modifiedKeys.add(key);
+            }
+        }
+    }
+
+    /**
+     * The notifications still to be delivered to a listener.  It runs on
+     * the delivery executor while it has notifications.
+     */
+    protected class ListenerQueue implements Runnable {
+        final IStorageSourceListener listener;
+        final Queue<StorageSourceNotification> notifications =
+                new ConcurrentLinkedQueue<StorageSourceNotification>();
+        final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        ListenerQueue(IStorageSourceListener listener) {
+            this.listener = listener;
+        }
+
+        void add(StorageSourceNotification notification) {
+            notifications.add(notification);
+            schedule();
+        }
+
+        void schedule() {
+            if (scheduled.compareAndSet(false, true))
+                deliveryExecutor.execute(this);
+        }
+
+        @Override
+        public void run() {
+            StorageSourceNotification notification;
+            while ((notification = notifications.poll()) != null)
+                deliver(listener, notification);
+            scheduled.set(false);
+            // a notification may have been added after the last poll
+            if (!notifications.isEmpty())
+                schedule();
+        }
+    }
+
+    /**
+     * @param listeners the listeners of each table, looked up whenever the
+     * changes are delivered
+     * @param delay milliseconds to collect changes for before they are
+     * delivered
+     */
+    public StorageNotificationDispatcher(
+            Map<String, Set<IStorageSourceListener>> listeners, long delay) {
+        this.listeners = listeners;
+        this.delay = delay;
+        ThreadFactory threadFactory = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Storage Notifications");
+                t.setDaemon(true);
+                return t;
+            }
+        };
+        flushExecutor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        deliveryExecutor = Executors.newCachedThreadPool(threadFactory);
+    }
+
+    /**
+     * Queue a notification.  It is delivered once the delay has passed.
+     */
+    public void dispatch(StorageSourceNotification notification) {
+        String tableName = notification.getTableName();
+        Set<IStorageSourceListener> tableListeners = listeners.get(tableName);
+        if ((tableListeners == null) || tableListeners.isEmpty())
+            return;
+        synchronized (this) {
+            TableChanges tableChanges = pending.get(tableName);
+            if (tableChanges == null) {
+                tableChanges = new TableChanges();
+                pending.put(tableName, tableChanges);
+            }
+            for (Object key : notification.getKeys())
+                tableChanges.add(notification.getAction(), key);
+            if (!flushScheduled) {
+                flushScheduled = true;
+                flushExecutor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Hand the changes collected so far to the listener queues
+     */
+    protected void flush() {
+        Map<String, TableChanges> changes;
+        synchronized (this) {
+            changes = pending;
+            pending = new HashMap<String, TableChanges>();
+            flushScheduled = false;
+        }
+        for (Map.Entry<String, TableChanges> entry : changes.entrySet()) {
+            String tableName = entry.getKey();
+            Set<IStorageSourceListener> tableListeners = listeners.get(tableName);
+            if (tableListeners == null)
+                continue;
+            Set<Object> deletedKeys = entry.getValue().deletedKeys;
+            Set<Object> modifiedKeys = entry.getValue().modifiedKeys;
+            for (IStorageSourceListener listener : tableListeners) {
+                ListenerQueue queue = getListenerQueue(listener);
+                if (!deletedKeys.isEmpty()) {
+                    queue.add(new StorageSourceNotification(tableName,
+                            StorageSourceNotification.Action.DELETE, deletedKeys));
+                }
+                if (!modifiedKeys.isEmpty()) {
+                    queue.add(new StorageSourceNotification(tableName,
+                            StorageSourceNotification.Action.MODIFY, modifiedKeys));
+                }
+            }
+        }
+    }
+
+    protected ListenerQueue getListenerQueue(IStorageSourceListener listener) {
+        ListenerQueue queue = listenerQueues.get(listener);
+        if (queue == null) {
+            // only the flush thread creates queues
+            queue = new ListenerQueue(listener);
+            listenerQueues.put(listener, queue);
+        }
+        return queue;
+    }
+
+    /**
+     * Drop the queue of a listener once it listens to no table.  Runs on
+     * the flush thread, so no flush running later creates it again.  The
+     * notifications already queued for it are still delivered.
+     */
+    public void listenerRemoved(final IStorageSourceListener listener) {
+        try {
+            flushExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (Set<IStorageSourceListener> tableListeners :
+                            listeners.values()) {
+                        if (tableListeners.contains(listener))
+                            return;
+                    }
+                    listenerQueues.remove(listener);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // shut down
+        }
+    }
+
+    /**
+     * Stop delivering notifications.  Notifications that weren't
+     * delivered yet are dropped.
+     */
+    public void shutdown() {
+        flushExecutor.shutdownNow();
+        deliveryExecutor.shutdownNow();
+    }
+
+    /**
+     * Call a listener for a notification
+     */
+    @LogMessageDoc(level="ERROR",
+            message="Exception caught handling storage notification",
+            explanation="An unknown error occured while trying to notify" +
+                    " storage listeners",
+            recommendation=LogMessageDoc.GENERIC_ACTION)
+    public static void deliver(IStorageSourceListener listener,
+                               StorageSourceNotification notification) {
+        String tableName = notification.getTableName();
+        Set<Object> keys = notification.getKeys();
+        try {
+            switch (notification.getAction()) {
+                case MODIFY:
+                    listener.rowsModified(tableName, keys);
+                    break;
+                case DELETE:
+                    listener.rowsDeleted(tableName, keys);
+                    break;
+            }
+        }
+        catch (Exception e) {
+            logger.error("Exception caught handling storage notification", e);
+        }
+    }
+}
@@ -0,0 +1,924 @@
+/**
+*    Copyright 2011, Big Switch Networks, Inc.
+*    Originally created by David Erickson, Stanford University
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.storage.memory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import net.floodlightcontroller.storage.StorageException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistence for the tables of a MemoryStorageSource.
+ *
+ * Every row mutation is appended to a write-ahead log as the new state of
+ * the row, or as a delete of the row.  Writers only copy the record into
+ * a buffer; a flusher thread writes the buffer to the current log segment
+ * and syncs it to disk, so all records appended while a sync is running
+ * are committed together by the next one.  Writers can wait for their
+ * records to be committed, or return at once and accept losing the last
+ * few milliseconds of writes in a crash.
+ *
+ * Periodically, and whenever the log grows too large, the log is switched
+ * to a new segment and every table is written to a snapshot.  The log
+ * segments older than the snapshot are then removed.  Since the records
+ * hold whole rows, replaying records that are already reflected in the
+ * snapshot gives the same result.
+ *
+ * Snapshots and log segments are read through memory mappings.  Recovery
+ * reads the log segments once and then loads the tables in parallel, each
+ * from its snapshot file and its own log records.
+ *
+ * Layout of the directory:
+ * <ul>
+ * <li>log-N: the records written after snapshot N was started</li>
+ * <li>snapshot-N/table-I: the rows of a table in snapshot N</li>
+ * </ul>
+ * Every record is its length, a CRC32 of its contents and the contents,
+ * so a record that was only partly written before a crash is detected and
+ * ignored.
+ *
+ * If a write to the log fails, the records are written again to a new
+ * segment.  If that fails too, the log stops: the records that were not
+ * written are never reported as committed, and later appends fail.
+ */
+public class MemoryStorageLog {
+    protected static Logger log = LoggerFactory.getLogger(MemoryStorageLog.class);
+
+    protected static final String LOG_PREFIX = "log-";
+    protected static final String SNAPSHOT_PREFIX = "snapshot-";
+    protected static final String TABLE_PREFIX = "table-";
+    protected static final String TMP_SUFFIX = ".tmp";
+    protected static final int SNAPSHOT_MAGIC = 0x464c5353;
+
+    // Start a snapshot early when the log grows beyond this size
+    protected static final long MAX_LOG_SIZE = 64 * 1024 * 1024;
+
+    // Record types
+    protected static final byte OP_PUT = 1;
+    protected static final byte OP_DELETE = 2;
+
+    // Column value types
+    protected static final byte TYPE_NULL = 0;
+    protected static final byte TYPE_STRING = 1;
+    protected static final byte TYPE_BOOLEAN = 2;
+    protected static final byte TYPE_BYTE = 3;
+    protected static final byte TYPE_SHORT = 4;
+    protected static final byte TYPE_INTEGER = 5;
+    protected static final byte TYPE_LONG = 6;
+    protected static final byte TYPE_FLOAT = 7;
+    protected static final byte TYPE_DOUBLE = 8;
+    protected static final byte TYPE_BYTES = 9;
+    protected static final byte TYPE_DATE = 10;
+
+    protected static final String CHARSET = "UTF-8";
+
+    /**
+     * A decoded record
+     */
+    protected static class Record {
+        String tableName;
+        Object key;
+        // null if the row was deleted
+        Map<String,Object> row;
+    }
+
+    protected MemoryStorageSource storageSource;
+    protected File directory;
+    protected boolean syncWrites;
+    protected long snapshotInterval;
+
+    // Records appended and not yet written; guarded by this
+    protected ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    protected long appendedCount;
+    protected long flushedCount;
+    protected long logSize;
+    protected boolean rotateRequested;
+    protected boolean closed;
+    protected IOException flushError;
+    protected boolean snapshotQueued;
+
+    // Only used by the flusher thread, and by rotate while it waits
+    protected long generation;
+    protected FileChannel logChannel;
+
+    // Serializes snapshots, without blocking writers
+    protected Object snapshotLock = new Object();
+
+    protected Thread flusher;
+    protected ScheduledExecutorService snapshotExecutor;
+    protected Thread shutdownHook;
+
+    /**
+     * Create a log
+     * @param storageSource the storage source whose tables are persisted
+     * @param directory the directory of the log and the snapshots
+     * @param snapshotInterval seconds between snapshots
+     * @param syncWrites whether writers wait for their records to be on disk
+     */
+    public MemoryStorageLog(MemoryStorageSource storageSource, File directory,
+                            long snapshotInterval, boolean syncWrites) {
+        this.storageSource = storageSource;
+        this.directory = directory;
+        this.snapshotInterval = snapshotInterval;
+        this.syncWrites = syncWrites;
+    }
+
+    /**
+     * Load the tables from the directory into the storage source, and
+     * start logging to a new log segment
+     * @throws IOException if the directory can't be read or written
+     */
+    public void open() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Could not create " + directory);
+        long start = System.currentTimeMillis();
+        generation = recover();
+        logChannel = openSegment(generation);
+        log.info("Loaded storage from {} in {} ms", directory,
+                 System.currentTimeMillis() - start);
+
+        flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flushLoop();
+            }
+        }, "MemoryStorageLog Flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+
+        snapshotExecutor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "MemoryStorageLog Snapshot");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        if (snapshotInterval > 0) {
+            snapshotExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    snapshotQuietly();
+                }
+            }, snapshotInterval, snapshotInterval, TimeUnit.SECONDS);
+        }
+
+        // Commit the records of the last writes on a normal exit
+        shutdownHook = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flushQuietly();
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Commit all records and stop logging
+     */
+    public void close() {
+        flushQuietly();
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        snapshotExecutor.shutdownNow();
+        try {
+            snapshotExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeQuietly(logChannel);
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // Already shutting down
+        }
+    }
+
+    // Writing records
+
+    /**
+     * Append the new state of a row to the log.  Must be called with the
+     * table locked, so that the records of a row are in the same order
+     * as its changes.
+     * @param tableName the table of the row
+     * @param key the primary key of the row
+     * @param row the row, or null if it was deleted
+     * @return the position of the record, to pass to {@link #commit}
+     */
+    public long append(String tableName, Object key, Map<String,Object> row) {
+        byte[] record;
+        try {
+            record = encodeRecord(tableName, key, row);
+        } catch (IOException e) {
+            throw new StorageException("Could not encode row " + key +
+                                       " of table " + tableName, e);
+        }
+        synchronized (this) {
+            if (closed)
+                throw new StorageException("Storage log is closed");
+            if (flushError != null)
+                throw new StorageException("Could not write storage log",
+                                           flushError);
+            pending.write(record, 0, record.length);
+            appendedCount += 1;
+            logSize += record.length;
+            if ((logSize > MAX_LOG_SIZE) && !snapshotQueued) {
+                snapshotQueued = true;
+                snapshotExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        snapshotQuietly();
+                    }
+                });
+            }
+            notifyAll();
+            return appendedCount;
+        }
+    }
+
+    /**
+     * Wait until a record is on disk, if writes are synchronous
+     * @param position the position returned by append
+     */
+    public void commit(long position) {
+        if (syncWrites)
+            waitForFlush(position);
+    }
+
+    /**
+     * Wait until every record appended so far is on disk
+     */
+    public void flush() {
+        long position;
+        synchronized (this) {
+            position = appendedCount;
+        }
+        waitForFlush(position);
+    }
+
+    protected void flushQuietly() {
+        try {
+            flush();
+        } catch (StorageException e) {
+            log.error("Could not commit the storage log", e);
+        }
+    }
+
+    protected synchronized void waitForFlush(long position) {
+        boolean interrupted = false;
+        while ((flushedCount < position) && (flushError == null) && !closed) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        if ((flushedCount < position) && (flushError != null))
+            throw new StorageException("Could not write storage log",
+                                       flushError);
+    }
+
+    protected void flushLoop() {
+        while (true) {
+            byte[] data;
+            long count;
+            boolean rotate;
+            synchronized (this) {
+                while ((pending.size() == 0) && !rotateRequested && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // Only stopped by close
+                    }
+                }
+                if ((pending.size() == 0) && !rotateRequested)
+                    return;
+                data = pending.toByteArray();
+                pending.reset();
+                count = appendedCount;
+                rotate = rotateRequested;
+            }
+
+            IOException error = null;
+            try {
+                write(data);
+            } catch (IOException e) {
+                // Part of the data may be in the segment, followed by a
+                // torn record, so write all of it again to a new segment.
+                // Replaying the records that made it twice is harmless.
+                log.error("Could not write storage log, retrying in a " +
+                          "new segment", e);
+                try {
+                    switchSegment();
+                    write(data);
+                } catch (IOException e2) {
+                    log.error("Could not write storage log", e2);
+                    error = e2;
+                }
+            }
+            if ((error == null) && rotate) {
+                try {
+                    switchSegment();
+                } catch (IOException e) {
+                    log.error("Could not switch storage log segment", e);
+                    error = e;
+                }
+            }
+
+            synchronized (this) {
+                if (error == null) {
+                    flushedCount = count;
+                } else {
+                    // The records are lost, so never acknowledge them
+                    // or anything after them
+                    flushError = error;
+                }
+                if (rotate)
+                    rotateRequested = false;
+                notifyAll();
+                if (flushError != null)
+                    return;
+            }
+        }
+    }
+
+    protected void write(byte[] data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining())
+            logChannel.write(buffer);
+        logChannel.force(false);
+    }
+
+    protected void switchSegment() throws IOException {
+        FileChannel next = openSegment(generation + 1);
+        closeQuietly(logChannel);
+        logChannel = next;
+        generation += 1;
+    }
+
+    /**
+     * Switch the log to a new segment
+     * @return the generation of the new segment
+     */
+    protected synchronized long rotate() throws IOException {
+        rotateRequested = true;
+        notifyAll();
+        boolean interrupted = false;
+        while (rotateRequested && (flushError == null)) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        if (flushError != null)
+            throw new IOException("Could not switch log segment", flushError);
+        logSize = 0;
+        return generation;
+    }
+
+    // Snapshots
+
+    protected void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (Exception e) {
+            log.error("Could not write storage snapshot", e);
+        } finally {
+            synchronized (this) {
+                snapshotQueued = false;
+            }
+        }
+    }
+
+    /**
+     * Write every table to a new snapshot and remove the log segments it
+     * replaces.  Does nothing if nothing was logged since the last one.
+     * @throws IOException if the snapshot can't be written
+     */
+    public void snapshot() throws IOException {
+        synchronized (snapshotLock) {
+            synchronized (this) {
+                if (logSize == 0)
+                    return;
+            }
+            writeSnapshot();
+        }
+    }
+
+    protected void writeSnapshot() throws IOException {
+        long start = System.currentTimeMillis();
+        // Everything logged from now on is in the new segment
+        long snapshotGeneration = rotate();
+
+        File tmpDir = new File(directory, SNAPSHOT_PREFIX + snapshotGeneration + TMP_SUFFIX);
+        deleteRecursively(tmpDir);
+        if (!tmpDir.mkdir())
+            throw new IOException("Could not create " + tmpDir);
+
+        int index = 0;
+        for (MemoryTable table : storageSource.getTables()) {
+            // Rows changed while they are copied are also in the new segment
+            Map<Object,Map<String,Object>> rows = table.copyRows();
+            writeSnapshotFile(new File(tmpDir, TABLE_PREFIX + index),
+                              table.getTableName(), rows);
+            index += 1;
+        }
+
+        File snapshotDir = new File(directory, SNAPSHOT_PREFIX + snapshotGeneration);
+        if (!tmpDir.renameTo(snapshotDir))
+            throw new IOException("Could not rename " + tmpDir);
+
+        // The older snapshots and segments are no longer needed
+        for (File f : listFiles()) {
+            long g = getGeneration(f.getName(), SNAPSHOT_PREFIX);
+            if ((g >= 0) && (g < snapshotGeneration))
+                deleteRecursively(f);
+            g = getGeneration(f.getName(), LOG_PREFIX);
+            if ((g >= 0) && (g < snapshotGeneration))
+                f.delete();
+        }
+        log.debug("Wrote storage snapshot {} in {} ms", snapshotGeneration,
+                  System.currentTimeMillis() - start);
+    }
+
+    protected void writeSnapshotFile(File file, String tableName,
+                                     Map<Object,Map<String,Object>> rows)
+                                     throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(SNAPSHOT_MAGIC);
+        writeString(out, tableName);
+        out.writeInt(rows.size());
+        for (Map.Entry<Object,Map<String,Object>> entry : rows.entrySet()) {
+            byte[] record = encodeRecord(tableName, entry.getKey(),
+                                         entry.getValue());
+            out.write(record);
+        }
+        out.flush();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer map =
+                    channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes.size());
+            map.put(bytes.toByteArray());
+            map.force();
+        } finally {
+            raf.close();
+        }
+    }
+
+    // Recovery
+
+    /**
+     * Load the latest snapshot and the log segments after it
+     * @return the generation of the next log segment
+     */
+    protected long recover() throws IOException {
+        long snapshotGeneration = -1;
+        List<Long> segments = new ArrayList<Long>();
+        for (File f : listFiles()) {
+            if (f.getName().endsWith(TMP_SUFFIX)) {
+                // An incomplete snapshot
+                deleteRecursively(f);
+                continue;
+            }
+            long g = getGeneration(f.getName(), SNAPSHOT_PREFIX);
+            if (g > snapshotGeneration)
+                snapshotGeneration = g;
+            g = getGeneration(f.getName(), LOG_PREFIX);
+            if (g >= 0)
+                segments.add(g);
+        }
+
+        // The snapshot files of each table
+        Map<String,File> snapshotFiles = new HashMap<String,File>();
+        if (snapshotGeneration >= 0) {
+            File snapshotDir = new File(directory, SNAPSHOT_PREFIX + snapshotGeneration);
+            File[] files = snapshotDir.listFiles();
+            if (files != null) {
+                for (File f : files)
+                    snapshotFiles.put(readSnapshotTableName(f), f);
+            }
+        }
+
+        // The log records of each table, in log order
+        long nextGeneration = Math.max(snapshotGeneration, 0);
+        Map<String,List<Record>> logRecords = new HashMap<String,List<Record>>();
+        Collections.sort(segments);
+        for (Long g : segments) {
+            if (g < snapshotGeneration)
+                continue;
+            readSegment(new File(directory, LOG_PREFIX + g), logRecords);
+            nextGeneration = Math.max(nextGeneration, g + 1);
+        }
+
+        List<String> tableNames = new ArrayList<String>(snapshotFiles.keySet());
+        for (String tableName : logRecords.keySet()) {
+            if (!snapshotFiles.containsKey(tableName))
+                tableNames.add(tableName);
+        }
+        if (tableNames.isEmpty())
+            return nextGeneration;
+
+        // Load the tables in parallel
+        int threads = Math.min(tableNames.size(),
+                               Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (final String tableName : tableNames) {
+                final File snapshotFile = snapshotFiles.get(tableName);
+                final List<Record> records = logRecords.get(tableName);
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws IOException {
+                        return loadTable(tableName, snapshotFile, records);
+                    }
+                }));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                int rows = results.get(i).get();
+                log.debug("Loaded {} rows of table {}", rows, tableNames.get(i));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading storage");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException("Could not load storage", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        return nextGeneration;
+    }
+
+    protected int loadTable(String tableName, File snapshotFile,
+                            List<Record> records) throws IOException {
+        MemoryTable table = storageSource.getTable(tableName, true);
+        synchronized (table) {
+            if (snapshotFile != null) {
+                ByteBuffer buffer = mapFile(snapshotFile);
+                if (buffer.getInt() != SNAPSHOT_MAGIC)
+                    throw new IOException("Bad snapshot file " + snapshotFile);
+                readString(buffer);
+                int count = buffer.getInt();
+                for (int i = 0; i < count; i++) {
+                    Record record = decodeRecord(buffer);
+                    if (record == null)
+                        throw new IOException("Corrupt snapshot file " + snapshotFile);
+                    table.insertRow(record.key, record.row);
+                }
+            }
+            if (records != null) {
+                for (Record record : records) {
+                    if (record.row != null)
+                        table.insertRow(record.key, record.row);
+                    else
+                        table.deleteRow(record.key);
+                }
+            }
+            table.updateNextId();
+            return table.getAllRows().size();
+        }
+    }
+
+    protected String readSnapshotTableName(File file) throws IOException {
+        ByteBuffer buffer = mapFile(file);
+        if (buffer.getInt() != SNAPSHOT_MAGIC)
+            throw new IOException("Bad snapshot file " + file);
+        return readString(buffer);
+    }
+
+    protected void readSegment(File file, Map<String,List<Record>> logRecords)
+                               throws IOException {
+        ByteBuffer buffer = mapFile(file);
+        while (buffer.hasRemaining()) {
+            Record record = decodeRecord(buffer);
+            if (record == null) {
+                int start = buffer.position();
+                if (!skipToNextRecord(buffer)) {
+                    // The tail was not completely written before a crash
+                    log.warn("Ignoring {} bytes at the end of {}",
+                             buffer.remaining(), file);
+                    break;
+                }
+                log.warn("Ignoring {} corrupt bytes at offset {} of {}",
+                         new Object[] {buffer.position() - start, start, file});
+                continue;
+            }
+            List<Record> records = logRecords.get(record.tableName);
+            if (records == null) {
+                records = new ArrayList<Record>();
+                logRecords.put(record.tableName, records);
+            }
+            records.add(record);
+        }
+    }
+
+    /**
+     * Move a buffer to the next valid record after its position
+     * @return true if there is one, false if the rest of the buffer holds
+     * no valid record, in which case the position is unchanged
+     */
+    protected static boolean skipToNextRecord(ByteBuffer buffer) {
+        int start = buffer.position();
+        for (int i = start + 1; i + 9 <= buffer.limit(); i++) {
+            // Cheap checks first, only decode plausible records
+            int length = buffer.getInt(i);
+            byte op = buffer.get(i + 8);
+            if ((length <= 0) || (length > buffer.limit() - i - 8) ||
+                ((op != OP_PUT) && (op != OP_DELETE)))
+                continue;
+            buffer.position(i);
+            if (decodeRecord(buffer) != null) {
+                buffer.position(i);
+                return true;
+            }
+        }
+        buffer.position(start);
+        return false;
+    }
+
+    // Encoding
+
+    protected static byte[] encodeRecord(String tableName, Object key,
+                                         Map<String,Object> row)
+                                         throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeByte((row != null) ? OP_PUT : OP_DELETE);
+        writeString(out, tableName);
+        writeValue(out, key);
+        if (row != null) {
+            out.writeInt(row.size());
+            for (Map.Entry<String,Object> entry : row.entrySet()) {
+                writeString(out, entry.getKey());
+                writeValue(out, entry.getValue());
+            }
+        }
+        out.flush();
+
+        byte[] record = bytes.toByteArray();
+        int length = record.length - 8;
+        CRC32 crc = new CRC32();
+        crc.update(record, 8, length);
+        ByteBuffer header = ByteBuffer.wrap(record, 0, 8);
+        header.putInt(length);
+        header.putInt((int) crc.getValue());
+        return record;
+    }
+
+    /**
+     * Decode the record at the position of a buffer
+     * @return the record, or null if the rest of the buffer doesn't hold
+     * a valid record
+     */
+    protected static Record decodeRecord(ByteBuffer buffer) {
+        int start = buffer.position();
+        if (buffer.remaining() < 8)
+            return null;
+        int length = buffer.getInt();
+        int checksum = buffer.getInt();
+        if ((length <= 0) || (length > buffer.remaining())) {
+            buffer.position(start);
+            return null;
+        }
+        byte[] contents = new byte[length];
+        buffer.get(contents);
+        CRC32 crc = new CRC32();
+        crc.update(contents);
+        if ((int) crc.getValue() != checksum) {
+            buffer.position(start);
+            return null;
+        }
+
+        ByteBuffer in = ByteBuffer.wrap(contents);
+        Record record = new Record();
+        try {
+            byte op = in.get();
+            record.tableName = readString(in);
+            record.key = readValue(in);
+            if (op == OP_PUT) {
+                int columns = in.getInt();
+                record.row = new HashMap<String,Object>(columns * 2);
+                for (int i = 0; i < columns; i++) {
+                    String columnName = readString(in);
+                    record.row.put(columnName, readValue(in));
+                }
+            }
+        } catch (IOException e) {
+            buffer.position(start);
+            return null;
+        } catch (RuntimeException e) {
+            buffer.position(start);
+            return null;
+        }
+        return record;
+    }
+
+    protected static void writeString(DataOutputStream out, String s)
+                                      throws IOException {
+        byte[] b = s.getBytes(CHARSET);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    protected static String readString(ByteBuffer in) throws IOException {
+        byte[] b = new byte[in.getInt()];
+        in.get(b);
+        return new String(b, CHARSET);
+    }
+
+    protected static void writeValue(DataOutputStream out, Object value)
+                                     throws IOException {
+        if (value == null) {
+            out.writeByte(TYPE_NULL);
+        } else if (value instanceof String) {
+            out.writeByte(TYPE_STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(TYPE_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(TYPE_BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Short) {
+            out.writeByte(TYPE_SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(TYPE_INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Float) {
+            out.writeByte(TYPE_FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Double) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof byte[]) {
+            byte[] b = (byte[]) value;
+            out.writeByte(TYPE_BYTES);
+            out.writeInt(b.length);
+            out.write(b);
+        } else if (value instanceof Date) {
+            out.writeByte(TYPE_DATE);
+            out.writeLong(((Date) value).getTime());
+        } else {
+            // The result set accessors convert from strings
+            out.writeByte(TYPE_STRING);
+            writeString(out, value.toString());
+        }
+    }
+
+    protected static Object readValue(ByteBuffer in) throws IOException {
+        byte type = in.get();
+        switch (type) {
+        case TYPE_NULL:
+            return null;
+        case TYPE_STRING:
+            return readString(in);
+        case TYPE_BOOLEAN:
+            return Boolean.valueOf(in.get() != 0);
+        case TYPE_BYTE:
+            return Byte.valueOf(in.get());
+        case TYPE_SHORT:
+            return Short.valueOf(in.getShort());
+        case TYPE_INTEGER:
+            return Integer.valueOf(in.getInt());
+        case TYPE_LONG:
+            return Long.valueOf(in.getLong());
+        case TYPE_FLOAT:
+            return Float.valueOf(in.getFloat());
+        case TYPE_DOUBLE:
+            return Double.valueOf(in.getDouble());
+        case TYPE_BYTES:
+            byte[] b = new byte[in.getInt()];
+            in.get(b);
+            return b;
+        case TYPE_DATE:
+            return new Date(in.getLong());
+        default:
+            throw new IOException("Unknown value type " + type);
+        }
+    }
+
+    // Files
+
+    protected FileChannel openSegment(long g) throws IOException {
+        File file = new File(directory, LOG_PREFIX + g);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        FileChannel channel = raf.getChannel();
+        channel.position(channel.size());
+        return channel;
+    }
+
+    protected static ByteBuffer mapFile(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+    }
+
+    protected Collection<File> listFiles() {
+        File[] files = directory.listFiles();
+        if (files == null)
+            return new ArrayList<File>();
+        return Arrays.asList(files);
+    }
+
+    /**
+     * @return the generation in a file name, or -1 if the name doesn't
+     * have the prefix
+     */
+    protected static long getGeneration(String name, String prefix) {
+        if (!name.startsWith(prefix))
+            return -1;
+        try {
+            return Long.parseLong(name.substring(prefix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    protected static void deleteRecursively(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files)
+                deleteRecursively(f);
+        }
+        file.delete();
+    }
+
+    protected static void closeQuietly(FileChannel channel) {
+        if (channel == null)
+            return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Could not close storage log segment", e);
+        }
+    }
+}
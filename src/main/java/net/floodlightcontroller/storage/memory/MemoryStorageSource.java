@@ -17,38 +17,74 @@
 
 package net.floodlightcontroller.storage.memory;
 
+import net.floodlightcontroller.core.annotations.LogMessageDoc;
 import net.floodlightcontroller.core.module.FloodlightModuleContext;
+import net.floodlightcontroller.core.module.FloodlightModuleException;
 import net.floodlightcontroller.perfmon.IPktInProcessingTimeService;
 import net.floodlightcontroller.storage.nosql.NoSqlStorageSource;
+import net.floodlightcontroller.storage.StorageBatch;
+import net.floodlightcontroller.storage.StorageSourceNotification;
 import net.floodlightcontroller.storage.SynchronousExecutorService;
 import net.floodlightcontroller.storage.IStorageSourceService;
 import net.floodlightcontroller.core.module.IFloodlightService;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import net.floodlightcontroller.storage.StorageException;
 
 public class MemoryStorageSource extends NoSqlStorageSource {
     
-    private Map<String, MemoryTable> tableMap = new HashMap<String,MemoryTable>();
+    protected static final long DEFAULT_SNAPSHOT_INTERVAL = 300;
+    
+    private ConcurrentMap<String, MemoryTable> tableMap =
+            new ConcurrentHashMap<String,MemoryTable>();
     IPktInProcessingTimeService pktinProcessingTime;
+    // null if the tables are not persisted
+    protected MemoryStorageLog storageLog;
     
-    synchronized private MemoryTable getTable(String tableName, boolean create) {
+    MemoryTable getTable(String tableName, boolean create) {
         MemoryTable table = tableMap.get(tableName);
         if (table == null) {
             if (!create)
                 throw new StorageException("Table " + tableName + " does not exist");
             table = new MemoryTable(tableName);
-            tableMap.put(tableName, table);
+            MemoryTable existingTable = tableMap.putIfAbsent(tableName, table);
+            if (existingTable != null)
+                table = existingTable;
         }
         return table;
     }
     
+    Collection<MemoryTable> getTables() {
+        return new ArrayList<MemoryTable>(tableMap.values());
+    }
+    
+    /**
+     * Log the current state of a row.  Must be called with the table locked.
+     * @return the log position to commit once the table is unlocked
+     */
+    private long logRow(MemoryTable table, Object rowKey) {
+        if ((storageLog == null) || (rowKey == null))
+            return 0;
+        return storageLog.append(table.getTableName(), rowKey,
+                                 table.getRow(rowKey));
+    }
+    
+    private void commitLog(long position) {
+        if ((storageLog != null) && (position > 0))
+            storageLog.commit(position);
+    }
+    
     @Override
     protected Collection<Map<String,Object>> getAllRows(String tableName, String[] columnNameList) {
         MemoryTable table = getTable(tableName, false);
@@ -64,49 +100,35 @@ public class MemoryStorageSource extends NoSqlStorageSource {
     @Override
     protected List<Map<String,Object>> executeEqualityQuery(String tableName,
             String[] columnNameList, String predicateColumnName, Comparable<?> value) {
-        MemoryTable table = getTable(tableName, false);
-        List<Map<String,Object>> result = new ArrayList<Map<String,Object>>();
-        synchronized (table) {
-            Collection<Map<String,Object>> allRows = table.getAllRows();
-            for (Map<String,Object> row : allRows) {
-                Object v = row.get(predicateColumnName);
-                if (value.equals(v)) {
-                    result.add(row);
-                }
-            }
-        }
-        return result;
+        return executeRangeQuery(tableName, columnNameList, predicateColumnName,
+                value, true, value, true);
     }
     
-    @SuppressWarnings({ "unchecked", "rawtypes" })
     @Override
     protected List<Map<String,Object>> executeRangeQuery(String tableName,
             String[] columnNameList, String predicateColumnName,
             Comparable<?> startValue, boolean startInclusive, Comparable<?> endValue, boolean endInclusive) {
         MemoryTable table = getTable(tableName, false);
-        List<Map<String,Object>> result = new ArrayList<Map<String,Object>>();
-        synchronized (table) {
-            Collection<Map<String,Object>> allRows = table.getAllRows();
-            for (Map<String,Object> row : allRows) {
-                Comparable value = (Comparable) row.get(predicateColumnName);
-                if (value != null) {
-                    int compareResult = value.compareTo(startValue);
-                    if ((compareResult > 0) || (startInclusive && (compareResult >= 0))) {
-                        compareResult = value.compareTo(endValue);
-                        if ((compareResult < 0) || (startInclusive && (compareResult <= 0))) {
-                            result.add(row);
-                        }
-                    }
-                }
-            }
+        boolean isEquality = (startValue == endValue) && startInclusive && endInclusive;
+        // Reads don't lock the table
+        if (predicateColumnName.equals(getTablePrimaryKeyName(tableName))) {
+            // Primary keys are never null
+            if (isEquality && (startValue == null))
+                return new ArrayList<Map<String,Object>>();
+            return table.getRowsInKeyRange(startValue, startInclusive,
+                    endValue, endInclusive);
         }
-        return result;
+        if (isEquality)
+            return table.getRowsEqual(predicateColumnName, startValue);
+        return table.getRowsInRange(predicateColumnName,
+                startValue, startInclusive, endValue, endInclusive);
     }
     
     @Override
     protected void insertRows(String tableName, List<Map<String,Object>> insertRowList) {
         MemoryTable table = getTable(tableName, false);
         String primaryKeyName = getTablePrimaryKeyName(tableName);
+        long logPosition = 0;
         synchronized (table) {
             for (Map<String,Object> row : insertRowList) {
                 Object primaryKey = row.get(primaryKeyName);
@@ -118,67 +140,315 @@ public class MemoryStorageSource extends NoSqlStorageSource {
                     }
                 }
                 table.insertRow(primaryKey, row);
+                logPosition = logRow(table, primaryKey);
             }
         }
+        commitLog(logPosition);
     }
     
     @Override
     protected void updateRows(String tableName, Set<Object> rowKeys, Map<String,Object> updateRowList) {
         MemoryTable table = getTable(tableName, false);
+        long logPosition = 0;
         synchronized (table) {
             for (Object rowKey : rowKeys) {
-                Map<String,Object> row = table.getRow(rowKey);
-                if (row == null)
-                    row = table.newRow(rowKey);
-                for (Map.Entry<String,Object> entry: updateRowList.entrySet()) {
-                    row.put(entry.getKey(), entry.getValue());
-                }
+                table.updateRow(rowKey, updateRowList);
+                logPosition = logRow(table, rowKey);
             }
         }
+        commitLog(logPosition);
     }
     
     @Override
     protected void updateRowsImpl(String tableName, List<Map<String,Object>> updateRowList) {
         MemoryTable table = getTable(tableName, false);
         String primaryKeyName = getTablePrimaryKeyName(tableName);
+        long logPosition = 0;
         synchronized (table) {
             for (Map<String,Object> updateRow : updateRowList) {
                 Object rowKey = updateRow.get(primaryKeyName);
                 if (rowKey == null)
                     throw new StorageException("Primary key not found.");
-                Map<String,Object> row = table.getRow(rowKey);
-                if (row == null)
-                    row = table.newRow(rowKey);
-                for (Map.Entry<String,Object> entry: updateRow.entrySet()) {
-                    row.put(entry.getKey(), entry.getValue());
-                }
+                table.updateRow(rowKey, updateRow);
+                logPosition = logRow(table, rowKey);
             }
         }
+        commitLog(logPosition);
     }
     
     @Override
     protected void deleteRowsImpl(String tableName, Set<Object> rowKeys) {
         MemoryTable table = getTable(tableName, false);
+        long logPosition = 0;
         synchronized (table) {
             for (Object rowKey : rowKeys) {
                 table.deleteRow(rowKey);
+                logPosition = logRow(table, rowKey);
             }
         }
+        commitLog(logPosition);
+    }
+    
+    @Override
+    protected void executeBatchImpl(StorageBatch batch) {
+        // Lock the tables in name order, so that concurrent batches can't
+        // deadlock
+        Map<String,MemoryTable> tables = new TreeMap<String,MemoryTable>();
+        for (StorageBatch.Operation operation : batch.getOperations()) {
+            String tableName = operation.getTableName();
+            if (!tables.containsKey(tableName))
+                tables.put(tableName, getTable(tableName, false));
+        }
+        BatchNotifications notifications = new BatchNotifications();
+        try {
+            long logPosition = executeBatchLocked(batch,
+                    new ArrayList<MemoryTable>(tables.values()), notifications);
+            commitLog(logPosition);
+        } finally {
+            // only holds the changes of a batch that was applied
+            notifications.send();
+        }
+    }
+    
+    /**
+     * Lock the remaining tables one by one, and then make the changes.
+     * Either all the operations are applied or none of them: the batch is
+     * checked before any row is changed, and the rows already changed are
+     * restored if a change fails.
+     * @return the log position to commit once the tables are unlocked
+     */
+    private long executeBatchLocked(StorageBatch batch, List<MemoryTable> tables,
+            BatchNotifications notifications) {
+        if (!tables.isEmpty()) {
+            synchronized (tables.get(0)) {
+                return executeBatchLocked(batch,
+                        tables.subList(1, tables.size()), notifications);
+            }
+        }
+        List<StorageBatch.Operation> operations = batch.getOperations();
+        List<Object> rowKeys = new ArrayList<Object>(operations.size());
+        List<Map<String,Object>> rowValues =
+                new ArrayList<Map<String,Object>>(operations.size());
+        for (StorageBatch.Operation operation : operations) {
+            String tableName = operation.getTableName();
+            String primaryKeyName = getTablePrimaryKeyName(tableName);
+            Map<String,Object> values = operation.getValues();
+            Object rowKey = operation.getRowKey();
+            switch (operation.getType()) {
+                case INSERT:
+                    rowKey = values.get(primaryKeyName);
+                    if ((rowKey == null) &&
+                            primaryKeyName.equals(DEFAULT_PRIMARY_KEY_NAME)) {
+                        values = new HashMap<String,Object>(values);
+                        rowKey = getTable(tableName, false).getNextId();
+                        values.put(primaryKeyName, rowKey);
+                    }
+                    break;
+                case UPDATE:
+                    if (rowKey == null)
+                        rowKey = values.get(primaryKeyName);
+                    break;
+                case DELETE:
+                    break;
+            }
+            if (rowKey == null)
+                throw new StorageException("Primary key not found.");
+            rowKeys.add(rowKey);
+            rowValues.add(values);
+        }
+
+        long logPosition = 0;
+        List<Map<String,Object>> oldRows =
+                new ArrayList<Map<String,Object>>(operations.size());
+        try {
+            for (int i = 0; i < operations.size(); i++) {
+                StorageBatch.Operation operation = operations.get(i);
+                MemoryTable table = getTable(operation.getTableName(), false);
+                Object rowKey = rowKeys.get(i);
+                oldRows.add(table.getRow(rowKey));
+                switch (operation.getType()) {
+                    case INSERT:
+                        table.insertRow(rowKey, rowValues.get(i));
+                        break;
+                    case UPDATE:
+                        table.updateRow(rowKey, rowValues.get(i));
+                        break;
+                    case DELETE:
+                        table.deleteRow(rowKey);
+                        break;
+                }
+                logPosition = logRow(table, rowKey);
+            }
+        } catch (RuntimeException e) {
+            restoreRows(operations, rowKeys, oldRows);
+            throw e;
+        }
+
+        for (int i = 0; i < operations.size(); i++) {
+            StorageBatch.Operation operation = operations.get(i);
+            notifications.rowChanged(operation.getTableName(), rowKeys.get(i),
+                    (operation.getType() == StorageBatch.OperationType.DELETE) ?
+                            StorageSourceNotification.Action.DELETE :
+                            StorageSourceNotification.Action.MODIFY);
+        }
+        return logPosition;
+    }
+    
+    /**
+     * Undo the changes of a batch that failed, latest first.  Must be
+     * called with the tables locked.
+     * @param oldRows the rows before each applied operation
+     */
+    @LogMessageDoc(level="ERROR",
+            message="Could not log the rows restored after a failed batch",
+            explanation="A storage batch failed and its changes were undone " +
+                    "in memory, but the storage log could not be written",
+            recommendation=LogMessageDoc.CHECK_CONTROLLER)
+    private void restoreRows(List<StorageBatch.Operation> operations,
+            List<Object> rowKeys, List<Map<String,Object>> oldRows) {
+        for (int i = oldRows.size() - 1; i >= 0; i--) {
+            MemoryTable table =
+                    getTable(operations.get(i).getTableName(), false);
+            Map<String,Object> oldRow = oldRows.get(i);
+            if (oldRow == null)
+                table.deleteRow(rowKeys.get(i));
+            else
+                table.insertRow(rowKeys.get(i), oldRow);
+        }
+        // the log may hold some of the undone changes
+        try {
+            for (int i = 0; i < oldRows.size(); i++) {
+                logRow(getTable(operations.get(i).getTableName(), false),
+                       rowKeys.get(i));
+            }
+        } catch (StorageException e) {
+            log.error("Could not log the rows restored after a failed batch", e);
+        }
     }
     
     @Override
     public void createTable(String tableName, Set<String> indexedColumnNames) {
         super.createTable(tableName, indexedColumnNames);
-        getTable(tableName, true);
+        MemoryTable table = getTable(tableName, true);
+        synchronized (table) {
+            for (Map.Entry<String,ColumnIndexMode> entry:
+                    getColumnIndexModes(tableName).entrySet()) {
+                table.setColumnIndexMode(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+    
+    @Override
+    public void setColumnIndexMode(String tableName, String columnName,
+            ColumnIndexMode indexMode) {
+        super.setColumnIndexMode(tableName, columnName, indexMode);
+        MemoryTable table = tableMap.get(tableName);
+        if (table != null) {
+            synchronized (table) {
+                table.setColumnIndexMode(columnName, indexMode);
+            }
+        }
+    }
+    
+    @Override
+    protected ColumnIndexMode getColumnIndexMode(String tableName, String columnName) {
+        // Rows are stored sorted by primary key, so it is always range indexed
+        if (columnName.equals(getTablePrimaryKeyName(tableName)))
+            return ColumnIndexMode.RANGE_INDEXED;
+        return super.getColumnIndexMode(tableName, columnName);
     }
     
     public void setPktinProcessingTime(
             IPktInProcessingTimeService pktinProcessingTime) {
         this.pktinProcessingTime = pktinProcessingTime;
     }
+    
+    /**
+     * Load the tables from a directory and log all changes to them there.
+     * Must be called before any tables are created.
+     * @param directory the directory of the log and the snapshots
+     * @param snapshotInterval seconds between snapshots, 0 to only take
+     * them when the log gets large
+     * @param syncWrites whether writes wait until they are on disk
+     * @throws StorageException if the directory can't be used
+     */
+    public void startPersistence(File directory, long snapshotInterval,
+                                 boolean syncWrites) {
+        MemoryStorageLog storageLog =
+                new MemoryStorageLog(this, directory, snapshotInterval, syncWrites);
+        try {
+            storageLog.open();
+        } catch (IOException e) {
+            throw new StorageException("Could not load storage from " +
+                                       directory, e);
+        }
+        this.storageLog = storageLog;
+    }
+    
+    /**
+     * Write all tables to a snapshot now, if they are persisted
+     */
+    public void snapshot() {
+        if (storageLog == null)
+            return;
+        try {
+            storageLog.snapshot();
+        } catch (IOException e) {
+            throw new StorageException("Could not write storage snapshot", e);
+        }
+    }
+    
+    /**
+     * Commit all changes to disk and stop persisting the tables
+     */
+    public void stopPersistence() {
+        if (storageLog == null)
+            return;
+        storageLog.close();
+        storageLog = null;
+    }
 
     // IFloodlightModule methods
 
+    /**
+     * Reads the persistence options:
+     * <ul>
+     * <li>persistdirectory: the directory to keep the tables in; they are
+     * only kept in memory if it isn't set</li>
+     * <li>snapshotinterval: seconds between snapshots of the tables,
+     * default 300</li>
+     * <li>syncwrites: "true" to make each write wait until it is on disk,
+     * otherwise writes are committed in the background within a few
+     * milliseconds</li>
+     * </ul>
+     * The tables are loaded here, before any module creates them.
+     */
+    @Override
+    public void init(FloodlightModuleContext context)
+            throws FloodlightModuleException {
+        super.init(context);
+        Map<String, String> configOptions = context.getConfigParams(this);
+        String directory = configOptions.get("persistdirectory");
+        if ((directory == null) || directory.isEmpty())
+            return;
+        long snapshotInterval = DEFAULT_SNAPSHOT_INTERVAL;
+        String interval = configOptions.get("snapshotinterval");
+        if (interval != null) {
+            try {
+                snapshotInterval = Long.parseLong(interval);
+            } catch (NumberFormatException e) {
+                log.warn("Invalid snapshot interval {}, using {}",
+                         interval, DEFAULT_SNAPSHOT_INTERVAL);
+            }
+        }
+        boolean syncWrites = "true".equalsIgnoreCase(configOptions.get("syncwrites"));
+        try {
+            startPersistence(new File(directory), snapshotInterval, syncWrites);
+        } catch (StorageException e) {
+            throw new FloodlightModuleException(e.getMessage());
+        }
+    }
+
     @Override
     public void startUp(FloodlightModuleContext context) {
         super.startUp(context);
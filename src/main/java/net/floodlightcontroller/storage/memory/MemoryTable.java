@@ -17,20 +17,134 @@
 
 package net.floodlightcontroller.storage.memory;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 
+import net.floodlightcontroller.storage.nosql.NoSqlStorageSource.ColumnIndexMode;
+
+/**
+ * The rows of a table of the memory storage source, keyed by primary key,
+ * and the secondary indexes on its columns.
+ *
+ * Rows are immutable: every change to a row replaces it with a new
+ * version, so a row handed to a reader never changes under it.  The rows
+ * and the indexes are kept in concurrent maps, and reads don't lock the
+ * table.  A reader that runs while the table is being changed sees each
+ * row either before or after the change.
+ *
+ * An index maps each value of its column to the primary keys of the rows
+ * with that value, so queries on the column only look at the matching
+ * rows.  Equality indexes are hash maps; range indexes are sorted maps and
+ * can also answer range queries.  The indexes are kept up to date by
+ * insertRow, updateRow and deleteRow.  A changed row is added to the
+ * index under its new value before it replaces the old version, and only
+ * then removed under its old value, so a lookup never misses it.  Lookups
+ * check the rows they find against the indexed value, since the index
+ * may briefly hold a key under both values.  A range lookup reads several
+ * values of the index one after the other, so a row that moves between
+ * them could be seen twice or not at all; it is retried if the table
+ * changed while it ran.
+ *
+ * Writers must hold the lock on the table; the storage source
+ * synchronizes on it for every change.
+ */
 public class MemoryTable {
 
+    protected static class ColumnIndex {
+        final String columnName;
+        final boolean sorted;
+        // column value to the primary keys of the rows with that value
+        final ConcurrentMap<Object,Set<Object>> keyMap;
+        // primary keys of the rows where the column is null or missing
+        final Set<Object> nullKeys = new ConcurrentSkipListSet<Object>();
+        // the class of the values, null if there are none yet
+        volatile Class<?> valueClass;
+        volatile boolean mixedClasses;
+
+        ColumnIndex(String columnName, boolean sorted) {
+            this.columnName = columnName;
+            this.sorted = sorted;
+            if (sorted)
+                keyMap = new ConcurrentSkipListMap<Object,Set<Object>>();
+            else
+                keyMap = new ConcurrentHashMap<Object,Set<Object>>();
+        }
+
+        Set<Object> getKeys(Object value) {
+            if (value == null)
+                return nullKeys;
+            return keyMap.get(value);
+        }
+
+        void add(Object value, Object key) {
+            if (value == null) {
+                nullKeys.add(key);
+                return;
+            }
+            if (valueClass == null)
+                valueClass = value.getClass();
+            else if (value.getClass() != valueClass)
+                mixedClasses = true;
+            Set<Object> keys = keyMap.get(value);
+            if (keys == null) {
+                keys = new ConcurrentSkipListSet<Object>();
+                keys.add(key);
+                keyMap.put(value, keys);
+            } else {
+                keys.add(key);
+            }
+        }
+
+        /**
+         * Check that the index can be searched for a value.  Predicates
+         * convert column values to the type of the value they compare
+         * with, which the index can only do if they have the same type.
+         */
+        boolean canLookup(Object value) {
+            if ((value == null) || (valueClass == null))
+                return true;
+            return !mixedClasses && (value.getClass() == valueClass);
+        }
+
+        void remove(Object value, Object key) {
+            if (value == null) {
+                nullKeys.remove(key);
+                return;
+            }
+            Set<Object> keys = keyMap.get(value);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty())
+                    keyMap.remove(value);
+            }
+        }
+    }
+
     private String tableName;
-    private Map<Object,Map<String,Object>> rowMap;
+    private ConcurrentSkipListMap<Object,Map<String,Object>> rowMap;
+    private ConcurrentMap<String,ColumnIndex> indexMap;
     private int nextId;
+    // odd while a row is being changed, incremented before and after
+    private volatile long version;
+    
+    // optimistic range lookups before locking the table
+    private static final int RANGE_LOOKUP_ATTEMPTS = 3;
     
     MemoryTable(String tableName) {
         this.tableName = tableName;
-        rowMap = new TreeMap<Object,Map<String,Object>>();
+        rowMap = new ConcurrentSkipListMap<Object,Map<String,Object>>();
+        indexMap = new ConcurrentHashMap<String,ColumnIndex>();
         nextId = 0;
     }
     
@@ -38,8 +152,12 @@ public class MemoryTable {
         return tableName;
     }
     
+    /**
+     * @return a copy of the rows in primary key order, taken without
+     * locking the table
+     */
     Collection<Map<String,Object>> getAllRows() {
-        return rowMap.values();
+        return new ArrayList<Map<String,Object>>(rowMap.values());
     }
     
     Map<String,Object> getRow(Object key) {
@@ -47,26 +165,271 @@ public class MemoryTable {
         return row;
     }
     
-    // rkv: Do we still need this? Probably needs to be tweaked a bit
-    // to work with the support for specifying which column to use as the
-    // primary key
-    Map<String,Object> newRow(Object key) {
-        Map<String,Object> row = new HashMap<String, Object>();
-        row.put("id", key);
-        rowMap.put(key, row);
-        return row;
-    }
-    
     void insertRow(Object key, Map<String,Object> rowValues) {
         assert(key != null);
-        rowMap.put(key, rowValues);
+        // copy the row so that the caller can't change it behind the
+        // back of the indexes and the readers
+        putRow(key, rowMap.get(key), new HashMap<String,Object>(rowValues), true);
+    }
+    
+    /**
+     * Set column values of a row, creating the row if it does not exist
+     * @param key the primary key of the row
+     * @param values the columns to set
+     */
+    void updateRow(Object key, Map<String,Object> values) {
+        Map<String,Object> oldRow = rowMap.get(key);
+        Map<String,Object> row;
+        if (oldRow != null) {
+            row = new HashMap<String,Object>(oldRow);
+        } else {
+            // rkv: Do we still need this? Probably needs to be tweaked a bit
+            // to work with the support for specifying which column to use as the
+            // primary key
+            row = new HashMap<String,Object>();
+            row.put("id", key);
+        }
+        row.putAll(values);
+        putRow(key, oldRow, row, false);
+    }
+    
+    /**
+     * Replace a row by a new version and update the indexes
+     * @param reindexAll whether all indexed columns may have changed,
+     * rather than only the ones that differ from the old row
+     */
+    private void putRow(Object key, Map<String,Object> oldRow,
+                        Map<String,Object> row, boolean reindexAll) {
+        version++;
+        for (ColumnIndex index: indexMap.values()) {
+            Object value = row.get(index.columnName);
+            if (reindexAll || (oldRow == null) ||
+                    !equalValues(oldRow.get(index.columnName), value))
+                addToIndex(index, value, key);
+        }
+        rowMap.put(key, Collections.unmodifiableMap(row));
+        if (oldRow != null) {
+            for (ColumnIndex index: indexMap.values()) {
+                Object oldValue = oldRow.get(index.columnName);
+                if (!equalValues(oldValue, row.get(index.columnName)))
+                    index.remove(oldValue, key);
+            }
+        }
+        version++;
     }
     
     void deleteRow(Object rowKey) {
-        rowMap.remove(rowKey);
+        version++;
+        Map<String,Object> row = rowMap.remove(rowKey);
+        if (row != null) {
+            for (ColumnIndex index: indexMap.values())
+                index.remove(row.get(index.columnName), rowKey);
+        }
+        version++;
     }
     
     Integer getNextId() {
         return new Integer(++nextId);
     }
+    
+    /**
+     * Make sure that generated ids don't collide with the keys of rows
+     * that were loaded into the table
+     */
+    void updateNextId() {
+        if (rowMap.isEmpty())
+            return;
+        Object lastKey = rowMap.lastKey();
+        if ((lastKey instanceof Integer) && ((Integer)lastKey > nextId))
+            nextId = (Integer)lastKey;
+    }
+    
+    /**
+     * Get the rows without locking the table.  Changes made while they
+     * are copied may or may not be included.
+     * @return a copy of the rows, keyed by primary key
+     */
+    Map<Object,Map<String,Object>> copyRows() {
+        return new TreeMap<Object,Map<String,Object>>(rowMap);
+    }
+    
+    /**
+     * Build, change or drop the index on a column
+     * @param columnName the column
+     * @param indexMode the kind of index, NOT_INDEXED to drop it
+     */
+    void setColumnIndexMode(String columnName, ColumnIndexMode indexMode) {
+        boolean sorted = (indexMode == ColumnIndexMode.RANGE_INDEXED);
+        ColumnIndex index = indexMap.get(columnName);
+        if ((index != null) && (indexMode != ColumnIndexMode.NOT_INDEXED) &&
+                (index.sorted == sorted))
+            return;
+        indexMap.remove(columnName);
+        if (indexMode == ColumnIndexMode.NOT_INDEXED)
+            return;
+        // Readers only see the index once it is complete
+        index = new ColumnIndex(columnName, sorted);
+        try {
+            for (Map.Entry<Object,Map<String,Object>> entry: rowMap.entrySet())
+                index.add(entry.getValue().get(columnName), entry.getKey());
+        }
+        catch (ClassCastException exc) {
+            // the values can't be sorted, so queries scan the table
+            return;
+        }
+        indexMap.put(columnName, index);
+    }
+    
+    /**
+     * Get the rows where an indexed column has a value
+     * @param columnName the column
+     * @param value the value, may be null
+     * @return the matching rows in primary key order, or null if the
+     * column has no index that can be used for the value
+     */
+    List<Map<String,Object>> getRowsEqual(String columnName, Object value) {
+        ColumnIndex index = indexMap.get(columnName);
+        if ((index == null) || !index.canLookup(value))
+            return null;
+        List<Map<String,Object>> result = new ArrayList<Map<String,Object>>();
+        Set<Object> keys = index.getKeys(value);
+        if (keys != null) {
+            for (Object key: keys) {
+                // the row may have been changed since the index was read
+                Map<String,Object> row = rowMap.get(key);
+                if ((row != null) && equalValues(row.get(columnName), value))
+                    result.add(row);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Get the rows where a column with a range index has a value in a
+     * range.  Rows where the column is null are never returned.
+     * @param columnName the column
+     * @param startValue the lower bound, or null if there is none
+     * @param startInclusive whether the lower bound is in the range
+     * @param endValue the upper bound, or null if there is none
+     * @param endInclusive whether the upper bound is in the range
+     * @return the matching rows in column order, or null if the column
+     * has no range index that can be used for the bounds
+     */
+    List<Map<String,Object>> getRowsInRange(String columnName,
+            Object startValue, boolean startInclusive,
+            Object endValue, boolean endInclusive) {
+        ColumnIndex index = indexMap.get(columnName);
+        if ((index == null) || !index.sorted ||
+                !index.canLookup(startValue) || !index.canLookup(endValue))
+            return null;
+        for (int attempt = 0; attempt < RANGE_LOOKUP_ATTEMPTS; attempt++) {
+            long startVersion = version;
+            if ((startVersion & 1) != 0)
+                continue;
+            List<Map<String,Object>> result = lookupRange(index, startValue,
+                    startInclusive, endValue, endInclusive);
+            if (version == startVersion)
+                return result;
+        }
+        // the table keeps changing, so wait for the writer
+        synchronized (this) {
+            return lookupRange(index, startValue, startInclusive,
+                               endValue, endInclusive);
+        }
+    }
+    
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private List<Map<String,Object>> lookupRange(ColumnIndex index,
+            Object startValue, boolean startInclusive,
+            Object endValue, boolean endInclusive) {
+        String columnName = index.columnName;
+        List<Map<String,Object>> result = new ArrayList<Map<String,Object>>();
+        NavigableMap<Object,Set<Object>> keyMap = subMap(
+                (NavigableMap<Object,Set<Object>>) index.keyMap,
+                startValue, startInclusive, endValue, endInclusive);
+        if (keyMap == null)
+            return result;
+        for (Set<Object> keys: keyMap.values()) {
+            for (Object key: keys) {
+                // the row may have been changed since the index was read
+                Map<String,Object> row = rowMap.get(key);
+                if (row == null)
+                    continue;
+                Comparable value = (Comparable) row.get(columnName);
+                if ((value == null) || (value.getClass() != index.valueClass))
+                    continue;
+                if (startValue != null) {
+                    int compareResult = value.compareTo(startValue);
+                    if ((compareResult < 0) || (!startInclusive && (compareResult == 0)))
+                        continue;
+                }
+                if (endValue != null) {
+                    int compareResult = value.compareTo(endValue);
+                    if ((compareResult > 0) || (!endInclusive && (compareResult == 0)))
+                        continue;
+                }
+                result.add(row);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Get the rows with primary keys in a range
+     * @return the matching rows in primary key order, or null if the
+     * bounds can't be compared with the primary keys
+     * @see #getRowsInRange(String, Object, boolean, Object, boolean)
+     */
+    List<Map<String,Object>> getRowsInKeyRange(Object startValue,
+            boolean startInclusive, Object endValue, boolean endInclusive) {
+        Map.Entry<Object,Map<String,Object>> first = rowMap.firstEntry();
+        if (first != null) {
+            Class<?> keyClass = first.getKey().getClass();
+            if (((startValue != null) && (startValue.getClass() != keyClass)) ||
+                ((endValue != null) && (endValue.getClass() != keyClass)))
+                return null;
+        }
+        NavigableMap<Object,Map<String,Object>> rows = subMap(rowMap,
+                startValue, startInclusive, endValue, endInclusive);
+        if (rows == null)
+            return new ArrayList<Map<String,Object>>();
+        return new ArrayList<Map<String,Object>>(rows.values());
+    }
+    
+    /**
+     * @return the part of a map in a range, or null if the range is empty
+     */
+    private static <V> NavigableMap<Object,V> subMap(
+            NavigableMap<Object,V> map,
+            Object startValue, boolean startInclusive,
+            Object endValue, boolean endInclusive) {
+        try {
+            if (startValue != null)
+                map = map.tailMap(startValue, startInclusive);
+            if (endValue != null)
+                map = map.headMap(endValue, endInclusive);
+        }
+        catch (IllegalArgumentException exc) {
+            // the start of the range is after its end
+            return null;
+        }
+        return map;
+    }
+    
+    /**
+     * Add a row to an index.  If the values of the column can't be sorted
+     * the index is dropped, and queries on the column scan the table.
+     */
+    private void addToIndex(ColumnIndex index, Object value, Object key) {
+        try {
+            index.add(value, key);
+        }
+        catch (ClassCastException exc) {
+            indexMap.remove(index.columnName);
+        }
+    }
+    
+    private static boolean equalValues(Object value1, Object value2) {
+        return (value1 == null) ? (value2 == null) : value1.equals(value2);
+    }
 }
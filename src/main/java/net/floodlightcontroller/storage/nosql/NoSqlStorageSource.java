@@ -28,11 +28,13 @@ import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -55,9 +57,10 @@ public abstract class NoSqlStorageSource extends AbstractStorageSource {
     
     protected static final String DEFAULT_PRIMARY_KEY_NAME = "id";
     
-    private Map<String,String> tablePrimaryKeyMap = new HashMap<String,String>();
-    private Map<String, Map<String,ColumnIndexMode>> tableIndexedColumnMap =
-        new HashMap<String,Map<String,ColumnIndexMode>>();
+    // Read by queries without locking, so these are concurrent maps
+    private Map<String,String> tablePrimaryKeyMap = new ConcurrentHashMap<String,String>();
+    private ConcurrentMap<String, Map<String,ColumnIndexMode>> tableIndexedColumnMap =
+        new ConcurrentHashMap<String,Map<String,ColumnIndexMode>>();
     
     abstract class NoSqlPredicate {
 
@@ -71,6 +74,11 @@ public abstract class NoSqlStorageSource extends AbstractStorageSource {
             return false;
         }
         
+        /**
+         * Get the matching rows without scanning the table
+         * @return the rows, or null if the query can't be answered this
+         * way after all and the table has to be scanned
+         */
         public List<Map<String,Object>> execute(String[] columnNames) {
             assert(false);
             return null;
@@ -357,13 +365,16 @@ public abstract class NoSqlStorageSource extends AbstractStorageSource {
     class NoSqlCompoundPredicate extends NoSqlPredicate {
         
         NoSqlStorageSource storageSource;
+        String tableName;
         CompoundPredicate.Operator operator;
         boolean negated;
         List<NoSqlPredicate> predicateList;
         
-        NoSqlCompoundPredicate(NoSqlStorageSource storageSource, CompoundPredicate.Operator operator,
+        NoSqlCompoundPredicate(NoSqlStorageSource storageSource, String tableName,
+                CompoundPredicate.Operator operator,
                 boolean negated, List<NoSqlPredicate> predicateList) {
             this.storageSource = storageSource;
+            this.tableName = tableName;
             this.operator = operator;
             this.negated = negated;
             this.predicateList = predicateList;
@@ -386,6 +397,9 @@ public abstract class NoSqlStorageSource extends AbstractStorageSource {
         }
 
         public boolean canExecuteEfficiently() {
+            // The complement of a set of rows can only be found by a scan
+            if (negated)
+                return false;
             if (operator == CompoundPredicate.Operator.AND) {
                 for (NoSqlPredicate predicate: predicateList) {
                     if (predicate.canExecuteEfficiently()) {
@@ -403,119 +417,64 @@ public abstract class NoSqlStorageSource extends AbstractStorageSource {
             }
         }
 
-        @SuppressWarnings({ "unchecked", "rawtypes" })
-        class RowComparator implements Comparator<Map<String,Object>> {
-            private String primaryKeyName;
-            
-            public RowComparator(String primaryKeyName) {
-                this.primaryKeyName = primaryKeyName;
-            }
-            
-            public int compare(Map<String,Object> row1, Map<String,Object> row2) {
-                Comparable key1 = (Comparable)row1.get(primaryKeyName);
-                Comparable key2 = (Comparable)row2.get(primaryKeyName);
-                return key1.compareTo(key2);
-            }
-            
-            public boolean equals(Object obj) {
-                if (!(obj instanceof RowComparator))
-                    return false;
-                RowComparator rc = (RowComparator)obj;
-                if (rc.primaryKeyName == null)
-                    return this.primaryKeyName == null;
-                return rc.primaryKeyName.equals(this.primaryKeyName);
-            }
-        }
-
-        @SuppressWarnings({ "unchecked", "rawtypes" })
-        private List<Map<String,Object>> combineRowLists(String primaryKeyName,
-                List<Map<String,Object>> list1, List<Map<String,Object>> list2,
-                CompoundPredicate.Operator operator) {
-            ArrayList<Map<String,Object>> combinedRowList = new ArrayList<Map<String,Object>>();
-            RowComparator rc = new RowComparator(primaryKeyName);
-            Collections.sort(list1, rc);
-            Collections.sort(list2,rc);
-            
-            Iterator<Map<String,Object>> iterator1 = list1.iterator();
-            Iterator<Map<String,Object>> iterator2 = list2.iterator();
-            boolean update1 = true;
-            boolean update2 = true;
-            Map<String,Object> row1 = null;
-            Map<String,Object> row2 = null;
-            Comparable<?> key1 = null;
-            Comparable<?> key2 = null;
-            
-            while (true) {
-                if (update1) {
-                    if (iterator1.hasNext()) {
-                        row1 = iterator1.next();
-                        key1 = (Comparable<?>)row1.get(primaryKeyName);
-                    } else {
-                        row1 = null;
+        public List<Map<String,Object>> execute(String columnNames[]) {
+            if (operator == CompoundPredicate.Operator.AND) {
+                // Get the rows that match one of the predicates and check
+                // them against the others
+                NoSqlPredicate executedPredicate = null;
+                for (NoSqlPredicate predicate: predicateList) {
+                    if (predicate.canExecuteEfficiently()) {
+                        executedPredicate = predicate;
+                        break;
                     }
                 }
-                if (update2) {
-                    if (iterator2.hasNext()) {
-                        row2 = iterator1.next();
-                        key2 = (Comparable<?>)row2.get(primaryKeyName);
-                    } else {
-                        row2 = null;
-                    }
+                List<Map<String,Object>> rowList = executedPredicate.execute(columnNames);
+                if (rowList == null)
+                    return null;
+                List<Map<String,Object>> combinedRowList = new ArrayList<Map<String,Object>>();
+                for (Map<String,Object> row: rowList) {
+                    if (matchesRow(row))
+                        combinedRowList.add(row);
                 }
-                if (operator == CompoundPredicate.Operator.AND) {
-                    if ((row1 == null) || (row2 == null))
-                        break;
-                    if (key1.equals(key2))
-                        combinedRowList.add(row1);
-                } else {
-                    if (row1 == null) {
-                        if (row2 == null)
-                            break;
-                        combinedRowList.add(row2);
-                    } else if ((row2 == null) || (((Comparable)key1).compareTo(key2) <= 0)) {
-                        combinedRowList.add(row2);
-                    } else {
-                        combinedRowList.add(row1);
+                return combinedRowList;
+            } else {
+                // Union of the rows of all the predicates
+                String primaryKeyName = storageSource.getTablePrimaryKeyName(tableName);
+                Set<Object> rowKeys = new HashSet<Object>();
+                List<Map<String,Object>> combinedRowList = new ArrayList<Map<String,Object>>();
+                for (NoSqlPredicate predicate: predicateList) {
+                    List<Map<String,Object>> rowList = predicate.execute(columnNames);
+                    if (rowList == null)
+                        return null;
+                    for (Map<String,Object> row: rowList) {
+                        if (rowKeys.add(row.get(primaryKeyName)))
+                            combinedRowList.add(row);
                     }
                 }
-                
-                update1 = (key2 == null) || (((Comparable)key1).compareTo(key2) <= 0);
-                update2 = (key1 == null) || (((Comparable)key2).compareTo(key1) <= 0);
-            }
-            
-            return combinedRowList;
-        }
-        
-        public List<Map<String,Object>> execute(String columnNames[]) {
-            List<Map<String,Object>> combinedRowList = null;
-            for (NoSqlPredicate predicate: predicateList) {
-                List<Map<String,Object>> rowList = predicate.execute(columnNames);
-                if (combinedRowList != null) {
-                    combinedRowList = combineRowLists("id", combinedRowList, rowList, operator);
-                } else {
-                    combinedRowList = rowList;
-                }
+                return combinedRowList;
             }
-            return combinedRowList;
         }
 
         public boolean matchesRow(Map<String,Object> row) {
+            boolean matches;
             if (operator == CompoundPredicate.Operator.AND) {
+                matches = true;
                 for (NoSqlPredicate predicate : predicateList) {
                     if (!predicate.matchesRow(row))  {
-                        return false;
+                        matches = false;
+                        break;
                     }
                 }
-                return true;
             } else {
+                matches = false;
                 for (NoSqlPredicate predicate : predicateList) {
                     if (predicate.matchesRow(row))  {
-                        return true;
+                        matches = true;
+                        break;
                     }
                 }
-                return false;
-                
             }
+            return negated ? !matches : matches;
         }
     }
     
@@ -556,11 +515,25 @@ public abstract class NoSqlStorageSource extends AbstractStorageSource {
         return columnIndexMode;
     }
     
+    /**
+     * @return the index modes of the columns of a table that have been
+     * set, keyed by column name
+     */
+    protected Map<String, ColumnIndexMode> getColumnIndexModes(String tableName) {
+        Map<String, ColumnIndexMode> indexedColumnMap = tableIndexedColumnMap.get(tableName);
+        if (indexedColumnMap == null)
+            return Collections.emptyMap();
+        return new HashMap<String, ColumnIndexMode>(indexedColumnMap);
+    }
+    
     public void setColumnIndexMode(String tableName, String columnName, ColumnIndexMode indexMode) {
         Map<String, ColumnIndexMode> indexedColumnMap = tableIndexedColumnMap.get(tableName);
         if (indexedColumnMap == null) {
-            indexedColumnMap = new HashMap<String,ColumnIndexMode>();
-            tableIndexedColumnMap.put(tableName, indexedColumnMap);
+            Map<String, ColumnIndexMode> newMap =
+                    new ConcurrentHashMap<String,ColumnIndexMode>();
+            indexedColumnMap = tableIndexedColumnMap.putIfAbsent(tableName, newMap);
+            if (indexedColumnMap == null)
+                indexedColumnMap = newMap;
         }
         indexedColumnMap.put(columnName, indexMode);
     }
@@ -602,7 +575,7 @@ public abstract class NoSqlStorageSource extends AbstractStorageSource {
                     noSqlPredicateList.add(noSqlPredicate);
                 }
             }
-            convertedPredicate = new NoSqlCompoundPredicate(this, compoundPredicate.getOperator(),
+            convertedPredicate = new NoSqlCompoundPredicate(this, tableName, compoundPredicate.getOperator(),
                     compoundPredicate.isNegated(), noSqlPredicateList);
         } else if (predicate instanceof OperatorPredicate) {
             OperatorPredicate operatorPredicate = (OperatorPredicate) predicate;
@@ -678,10 +651,11 @@ public abstract class NoSqlStorageSource extends AbstractStorageSource {
     private NoSqlResultSet executeParameterizedQuery(String tableName, String[] columnNameList,
             IPredicate predicate, RowOrdering rowOrdering, Map<String,Comparable<?>> parameterMap) {
         NoSqlPredicate noSqlPredicate = convertPredicate(predicate, tableName, parameterMap);
-        List<Map<String,Object>> rowList;
+        List<Map<String,Object>> rowList = null;
         if ((noSqlPredicate != null) && noSqlPredicate.canExecuteEfficiently()) {
             rowList = noSqlPredicate.execute(columnNameList);
-        } else {
+        }
+        if (rowList == null) {
             rowList = new ArrayList<Map<String,Object>>();
             Collection<Map<String,Object>> allRowList = getAllRows(tableName, columnNameList);
             for (Map<String,Object> row: allRowList) {
@@ -730,6 +704,54 @@ public abstract class NoSqlStorageSource extends AbstractStorageSource {
         notifyListeners(notification);
     }
     
+    /**
+     * Collects the rows changed by a batch, so that the listeners of each
+     * table are notified once.  Like the notification dispatcher, a row
+     * deleted at any point of the batch is reported as deleted, and also
+     * as modified if it exists after its last change, so that a listener
+     * never misses the delete of a row that was re-inserted.
+     */
+    public class BatchNotifications {
+        private Map<String, Set<Object>> deletedKeys =
+                new LinkedHashMap<String, Set<Object>>();
+        private Map<String, Set<Object>> modifiedKeys =
+                new LinkedHashMap<String, Set<Object>>();
+
+        public void rowChanged(String tableName, Object rowKey,
+                StorageSourceNotification.Action action) {
+            if (action == StorageSourceNotification.Action.DELETE) {
+                getKeys(deletedKeys, tableName).add(rowKey);
+                getKeys(modifiedKeys, tableName).remove(rowKey);
+            } else {
+                getKeys(modifiedKeys, tableName).add(rowKey);
+            }
+        }
+
+        private Set<Object> getKeys(Map<String, Set<Object>> tableKeys,
+                String tableName) {
+            Set<Object> keys = tableKeys.get(tableName);
+            if (keys == null) {
+                keys = new HashSet<Object>();
+                tableKeys.put(tableName, keys);
+            }
+            return keys;
+        }
+
+        public void send() {
+            // deletes first, as the dispatcher delivers them
+            for (Map.Entry<String, Set<Object>> entry : deletedKeys.entrySet()) {
+                if (!entry.getValue().isEmpty())
+                    sendNotification(entry.getKey(),
+                            StorageSourceNotification.Action.DELETE, entry.getValue());
+            }
+            for (Map.Entry<String, Set<Object>> entry : modifiedKeys.entrySet()) {
+                if (!entry.getValue().isEmpty())
+                    sendNotification(entry.getKey(),
+                            StorageSourceNotification.Action.MODIFY, entry.getValue());
+            }
+        }
+    }
+    
     protected void insertRowsAndNotify(String tableName, List<Map<String,Object>> insertRowList) {
         insertRows(tableName, insertRowList);
         sendNotification(tableName, StorageSourceNotification.Action.MODIFY, insertRowList);
@@ -810,9 +832,19 @@ public abstract class NoSqlStorageSource extends AbstractStorageSource {
     
     protected abstract Map<String,Object> getRow(String tableName, String[] columnNameList, Object rowKey);
     
+    /**
+     * Get the rows where an indexed column has a value.  The returned list
+     * is owned by the caller.  May return null if the index can't be used,
+     * in which case the table is scanned.
+     */
     protected abstract List<Map<String,Object>> executeEqualityQuery(String tableName,
             String[] columnNameList, String predicateColumnName, Comparable<?> value);
     
+    /**
+     * Get the rows where a range indexed column has a value in a range.
+     * A null bound means the range is open on that side.  May return null
+     * like {@link #executeEqualityQuery}.
+     */
     protected abstract List<Map<String,Object>> executeRangeQuery(String tableName,
             String[] columnNameList, String predicateColumnName,
             Comparable<?> startValue, boolean startInclusive, Comparable<?> endValue, boolean endInclusive);
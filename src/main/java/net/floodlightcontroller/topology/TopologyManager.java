@@ -20,6 +20,7 @@ import net.floodlightcontroller.core.IFloodlightProviderService.Role;
 import net.floodlightcontroller.core.IOFMessageListener;
 import net.floodlightcontroller.core.IOFSwitch;
 import net.floodlightcontroller.core.IHAListener;
+import net.floodlightcontroller.core.PacketMetadata;
 import net.floodlightcontroller.core.annotations.LogMessageCategory;
 import net.floodlightcontroller.core.annotations.LogMessageDoc;
 import net.floodlightcontroller.core.module.FloodlightModuleContext;
@@ -826,12 +827,14 @@ public class TopologyManager implements
     protected Command processPacketInMessage(IOFSwitch sw, OFPacketIn pi, 
                                              FloodlightContext cntx) {
 
-        // get the packet-in switch.
-        Ethernet eth = 
-                IFloodlightProviderService.bcStore.
-                get(cntx,IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+        // Only BDDP packets are deserialized, the header fields are
+        // enough for the drop filter.
+        PacketMetadata pm = PacketMetadata.fromPacketIn(cntx, pi);
 
-        if (eth.getEtherType() == Ethernet.TYPE_BSN) {
+        if (pm.getDataLayerType() == Ethernet.TYPE_BSN) {
+            Ethernet eth = 
+                    IFloodlightProviderService.bcStore.
+                    get(cntx,IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
             BSN bsn = (BSN) eth.getPayload();
             if (bsn == null) return Command.STOP;
             if (bsn.getPayload() == null) return Command.STOP;
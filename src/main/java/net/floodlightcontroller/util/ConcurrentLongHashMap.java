@@ -0,0 +1,295 @@
+/**
+*    Copyright 2012, Big Switch Networks, Inc.
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A thread-safe hash map from primitive long keys to object values.
+ *
+ * Keys are stored unboxed in open-addressing tables with linear probing,
+ * so lookups and updates of existing keys do not allocate.  The map is
+ * split into independently locked segments to keep contention low.
+ * Null values are not permitted.
+ *
+ * @param <V> the type of the values
+ */
+public class ConcurrentLongHashMap<V> {
+    private static final int DEFAULT_SEGMENTS = 16;
+    private static final int DEFAULT_SEGMENT_CAPACITY = 16;
+
+    private final Segment<V>[] segments;
+    private final int segmentShift;
+
+    protected static final class Segment<V> {
+        long[] keys;
+        Object[] values;
+        int size;
+
+        Segment(int capacity) {
+            keys = new long[capacity];
+            values = new Object[capacity];
+        }
+
+        int indexOf(long key, int hash) {
+            int mask = keys.length - 1;
+            int i = hash & mask;
+            while (values[i] != null) {
+                if (keys[i] == key) return i;
+                i = (i + 1) & mask;
+            }
+            return -(i + 1);
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized V get(long key, int hash) {
+            int i = indexOf(key, hash);
+            return (i >= 0) ? (V) values[i] : null;
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized V put(long key, int hash, V value, boolean onlyIfAbsent) {
+            int i = indexOf(key, hash);
+            if (i >= 0) {
+                V old = (V) values[i];
+                if (!onlyIfAbsent)
+                    values[i] = value;
+                return old;
+            }
+            if ((size + 1) * 4 > keys.length * 3) {
+                rehash(keys.length * 2);
+                i = indexOf(key, hash);
+            }
+            i = -i - 1;
+            keys[i] = key;
+            values[i] = value;
+            size += 1;
+            return null;
+        }
+
+        synchronized boolean replace(long key, int hash,
+                                     Object oldValue, V newValue) {
+            int i = indexOf(key, hash);
+            if (i < 0 || !values[i].equals(oldValue)) return false;
+            values[i] = newValue;
+            return true;
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized V remove(long key, int hash, Object value) {
+            int i = indexOf(key, hash);
+            if (i < 0) return null;
+            V old = (V) values[i];
+            if (value != null && !old.equals(value)) return null;
+            delete(i);
+            return old;
+        }
+
+        /**
+         * Remove the entry at slot i, shifting back any entries of the
+         * same probe sequence so that lookups never need tombstones.
+         */
+        private void delete(int i) {
+            int mask = keys.length - 1;
+            int j = i;
+            values[i] = null;
+            while (true) {
+                j = (j + 1) & mask;
+                if (values[j] == null) break;
+                int home = hash(keys[j]) & mask;
+                // move the entry at j into the hole at i unless its home
+                // slot lies cyclically in (i, j]
+                if ((j > i && (home <= i || home > j)) ||
+                    (j < i && (home <= i && home > j))) {
+                    keys[i] = keys[j];
+                    values[i] = values[j];
+                    values[j] = null;
+                    i = j;
+                }
+            }
+            size -= 1;
+        }
+
+        private void rehash(int capacity) {
+            long[] oldKeys = keys;
+            Object[] oldValues = values;
+            keys = new long[capacity];
+            values = new Object[capacity];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] == null) continue;
+                int j = -indexOf(oldKeys[i], hash(oldKeys[i])) - 1;
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+
+        synchronized void clear() {
+            keys = new long[DEFAULT_SEGMENT_CAPACITY];
+            values = new Object[DEFAULT_SEGMENT_CAPACITY];
+            size = 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized void collectValues(List<V> out) {
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) out.add((V) values[i]);
+            }
+        }
+
+        synchronized int collectKeys(long[] out, int pos) {
+            for (int i = 0; i < values.length && pos < out.length; i++) {
+                if (values[i] != null) out[pos++] = keys[i];
+            }
+            return pos;
+        }
+    }
+
+    /**
+     * Construct a new map with the default number of segments
+     */
+    public ConcurrentLongHashMap() {
+        this(DEFAULT_SEGMENTS);
+    }
+
+    /**
+     * Construct a new map
+     * @param concurrencyLevel the number of independently locked segments;
+     * rounded up to a power of two
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentLongHashMap(int concurrencyLevel) {
+        int n = 1;
+        int shift = 32;
+        while (n < concurrencyLevel) {
+            n <<= 1;
+            shift -= 1;
+        }
+        segmentShift = shift;
+        segments = new Segment[n];
+        for (int i = 0; i < n; i++)
+            segments[i] = new Segment<V>(DEFAULT_SEGMENT_CAPACITY);
+    }
+
+    /**
+     * Spread the bits of a long key (the finalizer of MurmurHash3)
+     */
+    protected static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    private Segment<V> segmentFor(int hash) {
+        // the low bits index into the segment table, use the high bits
+        // to choose the segment
+        return (segmentShift == 32) ? segments[0] :
+            segments[hash >>> segmentShift];
+    }
+
+    public V get(long key) {
+        int h = hash(key);
+        return segmentFor(h).get(key, h);
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    public V put(long key, V value) {
+        if (value == null) throw new NullPointerException();
+        int h = hash(key);
+        return segmentFor(h).put(key, h, value, false);
+    }
+
+    public V putIfAbsent(long key, V value) {
+        if (value == null) throw new NullPointerException();
+        int h = hash(key);
+        return segmentFor(h).put(key, h, value, true);
+    }
+
+    public boolean replace(long key, V oldValue, V newValue) {
+        if (oldValue == null || newValue == null)
+            throw new NullPointerException();
+        int h = hash(key);
+        return segmentFor(h).replace(key, h, oldValue, newValue);
+    }
+
+    public V remove(long key) {
+        int h = hash(key);
+        return segmentFor(h).remove(key, h, null);
+    }
+
+    public boolean remove(long key, Object value) {
+        if (value == null) return false;
+        int h = hash(key);
+        return segmentFor(h).remove(key, h, value) != null;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<V> s : segments) {
+            synchronized (s) {
+                size += s.size;
+            }
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public void clear() {
+        for (Segment<V> s : segments)
+            s.clear();
+    }
+
+    /**
+     * Get a snapshot of the values in the map.  Each segment is copied
+     * atomically but the map as a whole is not locked.
+     * @return the values
+     */
+    public Collection<V> values() {
+        List<V> out = new ArrayList<V>();
+        for (Segment<V> s : segments)
+            s.collectValues(out);
+        return out;
+    }
+
+    /**
+     * Get a snapshot of the keys in the map.  Each segment is copied
+     * atomically but the map as a whole is not locked.
+     * @return the keys
+     */
+    public long[] keys() {
+        long[] out = new long[size()];
+        int pos = 0;
+        for (Segment<V> s : segments)
+            pos = s.collectKeys(out, pos);
+        if (pos < out.length) {
+            long[] trimmed = new long[pos];
+            System.arraycopy(out, 0, trimmed, 0, pos);
+            out = trimmed;
+        }
+        return out;
+    }
+}
@@ -0,0 +1,108 @@
+/**
+*    Copyright 2012 Big Switch Networks, Inc.
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.util;
+
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.IPv4;
+
+import org.openflow.protocol.OFMatch;
+
+/**
+ * Helpers for comparing OpenFlow matches
+ */
+public class OFMatchUtils {
+    private static final int NW_FIELDS =
+            OFMatch.OFPFW_NW_PROTO | OFMatch.OFPFW_NW_TOS |
+            OFMatch.OFPFW_NW_SRC_ALL | OFMatch.OFPFW_NW_DST_ALL;
+    private static final int TP_FIELDS =
+            OFMatch.OFPFW_TP_SRC | OFMatch.OFPFW_TP_DST;
+
+    /**
+     * Get a copy of a match in the form a switch reports it.  Fields
+     * that are wildcarded, or that don't apply to the data layer type or
+     * IP protocol of the match, are wildcarded and cleared, and IP
+     * addresses are masked to their prefix length.  Two matches that
+     * match the same packets are equal once normalized.
+     * @param match the match
+     * @return the normalized match
+     */
+    public static OFMatch normalize(OFMatch match) {
+        OFMatch m = match.clone();
+        int wildcards = m.getWildcards() & OFMatch.OFPFW_ALL;
+
+        // Network fields only apply to IP and ARP, and transport ports
+        // only to TCP, UDP and ICMP
+        boolean ip = (wildcards & OFMatch.OFPFW_DL_TYPE) == 0 &&
+                     m.getDataLayerType() == Ethernet.TYPE_IPv4;
+        boolean arp = (wildcards & OFMatch.OFPFW_DL_TYPE) == 0 &&
+                      m.getDataLayerType() == Ethernet.TYPE_ARP;
+        if (!ip && !arp) {
+            wildcards = setNetworkMasks(wildcards | NW_FIELDS, 0, 0);
+        } else if (arp) {
+            wildcards |= OFMatch.OFPFW_NW_TOS;
+        }
+        byte proto = m.getNetworkProtocol();
+        if (!ip || (wildcards & OFMatch.OFPFW_NW_PROTO) != 0 ||
+            (proto != IPv4.PROTOCOL_TCP && proto != IPv4.PROTOCOL_UDP &&
+             proto != IPv4.PROTOCOL_ICMP)) {
+            wildcards |= TP_FIELDS;
+        }
+
+        if ((wildcards & OFMatch.OFPFW_IN_PORT) != 0)
+            m.setInputPort((short) 0);
+        if ((wildcards & OFMatch.OFPFW_DL_VLAN) != 0)
+            m.setDataLayerVirtualLan((short) 0);
+        if ((wildcards & OFMatch.OFPFW_DL_SRC) != 0)
+            m.setDataLayerSource(new byte[6]);
+        if ((wildcards & OFMatch.OFPFW_DL_DST) != 0)
+            m.setDataLayerDestination(new byte[6]);
+        if ((wildcards & OFMatch.OFPFW_DL_TYPE) != 0)
+            m.setDataLayerType((short) 0);
+        if ((wildcards & OFMatch.OFPFW_NW_PROTO) != 0)
+            m.setNetworkProtocol((byte) 0);
+        if ((wildcards & OFMatch.OFPFW_TP_SRC) != 0)
+            m.setTransportSource((short) 0);
+        if ((wildcards & OFMatch.OFPFW_TP_DST) != 0)
+            m.setTransportDestination((short) 0);
+        if ((wildcards & OFMatch.OFPFW_DL_VLAN_PCP) != 0)
+            m.setDataLayerVirtualLanPriorityCodePoint((byte) 0);
+        if ((wildcards & OFMatch.OFPFW_NW_TOS) != 0)
+            m.setNetworkTypeOfService((byte) 0);
+
+        m.setWildcards(wildcards);
+        int srcLen = m.getNetworkSourceMaskLen();
+        int dstLen = m.getNetworkDestinationMaskLen();
+        m.setNetworkSource(maskAddress(m.getNetworkSource(), srcLen));
+        m.setNetworkDestination(maskAddress(m.getNetworkDestination(), dstLen));
+        // any wildcard count of 32 or more means the whole address
+        m.setWildcards(setNetworkMasks(wildcards, srcLen, dstLen));
+        return m;
+    }
+
+    private static int setNetworkMasks(int wildcards, int srcLen, int dstLen) {
+        wildcards &= ~(OFMatch.OFPFW_NW_SRC_MASK | OFMatch.OFPFW_NW_DST_MASK);
+        wildcards |= (32 - srcLen) << OFMatch.OFPFW_NW_SRC_SHIFT;
+        wildcards |= (32 - dstLen) << OFMatch.OFPFW_NW_DST_SHIFT;
+        return wildcards;
+    }
+
+    private static int maskAddress(int address, int maskLen) {
+        if (maskLen <= 0) return 0;
+        if (maskLen >= 32) return address;
+        return address & (-1 << (32 - maskLen));
+    }
+}
@@ -11,6 +11,8 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.openflow.protocol.OFFlowMod;
 import org.openflow.protocol.OFMatch;
@@ -27,20 +29,22 @@ import net.floodlightcontroller.core.FloodlightContext;
 import net.floodlightcontroller.core.IFloodlightProviderService;
 import net.floodlightcontroller.core.IOFMessageListener;
 import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.PacketMetadata;
 import net.floodlightcontroller.core.module.FloodlightModuleContext;
 import net.floodlightcontroller.core.module.FloodlightModuleException;
 import net.floodlightcontroller.core.module.IFloodlightModule;
 import net.floodlightcontroller.core.module.IFloodlightService;
 import net.floodlightcontroller.core.util.AppCookie;
+import net.floodlightcontroller.core.util.SingletonTask;
 import net.floodlightcontroller.devicemanager.IDevice;
 import net.floodlightcontroller.devicemanager.IDeviceListener;
 import net.floodlightcontroller.devicemanager.IDeviceService;
-import net.floodlightcontroller.packet.DHCP;
 import net.floodlightcontroller.packet.Ethernet;
-import net.floodlightcontroller.packet.IPacket;
 import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.UDP;
 import net.floodlightcontroller.restserver.IRestApiService;
 import net.floodlightcontroller.routing.ForwardingBase;
+import net.floodlightcontroller.threadpool.IThreadPoolService;
 import net.floodlightcontroller.util.MACAddress;
 
 /**
@@ -66,6 +70,7 @@ public class VirtualNetworkFilter
     IFloodlightProviderService floodlightProvider;
     IRestApiService restApi;
     IDeviceService deviceService;
+    IThreadPoolService threadPool;
     
     // Our internal state
     protected Map<String, VirtualNetwork> vNetsByGuid; // List of all created virtual networks 
@@ -75,13 +80,54 @@ public class VirtualNetworkFilter
     protected Map<MACAddress, Integer> macToGateway; // Gateway MAC -> Gateway IP
     protected Map<MACAddress, String> macToGuid; // Host MAC -> Network ID
     protected Map<String, MACAddress> portToMac; // Host MAC -> logical port name
+    // Packet-in view of the maps above. The maps are only changed while
+    // holding the lock on this object; a change schedules indexUpdateTask,
+    // which rebuilds the index off the packet-in path at most
+    // indexUpdateDelayMs later, so a burst of changes costs a single
+    // rebuild. Packet-ins use the previous index until then.
+    protected volatile VirtualNetworkIndex index;
+    protected SingletonTask indexUpdateTask;
+    protected final AtomicBoolean indexUpdatePending = new AtomicBoolean();
+    protected long indexUpdateDelayMs = 100;
+    
+    /**
+     * Schedules a rebuild of the membership index after a configuration
+     * change.
+     */
+    protected void updateIndex() {
+        if (indexUpdateTask == null) {
+            // not started yet, so there are no packet-ins to hold up
+            rebuildIndex();
+        } else if (indexUpdatePending.compareAndSet(false, true)) {
+            indexUpdateTask.reschedule(indexUpdateDelayMs,
+                                       TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    /**
+     * Rebuilds the membership index from the current configuration.
+     */
+    protected synchronized void rebuildIndex() {
+        // changes from here on need another rebuild
+        indexUpdatePending.set(false);
+        index = new VirtualNetworkIndex(macToGuid, guidToGateway,
+                                        macToGateway);
+    }
+    
+    /**
+     * Gets the membership index.
+     * @return The index.
+     */
+    protected VirtualNetworkIndex getIndex() {
+        return index;
+    }
     
     /**
      * Adds a gateway to a virtual network.
      * @param guid The ID (not name) of the network.
      * @param ip The IP addresses of the gateway.
      */
-    protected void addGateway(String guid, Integer ip) {
+    protected synchronized void addGateway(String guid, Integer ip) {
         if (ip.intValue() != 0) {
         	if (log.isDebugEnabled())
         		log.debug("Adding {} as gateway for GUID {}",
@@ -106,7 +152,7 @@ public class VirtualNetworkFilter
      * @param guid The ID (not name) of the network to delete
      * the gateway for.
      */
-    protected void deleteGateway(String guid) {
+    protected synchronized void deleteGateway(String guid) {
         Integer gwIp = guidToGateway.remove(guid);
         if (gwIp == null) return;
         Set<String> gSet = gatewayToGuid.get(gwIp);
@@ -118,7 +164,7 @@ public class VirtualNetworkFilter
     // IVirtualNetworkService
     
     @Override
-    public void createNetwork(String guid, String network, Integer gateway) {
+    public synchronized void createNetwork(String guid, String network, Integer gateway) {
         if (log.isDebugEnabled()) {
             String gw = null;
             try {
@@ -150,11 +196,12 @@ public class VirtualNetworkFilter
             addGateway(guid, gateway);
             if(vNetsByGuid.get(guid)!=null)
                 vNetsByGuid.get(guid).setGateway(IPv4.fromIPv4Address(gateway));
+            updateIndex();
         }
     }
 
     @Override
-    public void deleteNetwork(String guid) {
+    public synchronized void deleteNetwork(String guid) {
         String name = null;
         if (nameToGuid.isEmpty()) {
             log.warn("Could not delete network with ID {}, network doesn't exist",
@@ -198,10 +245,11 @@ public class VirtualNetworkFilter
                 }
             }
         }
+        updateIndex();
     }
 
     @Override
-    public void addHost(MACAddress mac, String guid, String port) {
+    public synchronized void addHost(MACAddress mac, String guid, String port) {
         if (guid != null) {
             if (log.isDebugEnabled()) {
                 log.debug("Adding {} to network ID {} on port {}",
@@ -212,6 +260,7 @@ public class VirtualNetworkFilter
             portToMac.put(port, mac);
             if(vNetsByGuid.get(guid)!=null)
                 vNetsByGuid.get(guid).addHost(new MACAddress(mac.toBytes()));
+            updateIndex();
         } else {
             log.warn("Could not add MAC {} to network ID {} on port {}, the network does not exist",
                      new Object[] {mac, guid, port});
@@ -219,7 +268,7 @@ public class VirtualNetworkFilter
     }
 
     @Override
-    public void deleteHost(MACAddress mac, String port) {
+    public synchronized void deleteHost(MACAddress mac, String port) {
         if (log.isDebugEnabled()) {
             log.debug("Removing host {} from port {}", mac, port);
         }
@@ -229,6 +278,7 @@ public class VirtualNetworkFilter
             if(vNetsByGuid.get(macToGuid.get(host)) != null)
                 vNetsByGuid.get(macToGuid.get(host)).removeHost(host);
             macToGuid.remove(host);
+            updateIndex();
         } else if (mac != null) {
             if (!portToMac.isEmpty()) {
                 for (Entry<String, MACAddress> entry : portToMac.entrySet()) {
@@ -237,6 +287,7 @@ public class VirtualNetworkFilter
                             vNetsByGuid.get(macToGuid.get(entry.getValue())).removeHost(entry.getValue());
                         portToMac.remove(entry.getKey());
                         macToGuid.remove(entry.getValue());
+                        updateIndex();
                         return;
                     }
                 }
@@ -272,6 +323,7 @@ public class VirtualNetworkFilter
         l.add(IFloodlightProviderService.class);
         l.add(IRestApiService.class);
         l.add(IDeviceService.class);
+        l.add(IThreadPoolService.class);
         return l;
     }
 
@@ -281,6 +333,7 @@ public class VirtualNetworkFilter
         floodlightProvider = context.getServiceImpl(IFloodlightProviderService.class);
         restApi = context.getServiceImpl(IRestApiService.class);
         deviceService = context.getServiceImpl(IDeviceService.class);
+        threadPool = context.getServiceImpl(IThreadPoolService.class);
         
         vNetsByGuid = new ConcurrentHashMap<String, VirtualNetwork>();
         nameToGuid = new ConcurrentHashMap<String, String>();
@@ -289,10 +342,18 @@ public class VirtualNetworkFilter
         macToGuid = new ConcurrentHashMap<MACAddress, String>();
         portToMac = new ConcurrentHashMap<String, MACAddress>();
         macToGateway = new ConcurrentHashMap<MACAddress, Integer>();
+        index = new VirtualNetworkIndex();
     }
 
     @Override
     public void startUp(FloodlightModuleContext context) {
+        indexUpdateTask = new SingletonTask(threadPool.getScheduledExecutor(),
+                                            new Runnable() {
+            @Override
+            public void run() {
+                rebuildIndex();
+            }
+        });
         floodlightProvider.addOFMessageListener(OFType.PACKET_IN, this);
         restApi.addRestletRoutable(new VirtualNetworkWebRoutable());
         deviceService.addListener(this);
@@ -332,25 +393,12 @@ public class VirtualNetworkFilter
     
     /**
      * Checks whether the frame is destined to or from a gateway.
-     * @param frame The ethernet frame to check.
+     * @param pm The header fields of the frame to check.
      * @return True if it is to/from a gateway, false otherwise.
      */
-    protected boolean isDefaultGateway(Ethernet frame) {
-    	if (macToGateway.containsKey(frame.getSourceMAC()))
-    		return true;
-    	
-    	Integer gwIp = macToGateway.get(frame.getDestinationMAC());
-    	if (gwIp != null) {
-    		MACAddress host = frame.getSourceMAC();
-    		String srcNet = macToGuid.get(host);
-    		if (srcNet != null) {
-	    		Integer gwIpSrcNet = guidToGateway.get(srcNet);
-	    		if ((gwIpSrcNet != null) && (gwIp.equals(gwIpSrcNet)))
-	    			return true;
-    		}
-    	}
-
-    	return false;
+    protected boolean isDefaultGateway(PacketMetadata pm) {
+        return getIndex().isDefaultGateway(pm.getDataLayerSource(),
+                                      pm.getDataLayerDestination());
     }
     
     /**
@@ -361,26 +409,25 @@ public class VirtualNetworkFilter
      * 		   false otherwise.
      */
     protected boolean oneSameNetwork(MACAddress m1, MACAddress m2) {
-        String net1 = macToGuid.get(m1);
-        String net2 = macToGuid.get(m2);
-        if (net1 == null) return false;
-        if (net2 == null) return false;
-        return net1.equals(net2);
+        return getIndex().onSameNetwork(m1.toLong(), m2.toLong());
     }
     
     /**
-     * Checks to see if an Ethernet frame is a DHCP packet.
-     * @param frame The Ethernet frame.
+     * Checks to see if an Ethernet frame is a DHCP packet, that is a UDP
+     * packet to or from a DHCP port (the same test UDP uses to decode DHCP).
+     * @param pm The header fields of the Ethernet frame.
      * @return True if it is a DHCP frame, false otherwise.
      */
-    protected boolean isDhcpPacket(Ethernet frame) {
-        IPacket payload = frame.getPayload(); // IP
-        if (payload == null) return false;
-        IPacket p2 = payload.getPayload(); // TCP or UDP
-        if (p2 == null) return false;
-        IPacket p3 = p2.getPayload(); // Application
-        if ((p3 != null) && (p3 instanceof DHCP)) return true;
-        return false;
+    protected boolean isDhcpPacket(PacketMetadata pm) {
+        if (pm.getDataLayerType() != Ethernet.TYPE_IPv4 ||
+                pm.getNetworkProtocol() != IPv4.PROTOCOL_UDP)
+            return false;
+        return isDhcpPort(pm.getTransportSource()) ||
+               isDhcpPort(pm.getTransportDestination());
+    }
+
+    private static boolean isDhcpPort(short port) {
+        return port == UDP.DHCP_SERVER_PORT || port == UDP.DHCP_CLIENT_PORT;
     }
     
     /**
@@ -392,26 +439,30 @@ public class VirtualNetworkFilter
      * @return Command.CONTINUE if processing should be continued, Command.STOP otherwise.
      */
     protected Command processPacketIn(IOFSwitch sw, OFPacketIn msg, FloodlightContext cntx) {
-        Ethernet eth = IFloodlightProviderService.bcStore.get(cntx, 
-                                              IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+        PacketMetadata pm = PacketMetadata.fromPacketIn(cntx, msg);
         Command ret = Command.STOP;
-        String srcNetwork = macToGuid.get(eth.getSourceMAC());
+        // Use one snapshot of the configuration for the whole decision
+        VirtualNetworkIndex idx = getIndex();
+        long src = pm.getDataLayerSource();
+        long dst = pm.getDataLayerDestination();
+        int srcNetwork = idx.getNetwork(src);
         // If the host is on an unknown network we deny it.
         // We make exceptions for ARP and DHCP.
-        if (eth.isBroadcast() || eth.isMulticast() || isDefaultGateway(eth) || isDhcpPacket(eth)) {
+        if (pm.isBroadcast() || pm.isMulticast() || idx.isDefaultGateway(src, dst) || isDhcpPacket(pm)) {
         	ret = Command.CONTINUE;
-        } else if (srcNetwork == null) {
+        } else if (srcNetwork == VirtualNetworkIndex.NO_NETWORK) {
             log.trace("Blocking traffic from host {} because it is not attached to any network.",
-                      HexString.toHexString(eth.getSourceMACAddress()));
+                      HexString.toHexString(src, 6));
             ret = Command.STOP;
-        } else if (oneSameNetwork(eth.getSourceMAC(), eth.getDestinationMAC())) {
+        } else if (srcNetwork == idx.getNetwork(dst)) {
             // if they are on the same network continue
             ret = Command.CONTINUE;
         }
         
         if (log.isTraceEnabled())
         	log.trace("Results for flow between {} and {} is {}",
-        			new Object[] {eth.getSourceMAC(), eth.getDestinationMAC(), ret});
+        			new Object[] {HexString.toHexString(src, 6),
+        			              HexString.toHexString(dst, 6), ret});
         /*
          * TODO - figure out how to still detect gateways while using
          * drop mods 
@@ -443,8 +494,7 @@ public class VirtualNetworkFilter
         // Create flow-mod based on packet-in and src-switch
         OFFlowMod fm = 
             (OFFlowMod) floodlightProvider.getOFMessageFactory().getMessage(OFType.FLOW_MOD);
-        OFMatch match = new OFMatch();
-        match.loadFromPacket(pi.getPacketData(), pi.getInPort());
+        OFMatch match = PacketMetadata.fromPacketIn(cntx, pi).toOFMatch();
         List<OFAction> actions = new ArrayList<OFAction>(); // no actions = drop
         long cookie = AppCookie.makeCookie(APP_ID, 0);
         fm.setCookie(cookie)
@@ -471,7 +521,7 @@ public class VirtualNetworkFilter
     // IDeviceListener
     
 	@Override
-	public void deviceAdded(IDevice device) {
+	public synchronized void deviceAdded(IDevice device) {
 		if (device.getIPv4Addresses() == null) return;
 		for (Integer i : device.getIPv4Addresses()) {
 			if (gatewayToGuid.containsKey(i)) {
@@ -480,13 +530,14 @@ public class VirtualNetworkFilter
 					log.debug("Adding MAC {} with IP {} a a gateway",
 							HexString.toHexString(mac.toBytes()),
 							IPv4.fromIPv4Address(i));
-				macToGateway.put(mac, i);
+				if (!i.equals(macToGateway.put(mac, i)))
+					updateIndex();
 			}
 		}
 	}
 
 	@Override
-	public void deviceRemoved(IDevice device) {
+	public synchronized void deviceRemoved(IDevice device) {
 		// if device is a gateway remove
 		MACAddress mac = MACAddress.valueOf(device.getMACAddress());
 		if (macToGateway.containsKey(mac)) {
@@ -494,6 +545,7 @@ public class VirtualNetworkFilter
 				log.debug("Removing MAC {} as a gateway",
 						HexString.toHexString(mac.toBytes()));
 			macToGateway.remove(mac);
+			updateIndex();
 		}
 	}
 
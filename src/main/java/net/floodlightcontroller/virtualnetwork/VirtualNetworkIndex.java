@@ -0,0 +1,162 @@
+package net.floodlightcontroller.virtualnetwork;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import net.floodlightcontroller.util.MACAddress;
+
+/**
+ * An immutable snapshot of virtual network membership used on the
+ * packet-in path.
+ *
+ * Every network is given a compact integer id, and every host and gateway
+ * MAC address is stored as a primitive long in a single open-addressing
+ * table. The table maps each MAC to the id of its network and, for
+ * gateways, to the gateway IP. Checking that two hosts are on the same
+ * network takes two probes and one integer compare.
+ *
+ * VirtualNetworkFilter builds a new index after its configuration
+ * changes.
+ */
+public class VirtualNetworkIndex {
+    /** Network id of MAC addresses that are not on any network */
+    public static final int NO_NETWORK = -1;
+
+    // set in every used key, so that MAC 0 can be told from an empty slot
+    private static final long USED = 1L << 63;
+
+    protected final long[] keys;
+    protected final int[] networks;
+    protected final int[] gatewayIps;
+    protected final boolean[] gateways;
+    protected final int mask;
+
+    // gateway IP of each network id, 0 if it has none
+    protected final int[] networkGateways;
+
+    /**
+     * Build an index. The maps are copied first, so that they are read
+     * once even if they change while the index is built.
+     * @param macToGuid host MAC to network ID
+     * @param guidToGateway network ID to gateway IP
+     * @param macToGateway gateway MAC to gateway IP
+     */
+    public VirtualNetworkIndex(Map<MACAddress, String> macToGuid,
+                               Map<String, Integer> guidToGateway,
+                               Map<MACAddress, Integer> macToGateway) {
+        macToGuid = new HashMap<MACAddress, String>(macToGuid);
+        guidToGateway = new HashMap<String, Integer>(guidToGateway);
+        macToGateway = new HashMap<MACAddress, Integer>(macToGateway);
+
+        Map<String, Integer> ids = new HashMap<String, Integer>();
+        for (String guid : macToGuid.values())
+            idFor(ids, guid);
+        for (String guid : guidToGateway.keySet())
+            idFor(ids, guid);
+        networkGateways = new int[ids.size()];
+        for (Entry<String, Integer> e : guidToGateway.entrySet()) {
+            if (e.getValue() != null)
+                networkGateways[ids.get(e.getKey())] = e.getValue();
+        }
+
+        int n = 4;
+        while (n < (macToGuid.size() + macToGateway.size()) * 2)
+            n <<= 1;
+        keys = new long[n];
+        networks = new int[n];
+        gatewayIps = new int[n];
+        gateways = new boolean[n];
+        mask = n - 1;
+
+        for (Entry<MACAddress, String> e : macToGuid.entrySet()) {
+            int i = insert(e.getKey().toLong());
+            networks[i] = ids.get(e.getValue());
+        }
+        for (Entry<MACAddress, Integer> e : macToGateway.entrySet()) {
+            int i = insert(e.getKey().toLong());
+            gateways[i] = true;
+            gatewayIps[i] = e.getValue();
+        }
+    }
+
+    /**
+     * Build an empty index
+     */
+    public VirtualNetworkIndex() {
+        this(new HashMap<MACAddress, String>(),
+             new HashMap<String, Integer>(),
+             new HashMap<MACAddress, Integer>());
+    }
+
+    private static void idFor(Map<String, Integer> ids, String guid) {
+        if (!ids.containsKey(guid))
+            ids.put(guid, ids.size());
+    }
+
+    private int insert(long mac) {
+        long key = mac | USED;
+        int i = slot(key);
+        while (keys[i] != 0) {
+            if (keys[i] == key) return i;
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        networks[i] = NO_NETWORK;
+        return i;
+    }
+
+    private int indexOf(long mac) {
+        long key = mac | USED;
+        int i = slot(key);
+        while (keys[i] != 0) {
+            if (keys[i] == key) return i;
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int slot(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        return (int) k & mask;
+    }
+
+    /**
+     * Get the network of a host
+     * @param mac the MAC address of the host
+     * @return the network id, or NO_NETWORK
+     */
+    public int getNetwork(long mac) {
+        int i = indexOf(mac);
+        return (i < 0) ? NO_NETWORK : networks[i];
+    }
+
+    /**
+     * Check whether two hosts are on the same virtual network
+     * @return true if both hosts are on a network and it is the same one
+     */
+    public boolean onSameNetwork(long mac1, long mac2) {
+        int net1 = getNetwork(mac1);
+        return net1 != NO_NETWORK && net1 == getNetwork(mac2);
+    }
+
+    /**
+     * Check whether a frame is from a gateway, or to the gateway of the
+     * sender's network
+     * @param src the source MAC address
+     * @param dst the destination MAC address
+     * @return true if it is to/from a gateway, false otherwise
+     */
+    public boolean isDefaultGateway(long src, long dst) {
+        int i = indexOf(src);
+        if (i >= 0 && gateways[i]) return true;
+
+        int j = indexOf(dst);
+        if (j < 0 || !gateways[j]) return false;
+        if (i < 0 || networks[i] == NO_NETWORK) return false;
+        int gwIp = networkGateways[networks[i]];
+        return gwIp != 0 && gwIp == gatewayIps[j];
+    }
+}
@@ -0,0 +1,71 @@
+/**
+*    Copyright 2011, Big Switch Networks, Inc.
+*    Originally created by David Erickson, Stanford University
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.core;
+
+import static org.junit.Assert.*;
+
+import net.floodlightcontroller.packet.Data;
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.UDP;
+
+import org.junit.Test;
+
+public class PacketInPayloadStoreTest {
+
+    @Test
+    public void testLazyPayload() {
+        Ethernet packet = (Ethernet) new Ethernet()
+            .setDestinationMACAddress("00:11:22:33:44:55")
+            .setSourceMACAddress("00:44:33:22:11:00")
+            .setEtherType(Ethernet.TYPE_IPv4)
+            .setPayload(
+                new IPv4()
+                .setTtl((byte) 128)
+                .setSourceAddress("192.168.1.1")
+                .setDestinationAddress("192.168.1.2")
+                .setPayload(new UDP()
+                            .setSourcePort((short) 5000)
+                            .setDestinationPort((short) 5001)
+                            .setPayload(new Data(new byte[] {0x01}))));
+        byte[] data = packet.serialize();
+
+        PacketInPayloadStore store = new PacketInPayloadStore();
+        FloodlightContext cntx = new FloodlightContext();
+        assertNull(store.get(cntx,
+                             IFloodlightProviderService.CONTEXT_PI_PAYLOAD));
+
+        store.putPacketData(cntx, data);
+        assertFalse(cntx.getStorage().containsKey(
+                IFloodlightProviderService.CONTEXT_PI_PAYLOAD));
+        Ethernet eth = store.get(cntx,
+                                 IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+        assertEquals(packet, eth);
+        // deserialized once and shared
+        assertSame(eth, store.get(cntx,
+                IFloodlightProviderService.CONTEXT_PI_PAYLOAD));
+        assertNull(store.get(cntx, "other"));
+
+        // a payload stored explicitly is returned as is
+        FloodlightContext cntx2 = new FloodlightContext();
+        store.putPacketData(cntx2, data);
+        store.put(cntx2, IFloodlightProviderService.CONTEXT_PI_PAYLOAD, packet);
+        assertSame(packet, store.get(cntx2,
+                IFloodlightProviderService.CONTEXT_PI_PAYLOAD));
+    }
+}
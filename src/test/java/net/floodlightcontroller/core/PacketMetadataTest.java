@@ -0,0 +1,189 @@
+/**
+*    Copyright 2011, Big Switch Networks, Inc.
+*    Originally created by David Erickson, Stanford University
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.core;
+
+import static org.junit.Assert.*;
+
+import net.floodlightcontroller.packet.ARP;
+import net.floodlightcontroller.packet.Data;
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.ICMP;
+import net.floodlightcontroller.packet.IPacket;
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.TCP;
+import net.floodlightcontroller.packet.UDP;
+
+import org.junit.Test;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFPacketIn;
+import org.openflow.protocol.OFPort;
+import org.openflow.protocol.OFType;
+import org.openflow.protocol.factory.BasicFactory;
+
+public class PacketMetadataTest {
+
+    protected Ethernet makeIPv4(IPacket transport, byte protocol) {
+        return (Ethernet) new Ethernet()
+            .setDestinationMACAddress("00:11:22:33:44:55")
+            .setSourceMACAddress("00:44:33:22:11:00")
+            .setEtherType(Ethernet.TYPE_IPv4)
+            .setPayload(
+                new IPv4()
+                .setTtl((byte) 128)
+                .setDiffServ((byte) 0xb8)
+                .setProtocol(protocol)
+                .setSourceAddress("192.168.1.1")
+                .setDestinationAddress("192.168.1.2")
+                .setPayload(transport));
+    }
+
+    protected Ethernet makeArp(short opCode) {
+        return (Ethernet) new Ethernet()
+            .setSourceMACAddress("00:44:33:22:11:00")
+            .setDestinationMACAddress("ff:ff:ff:ff:ff:ff")
+            .setEtherType(Ethernet.TYPE_ARP)
+            .setPayload(
+                new ARP()
+                .setHardwareType(ARP.HW_TYPE_ETHERNET)
+                .setProtocolType(ARP.PROTO_TYPE_IP)
+                .setHardwareAddressLength((byte) 6)
+                .setProtocolAddressLength((byte) 4)
+                .setOpCode(opCode)
+                .setSenderHardwareAddress(Ethernet.toMACAddress("00:44:33:22:11:00"))
+                .setSenderProtocolAddress(IPv4.toIPv4AddressBytes("192.168.1.1"))
+                .setTargetHardwareAddress(Ethernet.toMACAddress("00:00:00:00:00:00"))
+                .setTargetProtocolAddress(IPv4.toIPv4AddressBytes("192.168.1.2")));
+    }
+
+    /**
+     * Check that the metadata gives the same match as OFMatch
+     */
+    protected PacketMetadata checkMatch(Ethernet eth, short inPort) {
+        byte[] data = eth.serialize();
+        OFMatch expected = new OFMatch().loadFromPacket(data, inPort);
+        PacketMetadata pm = new PacketMetadata().loadFromPacket(data, inPort);
+        assertEquals(expected, pm.toOFMatch());
+        assertEquals(Ethernet.toLong(expected.getDataLayerSource()),
+                     pm.getDataLayerSource());
+        assertEquals(Ethernet.toLong(expected.getDataLayerDestination()),
+                     pm.getDataLayerDestination());
+        assertEquals(eth.isBroadcast(), pm.isBroadcast());
+        assertEquals(eth.isMulticast(), pm.isMulticast());
+        return pm;
+    }
+
+    @Test
+    public void testIPv4() {
+        Ethernet tcp = makeIPv4(new TCP()
+                                .setSourcePort((short) 5000)
+                                .setDestinationPort((short) 80)
+                                .setPayload(new Data(new byte[] {0x01})),
+                                IPv4.PROTOCOL_TCP);
+        PacketMetadata pm = checkMatch(tcp, (short) 1);
+        assertEquals(Ethernet.TYPE_IPv4, pm.getDataLayerType());
+        assertEquals(IPv4.PROTOCOL_TCP, pm.getNetworkProtocol());
+        assertEquals(IPv4.toIPv4Address("192.168.1.1"), pm.getNetworkSource());
+        assertEquals(IPv4.toIPv4Address("192.168.1.2"),
+                     pm.getNetworkDestination());
+        assertEquals(0xb8 >> 2, pm.getNetworkTypeOfService());
+        assertEquals(5000, pm.getTransportSource());
+        assertEquals(80, pm.getTransportDestination());
+        assertEquals(Ethernet.VLAN_UNTAGGED, pm.getDataLayerVirtualLan());
+
+        // ports above 32767 are negative as shorts, like in OFMatch
+        checkMatch(makeIPv4(new UDP()
+                            .setSourcePort((short) 40000)
+                            .setDestinationPort((short) 53)
+                            .setPayload(new Data(new byte[] {0x01})),
+                            IPv4.PROTOCOL_UDP), (short) -3);
+        checkMatch(makeIPv4(new ICMP()
+                            .setIcmpType((byte) 8)
+                            .setIcmpCode((byte) 0)
+                            .setPayload(new Data(new byte[] {0x01})),
+                            IPv4.PROTOCOL_ICMP), (short) 2);
+        checkMatch(makeIPv4(new Data(new byte[] {1, 2, 3, 4}), (byte) 0x2f),
+                   OFPort.OFPP_ALL.getValue());
+    }
+
+    @Test
+    public void testVlan() {
+        Ethernet eth = makeIPv4(new UDP()
+                                .setSourcePort((short) 68)
+                                .setDestinationPort((short) 67)
+                                .setPayload(new Data(new byte[] {0x01})),
+                                IPv4.PROTOCOL_UDP);
+        eth.setVlanID((short) 42);
+        eth.setPriorityCode((byte) 5);
+        PacketMetadata pm = checkMatch(eth, (short) 1);
+        assertEquals(42, pm.getDataLayerVirtualLan());
+        assertEquals(5, pm.getDataLayerVirtualLanPriorityCodePoint());
+        assertEquals(Ethernet.TYPE_IPv4, pm.getDataLayerType());
+        assertEquals(68, pm.getTransportSource());
+    }
+
+    @Test
+    public void testArpAndOther() {
+        PacketMetadata pm = checkMatch(makeArp(ARP.OP_REQUEST), (short) 1);
+        assertTrue(pm.isBroadcast());
+        assertEquals(Ethernet.TYPE_ARP, pm.getDataLayerType());
+        assertEquals(IPv4.toIPv4Address("192.168.1.1"), pm.getNetworkSource());
+        checkMatch(makeArp(ARP.OP_REPLY), (short) 1);
+
+        Ethernet other = (Ethernet) new Ethernet()
+            .setDestinationMACAddress("01:80:c2:00:00:0e")
+            .setSourceMACAddress("00:44:33:22:11:00")
+            .setEtherType(Ethernet.TYPE_LLDP)
+            .setPayload(new Data(new byte[] {1, 2, 3, 4, 5, 6}));
+        pm = checkMatch(other, (short) 1);
+        assertTrue(pm.isMulticast());
+        assertEquals(0, pm.getNetworkProtocol());
+        assertEquals(0, pm.getTransportSource());
+    }
+
+    @Test
+    public void testTruncated() {
+        byte[] data = makeIPv4(new TCP().setPayload(new Data(new byte[0])),
+                               IPv4.PROTOCOL_TCP).serialize();
+        byte[] truncated = new byte[30];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        try {
+            new PacketMetadata().loadFromPacket(truncated, (short) 1);
+            fail("Expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFromPacketIn() {
+        byte[] data = makeArp(ARP.OP_REQUEST).serialize();
+        OFPacketIn pi = ((OFPacketIn) new BasicFactory()
+                .getMessage(OFType.PACKET_IN))
+                .setInPort((short) 3)
+                .setPacketData(data);
+
+        // parsed once and kept in the context
+        FloodlightContext cntx = new FloodlightContext();
+        PacketMetadata pm = PacketMetadata.fromPacketIn(cntx, pi);
+        assertEquals(3, pm.getInputPort());
+        assertSame(pm, IFloodlightProviderService.pmStore.get(cntx,
+                IFloodlightProviderService.CONTEXT_PI_METADATA));
+        assertSame(pm, PacketMetadata.fromPacketIn(cntx, pi));
+        assertNotNull(PacketMetadata.fromPacketIn(null, pi));
+    }
+}
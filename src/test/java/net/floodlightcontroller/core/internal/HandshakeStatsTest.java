@@ -0,0 +1,65 @@
+/**
+*    Copyright 2011, Big Switch Networks, Inc.
+*    Originally created by David Erickson, Stanford University
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.core.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class HandshakeStatsTest {
+
+    protected static long ms(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Test
+    public void testBurst() {
+        HandshakeStats stats = new HandshakeStats();
+
+        // Three switches connect, one of them disconnects
+        stats.handshakeStarted(ms(1000));
+        stats.handshakeStarted(ms(1010));
+        stats.handshakeStarted(ms(1020));
+        assertEquals(3, stats.getPending());
+        stats.handshakeFinished(ms(1010), ms(1100), true);
+        stats.handshakeFinished(ms(1020), ms(1150), false);
+        assertEquals(1, stats.getPending());
+        assertEquals(0, stats.getLastBurstCompleted());
+
+        // The burst ends with the last handshake
+        stats.handshakeFinished(ms(1000), ms(1300), true);
+        assertEquals(0, stats.getPending());
+        assertEquals(300, stats.getLastBurstTime());
+        assertEquals(2, stats.getLastBurstCompleted());
+        assertEquals(300, stats.getLastBurstMaxTime());
+
+        // A new burst starts from scratch
+        stats.handshakeStarted(ms(5000));
+        stats.handshakeFinished(ms(5000), ms(5020), true);
+        assertEquals(20, stats.getLastBurstTime());
+        assertEquals(1, stats.getLastBurstCompleted());
+        assertEquals(20, stats.getLastBurstMaxTime());
+
+        // Extra finishes are ignored
+        stats.handshakeFinished(ms(5000), ms(6000), true);
+        assertEquals(0, stats.getPending());
+        assertEquals(1, stats.getLastBurstCompleted());
+    }
+}
@@ -37,6 +37,7 @@ import net.floodlightcontroller.core.IOFMessageListener;
 import net.floodlightcontroller.core.IOFSwitch;
 import net.floodlightcontroller.core.IOFSwitchFilter;
 import net.floodlightcontroller.core.IOFSwitchListener;
+import net.floodlightcontroller.core.PacketMetadata;
 import net.floodlightcontroller.core.IListener.Command;
 import net.floodlightcontroller.core.module.FloodlightModuleContext;
 import net.floodlightcontroller.core.module.FloodlightModuleException;
@@ -150,6 +151,7 @@ public class MockFloodlightProvider implements IFloodlightModule, IFloodlightPro
                 IFloodlightProviderService.bcStore.put(bc, 
                         IFloodlightProviderService.CONTEXT_PI_PAYLOAD, 
                         eth);
+                PacketMetadata.fromPacketIn(bc, pi);
             }
             while (it.hasNext() && !Command.STOP.equals(result)) {
                 result = it.next().receive(sw, msg, bc);
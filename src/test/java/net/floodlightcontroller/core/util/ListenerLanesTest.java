@@ -0,0 +1,181 @@
+/**
+*    Copyright 2011, Big Switch Networks, Inc.
+*    Originally created by David Erickson, Stanford University
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.core.util;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ListenerLanesTest {
+    protected ListenerLanes<String> lanes;
+
+    @Before
+    public void setUp() {
+        lanes = new ListenerLanes<String>(Executors.newCachedThreadPool());
+    }
+
+    @After
+    public void tearDown() {
+        lanes.shutdown();
+    }
+
+    /**
+     * A call that records its number, and waits for a latch first
+     */
+    protected static class BlockingCall implements Runnable {
+        final int n;
+        final CountDownLatch release;
+        final List<Integer> calls;
+        final CountDownLatch done;
+
+        BlockingCall(int n, CountDownLatch release, List<Integer> calls,
+                     CountDownLatch done) {
+            this.n = n;
+            this.release = release;
+            this.calls = calls;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+            calls.add(n);
+            done.countDown();
+        }
+    }
+
+    @Test
+    public void testSlowListener() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch slowDone = new CountDownLatch(3);
+        final CountDownLatch fastDone = new CountDownLatch(3);
+        final CountDownLatch fastBlocked = new CountDownLatch(1);
+        final List<Integer> slowCalls =
+                Collections.synchronizedList(new ArrayList<Integer>());
+
+        for (int i = 0; i < 3; i++) {
+            lanes.execute("slow", "slow",
+                          new BlockingCall(i, release, slowCalls, slowDone));
+            lanes.execute("fast", "fast", new Runnable() {
+                @Override
+                public void run() {
+                    fastDone.countDown();
+                }
+            });
+        }
+        // keeps one call in the fast lane until the depths are checked
+        lanes.execute("fast", "fast", new Runnable() {
+            @Override
+            public void run() {
+                fastBlocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+
+        // The fast listener doesn't wait for the slow one
+        assertTrue(fastDone.await(5, TimeUnit.SECONDS));
+        assertTrue(fastBlocked.await(5, TimeUnit.SECONDS));
+        assertEquals(3, lanes.getQueueDepths().get("slow").intValue());
+        assertEquals(3, lanes.getMaxQueueDepths().get("slow").intValue());
+        assertEquals(1, lanes.getQueueDepths().get("fast").intValue());
+        assertEquals(4, lanes.getTotalQueueDepth());
+
+        // The slow listener gets its calls in order
+        release.countDown();
+        assertTrue(slowDone.await(5, TimeUnit.SECONDS));
+        assertEquals(0, slowCalls.get(0).intValue());
+        assertEquals(1, slowCalls.get(1).intValue());
+        assertEquals(2, slowCalls.get(2).intValue());
+    }
+
+    @Test
+    public void testException() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(2);
+        final List<Integer> calls =
+                Collections.synchronizedList(new ArrayList<Integer>());
+        lanes.execute("listener", "listener",
+                      new BlockingCall(0, release, calls, done));
+        lanes.execute("listener", "listener", new Runnable() {
+            @Override
+            public void run() {
+                throw new RuntimeException("test");
+            }
+        });
+        lanes.execute("listener", "listener",
+                      new BlockingCall(2, release, calls, done));
+        assertEquals(3, lanes.getMaxQueueDepths().get("listener").intValue());
+
+        // A call that fails doesn't stop the lane
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(2, calls.get(1).intValue());
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(2);
+        final List<Integer> calls =
+                Collections.synchronizedList(new ArrayList<Integer>());
+
+        // The calls queued before a listener is removed are made before
+        // the calls queued after it is added again
+        lanes.execute("listener", "listener",
+                      new BlockingCall(0, release, calls, done));
+        lanes.remove("listener");
+        lanes.execute("listener", "listener",
+                      new BlockingCall(1, new CountDownLatch(0), calls, done));
+        assertEquals(2, lanes.getQueueDepths().get("listener").intValue());
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(0, calls.get(0).intValue());
+        assertEquals(1, calls.get(1).intValue());
+
+        // A lane is dropped once its calls are made, and an idle lane
+        // right away
+        lanes.execute("idle", "idle", new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        lanes.shutdown();
+        assertTrue(lanes.executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertFalse(lanes.getQueueDepths().containsKey("listener"));
+        assertTrue(lanes.getQueueDepths().containsKey("idle"));
+        lanes.remove("idle");
+        assertFalse(lanes.getQueueDepths().containsKey("idle"));
+    }
+}
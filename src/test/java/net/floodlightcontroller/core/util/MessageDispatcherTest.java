@@ -150,4 +150,64 @@ public class MessageDispatcherTest extends FloodlightTestCase {
         }
         randomTestOrdering(mocks);
     }
+
+    @Test
+    public void testFilteredListeners() throws Exception {
+        ArrayList<IOFMessageListener> mocks = 
+                new ArrayList<IOFMessageListener>();
+        for (int i = 0; i < 4; i++) {
+            mocks.add(createLMock(""+i));
+        }
+        for (int i = 1; i < 4; i++) {
+            addPrereqs(mocks.get(i), ""+(i-1));
+        }
+        for (IOFMessageListener l : mocks) {
+            replay(l);
+        }
+        
+        ListenerDispatcher<OFType, IOFMessageListener> ld = 
+                new ListenerDispatcher<OFType, IOFMessageListener>();
+        assertNull(ld.getOrderedListeners());
+        final int[] calls = new int[1];
+        ListenerDispatcher.IListenerFilter<Integer, IOFMessageListener> filter =
+            new ListenerDispatcher.IListenerFilter<Integer, IOFMessageListener>() {
+                @Override
+                public boolean isInterested(IOFMessageListener listener,
+                                            Integer key) {
+                    calls[0]++;
+                    // key 0 takes all listeners, key n all but listener n
+                    return !listener.getName().equals(key.toString());
+                }
+            };
+        assertNull(ld.getOrderedListeners(0, filter));
+        for (IOFMessageListener l : mocks) {
+            ld.addListener(OFType.PACKET_IN, l);
+        }
+        
+        List<IOFMessageListener> all = ld.getOrderedListeners();
+        assertSame(all, ld.getOrderedListeners(0, filter));
+        List<IOFMessageListener> view = ld.getOrderedListeners(2, filter);
+        assertEquals(3, view.size());
+        assertSame(mocks.get(1), view.get(1));
+        assertSame(mocks.get(3), view.get(2));
+        
+        // views are cached
+        int before = calls[0];
+        assertSame(view, ld.getOrderedListeners(2, filter));
+        assertEquals(before, calls[0]);
+        ld.removeFilteredListeners(2);
+        assertNotSame(view, ld.getOrderedListeners(2, filter));
+        assertTrue(calls[0] > before);
+        
+        // and recomputed when the listeners change
+        ld.removeListener(mocks.get(3));
+        view = ld.getOrderedListeners(2, filter);
+        assertEquals(2, view.size());
+        try {
+            view.add(mocks.get(2));
+            fail("Expected the view to be immutable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
 }
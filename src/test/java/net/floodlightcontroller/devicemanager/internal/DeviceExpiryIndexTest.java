@@ -0,0 +1,88 @@
+/**
+*    Copyright 2012 Big Switch Networks, Inc.
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.devicemanager.internal;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import junit.framework.TestCase;
+
+public class DeviceExpiryIndexTest extends TestCase {
+
+    @Test
+    public void testPollExpired() {
+        DeviceExpiryIndex idx = new DeviceExpiryIndex(1000);
+        idx.schedule(1L, 2500);
+        idx.schedule(2L, 3500);
+        idx.schedule(3L, 1500);
+        assertEquals(3, idx.size());
+
+        // nothing is due before the first slot
+        assertEquals(Collections.<Long>emptyList(), idx.pollExpired(999, 10));
+
+        // oldest slot first
+        List<Long> due = idx.pollExpired(2999, 10);
+        assertEquals(Arrays.asList(3L, 1L), due);
+        assertEquals(1, idx.size());
+
+        due = idx.pollExpired(5000, 10);
+        assertEquals(Arrays.asList(2L), due);
+        assertEquals(0, idx.size());
+    }
+
+    @Test
+    public void testScheduleKeepsEarliest() {
+        DeviceExpiryIndex idx = new DeviceExpiryIndex(1000);
+        idx.schedule(1L, 5500);
+        // a later expiry does not move the device
+        idx.schedule(1L, 9500);
+        assertEquals(Collections.<Long>emptyList(), idx.pollExpired(4999, 10));
+
+        idx.schedule(2L, 7500);
+        // an earlier one does
+        idx.schedule(2L, 6500);
+        assertEquals(2, idx.size());
+        assertEquals(Arrays.asList(1L, 2L), idx.pollExpired(6999, 10));
+        assertEquals(0, idx.size());
+    }
+
+    @Test
+    public void testBatchLimitAndLateSchedule() {
+        DeviceExpiryIndex idx = new DeviceExpiryIndex(1000);
+        for (long i = 0; i < 5; i++)
+            idx.schedule(i, 100);
+
+        assertEquals(Arrays.asList(0L, 1L), idx.pollExpired(999, 2));
+        // a device scheduled into an already polled slot is deferred
+        idx.schedule(7L, 200);
+        assertEquals(Arrays.asList(2L, 3L, 4L), idx.pollExpired(999, 10));
+        assertEquals(Arrays.asList(7L), idx.pollExpired(1999, 10));
+    }
+
+    @Test
+    public void testRemove() {
+        DeviceExpiryIndex idx = new DeviceExpiryIndex(1000);
+        idx.schedule(1L, 100);
+        idx.schedule(2L, 100);
+        idx.remove(1L);
+        assertEquals(Arrays.asList(2L), idx.pollExpired(999, 10));
+        idx.remove(2L);
+        assertEquals(0, idx.size());
+    }
+}
@@ -27,8 +27,11 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import static org.easymock.EasyMock.expectLastCall;
@@ -50,6 +53,9 @@ import net.floodlightcontroller.devicemanager.test.MockEntityClassifierMac;
 import net.floodlightcontroller.devicemanager.test.MockFlexEntityClassifier;
 import net.floodlightcontroller.flowcache.FlowReconcileManager;
 import net.floodlightcontroller.flowcache.IFlowReconcileService;
+import net.floodlightcontroller.linkdiscovery.ILinkDiscovery.LDUpdate;
+import net.floodlightcontroller.linkdiscovery.ILinkDiscovery.LinkType;
+import net.floodlightcontroller.linkdiscovery.ILinkDiscovery.UpdateOperation;
 import net.floodlightcontroller.packet.ARP;
 import net.floodlightcontroller.packet.Ethernet;
 import net.floodlightcontroller.packet.IPacket;
@@ -967,8 +973,12 @@ public class DeviceManagerImplTest extends FloodlightTestCase {
                             curEntities[i].vlan = (short)((e.vlan + 1 % 4095)+1);
                         i++;
                     }
-                    Device newDevice = new Device(d, curEntities[0]);
-                    newDevice.entities = curEntities;
+                    Device newDevice = new Device(d.deviceManager,
+                                                  d.getDeviceKey(),
+                                                  d.oldAPs,
+                                                  d.attachmentPoints,
+                                                  Arrays.asList(curEntities),
+                                                  d.getEntityClass());
                     assertEquals(false, newDevice.equals(d));
                     super.put(newDevice.getDeviceKey(), newDevice);
                 }
@@ -1273,6 +1283,49 @@ public class DeviceManagerImplTest extends FloodlightTestCase {
         doTestDeviceQuery();
     }
 
+    @Test
+    public void testTopologyChangedSwitches() throws Exception {
+        ITopologyService mockTopology = createMock(ITopologyService.class);
+        deviceManager.topology = mockTopology;
+        expect(mockTopology.isAttachmentPointPort(anyLong(),
+                                                  anyShort())).
+                                                  andReturn(true).anyTimes();
+        expect(mockTopology.getL2DomainId(EasyMock.anyLong())).andReturn(1L).anyTimes();
+        replay(mockTopology);
+
+        Entity entity1 = new Entity(1L, null, null, 1L, 1, new Date());
+        Entity entity2 = new Entity(2L, null, null, 5L, 1, new Date());
+        Device d1 = deviceManager.learnDeviceByEntity(entity1);
+        Device d2 = deviceManager.learnDeviceByEntity(entity2);
+
+        assertTrue(deviceManager.switchDeviceIndex.get(1L).
+                   contains(d1.getDeviceKey()));
+        assertTrue(deviceManager.switchDeviceIndex.get(5L).
+                   contains(d2.getDeviceKey()));
+
+        List<LDUpdate> updates = new ArrayList<LDUpdate>();
+        updates.add(new LDUpdate(1L, (short)2, 2L, (short)1,
+                                 LinkType.DIRECT_LINK,
+                                 UpdateOperation.LINK_UPDATED));
+
+        // the first change sees every indexed switch as a domain change
+        Set<Long> switches =
+                deviceManager.getTopologyChangedSwitches(updates);
+        assertEquals(new HashSet<Long>(Arrays.asList(1L, 2L, 5L)), switches);
+
+        // afterwards only the link endpoints are affected
+        switches = deviceManager.getTopologyChangedSwitches(updates);
+        assertEquals(new HashSet<Long>(Arrays.asList(1L, 2L)), switches);
+
+        // no updates means we cannot narrow down the change
+        assertNull(deviceManager.getTopologyChangedSwitches(
+                new ArrayList<LDUpdate>()));
+
+        deviceManager.deleteDevice(d2);
+        assertFalse(deviceManager.switchDeviceIndex.get(5L).
+                    contains(d2.getDeviceKey()));
+    }
+
     @Test
     public void testDeviceQuery() throws Exception {
         ITopologyService mockTopology = createMock(ITopologyService.class);
@@ -1533,13 +1586,13 @@ public class DeviceManagerImplTest extends FloodlightTestCase {
         // More than one entity
         Entity e2b = new Entity(2L, (short)2, null, 2L, 2, new Date(3000));
         d2 = deviceManager.learnDeviceByEntity(e2b);
-        assertEquals(2, d2.entities.length);
+        assertEquals(2, d2.getEntityCount());
         assertArrayEquals(new Integer[] { 2 }, d2.getIPv4Addresses());
         // and now add an entity with an IP
         Entity e2c = new Entity(2L, (short)2, 2, 2L, 3, new Date(3000));
         d2 = deviceManager.learnDeviceByEntity(e2c);
         assertArrayEquals(new Integer[] { 2 }, d2.getIPv4Addresses());
-        assertEquals(3, d2.entities.length);
+        assertEquals(3, d2.getEntityCount());
         
         // Other devices with different IPs shouldn't interfere
         Entity e3 = new Entity(3L, (short)3, 3, null, null, new Date(4000));
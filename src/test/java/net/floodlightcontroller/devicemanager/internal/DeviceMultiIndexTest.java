@@ -0,0 +1,146 @@
+/**
+*    Copyright 2012 Big Switch Networks, Inc.
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.devicemanager.internal;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.junit.Test;
+import net.floodlightcontroller.devicemanager.IDeviceService.DeviceField;
+import junit.framework.TestCase;
+
+public class DeviceMultiIndexTest extends TestCase {
+
+    protected Set<Long> toSet(Iterator<Long> it) {
+        Set<Long> keys = new HashSet<Long>();
+        while (it.hasNext())
+            keys.add(it.next());
+        return keys;
+    }
+
+    @Test
+    public void testPackKey() {
+        DeviceMultiIndex idx =
+                new DeviceMultiIndex(EnumSet.of(DeviceField.MAC,
+                                                DeviceField.VLAN));
+        assertTrue(idx.packable);
+
+        Entity e1 = new Entity(1L, (short)5, 10, 1L, 1, 0L);
+        Entity e1same = new Entity(1L, (short)5, null, null, null, 0L);
+        Entity e1noVlan = new Entity(1L, null, 10, 1L, 1, 0L);
+        Entity e1vlan0 = new Entity(1L, (short)0, 10, 1L, 1, 0L);
+        assertEquals(idx.packKey(e1), idx.packKey(e1same));
+        // a null VLAN and VLAN 0 are different keys
+        assertFalse(idx.packKey(e1noVlan) == idx.packKey(e1vlan0));
+        assertFalse(idx.packKey(e1) == idx.packKey(e1vlan0));
+
+        // values that don't fit in their bits can't be packed
+        assertEquals(DeviceIndex.UNPACKABLE,
+                     idx.packKey(new Entity(1L << 48, (short)5, null,
+                                            null, null, 0L)));
+        assertEquals(DeviceIndex.UNPACKABLE,
+                     idx.packKey(new Entity(1L, (short)-1, null,
+                                            null, null, 0L)));
+
+        // IPv4 0 and a null IPv4 are different keys
+        DeviceMultiIndex ipIdx =
+                new DeviceMultiIndex(EnumSet.of(DeviceField.IPV4));
+        assertFalse(ipIdx.packKey(new Entity(1L, null, 0, null, null, 0L)) ==
+                    ipIdx.packKey(new Entity(1L, null, null, null, null, 0L)));
+        assertEquals(ipIdx.packKey(new Entity(1L, null, -1, null, null, 0L)),
+                     ipIdx.packKey(new Entity(2L, null, -1, 4L, 4, 0L)));
+
+        // too many bits, or a switch field, is never packable
+        DeviceMultiIndex wide =
+                new DeviceMultiIndex(EnumSet.of(DeviceField.MAC,
+                                                DeviceField.VLAN,
+                                                DeviceField.IPV4));
+        assertFalse(wide.packable);
+        assertEquals(DeviceIndex.UNPACKABLE, wide.packKey(e1));
+        DeviceMultiIndex sw =
+                new DeviceMultiIndex(EnumSet.of(DeviceField.SWITCH));
+        assertFalse(sw.packable);
+        assertEquals(DeviceIndex.UNPACKABLE, sw.packKey(e1));
+    }
+
+    @Test
+    public void testPackedAndUnpacked() {
+        DeviceMultiIndex idx =
+                new DeviceMultiIndex(EnumSet.of(DeviceField.MAC,
+                                                DeviceField.VLAN));
+        // e1 and e2 are packed, e3 has a VLAN that can't be packed
+        Entity e1 = new Entity(1L, (short)1, null, null, null, 0L);
+        Entity e2 = new Entity(2L, (short)1, null, null, null, 0L);
+        Entity e3 = new Entity(3L, (short)-2, null, null, null, 0L);
+        assertEquals(DeviceIndex.UNPACKABLE, idx.packKey(e3));
+
+        idx.updateIndex(e1, 1L);
+        idx.updateIndex(e1, 11L);
+        idx.updateIndex(e2, 2L);
+        idx.updateIndex(e3, 3L);
+        assertEquals(new HashSet<Long>(Arrays.asList(1L, 11L, 2L, 3L)),
+                     toSet(idx.getAll()));
+        assertEquals(new HashSet<Long>(Arrays.asList(1L, 11L)),
+                     toSet(idx.queryByEntity(e1)));
+        assertEquals(Collections.singleton(3L),
+                     toSet(idx.queryByEntity(e3)));
+
+        idx.removeEntity(e1, 11L);
+        assertEquals(Collections.singleton(1L),
+                     toSet(idx.queryByEntity(e1)));
+        idx.removeEntity(e3, 3L);
+        assertTrue(idx.findKeysByEntity(e3).isEmpty());
+
+        idx.removeEntity(e1);
+        idx.removeEntity(e3);
+        assertFalse(idx.queryByEntity(e1).hasNext());
+        assertEquals(Collections.singleton(2L), toSet(idx.getAll()));
+
+        // an unpackable index uses the unpacked path only
+        DeviceMultiIndex wide =
+                new DeviceMultiIndex(EnumSet.of(DeviceField.MAC,
+                                                DeviceField.VLAN,
+                                                DeviceField.IPV4));
+        wide.updateIndex(e1, 1L);
+        wide.updateIndex(e2, 2L);
+        assertEquals(new HashSet<Long>(Arrays.asList(1L, 2L)),
+                     toSet(wide.getAll()));
+        wide.removeEntity(e2);
+        assertEquals(Collections.singleton(1L), toSet(wide.getAll()));
+    }
+
+    @Test
+    public void testRemoveEntityIfNeeded() {
+        DeviceMultiIndex idx =
+                new DeviceMultiIndex(EnumSet.of(DeviceField.MAC,
+                                                DeviceField.IPV4));
+        Entity e1 = new Entity(1L, null, 10, 1L, 1, 0L);
+        Entity e1b = new Entity(1L, (short)3, 10, 2L, 2, 0L);
+        idx.updateIndex(e1, 1L);
+
+        // another entity with the same packed key keeps the mapping
+        idx.removeEntityIfNeeded(e1, 1L, Arrays.asList(e1b));
+        assertEquals(Collections.singleton(1L),
+                     toSet(idx.queryByEntity(e1)));
+        idx.removeEntityIfNeeded(e1, 1L, Collections.<Entity>emptyList());
+        assertFalse(idx.queryByEntity(e1).hasNext());
+    }
+}
@@ -0,0 +1,131 @@
+/**
+*    Copyright 2012 Big Switch Networks, Inc.
+*    Originally created by David Erickson, Stanford University
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.devicemanager.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.floodlightcontroller.devicemanager.IDeviceService.DeviceField;
+import net.floodlightcontroller.packet.IPv4;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class DeviceQueryPlannerTest {
+    protected DeviceIPv4Index ipv4Index;
+    protected DeviceMultiIndex switchIndex;
+    protected List<DeviceIndex> indices;
+
+    protected void learn(long deviceKey, String ipv4, long dpid) {
+        Entity entity = new Entity(deviceKey, null, IPv4.toIPv4Address(ipv4),
+                                   dpid, 1, new Date());
+        for (DeviceIndex index : indices)
+            index.updateIndex(entity, deviceKey);
+    }
+
+    protected static Set<Long> keys(Collection<Long> c) {
+        return new HashSet<Long>(c);
+    }
+
+    protected static Set<Long> keys(long... deviceKeys) {
+        Set<Long> s = new HashSet<Long>();
+        for (long k : deviceKeys)
+            s.add(k);
+        return s;
+    }
+
+    @Before
+    public void setUp() {
+        ipv4Index = new DeviceIPv4Index();
+        switchIndex = new DeviceMultiIndex(EnumSet.of(DeviceField.SWITCH));
+        indices = new ArrayList<DeviceIndex>();
+        indices.add(ipv4Index);
+        indices.add(switchIndex);
+
+        learn(1L, "10.0.0.1", 1L);
+        learn(2L, "10.0.0.2", 2L);
+        learn(3L, "10.0.1.1", 1L);
+        learn(4L, "192.168.0.1", 1L);
+        // a device with two addresses in the same prefix
+        learn(2L, "10.0.0.3", 2L);
+    }
+
+    @Test
+    public void testPrefix() {
+        int net = IPv4.toIPv4Address("10.0.0.0");
+        assertEquals(keys(1L, 2L), keys(ipv4Index.findKeysByPrefix(net, 24)));
+        assertEquals(keys(1L, 2L, 3L),
+                     keys(ipv4Index.findKeysByPrefix(net, 16)));
+        assertEquals(keys(1L, 2L, 3L, 4L),
+                     keys(ipv4Index.findKeysByPrefix(net, 0)));
+        assertEquals(keys(), keys(ipv4Index.findKeysByPrefix(net, 32)));
+        // addresses above 128.0.0.0 sort after the others
+        int high = IPv4.toIPv4Address("192.168.0.0");
+        assertEquals(keys(4L), keys(ipv4Index.findKeysByPrefix(high, 16)));
+        assertEquals(keys(4L), keys(ipv4Index.findKeysByPrefix(high, 1)));
+    }
+
+    @Test
+    public void testSubsetIndices() {
+        // No index on the MAC address, but the switch index can be used
+        EnumSet<DeviceField> keys =
+                EnumSet.of(DeviceField.MAC, DeviceField.SWITCH);
+        Entity entity = new Entity(1L, null, null, 2L, null, null);
+        assertEquals(keys(2L),
+                     keys(DeviceQueryPlanner.query(indices, keys, entity, 32)));
+
+        // No index at all
+        keys = EnumSet.of(DeviceField.MAC);
+        assertNull(DeviceQueryPlanner.query(indices, keys, entity, 32));
+    }
+
+    @Test
+    public void testIntersection() {
+        EnumSet<DeviceField> keys =
+                EnumSet.of(DeviceField.IPV4, DeviceField.SWITCH);
+        Entity entity = new Entity(0L, null, IPv4.toIPv4Address("10.0.0.1"),
+                                   1L, null, null);
+        assertEquals(keys(1L),
+                     keys(DeviceQueryPlanner.query(indices, keys, entity, 32)));
+
+        entity = new Entity(0L, null, IPv4.toIPv4Address("10.0.0.0"),
+                            1L, null, null);
+        assertEquals(keys(1L, 3L),
+                     keys(DeviceQueryPlanner.query(indices, keys, entity, 8)));
+        assertEquals(keys(1L),
+                     keys(DeviceQueryPlanner.query(indices, keys, entity, 24)));
+    }
+
+    @Test
+    public void testRemove() {
+        Entity entity = new Entity(2L, null, IPv4.toIPv4Address("10.0.0.2"),
+                                   2L, 1, null);
+        ipv4Index.removeEntity(entity, 2L);
+        int net = IPv4.toIPv4Address("10.0.0.0");
+        // still there through its other address
+        assertEquals(keys(1L, 2L), keys(ipv4Index.findKeysByPrefix(net, 24)));
+        assertEquals(keys(), keys(ipv4Index.findKeysByEntity(entity)));
+    }
+}
@@ -0,0 +1,110 @@
+/**
+*    Copyright 2012 Big Switch Networks, Inc.
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.devicemanager.internal;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import org.junit.Test;
+import junit.framework.TestCase;
+
+public class DeviceTest extends TestCase {
+
+    @Test
+    public void testMACAddressString() {
+        Entity e1 = new Entity(0x0a0b0c0d0e0fL, (short)1, 1, null, null,
+                               1000L);
+        Device d = new Device(null, 1L, null, null, Arrays.asList(e1), null);
+        assertEquals("0a:0b:0c:0d:0e:0f", d.getMACAddressString());
+        // the string is kept, not formatted on every call
+        assertSame(d.getMACAddressString(), d.getMACAddressString());
+
+        // a device grown from another one shares its string
+        Entity e2 = new Entity(0x0a0b0c0d0e0fL, (short)2, 2, null, null,
+                               2000L);
+        Device d2 = new Device(d, e2);
+        assertSame(d.getMACAddressString(), d2.getMACAddressString());
+        assertEquals(2, d2.getEntities().length);
+    }
+
+    @Test
+    public void testLastSeen() {
+        Entity e1 = new Entity(1L, null, null, null, null, 1000L);
+        Entity e2 = new Entity(1L, (short)2, null, null, null, 3000L);
+        Entity e3 = new Entity(1L, (short)3, null, null, null, (Date)null);
+        Device d = new Device(null, 1L, null, null,
+                              Arrays.asList(e1, e2, e3), null);
+        assertEquals(new Date(3000L), d.getLastSeen());
+
+        Device noTime = new Device(null, 2L, null, null,
+                                   Collections.singletonList(e3), null);
+        assertNull(noTime.getLastSeen());
+    }
+
+    @Test
+    public void testPackedEntities() {
+        Entity e1 = new Entity(1L, null, null, null, null, 1000L);
+        Entity e2 = new Entity(1L, (short)-2, 0xc0a80001, 0xffL, -3, 2000L);
+        Entity e3 = new Entity(1L, (short)4095, null, 5L, 65534, 3000L);
+        Device d = new Device(null, 1L, null, null,
+                              Arrays.asList(e3, e1), null);
+        d = new Device(d, e2);
+
+        // entities come back in sort order with all their fields
+        Entity[] expected = new Entity[] { e1, e2, e3 };
+        Arrays.sort(expected);
+        Entity[] entities = d.getEntities();
+        assertEquals(3, d.getEntityCount());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], entities[i]);
+            assertEquals(expected[i].getLastSeenTime(),
+                         entities[i].getLastSeenTime());
+            assertEquals(expected[i].getActiveSince(),
+                         entities[i].getActiveSince());
+            assertEquals(i, d.entityIndex(expected[i]));
+        }
+        assertTrue(d.entityIndex(
+                new Entity(1L, (short)1, null, null, null, 0L)) < 0);
+        assertEquals(e1.getMacAddress(), d.getMACAddress());
+
+        int i2 = d.entityIndex(e2);
+        assertTrue(d.hasEntitySwitchPort(i2));
+        assertEquals(0xffL, d.getEntitySwitchDPID(i2));
+        assertEquals((short)-3, d.getEntitySwitchPort(i2));
+        assertFalse(d.hasEntitySwitchPort(d.entityIndex(e1)));
+
+        // changing a returned entity does not change the device
+        entities[i2].setLastSeenTime(9000L);
+        assertEquals(2000L, d.getEntityLastSeenTime(i2));
+
+        // a new last seen time within the activity timeout keeps the
+        // active since time, a later one restarts it
+        d.setEntityLastSeenTime(i2, 2000L + Entity.ACTIVITY_TIMEOUT);
+        assertEquals(new Date(2000L), d.getEntity(i2).getActiveSince());
+        long later = 3000L + 2 * Entity.ACTIVITY_TIMEOUT;
+        d.setEntityLastSeenTime(i2, later);
+        assertEquals(new Date(later), d.getEntity(i2).getActiveSince());
+        assertEquals(later, d.getEntity(i2).getLastSeenTime());
+
+        // timestamps are not part of the device identity
+        Device same = new Device(null, 1L, null, null,
+                                 Arrays.asList(e1, e2, e3), null);
+        assertEquals(same, d);
+        assertEquals(same.hashCode(), d.hashCode());
+    }
+}
@@ -18,6 +18,7 @@
 package net.floodlightcontroller.devicemanager.test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.TreeSet;
@@ -57,7 +58,7 @@ public class MockDevice extends Device {
     @Override
     public Integer[] getIPv4Addresses() {
         TreeSet<Integer> vals = new TreeSet<Integer>();
-        for (Entity e : entities) {
+        for (Entity e : getEntities()) {
             if (e.getIpv4Address() == null) continue;
             vals.add(e.getIpv4Address());
         }
@@ -68,8 +69,8 @@ public class MockDevice extends Device {
     @Override
     public SwitchPort[] getAttachmentPoints() {
         ArrayList<SwitchPort> vals = 
-                new ArrayList<SwitchPort>(entities.length);
-        for (Entity e : entities) {
+                new ArrayList<SwitchPort>(getEntityCount());
+        for (Entity e : getEntities()) {
             if (e.getSwitchDPID() != null &&
                 e.getSwitchPort() != null &&
                 deviceManager.isValidAttachmentPoint(e.getSwitchDPID(), e.getSwitchPort())) {
@@ -84,7 +85,7 @@ public class MockDevice extends Device {
     @Override
     public String toString() {
         String rv = "MockDevice[entities=+";
-        rv += entities.toString();
+        rv += Arrays.toString(getEntities());
         rv += "]";
         return rv;
     }
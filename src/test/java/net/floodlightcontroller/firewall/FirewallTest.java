@@ -409,6 +409,94 @@ public class FirewallTest extends FloodlightTestCase {
         assertEquals(decision.getRoutingAction(), IRoutingDecision.RoutingAction.DROP);
     }
 
+    @Test
+    public void testRuleOrderAcrossFields() throws Exception {
+        firewall.enableFirewall(true);
+
+        // deny from the client MAC to 192.168.1.2
+        FirewallRule rule = new FirewallRule();
+        rule.dl_src = MACAddress.valueOf("00:44:33:22:11:00").toLong();
+        rule.wildcard_dl_src = false;
+        rule.dl_type = Ethernet.TYPE_IPv4;
+        rule.wildcard_dl_type = false;
+        rule.nw_dst_prefix = IPv4.toIPv4Address("192.168.1.2");
+        rule.nw_dst_maskbits = 32;
+        rule.wildcard_nw_dst = false;
+        rule.action = FirewallRule.FirewallAction.DENY;
+        rule.priority = 1;
+        firewall.addRule(rule);
+        int denyRuleId = rule.ruleid;
+
+        // allow TCP port 80
+        rule = new FirewallRule();
+        rule.dl_type = Ethernet.TYPE_IPv4;
+        rule.wildcard_dl_type = false;
+        rule.nw_proto = IPv4.PROTOCOL_TCP;
+        rule.wildcard_nw_proto = false;
+        rule.tp_dst = 80;
+        rule.priority = 2;
+        firewall.addRule(rule);
+
+        // allow everything to the client MAC
+        rule = new FirewallRule();
+        rule.dl_dst = MACAddress.valueOf("00:44:33:22:11:00").toLong();
+        rule.wildcard_dl_dst = false;
+        rule.priority = 3;
+        firewall.addRule(rule);
+
+        // the deny rule takes precedence over the port 80 rule
+        this.setPacketIn(tcpPacket);
+        firewall.receive(sw, this.packetIn, cntx);
+        IRoutingDecision decision = IRoutingDecision.rtStore.get(cntx, IRoutingDecision.CONTEXT_DECISION);
+        assertEquals(IRoutingDecision.RoutingAction.DROP, decision.getRoutingAction());
+        IRoutingDecision.rtStore.remove(cntx, IRoutingDecision.CONTEXT_DECISION);
+
+        // only the last rule matches the reply
+        this.setPacketIn(tcpPacketReply);
+        firewall.receive(sw, this.packetIn, cntx);
+        decision = IRoutingDecision.rtStore.get(cntx, IRoutingDecision.CONTEXT_DECISION);
+        assertEquals(IRoutingDecision.RoutingAction.FORWARD_OR_FLOOD, decision.getRoutingAction());
+        IRoutingDecision.rtStore.remove(cntx, IRoutingDecision.CONTEXT_DECISION);
+
+        // once the deny rule is gone the port 80 rule applies
+        firewall.deleteRule(denyRuleId);
+        this.setPacketIn(tcpPacket);
+        firewall.receive(sw, this.packetIn, cntx);
+        decision = IRoutingDecision.rtStore.get(cntx, IRoutingDecision.CONTEXT_DECISION);
+        assertEquals(IRoutingDecision.RoutingAction.FORWARD_OR_FLOOD, decision.getRoutingAction());
+    }
+
+    @Test
+    public void testDecisionCache() throws Exception {
+        firewall.enableFirewall(true);
+
+        FirewallRule rule = new FirewallRule();
+        rule.priority = 2;
+        firewall.addRule(rule);
+
+        // both packet-ins for the flow share one cached decision
+        for (int i = 0; i < 2; i++) {
+            this.setPacketIn(tcpPacket);
+            firewall.receive(sw, this.packetIn, cntx);
+            IRoutingDecision decision = IRoutingDecision.rtStore.get(cntx, IRoutingDecision.CONTEXT_DECISION);
+            assertEquals(IRoutingDecision.RoutingAction.FORWARD_OR_FLOOD, decision.getRoutingAction());
+            IRoutingDecision.rtStore.remove(cntx, IRoutingDecision.CONTEXT_DECISION);
+        }
+        assertEquals(1, firewall.decisionCache.size());
+
+        // a new rule invalidates the cached decision
+        rule = new FirewallRule();
+        rule.action = FirewallRule.FirewallAction.DENY;
+        rule.priority = 1;
+        firewall.addRule(rule);
+        assertEquals(0, firewall.decisionCache.size());
+
+        this.setPacketIn(tcpPacket);
+        firewall.receive(sw, this.packetIn, cntx);
+        IRoutingDecision decision = IRoutingDecision.rtStore.get(cntx, IRoutingDecision.CONTEXT_DECISION);
+        assertEquals(IRoutingDecision.RoutingAction.DROP, decision.getRoutingAction());
+    }
+
     @Test
     public void testARP() throws Exception {
         // enable firewall first
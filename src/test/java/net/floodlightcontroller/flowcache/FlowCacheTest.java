@@ -0,0 +1,167 @@
+package net.floodlightcontroller.flowcache;
+
+import static org.easymock.EasyMock.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.floodlightcontroller.core.IFloodlightProviderService;
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.module.FloodlightModuleContext;
+import net.floodlightcontroller.core.test.MockFloodlightProvider;
+import net.floodlightcontroller.core.test.MockThreadPoolService;
+import net.floodlightcontroller.devicemanager.IDevice;
+import net.floodlightcontroller.flowcache.IFlowCacheService.FCQueryEvType;
+import net.floodlightcontroller.test.FloodlightTestCase;
+import net.floodlightcontroller.threadpool.IThreadPoolService;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openflow.protocol.OFFlowRemoved;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFMatchWithSwDpid;
+import org.openflow.protocol.OFType;
+
+public class FlowCacheTest extends FloodlightTestCase {
+    protected MockFloodlightProvider mockFloodlightProvider;
+    protected MockThreadPoolService threadPool;
+    protected FlowCache flowCache;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        mockFloodlightProvider = getMockFloodlightProvider();
+        threadPool = new MockThreadPoolService();
+        flowCache = new FlowCache();
+
+        FloodlightModuleContext fmc = new FloodlightModuleContext();
+        fmc.addService(IFloodlightProviderService.class,
+                       mockFloodlightProvider);
+        fmc.addService(IThreadPoolService.class, threadPool);
+        threadPool.init(fmc);
+        flowCache.init(fmc);
+        threadPool.startUp(fmc);
+        flowCache.startUp(fmc);
+    }
+
+    protected OFMatch makeMatch(String src, String dst, short inPort) {
+        OFMatch match = new OFMatch();
+        match.fromString("in_port=" + inPort + ",dl_src=" + src +
+                         ",dl_dst=" + dst);
+        return match;
+    }
+
+    protected void addFlow(String app, OFMatch match, long dpid) {
+        assertTrue(flowCache.addFlow(app, new OFMatchWithSwDpid(match, dpid),
+                                     1L, dpid, match.getInputPort(),
+                                     (short) 0,
+                                     IFlowCacheService.FLOW_ACTION_PERMIT));
+    }
+
+    protected List<QRFlowCacheObj> query(IDevice src, IDevice dst,
+                                         String app) {
+        final List<QRFlowCacheObj> result = new ArrayList<QRFlowCacheObj>();
+        final boolean[] done = new boolean[1];
+        IFlowQueryHandler handler = new IFlowQueryHandler() {
+            @Override
+            public void flowQueryRespHandler(FlowCacheQueryResp resp) {
+                assertFalse(done[0]);
+                result.addAll(resp.qrFlowCacheObjList);
+                done[0] = !resp.moreFlag;
+            }
+        };
+        flowCache.submitFlowCacheQuery(
+                new FCQueryObj(handler, app, null, src, dst, "test",
+                               FCQueryEvType.GET, null));
+        assertTrue(done[0]);
+        return result;
+    }
+
+    protected IDevice mockDevice(long mac) {
+        IDevice device = createNiceMock(IDevice.class);
+        expect(device.getMACAddress()).andReturn(mac).anyTimes();
+        expect(device.getVlanId()).andReturn(new Short[] { -1 }).anyTimes();
+        replay(device);
+        return device;
+    }
+
+    @Test
+    public void testAddAndQuery() throws Exception {
+        addFlow("a1", makeMatch("00:00:00:00:00:01", "00:00:00:00:00:02",
+                                (short) 1), 1L);
+        addFlow("a1", makeMatch("00:00:00:00:00:02", "00:00:00:00:00:01",
+                                (short) 2), 1L);
+        addFlow("a2", makeMatch("00:00:00:00:00:03", "00:00:00:00:00:01",
+                                (short) 3), 2L);
+        assertEquals(3, flowCache.getFlowCount());
+
+        // adding the same flow again right away is dampened
+        OFMatch m = makeMatch("00:00:00:00:00:01", "00:00:00:00:00:02",
+                              (short) 1);
+        assertFalse(flowCache.addFlow("a1", new OFMatchWithSwDpid(m, 1L), 1L,
+                                      1L, (short) 1, (short) 0,
+                                      IFlowCacheService.FLOW_ACTION_PERMIT));
+
+        IDevice d1 = mockDevice(1L);
+        assertEquals(1, query(d1, null, null).size());
+        assertEquals(2, query(null, d1, null).size());
+        assertEquals(1, query(null, d1, "a2").size());
+        assertEquals(0, query(d1, d1, null).size());
+        assertEquals(2, query(null, null, "a1").size());
+        assertEquals(3, query(null, null, null).size());
+
+        // inactive flows are not returned
+        flowCache.deactivateFlowCacheBySwitch(1L);
+        assertEquals(1, query(null, d1, null).size());
+        flowCache.deleteFlowCacheBySwitch(1L);
+        assertEquals(1, flowCache.getFlowCount());
+        assertTrue(flowCache.switchIndex.get(1L) == null);
+        assertTrue(flowCache.srcMacIndex.get(1L) == null);
+    }
+
+    @Test
+    public void testFlowRemoved() throws Exception {
+        OFMatch match = makeMatch("00:00:00:00:00:01", "00:00:00:00:00:02",
+                                  (short) 1);
+        match.setWildcards(OFMatch.OFPFW_ALL & ~(OFMatch.OFPFW_IN_PORT |
+                                                 OFMatch.OFPFW_DL_SRC |
+                                                 OFMatch.OFPFW_DL_DST));
+        // a field the match wildcards, which the switch will not echo back
+        match.setDataLayerType((short) 0x800);
+        addFlow("a1", match, 1L);
+        assertEquals(1, flowCache.getFlowCount());
+
+        IOFSwitch sw = createNiceMock(IOFSwitch.class);
+        expect(sw.getId()).andReturn(1L).anyTimes();
+        replay(sw);
+
+        OFMatch removedMatch = match.clone();
+        removedMatch.setDataLayerType((short) 0);
+        OFFlowRemoved flowRemoved = (OFFlowRemoved) mockFloodlightProvider
+                .getOFMessageFactory().getMessage(OFType.FLOW_REMOVED);
+        flowRemoved.setMatch(removedMatch);
+        flowRemoved.setCookie(1L);
+        flowRemoved.setPriority((short) 0);
+        flowCache.receive(sw, flowRemoved, null);
+        assertEquals(0, flowCache.getFlowCount());
+        assertTrue(flowCache.appIndex.isEmpty());
+    }
+
+    @Test
+    public void testMoveFlowToDifferentApplInstName() throws Exception {
+        OFMatch match = makeMatch("00:00:00:00:00:01", "00:00:00:00:00:02",
+                                  (short) 1);
+        addFlow("a1", match, 1L);
+
+        OFMatchReconcile ofmRc = new OFMatchReconcile();
+        ofmRc.ofmWithSwDpid = new OFMatchWithSwDpid(match, 1L);
+        ofmRc.appInstName = "a2";
+        ofmRc.newAppInstName = "a3";
+        assertFalse(flowCache.moveFlowToDifferentApplInstName(ofmRc));
+
+        ofmRc.appInstName = "a1";
+        assertTrue(flowCache.moveFlowToDifferentApplInstName(ofmRc));
+        assertEquals(0, query(null, null, "a1").size());
+        assertEquals(1, query(null, null, "a3").size());
+    }
+}
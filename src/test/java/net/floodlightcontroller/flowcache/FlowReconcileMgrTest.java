@@ -436,6 +436,185 @@ public class FlowReconcileMgrTest extends FloodlightTestCase {
         verify(r1);
     }
     
+    /** Verify flows are partitioned by switch and the metrics are kept.
+     */
+    @Test
+    public void testPartitionedQueue() {
+        flowReconcileMgr.flowReconcileEnabled = false;
+        
+        IFlowReconcileListener r1 =
+            EasyMock.createNiceMock(IFlowReconcileListener.class);
+        expect(r1.getName()).andReturn("r1").anyTimes();
+        
+        SimpleCounter cnt = (SimpleCounter)SimpleCounter.createCounter(
+                            new Date(),
+                            CounterType.LONG);
+        cnt.increment();
+        expect(counterStore.getCounter(
+                flowReconcileMgr.controllerPktInCounterName))
+                .andReturn(cnt)
+                .anyTimes();
+        
+        replay(r1, counterStore);
+        flowReconcileMgr.clearFlowReconcileListeners();
+        flowReconcileMgr.addFlowReconcileListener(r1);
+        
+        int numPartitions = flowReconcileMgr.flowQueue.getNumPartitions();
+        assertEquals(FlowReconcileManager.DEFAULT_WORKERS, numPartitions);
+        
+        OFMatchReconcile ofmRcIn = new OFMatchReconcile();
+        for (long dpid = 1; dpid <= 8; dpid++) {
+            ofmRcIn.ofmWithSwDpid.setSwitchDataPathId(dpid);
+            for (int i = 0; i < 2; i++) {
+                ofmRcIn.cookie = i;
+                flowReconcileMgr.reconcileFlow(ofmRcIn);
+            }
+        }
+        assertEquals(16, flowReconcileMgr.getQueueDepth());
+        int total = 0;
+        for (int depth : flowReconcileMgr.getPartitionDepths())
+            total += depth;
+        assertEquals(16, total);
+        
+        // all the flows of a switch are in the same partition, in order
+        for (int p = 0; p < numPartitions; p++) {
+            long lastDpid = -1;
+            OFMatchReconcile ofmRc;
+            while ((ofmRc = flowReconcileMgr.flowQueue.poll(p)) != null) {
+                long dpid = ofmRc.ofmWithSwDpid.getSwitchDataPathId();
+                assertEquals(p, flowReconcileMgr.flowQueue.partitionFor(ofmRc));
+                if (dpid != lastDpid) {
+                    assertEquals(0, ofmRc.cookie);
+                    lastDpid = dpid;
+                } else {
+                    assertEquals(1, ofmRc.cookie);
+                }
+            }
+        }
+        assertTrue(flowReconcileMgr.flowQueue.isEmpty());
+        
+        for (long dpid = 1; dpid <= 4; dpid++) {
+            ofmRcIn.ofmWithSwDpid.setSwitchDataPathId(dpid);
+            flowReconcileMgr.reconcileFlow(ofmRcIn);
+        }
+        flowReconcileMgr.flowReconcileEnabled = true;
+        assertFalse(flowReconcileMgr.doReconcile());
+        assertEquals(0, flowReconcileMgr.getQueueDepth());
+        assertEquals(4, flowReconcileMgr.getFlowsReconciled());
+        assertEquals(0, flowReconcileMgr.getInfo("summary")
+                     .get("# flows to reconcile"));
+        assertEquals(4L, flowReconcileMgr.getInfo("summary")
+                     .get("# flows reconciled"));
+        assertNull(flowReconcileMgr.getInfo("other"));
+        verify(r1);
+    }
+
+    /** A flow reconcile manager with a fixed capacity whose congestion
+     *  is set by the test */
+    protected static class CongestedFlowReconcileManager
+            extends FlowReconcileManager {
+        protected boolean congested;
+        protected int capacity;
+
+        @Override
+        protected boolean isCongested() {
+            return congested;
+        }
+
+        @Override
+        protected int getCurrentCapacity() {
+            return capacity;
+        }
+
+        protected void startPeriod() {
+            lastRefillTime = 0;
+            refreshCapacity();
+        }
+    }
+
+    /** Verify the reconcile budget is halved on congestion and
+     *  regained additively.
+     */
+    @Test
+    public void testCongestionControl() {
+        CongestedFlowReconcileManager mgr =
+                new CongestedFlowReconcileManager();
+        mgr.capacity = 6400;
+        int minFlows = FlowReconcileManager.MIN_FLOW_RECONCILE_PER_SECOND *
+                FlowReconcileManager.FLOW_RECONCILE_DELAY_MILLISEC / 1000;
+
+        mgr.startPeriod();
+        assertEquals(1.0, mgr.rateScale, 0.0001);
+        assertEquals(6400, mgr.periodCapacity);
+        assertEquals(6400, mgr.reconcileTokens.get());
+
+        // multiplicative decrease
+        mgr.congested = true;
+        mgr.startPeriod();
+        assertEquals(0.5, mgr.rateScale, 0.0001);
+        assertEquals(3200, mgr.periodCapacity);
+        mgr.startPeriod();
+        assertEquals(0.25, mgr.rateScale, 0.0001);
+        assertEquals(1600, mgr.periodCapacity);
+
+        // the scale and the budget have a floor
+        for (int i = 0; i < 10; i++)
+            mgr.startPeriod();
+        assertEquals(FlowReconcileManager.MIN_RATE_SCALE, mgr.rateScale,
+                     0.0001);
+        assertEquals(Math.max(minFlows,
+                (int) (6400 * FlowReconcileManager.MIN_RATE_SCALE)),
+                mgr.periodCapacity);
+        mgr.capacity = 0;
+        mgr.startPeriod();
+        assertEquals(minFlows, mgr.periodCapacity);
+
+        // additive increase, up to the full capacity
+        mgr.capacity = 6400;
+        mgr.congested = false;
+        mgr.startPeriod();
+        assertEquals(FlowReconcileManager.MIN_RATE_SCALE +
+                     FlowReconcileManager.RATE_SCALE_INCREMENT,
+                     mgr.rateScale, 0.0001);
+        for (int i = 0; i < 20; i++)
+            mgr.startPeriod();
+        assertEquals(1.0, mgr.rateScale, 0.0001);
+        assertEquals(6400, mgr.periodCapacity);
+    }
+
+    /** Verify a busy partition may use the capacity of the idle ones.
+     */
+    @Test
+    public void testCapacityBorrowing() throws Exception {
+        CongestedFlowReconcileManager mgr =
+                new CongestedFlowReconcileManager();
+        mgr.init(fmc);
+        mgr.startUp(fmc);
+        mgr.flowReconcileEnabled = false;
+        mgr.capacity = 400;
+
+        IFlowReconcileListener r1 =
+            EasyMock.createNiceMock(IFlowReconcileListener.class);
+        expect(r1.getName()).andReturn("r1").anyTimes();
+        replay(r1);
+        mgr.addFlowReconcileListener(r1);
+
+        OFMatchReconcile ofmRcIn = new OFMatchReconcile();
+        ofmRcIn.ofmWithSwDpid.setSwitchDataPathId(1L);
+        // queue directly, so that no reconcile task runs concurrently
+        for (int i = 0; i < 300; i++)
+            mgr.flowQueue.add(new OFMatchReconcile(ofmRcIn));
+        int partition = mgr.flowQueue.partitionFor(ofmRcIn);
+        assertEquals(1, mgr.flowQueue.getNumActivePartitions());
+
+        mgr.flowReconcileEnabled = true;
+        mgr.lastRefillTime = 0;
+        assertFalse(mgr.doReconcile(partition));
+        assertEquals(300, mgr.getFlowsReconciled());
+        assertEquals(0, mgr.getQueueDepth());
+        assertEquals(100, mgr.reconcileTokens.get());
+    }
+
     @SuppressWarnings("unchecked")
     @Test
     public void testQueueFlowsByManyThreads() {
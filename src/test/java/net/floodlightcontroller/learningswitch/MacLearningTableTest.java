@@ -0,0 +1,111 @@
+/**
+*    Copyright 2011, Big Switch Networks, Inc.
+*    Originally created by David Erickson, Stanford University
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.learningswitch;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import net.floodlightcontroller.core.types.MacVlanPair;
+
+import org.junit.Test;
+
+public class MacLearningTableTest {
+
+    @Test
+    public void testPutGetRemove() {
+        MacLearningTable table = new MacLearningTable(10);
+        assertEquals(-1, table.get(1L, (short) 0));
+
+        table.put(1L, (short) 0, (short) 1);
+        table.put(1L, (short) 5, (short) 2);
+        table.put(0xffffffffffffL, (short) 4095, (short) -2);
+        assertEquals(3, table.size());
+        assertEquals(1, table.get(1L, (short) 0));
+        assertEquals(2, table.get(1L, (short) 5));
+        assertEquals(0xfffe, table.get(0xffffffffffffL, (short) 4095));
+
+        // a host that moved is learned on its new port
+        table.put(1L, (short) 0, (short) 3);
+        assertEquals(3, table.size());
+        assertEquals(3, table.get(1L, (short) 0));
+
+        table.remove(1L, (short) 0);
+        assertEquals(-1, table.get(1L, (short) 0));
+        assertEquals(2, table.get(1L, (short) 5));
+        assertEquals(2, table.size());
+
+        Map<MacVlanPair, Short> map = table.toMap();
+        assertEquals(2, map.size());
+        assertEquals(Short.valueOf((short) 2),
+                     map.get(new MacVlanPair(1L, (short) 5)));
+        assertEquals(Short.valueOf((short) -2),
+                     map.get(new MacVlanPair(0xffffffffffffL,
+                                             (short) 4095)));
+
+        table.clear();
+        assertEquals(0, table.size());
+        assertEquals(-1, table.get(1L, (short) 5));
+    }
+
+    @Test
+    public void testClockEviction() {
+        MacLearningTable table = new MacLearningTable(4);
+        for (long mac = 1; mac <= 4; mac++)
+            table.put(mac, (short) 0, (short) mac);
+
+        // all hosts are referenced, so the first sweep clears every
+        // reference bit before one of them is evicted
+        table.put(5L, (short) 0, (short) 5);
+        assertEquals(4, table.size());
+        Map<MacVlanPair, Short> map = table.toMap();
+        assertTrue(map.containsKey(new MacVlanPair(5L, (short) 0)));
+        long unused = 0;
+        for (long mac = 1; mac <= 4; mac++) {
+            if (map.containsKey(new MacVlanPair(mac, (short) 0)))
+                unused = mac;
+        }
+
+        // the only host not used since the last sweep is evicted next
+        for (long mac = 1; mac <= 5; mac++) {
+            if (mac != unused)
+                table.get(mac, (short) 0);
+        }
+        table.put(6L, (short) 0, (short) 6);
+        assertEquals(4, table.size());
+        assertEquals(-1, table.get(unused, (short) 0));
+        assertEquals(5, table.get(5L, (short) 0));
+        assertEquals(6, table.get(6L, (short) 0));
+    }
+
+    @Test
+    public void testChurn() {
+        // many evictions and removals leave tombstones that have to be
+        // cleaned up for lookups of unknown hosts to terminate quickly
+        MacLearningTable table = new MacLearningTable(100);
+        for (long mac = 1; mac <= 100000; mac++) {
+            table.put(mac, (short) 1, (short) (mac & 0xff));
+            if (mac % 3 == 0)
+                table.remove(mac - 1, (short) 1);
+            assertTrue(table.size() <= 100);
+        }
+        assertEquals(100000 & 0xff, table.get(100000L, (short) 1));
+        assertEquals(-1, table.get(1L, (short) 1));
+        assertEquals(table.size(), table.toMap().size());
+    }
+}
@@ -43,6 +43,7 @@ import net.floodlightcontroller.restserver.IRestApiService;
 import net.floodlightcontroller.restserver.RestApiServer;
 import net.floodlightcontroller.routing.IRoutingService;
 import net.floodlightcontroller.routing.Link;
+import net.floodlightcontroller.storage.IResultSet;
 import net.floodlightcontroller.storage.IStorageSourceService;
 import net.floodlightcontroller.storage.memory.MemoryStorageSource;
 import net.floodlightcontroller.test.FloodlightTestCase;
@@ -192,6 +193,37 @@ public class LinkDiscoveryManagerTest extends FloodlightTestCase {
         assertTrue(topology.links.containsKey(lt));
     }
 
+    @Test
+    public void testLinkStorageWritesCoalesced() throws Exception {
+        LinkDiscoveryManager topology = getTopology();
+
+        Link lt = new Link(1L, 2, 2L, 1);
+        LinkInfo info = new LinkInfo(System.currentTimeMillis(),
+                                     System.currentTimeMillis(), null,
+                                     0, 0);
+        topology.addOrUpdateLink(lt, info);
+        info = new LinkInfo(System.currentTimeMillis(),
+                            System.currentTimeMillis(), null,
+                            0, 0);
+        topology.addOrUpdateLink(lt, info);
+
+        // both updates are merged into one buffered row
+        assertTrue(topology.pendingLinkWrites.size() <= 1);
+        topology.flushLinkStorageWrites();
+        assertTrue(topology.pendingLinkWrites.isEmpty());
+
+        IResultSet resultSet = topology.getStorageSource().
+                getRow("controller_link",
+                       "00:00:00:00:00:00:00:01-2-00:00:00:00:00:00:00:02-1");
+        assertTrue(resultSet.next());
+        resultSet.close();
+
+        // a buffered write must not survive the deletion of its link
+        topology.writeLinkToStorage(lt, info);
+        topology.deleteLinks(Collections.singletonList(lt), "Test");
+        assertTrue(topology.pendingLinkWrites.isEmpty());
+    }
+
     @Test
     public void testDeleteLinkToSelf() throws Exception {
         LinkDiscoveryManager topology = getTopology();
@@ -0,0 +1,82 @@
+/**
+*    Copyright 2011, Big Switch Networks, Inc.
+*    Originally created by David Erickson, Stanford University
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.restserver;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PageCollectorTest {
+    protected static final PageCollector.KeyFunction<Long> IDENTITY =
+            new PageCollector.KeyFunction<Long>() {
+        @Override
+        public long getKey(Long item) {
+            return item;
+        }
+    };
+
+    protected List<Long> items(int count) {
+        List<Long> items = new ArrayList<Long>();
+        for (long i = 1; i <= count; i++)
+            items.add(i * 10);
+        Collections.shuffle(items);
+        return items;
+    }
+
+    @Test
+    public void testPages() {
+        List<Long> items = items(25);
+        List<Long> all = new ArrayList<Long>();
+        Long cursor = null;
+        int pages = 0;
+        do {
+            PageCollector<Long> page =
+                    new PageCollector<Long>(IDENTITY, cursor, 10);
+            page.addAll(items.iterator());
+            List<Long> p = page.getPage();
+            assertTrue(p.size() <= 10);
+            all.addAll(p);
+            cursor = page.getNextCursor();
+            pages += 1;
+        } while (cursor != null);
+
+        assertEquals(3, pages);
+        List<Long> sorted = new ArrayList<Long>(items);
+        Collections.sort(sorted);
+        assertEquals(sorted, all);
+    }
+
+    @Test
+    public void testChanges() {
+        PageCollector<Long> page = new PageCollector<Long>(IDENTITY, null, 2);
+        page.addAll(Arrays.asList(30L, 10L, 20L).iterator());
+        assertEquals(Arrays.asList(10L, 20L), page.getPage());
+        assertEquals(Long.valueOf(20), page.getNextCursor());
+
+        // An item added before the cursor doesn't shift the next page
+        page = new PageCollector<Long>(IDENTITY, 20L, 2);
+        page.addAll(Arrays.asList(30L, 10L, 15L, 20L).iterator());
+        assertEquals(Arrays.asList(30L), page.getPage());
+        assertNull(page.getNextCursor());
+    }
+}
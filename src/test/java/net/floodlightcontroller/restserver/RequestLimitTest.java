@@ -0,0 +1,80 @@
+/**
+*    Copyright 2011, Big Switch Networks, Inc.
+*    Originally created by David Erickson, Stanford University
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.restserver;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class RequestLimitTest {
+
+    @Test
+    public void testLimit() throws Exception {
+        final RequestLimit limit = new RequestLimit(1, 1);
+        assertTrue(limit.enter());
+
+        // A request over the limit waits for the running one
+        final CountDownLatch entered = new CountDownLatch(1);
+        Thread waiting = new Thread() {
+            @Override
+            public void run() {
+                if (limit.enter())
+                    entered.countDown();
+            }
+        };
+        waiting.start();
+        while (limit.running.getQueueLength() == 0)
+            Thread.sleep(1);
+        assertEquals(1, entered.getCount());
+
+        // Once enough requests wait, the next ones are turned away
+        assertFalse(limit.enter());
+
+        limit.exit();
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        waiting.join();
+        limit.exit();
+        assertTrue(limit.enter());
+        limit.exit();
+    }
+
+    @Test
+    public void testMaxWait() {
+        RequestLimit limit = new RequestLimit(1, 1, 10);
+        assertTrue(limit.enter());
+        assertEquals(2, limit.getMaxAdmitted());
+
+        // A request that waited too long is turned away, and gives up its
+        // place in the queue
+        assertFalse(limit.enter());
+        assertEquals(1, limit.admitted.availablePermits());
+
+        limit.exit();
+        assertTrue(limit.enter());
+        limit.exit();
+    }
+
+    @Test
+    public void testNoLimit() {
+        assertNull(RequestLimit.create(0, 10));
+        assertNotNull(RequestLimit.create(1, 0));
+    }
+}
@@ -0,0 +1,74 @@
+/**
+*    Copyright 2011, Big Switch Networks, Inc.
+*    Originally created by David Erickson, Stanford University
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.restserver;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class RestRequestStatsTest {
+
+    @Test
+    public void testRouteName() {
+        assertEquals("/wm/core/switch/all/flow/json",
+                RestRequestStats.getRouteName("/wm/core/switch/all/flow/json"));
+        assertEquals("/wm/core/switch/*/flow/json",
+                RestRequestStats.getRouteName(
+                        "/wm/core/switch/00:00:00:00:00:00:00:01/flow/json"));
+        assertEquals("/wm/core/health/json",
+                RestRequestStats.getRouteName("//wm/core/health/json/"));
+        assertEquals("/", RestRequestStats.getRouteName("/"));
+    }
+
+    @Test
+    public void testRouteStats() {
+        RestRequestStats stats = new RestRequestStats();
+        RouteStats s1 = stats.getRouteStats("/wm/core/switch/1/flow/json");
+        RouteStats s2 = stats.getRouteStats("/wm/core/switch/2/flow/json");
+        assertSame(s1, s2);
+
+        s1.requestStarted();
+        s1.requestStarted();
+        s1.requestStarted();
+        assertEquals(3, s1.getInFlight());
+        s1.requestFinished(TimeUnit.MILLISECONDS.toNanos(3));
+        s1.requestFinished(TimeUnit.SECONDS.toNanos(12));
+        s1.requestRejected();
+        assertEquals(0, s1.getInFlight());
+        assertEquals(2, s1.getRequests());
+        assertEquals(1, s1.getRejected());
+
+        long[] histogram = s1.getHistogram();
+        assertEquals(1, histogram[2]);
+        assertEquals(1, histogram[histogram.length - 1]);
+        assertEquals(1, stats.getInfo().size());
+    }
+
+    @Test
+    public void testMaxRoutes() {
+        RestRequestStats stats = new RestRequestStats();
+        for (int i = 0; i < RestRequestStats.MAX_ROUTES; i++)
+            stats.getRouteStats("/route" + (char)('a' + i % 26) + "/" +
+                                (char)('a' + i / 26));
+        assertSame(stats.getRouteStats("/other/path"),
+                   stats.getRouteStats("/another/path"));
+        assertEquals(RestRequestStats.MAX_ROUTES + 1, stats.getInfo().size());
+    }
+}
@@ -1,23 +1,34 @@
 package net.floodlightcontroller.staticflowentry;
 
 import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 
 import org.easymock.Capture;
 import org.easymock.CaptureType;
 import org.junit.Test;
+import org.openflow.protocol.OFBarrierReply;
 import org.openflow.protocol.OFFlowMod;
 import org.openflow.protocol.OFMatch;
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFPort;
+import org.openflow.protocol.OFStatisticsRequest;
+import org.openflow.protocol.OFType;
 import org.openflow.protocol.action.OFAction;
 import org.openflow.protocol.action.OFActionOutput;
+import org.openflow.protocol.statistics.OFFlowStatisticsReply;
+import org.openflow.protocol.statistics.OFStatistics;
 import org.openflow.util.HexString;
 
 
@@ -27,6 +38,7 @@ import net.floodlightcontroller.core.IOFSwitch;
 import net.floodlightcontroller.core.module.FloodlightModuleContext;
 import net.floodlightcontroller.core.module.FloodlightModuleException;
 import net.floodlightcontroller.core.test.MockFloodlightProvider;
+import net.floodlightcontroller.core.util.AppCookie;
 import net.floodlightcontroller.test.FloodlightTestCase;
 import net.floodlightcontroller.restserver.RestApiServer;
 import net.floodlightcontroller.staticflowentry.StaticFlowEntryPusher;
@@ -274,9 +286,250 @@ public class StaticFlowTests extends FloodlightTestCase {
         FlowMod3.getMatch().fromString("dl_dst=00:20:30:40:50:60,dl_vlan=333");
         OFFlowMod updateFlowMod = (OFFlowMod) outList.get(1);
         verifyFlowMod(updateFlowMod, FlowMod3);
+        writeCapture.reset();
+        contextCapture.reset();
+        writeCaptureList.reset();
+
+        // move a rule to another switch: it is deleted from the old one
+        Map<String,Object> movedRule = new HashMap<String,Object>(TestRule3);
+        movedRule.put(COLUMN_SWITCH, "00:00:00:00:00:00:00:02");
+        storage.updateRow(StaticFlowEntryPusher.TABLE_NAME, movedRule);
+        assertEquals(2, staticFlowEntryPusher.countEntries());
+        assertEquals("00:00:00:00:00:00:00:02",
+                     staticFlowEntryPusher.entry2dpid.get("TestRule3"));
+        assertEquals(1, writeCapture.getValues().size());
+        FlowMod3.setCommand(OFFlowMod.OFPFC_DELETE_STRICT);
+        verifyFlowMod((OFFlowMod) writeCapture.getValues().get(0), FlowMod3);
+        FlowMod3.setCommand(OFFlowMod.OFPFC_ADD);
+    }
+
+
+    OFFlowStatisticsReply flowStatsFor(OFFlowMod fm) {
+        OFFlowStatisticsReply reply = new OFFlowStatisticsReply();
+        reply.setMatch(fm.getMatch().clone());
+        reply.setPriority(fm.getPriority());
+        reply.setCookie(fm.getCookie());
+        reply.setActions(new ArrayList<OFAction>(fm.getActions()));
+        return reply;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testStaticFlowDiffSync() throws Exception {
+        StaticFlowEntryPusher staticFlowEntryPusher = new StaticFlowEntryPusher();
+        IStorageSourceService storage = createStorageWithFlowEntries();
+        staticFlowEntryPusher.setStorageSource(storage);
+        staticFlowEntryPusher.setFloodlightProvider(getMockFloodlightProvider());
+        RestApiServer restApi = new RestApiServer();
+        try {
+            restApi.init(new FloodlightModuleContext());
+        } catch (FloodlightModuleException e) {
+            e.printStackTrace();
+        }
+        staticFlowEntryPusher.restApi = restApi;
+        staticFlowEntryPusher.startUp(null);
+        assertEquals(TotalTestRules, staticFlowEntryPusher.countEntries());
+
+        Map<String, OFFlowMod> entries =
+                staticFlowEntryPusher.entriesFromStorage.get(TestSwitch1DPID);
+        OFFlowMod fm1 = entries.get("TestRule1");
+        OFFlowMod fm2 = entries.get("TestRule2");
+        OFFlowMod fm3 = entries.get("TestRule3");
+
+        // The switch has rule 1 unchanged but reported with values in
+        // wildcarded fields, rule 2 with other actions, no rule 3, a stale
+        // static flow, a flow with the match of rule 3 but another cookie
+        // and a flow from another application
+        List<OFStatistics> installed = new ArrayList<OFStatistics>();
+        OFFlowStatisticsReply unchanged = flowStatsFor(fm1);
+        unchanged.getMatch().setNetworkSource(0x0a000001);
+        unchanged.getMatch().setTransportSource((short) 80);
+        unchanged.getMatch().setDataLayerVirtualLan((short) 0);
+        installed.add(unchanged);
+        OFFlowStatisticsReply changed = flowStatsFor(fm2);
+        List<OFAction> actions = new ArrayList<OFAction>();
+        actions.add(new OFActionOutput((short)5, (short) Short.MAX_VALUE));
+        changed.setActions(actions);
+        installed.add(changed);
+        OFFlowStatisticsReply stale = flowStatsFor(fm1);
+        stale.getMatch().fromString("dl_dst=00:aa:bb:cc:dd:ee");
+        stale.setCookie(AppCookie.makeCookie(STATIC_FLOW_APP_ID, 42));
+        installed.add(stale);
+        OFFlowStatisticsReply shadow = flowStatsFor(fm3);
+        shadow.setCookie(AppCookie.makeCookie(STATIC_FLOW_APP_ID, 43));
+        installed.add(shadow);
+        OFFlowStatisticsReply other = flowStatsFor(fm1);
+        other.setCookie(AppCookie.makeCookie(2, 42));
+        installed.add(other);
+
+        Future<List<OFStatistics>> future = createMock(Future.class);
+        expect(future.get(anyLong(), anyObject(TimeUnit.class)))
+                .andReturn(installed).once();
+        Future<OFBarrierReply> barrierFuture = createMock(Future.class);
+        expect(barrierFuture.get(anyLong(), anyObject(TimeUnit.class)))
+                .andReturn(new OFBarrierReply()).once();
+        IOFSwitch mockSwitch = createNiceMock(IOFSwitch.class);
+        Capture<List<OFMessage>> writeCaptureList =
+                new Capture<List<OFMessage>>(CaptureType.ALL);
+        expect(mockSwitch.getStringId()).andReturn(TestSwitch1DPID).anyTimes();
+        expect(mockSwitch.getStatistics(anyObject(OFStatisticsRequest.class)))
+                .andReturn(future).once();
+        mockSwitch.write(capture(writeCaptureList),
+                         (FloodlightContext) isNull());
+        expectLastCall().times(2);
+        expect(mockSwitch.sendBarrier()).andReturn(barrierFuture).once();
+        replay(future, barrierFuture, mockSwitch);
+
+        staticFlowEntryPusher.syncEntriesToSwitch(mockSwitch);
+        verify(future, barrierFuture, mockSwitch);
+
+        // adds for the changed and missing rules, then once the switch
+        // has applied them a delete for the stale flow only
+        List<List<OFMessage>> writes = writeCaptureList.getValues();
+        assertEquals(2, writes.size());
+        List<OFMessage> outList = writes.get(0);
+        assertEquals(3, outList.size());
+        assertEquals(fm3, outList.get(0));
+        assertEquals(fm2, outList.get(1));
+        assertEquals(OFType.BARRIER_REQUEST, outList.get(2).getType());
+        outList = writes.get(1);
+        assertEquals(2, outList.size());
+        OFFlowMod delete = (OFFlowMod) outList.get(0);
+        assertEquals(OFFlowMod.OFPFC_DELETE_STRICT, delete.getCommand());
+        assertEquals(stale.getMatch(), delete.getMatch());
+        assertEquals(stale.getCookie(), delete.getCookie());
+        assertEquals(OFType.BARRIER_REQUEST, outList.get(1).getType());
+    }
+
+    @Test
+    public void testStaticFlowDiffSyncNoBarrier() throws Exception {
+        StaticFlowEntryPusher staticFlowEntryPusher = new StaticFlowEntryPusher();
+        IStorageSourceService storage = createStorageWithFlowEntries();
+        staticFlowEntryPusher.setStorageSource(storage);
+        staticFlowEntryPusher.setFloodlightProvider(getMockFloodlightProvider());
+        RestApiServer restApi = new RestApiServer();
+        try {
+            restApi.init(new FloodlightModuleContext());
+        } catch (FloodlightModuleException e) {
+            e.printStackTrace();
+        }
+        staticFlowEntryPusher.restApi = restApi;
+        staticFlowEntryPusher.startUp(null);
+
+        // The switch has none of the rules and a stale static flow
+        Map<String, OFFlowMod> entries =
+                staticFlowEntryPusher.entriesFromStorage.get(TestSwitch1DPID);
+        List<OFStatistics> installed = new ArrayList<OFStatistics>();
+        OFFlowStatisticsReply stale = flowStatsFor(entries.get("TestRule1"));
+        stale.getMatch().fromString("dl_dst=00:aa:bb:cc:dd:ee");
+        stale.setCookie(AppCookie.makeCookie(STATIC_FLOW_APP_ID, 42));
+        installed.add(stale);
+
+        Future<List<OFStatistics>> future = createMock(Future.class);
+        expect(future.get(anyLong(), anyObject(TimeUnit.class)))
+                .andReturn(installed).once();
+        Future<OFBarrierReply> barrierFuture = createMock(Future.class);
+        expect(barrierFuture.get(anyLong(), anyObject(TimeUnit.class)))
+                .andThrow(new TimeoutException()).once();
+        IOFSwitch mockSwitch = createNiceMock(IOFSwitch.class);
+        Capture<List<OFMessage>> writeCaptureList =
+                new Capture<List<OFMessage>>(CaptureType.ALL);
+        expect(mockSwitch.getStringId()).andReturn(TestSwitch1DPID).anyTimes();
+        expect(mockSwitch.getStatistics(anyObject(OFStatisticsRequest.class)))
+                .andReturn(future).once();
+        mockSwitch.write(capture(writeCaptureList),
+                         (FloodlightContext) isNull());
+        expectLastCall().once();
+        expect(mockSwitch.sendBarrier()).andReturn(barrierFuture).once();
+        replay(future, barrierFuture, mockSwitch);
+
+        staticFlowEntryPusher.syncEntriesToSwitch(mockSwitch);
+        verify(future, barrierFuture, mockSwitch);
 
+        // the adds go out but the stale flow is kept since the switch
+        // didn't confirm them
+        List<OFMessage> outList = writeCaptureList.getValue();
+        assertEquals(entries.size() + 1, outList.size());
+        for (OFMessage m : outList.subList(0, entries.size()))
+            assertEquals(OFFlowMod.OFPFC_ADD, ((OFFlowMod) m).getCommand());
     }
 
+    @Test
+    public void testBulkAddFlows() throws Exception {
+        StaticFlowEntryPusher staticFlowEntryPusher = new StaticFlowEntryPusher();
+        IStorageSourceService storage = createStorageWithFlowEntries();
+        staticFlowEntryPusher.setStorageSource(storage);
+        staticFlowEntryPusher.setFloodlightProvider(getMockFloodlightProvider());
+        RestApiServer restApi = new RestApiServer();
+        try {
+            restApi.init(new FloodlightModuleContext());
+        } catch (FloodlightModuleException e) {
+            e.printStackTrace();
+        }
+        staticFlowEntryPusher.restApi = restApi;
+        staticFlowEntryPusher.startUp(null);
+
+        String json = "[" +
+            "{\"name\":\"Bulk1\", \"switch\":\"" + TestSwitch1DPID + "\", " +
+            "\"dst-mac\":\"00:00:00:00:00:01\", \"actions\":\"output=1\"}," +
+            "{\"name\":\"Bulk2\", \"switch\":\"" + TestSwitch1DPID + "\", " +
+            "\"dst-mac\":\"00:00:00:00:00:02\", \"actions\":\"output=2\"," +
+            "\"active\":\"false\"}," +
+            "{\"switch\":\"" + TestSwitch1DPID + "\"}" +
+            "]";
+        List<Map<String, Object>> entries =
+                StaticFlowEntries.jsonToStorageEntries(new StringReader(json));
+        assertEquals(3, entries.size());
+        for (Map<String, Object> entry : entries)
+            assertTrue(StaticFlowEntries.checkMatchIp(entry));
+        assertEquals(2, staticFlowEntryPusher.addFlows(entries));
+
+        // the unnamed entry is dropped and the inactive one is not pushed
+        assertEquals(TotalTestRules + 1, staticFlowEntryPusher.countEntries());
+        Map<String, OFFlowMod> switchEntries =
+                staticFlowEntryPusher.getFlows(TestSwitch1DPID);
+        OFFlowMod bulk1 = switchEntries.get("Bulk1");
+        assertNotNull(bulk1);
+        OFMatch match = new OFMatch();
+        match.fromString("dl_dst=00:00:00:00:00:01");
+        assertEquals(match, bulk1.getMatch());
+        assertEquals(new OFActionOutput((short)1, (short) Short.MAX_VALUE),
+                     bulk1.getActions().get(0));
+        assertFalse(switchEntries.containsKey("Bulk2"));
+        assertEquals(TestSwitch1DPID,
+                     staticFlowEntryPusher.entry2dpid.get("Bulk1"));
+        assertNotNull(storage.getRow(StaticFlowEntryPusher.TABLE_NAME,
+                                     "Bulk1").iterator().next().getRow());
+        // the notification took the parsed flow mods
+        assertTrue(staticFlowEntryPusher.parsedEntries.isEmpty());
+
+        // a parsed entry is used without reading its row from storage
+        staticFlowEntryPusher.parsedEntries.put("Parsed",
+                new StaticFlowEntryPusher.ParsedEntry(TestSwitch1DPID, bulk1));
+        staticFlowEntryPusher.rowsModified(StaticFlowEntryPusher.TABLE_NAME,
+                Collections.<Object>singleton("Parsed"));
+        assertSame(bulk1, staticFlowEntryPusher.getFlows(TestSwitch1DPID)
+                                               .get("Parsed"));
+        assertTrue(staticFlowEntryPusher.parsedEntries.isEmpty());
+    }
+
+    @Test
+    public void testCheckMatchIp() throws Exception {
+        List<Map<String, Object>> entries =
+                StaticFlowEntries.jsonToStorageEntries("[" +
+            "{\"name\":\"Ip\", \"switch\":\"" + TestSwitch1DPID + "\", " +
+            "\"dst-ip\":\"10.0.0.1\", \"actions\":\"output=1\"}," +
+            "{\"name\":\"IpEther\", \"switch\":\"" + TestSwitch1DPID + "\", " +
+            "\"ether-type\":\"0x800\", \"dst-ip\":\"10.0.0.1\", " +
+            "\"actions\":\"output=1\"}," +
+            "{\"name\":\"BadEther\", \"switch\":\"" + TestSwitch1DPID + "\", " +
+            "\"ether-type\":\"0xzz\", \"protocol\":\"6\"}" +
+            "]");
+        assertEquals(3, entries.size());
+        assertFalse(StaticFlowEntries.checkMatchIp(entries.get(0)));
+        assertTrue(StaticFlowEntries.checkMatchIp(entries.get(1)));
+        assertFalse(StaticFlowEntries.checkMatchIp(entries.get(2)));
+    }
 
     IStorageSourceService createStorageWithFlowEntries() {
         return populateStorageWithFlowEntries(new MemoryStorageSource());
@@ -0,0 +1,245 @@
+/**
+*    Copyright 2011, Big Switch Networks, Inc.
+*    Originally created by David Erickson, Stanford University
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.storage.memory.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.floodlightcontroller.storage.IResultSet;
+import net.floodlightcontroller.storage.RowOrdering;
+import net.floodlightcontroller.storage.memory.MemoryStorageSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MemoryStorageLogTest {
+    protected static final String FLOW_TABLE = "flows";
+    protected static final String FLOW_NAME = "name";
+    protected static final String FLOW_PRIORITY = "priority";
+    protected static final String FLOW_ACTIVE = "active";
+    protected static final String FLOW_CREATED = "created";
+    protected static final String EVENT_TABLE = "events";
+
+    protected File directory;
+    protected MemoryStorageSource storageSource;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("storage", "");
+        directory.delete();
+        storageSource = start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        storageSource.stopPersistence();
+        delete(directory);
+    }
+
+    protected void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files)
+                delete(f);
+        }
+        file.delete();
+    }
+
+    protected MemoryStorageSource start() {
+        MemoryStorageSource source = new MemoryStorageSource();
+        source.startPersistence(directory, 0, true);
+        source.createTable(FLOW_TABLE, null);
+        source.setTablePrimaryKeyName(FLOW_TABLE, FLOW_NAME);
+        source.createTable(EVENT_TABLE, null);
+        return source;
+    }
+
+    protected MemoryStorageSource restart() {
+        storageSource.stopPersistence();
+        storageSource = start();
+        return storageSource;
+    }
+
+    protected void insertFlow(String name, int priority) {
+        Map<String,Object> row = new HashMap<String,Object>();
+        row.put(FLOW_NAME, name);
+        row.put(FLOW_PRIORITY, priority);
+        row.put(FLOW_ACTIVE, true);
+        row.put(FLOW_CREATED, new Date(1000L * priority));
+        storageSource.insertRow(FLOW_TABLE, row);
+    }
+
+    protected List<String> getFlowNames() {
+        IResultSet resultSet = storageSource.executeQuery(FLOW_TABLE, null,
+                null, new RowOrdering(FLOW_NAME));
+        List<String> names = new ArrayList<String>();
+        while (resultSet.next())
+            names.add(resultSet.getString(FLOW_NAME));
+        resultSet.close();
+        return names;
+    }
+
+    protected List<String> flowNames(String... names) {
+        List<String> list = new ArrayList<String>();
+        for (String name : names)
+            list.add(name);
+        return list;
+    }
+
+    @Test
+    public void testReplayLog() throws Exception {
+        insertFlow("a", 1);
+        insertFlow("b", 2);
+        insertFlow("c", 3);
+        Map<String,Object> update = new HashMap<String,Object>();
+        update.put(FLOW_PRIORITY, 20);
+        update.put(FLOW_ACTIVE, null);
+        storageSource.updateRow(FLOW_TABLE, "b", update);
+        storageSource.deleteRow(FLOW_TABLE, "c");
+
+        restart();
+        assertEquals(flowNames("a", "b"), getFlowNames());
+        IResultSet resultSet = storageSource.getRow(FLOW_TABLE, "a");
+        assertTrue(resultSet.next());
+        assertEquals(1, resultSet.getInt(FLOW_PRIORITY));
+        assertTrue(resultSet.getBoolean(FLOW_ACTIVE));
+        assertEquals(new Date(1000L), resultSet.getDate(FLOW_CREATED));
+        resultSet.close();
+        resultSet = storageSource.getRow(FLOW_TABLE, "b");
+        assertTrue(resultSet.next());
+        assertEquals(20, resultSet.getInt(FLOW_PRIORITY));
+        assertTrue(resultSet.isNull(FLOW_ACTIVE));
+        resultSet.close();
+    }
+
+    @Test
+    public void testGeneratedIds() throws Exception {
+        Map<String,Object> row = new HashMap<String,Object>();
+        row.put("event", "first");
+        storageSource.insertRow(EVENT_TABLE, row);
+        storageSource.insertRow(EVENT_TABLE, row);
+
+        // Ids generated after a restart don't reuse the ids of loaded rows
+        restart();
+        storageSource.insertRow(EVENT_TABLE, row);
+        IResultSet resultSet = storageSource.executeQuery(EVENT_TABLE, null,
+                null, new RowOrdering("id"));
+        int count = 0;
+        while (resultSet.next()) {
+            count += 1;
+            assertEquals(count, resultSet.getInt("id"));
+        }
+        resultSet.close();
+        assertEquals(3, count);
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        for (int i = 0; i < 100; i++)
+            insertFlow("flow" + (1000 + i), i);
+        storageSource.snapshot();
+        storageSource.deleteRow(FLOW_TABLE, "flow1000");
+        insertFlow("new", 1);
+
+        // Only the snapshot and the log written after it are left
+        int snapshots = 0;
+        int logs = 0;
+        for (File f : directory.listFiles()) {
+            if (f.getName().startsWith("snapshot-"))
+                snapshots += 1;
+            else if (f.getName().startsWith("log-"))
+                logs += 1;
+        }
+        assertEquals(1, snapshots);
+        assertEquals(1, logs);
+
+        restart();
+        List<String> names = getFlowNames();
+        assertEquals(100, names.size());
+        assertFalse(names.contains("flow1000"));
+        assertTrue(names.contains("flow1099"));
+        assertTrue(names.contains("new"));
+
+        // A second snapshot replaces the first one
+        storageSource.deleteRow(FLOW_TABLE, "new");
+        storageSource.snapshot();
+        restart();
+        assertEquals(99, getFlowNames().size());
+    }
+
+    @Test
+    public void testPartialRecord() throws Exception {
+        insertFlow("a", 1);
+        insertFlow("b", 2);
+        storageSource.stopPersistence();
+
+        // A record that was cut short by a crash is ignored
+        File lastLog = null;
+        for (File f : directory.listFiles()) {
+            if (f.getName().startsWith("log-") && (f.length() > 0))
+                lastLog = f;
+        }
+        assertNotNull(lastLog);
+        FileOutputStream out = new FileOutputStream(lastLog, true);
+        out.write(new byte[] {0, 0, 0, 100, 1, 2, 3});
+        out.close();
+
+        storageSource = start();
+        assertEquals(flowNames("a", "b"), getFlowNames());
+        insertFlow("c", 3);
+        restart();
+        assertEquals(flowNames("a", "b", "c"), getFlowNames());
+    }
+
+    @Test
+    public void testCorruptRecord() throws Exception {
+        insertFlow("a", 1);
+        insertFlow("b", 2);
+        insertFlow("c", 3);
+        storageSource.stopPersistence();
+
+        // Only the corrupt record in the middle of a segment is lost, not
+        // the records after it
+        File lastLog = null;
+        for (File f : directory.listFiles()) {
+            if (f.getName().startsWith("log-") && (f.length() > 0))
+                lastLog = f;
+        }
+        assertNotNull(lastLog);
+        RandomAccessFile raf = new RandomAccessFile(lastLog, "rw");
+        int first = raf.readInt();
+        long contents = 8 + first + 8;
+        raf.seek(contents + 4);
+        int b = raf.read();
+        raf.seek(contents + 4);
+        raf.write(b ^ 0xff);
+        raf.close();
+
+        storageSource = start();
+        assertEquals(flowNames("a", "c"), getFlowNames());
+    }
+}
@@ -17,12 +17,25 @@
 
 package net.floodlightcontroller.storage.memory.tests;
 
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
 import net.floodlightcontroller.core.module.FloodlightModuleContext;
 import net.floodlightcontroller.restserver.IRestApiService;
 import net.floodlightcontroller.restserver.RestApiServer;
+import net.floodlightcontroller.storage.IResultSet;
+import net.floodlightcontroller.storage.IStorageSourceListener;
+import net.floodlightcontroller.storage.OperatorPredicate;
+import net.floodlightcontroller.storage.StorageBatch;
+import net.floodlightcontroller.storage.StorageException;
 import net.floodlightcontroller.storage.memory.MemoryStorageSource;
+import net.floodlightcontroller.storage.nosql.NoSqlStorageSource;
 import net.floodlightcontroller.storage.tests.StorageTest;
 import org.junit.Before;
+import org.junit.Test;
 
 public class MemoryStorageTest extends StorageTest {
 
@@ -38,4 +51,145 @@ public class MemoryStorageTest extends StorageTest {
         storageSource.startUp(fmc);
         super.setUp();
     }
+
+    @Test
+    public void testResultSetIsSnapshot() {
+        IResultSet resultSet = storageSource.getRow(PERSON_TABLE_NAME, "111-11-1111");
+        Map<String,Object> updateValues = new HashMap<String,Object>();
+        updateValues.put(PERSON_AGE, 41);
+        storageSource.updateRow(PERSON_TABLE_NAME, "111-11-1111", updateValues);
+        storageSource.deleteRow(PERSON_TABLE_NAME, "222-22-2222");
+
+        // Changes made after the query don't show in its result set
+        assertTrue(resultSet.next());
+        assertEquals(40, resultSet.getInt(PERSON_AGE));
+        resultSet.close();
+        resultSet = storageSource.getRow(PERSON_TABLE_NAME, "111-11-1111");
+        assertTrue(resultSet.next());
+        assertEquals(41, resultSet.getInt(PERSON_AGE));
+        resultSet.close();
+    }
+
+    @Test
+    public void testConcurrentReads() throws Exception {
+        storageSource.setColumnIndexMode(PERSON_TABLE_NAME, PERSON_AGE,
+                NoSqlStorageSource.ColumnIndexMode.RANGE_INDEXED);
+        final int updateCount = 2000;
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                Map<String,Object> updateValues = new HashMap<String,Object>();
+                for (int i = 0; i < updateCount; i++) {
+                    updateValues.put(PERSON_FIRST_NAME, "First" + i);
+                    updateValues.put(PERSON_LAST_NAME, "Last" + i);
+                    updateValues.put(PERSON_AGE, 100 + (i % 2));
+                    storageSource.updateRow(PERSON_TABLE_NAME, "444-44-4444", updateValues);
+                }
+            }
+        };
+        writer.start();
+
+        // Readers see every row either before or after an update, never
+        // half of one, and indexed queries only return matching rows
+        while (writer.isAlive()) {
+            IResultSet resultSet = storageSource.executeQuery(PERSON_TABLE_NAME,
+                    PERSON_COLUMN_LIST, new OperatorPredicate(PERSON_AGE,
+                            OperatorPredicate.Operator.GTE, 100), null);
+            while (resultSet.next()) {
+                assertEquals("444-44-4444", resultSet.getString(PERSON_SSN));
+                String firstName = resultSet.getString(PERSON_FIRST_NAME);
+                String lastName = resultSet.getString(PERSON_LAST_NAME);
+                assertEquals(firstName.substring(5), lastName.substring(4));
+            }
+            resultSet.close();
+        }
+        writer.join();
+
+        IResultSet resultSet = storageSource.getRow(PERSON_TABLE_NAME, "444-44-4444");
+        assertTrue(resultSet.next());
+        assertEquals("Last" + (updateCount - 1), resultSet.getString(PERSON_LAST_NAME));
+        resultSet.close();
+    }
+
+    @Test
+    public void testIndexedRowNeverMissed() throws Exception {
+        storageSource.setColumnIndexMode(PERSON_TABLE_NAME, PERSON_AGE,
+                NoSqlStorageSource.ColumnIndexMode.RANGE_INDEXED);
+        Map<String,Object> updateValues = new HashMap<String,Object>();
+        updateValues.put(PERSON_AGE, 100);
+        storageSource.updateRow(PERSON_TABLE_NAME, "444-44-4444", updateValues);
+        final int updateCount = 2000;
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                Map<String,Object> updateValues = new HashMap<String,Object>();
+                for (int i = 0; i < updateCount; i++) {
+                    updateValues.put(PERSON_AGE, 100 + (i % 2));
+                    storageSource.updateRow(PERSON_TABLE_NAME, "444-44-4444", updateValues);
+                }
+            }
+        };
+        writer.start();
+
+        // The row is always found by an indexed query that matches both
+        // its old and its new value, and only once
+        while (writer.isAlive()) {
+            IResultSet resultSet = storageSource.executeQuery(PERSON_TABLE_NAME,
+                    PERSON_COLUMN_LIST, new OperatorPredicate(PERSON_AGE,
+                            OperatorPredicate.Operator.GTE, 100), null);
+            assertTrue(resultSet.next());
+            assertEquals("444-44-4444", resultSet.getString(PERSON_SSN));
+            assertFalse(resultSet.next());
+            resultSet.close();
+        }
+        writer.join();
+    }
+
+    @Test
+    public void testFailedBatch() {
+        // A batch that fails changes nothing and notifies nobody
+        IStorageSourceListener mockListener = createMock(IStorageSourceListener.class);
+        replay(mockListener);
+        storageSource.addListener(PERSON_TABLE_NAME, mockListener);
+
+        Map<String,Object> updateValues = new HashMap<String,Object>();
+        updateValues.put(PERSON_FIRST_NAME, "Tennis");
+        Map<String,Object> noKeyValues = new HashMap<String,Object>();
+        noKeyValues.put(PERSON_FIRST_NAME, "Serena");
+        StorageBatch batch = new StorageBatch()
+            .updateRow(PERSON_TABLE_NAME, "111-11-1111", updateValues)
+            .deleteRow(PERSON_TABLE_NAME, "222-22-2222")
+            .insertRow(PERSON_TABLE_NAME, noKeyValues);
+        try {
+            storageSource.executeBatch(batch);
+            fail("Expected StorageException");
+        } catch (StorageException e) {
+        }
+        checkBatchNotApplied();
+
+        // A row that can't be stored after others were changed undoes them
+        Map<String,Object> badKeyValues = new HashMap<String,Object>();
+        badKeyValues.put(PERSON_SSN, 999999999);
+        batch = new StorageBatch()
+            .updateRow(PERSON_TABLE_NAME, "111-11-1111", updateValues)
+            .deleteRow(PERSON_TABLE_NAME, "222-22-2222")
+            .insertRow(PERSON_TABLE_NAME, badKeyValues);
+        try {
+            storageSource.executeBatch(batch);
+            fail("Expected ClassCastException");
+        } catch (ClassCastException e) {
+        }
+        checkBatchNotApplied();
+        verify(mockListener);
+    }
+
+    private void checkBatchNotApplied() {
+        IResultSet resultSet = storageSource.getRow(PERSON_TABLE_NAME, "111-11-1111");
+        assertTrue(resultSet.next());
+        assertEquals("John", resultSet.getString(PERSON_FIRST_NAME));
+        resultSet.close();
+        resultSet = storageSource.getRow(PERSON_TABLE_NAME, "222-22-2222");
+        assertTrue(resultSet.next());
+        resultSet.close();
+    }
 }
@@ -0,0 +1,219 @@
+/**
+*    Copyright 2011, Big Switch Networks, Inc.
+*    Originally created by David Erickson, Stanford University
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.storage.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.storage.IStorageSourceListener;
+import net.floodlightcontroller.storage.StorageNotificationDispatcher;
+import net.floodlightcontroller.storage.StorageSourceNotification;
+import net.floodlightcontroller.storage.memory.MemoryStorageSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StorageNotificationDispatcherTest {
+    protected static final String TABLE_NAME = "test";
+
+    protected MemoryStorageSource storageSource;
+
+    /**
+     * Records the notifications it gets, and waits for a latch before
+     * handling them
+     */
+    protected static class RecordingListener implements IStorageSourceListener {
+        List<String> calls = new ArrayList<String>();
+        List<Set<Object>> keys = new ArrayList<Set<Object>>();
+        CountDownLatch release = new CountDownLatch(0);
+        CountDownLatch done;
+
+        RecordingListener(int expectedCalls) {
+            done = new CountDownLatch(expectedCalls);
+        }
+
+        void record(String call, Set<Object> rowKeys) {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+            synchronized (this) {
+                calls.add(call);
+                keys.add(rowKeys);
+            }
+            done.countDown();
+        }
+
+        @Override
+        public void rowsModified(String tableName, Set<Object> rowKeys) {
+            record("modified", rowKeys);
+        }
+
+        @Override
+        public void rowsDeleted(String tableName, Set<Object> rowKeys) {
+            record("deleted", rowKeys);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        storageSource = new MemoryStorageSource();
+        storageSource.createTable(TABLE_NAME, null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        storageSource.setNotificationDelay(-1);
+    }
+
+    protected void insertRows(int first, int count) {
+        for (int i = first; i < first + count; i++) {
+            Map<String,Object> row = new HashMap<String,Object>();
+            row.put("id", i);
+            row.put("value", "row" + i);
+            storageSource.insertRow(TABLE_NAME, row);
+        }
+    }
+
+    protected Set<Object> keys(int first, int count) {
+        Set<Object> keys = new HashSet<Object>();
+        for (int i = first; i < first + count; i++)
+            keys.add(i);
+        return keys;
+    }
+
+    @Test
+    public void testCoalescing() throws Exception {
+        storageSource.setNotificationDelay(200);
+        RecordingListener listener = new RecordingListener(2);
+        storageSource.addListener(TABLE_NAME, listener);
+
+        // Rows changed within the delay are reported together.  Deleted
+        // rows are reported first, and a row that was deleted and inserted
+        // again is reported both as deleted and as modified
+        insertRows(0, 100);
+        storageSource.deleteRow(TABLE_NAME, 10);
+        storageSource.deleteRow(TABLE_NAME, 20);
+        insertRows(20, 1);
+        assertTrue(listener.calls.isEmpty());
+
+        assertTrue(listener.done.await(5, TimeUnit.SECONDS));
+        assertEquals("deleted", listener.calls.get(0));
+        Set<Object> deleted = new HashSet<Object>();
+        deleted.add(10);
+        deleted.add(20);
+        assertEquals(deleted, listener.keys.get(0));
+        assertEquals("modified", listener.calls.get(1));
+        Set<Object> modified = keys(0, 100);
+        modified.remove(10);
+        assertEquals(modified, listener.keys.get(1));
+    }
+
+    @Test
+    public void testSlowListener() throws Exception {
+        storageSource.setNotificationDelay(0);
+        RecordingListener slowListener = new RecordingListener(2);
+        slowListener.release = new CountDownLatch(1);
+        RecordingListener listener = new RecordingListener(1);
+        storageSource.addListener(TABLE_NAME, slowListener);
+        storageSource.addListener(TABLE_NAME, listener);
+
+        // Neither the writer nor the other listener wait for a slow listener
+        insertRows(0, 1);
+        assertTrue(listener.done.await(5, TimeUnit.SECONDS));
+        assertEquals(keys(0, 1), listener.keys.get(0));
+        insertRows(1, 1);
+        assertTrue(slowListener.calls.isEmpty());
+
+        // The slow listener gets its notifications in order
+        slowListener.release.countDown();
+        assertTrue(slowListener.done.await(5, TimeUnit.SECONDS));
+        assertEquals(keys(0, 1), slowListener.keys.get(0));
+        assertEquals(keys(1, 1), slowListener.keys.get(1));
+    }
+
+    @Test
+    public void testSynchronous() throws Exception {
+        RecordingListener listener = new RecordingListener(2);
+        storageSource.addListener(TABLE_NAME, listener);
+        insertRows(0, 2);
+        assertEquals(0, listener.done.getCount());
+        assertEquals(keys(1, 1), listener.keys.get(1));
+    }
+
+    /**
+     * Counts the listener queues from the flush thread, after the tasks
+     * scheduled before
+     */
+    protected static class QueueCountingDispatcher
+            extends StorageNotificationDispatcher {
+        QueueCountingDispatcher(
+                Map<String, Set<IStorageSourceListener>> listeners) {
+            super(listeners, 0);
+        }
+
+        int getQueueCount() throws Exception {
+            return flushExecutor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return listenerQueues.size();
+                }
+            }).get();
+        }
+    }
+
+    @Test
+    public void testListenerRemoved() throws Exception {
+        Map<String, Set<IStorageSourceListener>> listeners =
+                new ConcurrentHashMap<String, Set<IStorageSourceListener>>();
+        Set<IStorageSourceListener> tableListeners =
+                new CopyOnWriteArraySet<IStorageSourceListener>();
+        listeners.put(TABLE_NAME, tableListeners);
+        RecordingListener listener = new RecordingListener(1);
+        tableListeners.add(listener);
+
+        QueueCountingDispatcher dispatcher =
+                new QueueCountingDispatcher(listeners);
+        try {
+            dispatcher.dispatch(new StorageSourceNotification(TABLE_NAME,
+                    StorageSourceNotification.Action.MODIFY, keys(0, 1)));
+            assertTrue(listener.done.await(5, TimeUnit.SECONDS));
+            assertEquals(1, dispatcher.getQueueCount());
+
+            // The queue of a removed listener is dropped
+            tableListeners.remove(listener);
+            dispatcher.listenerRemoved(listener);
+            assertEquals(0, dispatcher.getQueueCount());
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
+}
@@ -41,6 +41,7 @@ import net.floodlightcontroller.storage.IStorageSourceListener;
 import net.floodlightcontroller.storage.NullValueStorageException;
 import net.floodlightcontroller.storage.OperatorPredicate;
 import net.floodlightcontroller.storage.RowOrdering;
+import net.floodlightcontroller.storage.StorageBatch;
 import net.floodlightcontroller.storage.nosql.NoSqlStorageSource;
 import net.floodlightcontroller.test.FloodlightTestCase;
 
@@ -449,6 +450,66 @@ public abstract class StorageTest extends FloodlightTestCase {
         assertEquals(count, 2);
     }
     
+    @Test
+    public void testIndexedQueries() {
+        storageSource.setColumnIndexMode(PERSON_TABLE_NAME, PERSON_AGE,
+                NoSqlStorageSource.ColumnIndexMode.RANGE_INDEXED);
+        String[] columnList = {PERSON_SSN, PERSON_LAST_NAME, PERSON_AGE};
+        
+        IPredicate predicate = new CompoundPredicate(CompoundPredicate.Operator.AND, false,
+                new OperatorPredicate(PERSON_AGE, OperatorPredicate.Operator.GT, 27),
+                new OperatorPredicate(PERSON_AGE, OperatorPredicate.Operator.LTE, 40));
+        IResultSet resultSet = storageSource.executeQuery(PERSON_TABLE_NAME, columnList,
+                predicate, new RowOrdering(PERSON_SSN));
+        Object[][] expectedResults = {
+                {"111-11-1111", "Smith", 40},
+                {"555-55-5555", "Garcia", 31},
+                {"666-66-6666", "Johnson", 35}
+        };
+        checkExpectedResults(resultSet, columnList, expectedResults);
+        
+        // An indexed column and a column that isn't indexed
+        IPredicate andPredicate = new CompoundPredicate(CompoundPredicate.Operator.AND, false,
+                new OperatorPredicate(PERSON_LAST_NAME, OperatorPredicate.Operator.EQ, "Jones"),
+                new OperatorPredicate(PERSON_FIRST_NAME, OperatorPredicate.Operator.EQ, "Lisa"));
+        resultSet = storageSource.executeQuery(PERSON_TABLE_NAME, columnList,
+                andPredicate, new RowOrdering(PERSON_SSN));
+        checkExpectedResults(resultSet, columnList,
+                new Object[][] {{"333-33-3333", "Jones", 27}});
+        
+        // Changing and deleting rows moves them in the indexes
+        Map<String,Object> updateValues = new HashMap<String,Object>();
+        updateValues.put(PERSON_LAST_NAME, "Jones");
+        updateValues.put(PERSON_AGE, 39);
+        storageSource.updateRow(PERSON_TABLE_NAME, "777-77-7777", updateValues);
+        storageSource.deleteRow(PERSON_TABLE_NAME, "555-55-5555");
+        resultSet = storageSource.executeQuery(PERSON_TABLE_NAME, columnList,
+                predicate, new RowOrdering(PERSON_SSN));
+        expectedResults = new Object[][] {
+                {"111-11-1111", "Smith", 40},
+                {"666-66-6666", "Johnson", 35},
+                {"777-77-7777", "Jones", 39}
+        };
+        checkExpectedResults(resultSet, columnList, expectedResults);
+        
+        IPredicate orPredicate = new CompoundPredicate(CompoundPredicate.Operator.OR, false,
+                new OperatorPredicate(PERSON_LAST_NAME, OperatorPredicate.Operator.EQ, "Jones"),
+                new OperatorPredicate(PERSON_AGE, OperatorPredicate.Operator.LT, 20));
+        resultSet = storageSource.executeQuery(PERSON_TABLE_NAME, columnList,
+                orPredicate, new RowOrdering(PERSON_SSN));
+        expectedResults = new Object[][] {
+                {"333-33-3333", "Jones", 27},
+                {"444-44-4444", "Jones", 14},
+                {"777-77-7777", "Jones", 39}
+        };
+        checkExpectedResults(resultSet, columnList, expectedResults);
+        
+        resultSet = storageSource.executeQuery(PERSON_TABLE_NAME, columnList,
+                new OperatorPredicate(PERSON_LAST_NAME, OperatorPredicate.Operator.EQ, "Borg"),
+                null);
+        checkExpectedResults(resultSet, columnList, new Object[0][]);
+    }
+    
     @Test
     public void testInsertNotification() {
         // Set up the listener and record the expected notification
@@ -508,6 +569,72 @@ public abstract class StorageTest extends FloodlightTestCase {
         verify(mockListener);
     }
     
+    @Test
+    public void testBatch() {
+        // The listener is notified once per action for the whole batch
+        IStorageSourceListener mockListener = createNiceMock(IStorageSourceListener.class);
+        Set<Object> modifiedKeys = new HashSet<Object>();
+        modifiedKeys.add("999-99-9999");
+        modifiedKeys.add("111-11-1111");
+        mockListener.rowsModified(PERSON_TABLE_NAME, modifiedKeys);
+        Set<Object> deletedKeys = new HashSet<Object>();
+        deletedKeys.add("222-22-2222");
+        deletedKeys.add("333-33-3333");
+        mockListener.rowsDeleted(PERSON_TABLE_NAME, deletedKeys);
+        replay(mockListener);
+        storageSource.addListener(PERSON_TABLE_NAME, mockListener);
+
+        Object[] newPerson = {"999-99-9999", "Serena", "Williams", 22, true};
+        Map<String,Object> updateValues = new HashMap<String,Object>();
+        updateValues.put(PERSON_FIRST_NAME, "Tennis");
+        Set<Object> deleteKeys = new HashSet<Object>();
+        deleteKeys.add("222-22-2222");
+        deleteKeys.add("333-33-3333");
+        StorageBatch batch = new StorageBatch()
+            .insertRow(PERSON_TABLE_NAME, createPersonRowValues(newPerson))
+            .updateRow(PERSON_TABLE_NAME, "111-11-1111", updateValues)
+            .deleteRows(PERSON_TABLE_NAME, deleteKeys);
+        storageSource.executeBatch(batch);
+        verify(mockListener);
+
+        String[] columnList = {PERSON_SSN, PERSON_FIRST_NAME};
+        IResultSet resultSet = storageSource.executeQuery(PERSON_TABLE_NAME, columnList,
+                new OperatorPredicate(PERSON_SSN, OperatorPredicate.Operator.LTE, "333-33-3333"),
+                new RowOrdering(PERSON_SSN));
+        checkExpectedResults(resultSet, columnList,
+                new Object[][] {{"111-11-1111", "Tennis"}});
+        resultSet = storageSource.getRow(PERSON_TABLE_NAME, "999-99-9999");
+        checkExpectedResults(resultSet, columnList,
+                new Object[][] {{"999-99-9999", "Serena"}});
+    }
+
+    @Test
+    public void testBatchRowChangedTwice() {
+        // A row deleted and inserted again is reported both as deleted and
+        // as modified, a row modified and then deleted only as deleted
+        IStorageSourceListener mockListener = createNiceMock(IStorageSourceListener.class);
+        Set<Object> modifiedKeys = new HashSet<Object>();
+        modifiedKeys.add("111-11-1111");
+        mockListener.rowsModified(PERSON_TABLE_NAME, modifiedKeys);
+        Set<Object> deletedKeys = new HashSet<Object>();
+        deletedKeys.add("111-11-1111");
+        deletedKeys.add("222-22-2222");
+        mockListener.rowsDeleted(PERSON_TABLE_NAME, deletedKeys);
+        replay(mockListener);
+        storageSource.addListener(PERSON_TABLE_NAME, mockListener);
+
+        Object[] person = {"111-11-1111", "John", "Smith", 40, true};
+        Map<String,Object> updateValues = new HashMap<String,Object>();
+        updateValues.put(PERSON_FIRST_NAME, "Tennis");
+        StorageBatch batch = new StorageBatch()
+            .deleteRow(PERSON_TABLE_NAME, "111-11-1111")
+            .insertRow(PERSON_TABLE_NAME, createPersonRowValues(person))
+            .updateRow(PERSON_TABLE_NAME, "222-22-2222", updateValues)
+            .deleteRow(PERSON_TABLE_NAME, "222-22-2222");
+        storageSource.executeBatch(batch);
+        verify(mockListener);
+    }
+
     public void waitForFuture(Future<?> future) {
         try
         {
@@ -0,0 +1,86 @@
+/**
+*    Copyright 2012 Big Switch Networks, Inc.
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ConcurrentLongHashMapTest {
+
+    @Test
+    public void testBasicOperations() {
+        ConcurrentLongHashMap<String> map = new ConcurrentLongHashMap<String>();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(1L));
+
+        assertNull(map.put(1L, "a"));
+        assertEquals("a", map.put(1L, "b"));
+        assertEquals("b", map.putIfAbsent(1L, "c"));
+        assertEquals("b", map.get(1L));
+        assertNull(map.putIfAbsent(Long.MIN_VALUE, "min"));
+        assertNull(map.putIfAbsent(0L, "zero"));
+        assertEquals(3, map.size());
+
+        assertFalse(map.replace(1L, "x", "y"));
+        assertTrue(map.replace(1L, "b", "y"));
+        assertEquals("y", map.get(1L));
+
+        assertFalse(map.remove(1L, "b"));
+        assertTrue(map.remove(1L, "y"));
+        assertNull(map.get(1L));
+        assertEquals("zero", map.remove(0L));
+        assertEquals("min", map.get(Long.MIN_VALUE));
+        assertEquals(1, map.size());
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void testAgainstHashMap() {
+        // Small key range so that removals exercise collision chains
+        ConcurrentLongHashMap<Long> map = new ConcurrentLongHashMap<Long>(4);
+        Map<Long, Long> expected = new HashMap<Long, Long>();
+        Random r = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            long key = r.nextInt(2000);
+            if (r.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                Long value = Long.valueOf(i);
+                assertEquals(expected.put(key, value), map.put(key, value));
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Long, Long> e : expected.entrySet())
+            assertEquals(e.getValue(), map.get(e.getKey()));
+
+        long[] keys = map.keys();
+        Arrays.sort(keys);
+        assertEquals(expected.size(), keys.length);
+        for (long k : keys)
+            assertTrue(expected.containsKey(k));
+        assertEquals(expected.size(), map.values().size());
+    }
+}
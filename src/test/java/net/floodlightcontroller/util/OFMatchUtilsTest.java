@@ -0,0 +1,89 @@
+/**
+*    Copyright 2012 Big Switch Networks, Inc.
+*
+*    Licensed under the Apache License, Version 2.0 (the "License"); you may
+*    not use this file except in compliance with the License. You may obtain
+*    a copy of the License at
+*
+*         http://www.apache.org/licenses/LICENSE-2.0
+*
+*    Unless required by applicable law or agreed to in writing, software
+*    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+*    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+*    License for the specific language governing permissions and limitations
+*    under the License.
+**/
+
+package net.floodlightcontroller.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.openflow.protocol.OFMatch;
+
+public class OFMatchUtilsTest {
+
+    protected OFMatch match(String s) {
+        OFMatch match = new OFMatch();
+        match.fromString(s);
+        return match;
+    }
+
+    @Test
+    public void testWildcardedFields() {
+        OFMatch configured = match("dl_dst=00:20:30:40:50:60");
+        OFMatch reported = configured.clone();
+        reported.setInputPort((short) 3);
+        reported.setDataLayerVirtualLan((short) 0);
+        reported.setNetworkSource(0x0a000001);
+        reported.setTransportDestination((short) 80);
+        assertFalse(configured.equals(reported));
+        assertEquals(OFMatchUtils.normalize(configured),
+                     OFMatchUtils.normalize(reported));
+        // the original is left alone
+        assertEquals((short) 3, reported.getInputPort());
+
+        reported.setDataLayerDestination("00:20:30:40:50:61");
+        assertFalse(OFMatchUtils.normalize(configured).equals(
+                    OFMatchUtils.normalize(reported)));
+    }
+
+    @Test
+    public void testPrefixes() {
+        OFMatch configured = match("dl_type=0x800,nw_dst=10.0.0.0/8");
+        OFMatch reported = configured.clone();
+        reported.setNetworkDestination(0x0a010203);
+        assertEquals(OFMatchUtils.normalize(configured),
+                     OFMatchUtils.normalize(reported));
+
+        // any wildcard count of 32 or more matches every address
+        OFMatch all = match("dl_type=0x800");
+        OFMatch all63 = all.clone();
+        all63.setWildcards(all.getWildcards() | OFMatch.OFPFW_NW_SRC_MASK);
+        assertEquals(OFMatchUtils.normalize(all),
+                     OFMatchUtils.normalize(all63));
+    }
+
+    @Test
+    public void testPrerequisites() {
+        // network fields don't apply without an IP or ARP type
+        assertEquals(OFMatchUtils.normalize(match("dl_dst=00:00:00:00:00:01")),
+                     OFMatchUtils.normalize(
+                         match("dl_dst=00:00:00:00:00:01,nw_dst=10.0.0.1")));
+        // ports don't apply without TCP, UDP or ICMP
+        assertEquals(OFMatchUtils.normalize(
+                         match("dl_type=0x800,nw_proto=89")),
+                     OFMatchUtils.normalize(
+                         match("dl_type=0x800,nw_proto=89,tp_dst=80")));
+        // but they do with TCP
+        assertFalse(OFMatchUtils.normalize(
+                        match("dl_type=0x800,nw_proto=6")).equals(
+                    OFMatchUtils.normalize(
+                        match("dl_type=0x800,nw_proto=6,tp_dst=80"))));
+        // ARP has no ToS
+        assertEquals(OFMatchUtils.normalize(
+                         match("dl_type=0x806,nw_dst=10.0.0.1")),
+                     OFMatchUtils.normalize(
+                         match("dl_type=0x806,nw_dst=10.0.0.1,nw_tos=4")));
+    }
+}
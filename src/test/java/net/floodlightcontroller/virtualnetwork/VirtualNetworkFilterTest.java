@@ -3,6 +3,7 @@ package net.floodlightcontroller.virtualnetwork;
 import static org.easymock.EasyMock.*;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.easymock.EasyMock;
 import org.junit.Before;
@@ -321,9 +322,65 @@ public class VirtualNetworkFilterTest extends FloodlightTestCase {
         
     }
     
+    @Test
+    public void testMembershipIndex() {
+        // keep the background rebuild from running during the test
+        vns.indexUpdateDelayMs = TimeUnit.HOURS.toMillis(1);
+        testAddHost();
+        vns.rebuildIndex();
+        VirtualNetworkIndex idx = vns.getIndex();
+        int net1 = idx.getNetwork(mac1.toLong());
+        assertTrue(net1 != VirtualNetworkIndex.NO_NETWORK);
+        assertEquals(net1, idx.getNetwork(mac2.toLong()));
+        assertTrue(net1 != idx.getNetwork(mac4.toLong()));
+        assertTrue(idx.onSameNetwork(mac3.toLong(), mac4.toLong()));
+        assertFalse(idx.onSameNetwork(mac1.toLong(), mac4.toLong()));
+
+        // the index is rebuilt once, after the configuration changes
+        assertSame(idx, vns.getIndex());
+        vns.deleteHost(mac2, null);
+        // until then readers keep the previous index
+        assertTrue(vns.indexUpdatePending.get());
+        assertSame(idx, vns.getIndex());
+        vns.rebuildIndex();
+        assertFalse(vns.indexUpdatePending.get());
+        assertEquals(VirtualNetworkIndex.NO_NETWORK,
+                     vns.getIndex().getNetwork(mac2.toLong()));
+        assertFalse(vns.getIndex().onSameNetwork(mac1.toLong(), mac2.toLong()));
+        vns.deleteNetwork(guid3);
+        vns.addHost(mac2, guid1, hostPort2);
+        assertTrue(vns.indexUpdatePending.get());
+        vns.rebuildIndex();
+        VirtualNetworkIndex rebuilt = vns.getIndex();
+        assertFalse(vns.indexUpdatePending.get());
+        assertSame(rebuilt, vns.getIndex());
+        assertTrue(rebuilt.onSameNetwork(mac1.toLong(), mac2.toLong()));
+        assertFalse(vns.getIndex().onSameNetwork(mac3.toLong(), mac4.toLong()));
+        // an older snapshot is not changed
+        assertTrue(idx.onSameNetwork(mac1.toLong(), mac2.toLong()));
+    }
+    
+    @Test
+    public void testIndexRebuiltInBackground() throws Exception {
+        vns.indexUpdateDelayMs = 10;
+        testAddHost();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (vns.getIndex().getNetwork(mac4.toLong()) ==
+                    VirtualNetworkIndex.NO_NETWORK &&
+               System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(vns.getIndex().onSameNetwork(mac1.toLong(),
+                                                mac2.toLong()));
+        assertTrue(vns.getIndex().onSameNetwork(mac3.toLong(),
+                                                mac4.toLong()));
+    }
+    
     @Test
     public void testForwarding() {
         testAddHost();
+        // don't wait for the background rebuild
+        vns.rebuildIndex();
         // make sure mac1 can communicate with mac2
         IOFMessageListener listener = getVirtualNetworkListener();
         cntx = new FloodlightContext();
@@ -351,6 +408,8 @@ public class VirtualNetworkFilterTest extends FloodlightTestCase {
                                (Ethernet)mac1ToGwPacketIntestPacket);
         deviceService.learnEntity(((Ethernet)mac1ToGwPacketIntestPacket).getDestinationMAC().toLong(), 
         		null, IPv4.toIPv4Address(gw1), null, null);
+        // don't wait for the background rebuild
+        vns.rebuildIndex();
         Command ret = listener.receive(sw1, mac1ToGwPacketIn, cntx);
         assertTrue(ret == Command.CONTINUE);
     }